@@ -2,6 +2,7 @@ package com.bc.calvalus.ingestion;
 
 import com.bc.calvalus.commons.DateUtils;
 import org.apache.commons.cli.CommandLine;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IOUtils;
@@ -10,13 +11,17 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.text.DateFormat;
 import java.text.MessageFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -26,14 +31,20 @@ import java.util.regex.Pattern;
  * into a computed directory in the HDFS archive.
  * <pre>
  * Usage:
- *    hadoop --config ${configDir} jar ${jobJar} com.bc.calvalus.ingestion.IngestionTool ( ${sourceDir} | ${sourceFiles} ) [-producttype=${productType}] [-revision=${revision}] [-replication=${replication}] [-blocksize=${blocksize}]
+ *    hadoop --config ${configDir} jar ${jobJar} com.bc.calvalus.ingestion.IngestionTool ( ${sourceDir} | ${sourceFiles} ) [-producttype=${productType}] [-revision=${revision}] [-replication=${replication}] [-blocksize=${blocksize}] [-parallel=${parallel}]
  * </pre>
+ * With -parallel several files are uploaded concurrently, each with its own HDFS write pipeline.
+ * Each file is written to a hidden .part file in the target directory that is renamed when the copy is complete.
+ * With -verify the status of the target is looked up once per file, existing complete files are skipped,
+ * and .part files left behind by an earlier run are resumed by appending the missing bytes. Other existing
+ * targets are overwritten. A failed copy attempt is resumed the same way. Throughput is reported per file and overall.
  */
 public class IngestionTool {
 
     public static final String DEFAULT_PRODUCT_TYPE = "MER_RR__1P";
     public static final String DEFAULT_REVISION = "r03";
     //static final String DEFAULT_PATTERN = "<type>.*\.N1";
+    static final String PART_SUFFIX = ".part";
 
     public static final DateFormat YEAR_MONTH_DAY_FORMAT = DateUtils.createDateFormat("yyyy/MM/dd");
     public static final DateFormat YEAR_DAY_OF_YEAR_FORMAT = DateUtils.createDateFormat("yyyyDDD");
@@ -47,7 +58,7 @@ public class IngestionTool {
         String productType = DEFAULT_PRODUCT_TYPE;
         String revision = DEFAULT_REVISION;
         long blockSizeParameter = -1;
-
+        int parallel = 1;
 
         if (commandLine.hasOption("producttype")) {
             productType = commandLine.getOptionValue("producttype");
@@ -58,6 +69,9 @@ public class IngestionTool {
         if (commandLine.hasOption("blocksize")) {
             blockSizeParameter = Long.parseLong(commandLine.getOptionValue("blocksize"));
         }
+        if (commandLine.hasOption("parallel")) {
+            parallel = Integer.parseInt(commandLine.getOptionValue("parallel"));
+        }
 
         final String filenamePattern;
         if (commandLine.hasOption("filenamepattern")) {
@@ -106,7 +120,7 @@ public class IngestionTool {
         System.out.format("%d files to be ingested\n", ingestionFiles.size());
 
 
-        return ingest(productType, revision, blockSizeParameter, pattern, hdfs, replication, verify, ingestionFiles);
+        return ingest(productType, revision, blockSizeParameter, pattern, hdfs, replication, verify, parallel, ingestionFiles);
     }
 
     static class IngestionFile {
@@ -121,68 +135,178 @@ public class IngestionTool {
         }
     }
 
-    private static int ingest(String productType, String revision, long blockSizeParameter, Pattern pattern, FileSystem hdfs, short replication, boolean verify, List<IngestionFile> sourceFiles) throws IOException {
+    static int ingest(String productType, String revision, long blockSizeParameter, Pattern pattern, FileSystem hdfs, short replication, boolean verify, int parallel, List<IngestionFile> sourceFiles) throws IOException {
         // cache HDFS parameters for block size
         final int bufferSize = hdfs.getConf().getInt("io.file.buffer.size", 4096);
         final int checksumSize = hdfs.getConf().getInt("io.bytes.per.checksum", 512);
 
-        // loop over input files
-        for (IngestionFile sourceFile : sourceFiles) {
-            //String archivePath = getArchivePath(sourceFile, productType, revision, pattern);
-            final String archivePath = sourceFile.output;
-
-            // calculate block size to cover complete N1
-            // blocksize must be a multiple of checksum size
-            long fileSize = sourceFile.input.length();
-            long blockSize;
-            if (blockSizeParameter == -1) {
-                blockSize = ((fileSize + checksumSize - 1) / checksumSize) * checksumSize;
-                if (blockSize < MINIMUM_BLOCK_SIZE) {
-                    blockSize = MINIMUM_BLOCK_SIZE;
-                } else if (blockSize > MAXIMUM_BLOCK_SIZE) {
-                    blockSize = MAXIMUM_BLOCK_SIZE;
+        final long startTime = System.currentTimeMillis();
+        long totalBytes = 0;
+        if (parallel <= 1) {
+            // loop over input files
+            for (IngestionFile sourceFile : sourceFiles) {
+                final long blockSize = getBlockSize(sourceFile.input.length(), blockSizeParameter, checksumSize);
+                totalBytes += ingestFile(hdfs, sourceFile, blockSize, replication, verify, bufferSize);
+            }
+        } else {
+            final ExecutorService executor = Executors.newFixedThreadPool(parallel);
+            try {
+                final List<Future<Long>> uploads = new ArrayList<Future<Long>>();
+                for (final IngestionFile sourceFile : sourceFiles) {
+                    final long blockSize = getBlockSize(sourceFile.input.length(), blockSizeParameter, checksumSize);
+                    uploads.add(executor.submit(() -> ingestFile(hdfs, sourceFile, blockSize, replication, verify, bufferSize)));
                 }
-            } else {
-                blockSize = ((blockSizeParameter + checksumSize - 1) / checksumSize) * checksumSize;
+                for (Future<Long> upload : uploads) {
+                    totalBytes += upload.get();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("ingestion interrupted");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            } finally {
+                executor.shutdownNow();
             }
+        }
+        System.out.println(formatThroughput(MessageFormat.format("ingested {0} files", sourceFiles.size()),
+                                            totalBytes, System.currentTimeMillis() - startTime));
+
+        return 0;
+    }
 
-            // construct HDFS output stream
-            Path destPath = new Path(archivePath, sourceFile.input.getName());
-            // copy if either verification is off or target does not exist or target has different size
-            if (! verify || ! hdfs.exists(destPath) || hdfs.listStatus(destPath) == null || hdfs.listStatus(destPath)[0].getLen() < fileSize) {
-                int attempt = 1;
-                boolean finished = false;
-                IOException exception = null;
-                System.out.println(MessageFormat.format("archiving {0} in {1}", sourceFile, archivePath));
-                while (attempt <= 3 && !finished) {
-                    short actualReplication = attempt == 1 ? replication : 3;
-                    OutputStream out = hdfs.create(destPath, true, bufferSize, actualReplication, blockSize);
-                    FileInputStream in = new FileInputStream(sourceFile.input);
-                    try  {
-                        IOUtils.copyBytes(in, out, hdfs.getConf(), true);
-                        finished = true;
-                        if (actualReplication != replication) {
-                            hdfs.setReplication(destPath, replication);
-                        }
-                    }catch (IOException ioe){
-                        System.err.print("copying attempt " + attempt + " failed.");
-                        ioe.printStackTrace();
-                        exception = ioe;
-                    } finally {
-                        out.close();
-                        in.close();
-                    }
-                    attempt++;
+    /**
+     * calculates block size to cover complete N1,
+     * blocksize must be a multiple of checksum size
+     */
+    static long getBlockSize(long fileSize, long blockSizeParameter, int checksumSize) {
+        long blockSize;
+        if (blockSizeParameter == -1) {
+            blockSize = ((fileSize + checksumSize - 1) / checksumSize) * checksumSize;
+            if (blockSize < MINIMUM_BLOCK_SIZE) {
+                blockSize = MINIMUM_BLOCK_SIZE;
+            } else if (blockSize > MAXIMUM_BLOCK_SIZE) {
+                blockSize = MAXIMUM_BLOCK_SIZE;
+            }
+        } else {
+            blockSize = ((blockSizeParameter + checksumSize - 1) / checksumSize) * checksumSize;
+        }
+        return blockSize;
+    }
+
+    /**
+     * Copies one file with up to three attempts, resuming partial copies.
+     *
+     * @return the number of bytes transferred
+     */
+    static long ingestFile(FileSystem hdfs, IngestionFile sourceFile, long blockSize, short replication, boolean verify, int bufferSize) throws IOException {
+        final String archivePath = sourceFile.output;
+        final long fileSize = sourceFile.input.length();
+        Path destPath = new Path(archivePath, sourceFile.input.getName());
+        Path partPath = getPartPath(destPath);
+        // copy if either verification is off or target does not exist or target has different size
+        if (verify && getLength(hdfs, destPath) >= fileSize) {
+            System.out.println(MessageFormat.format("skipping {0} existing in {1}", sourceFile, archivePath));
+            return 0;
+        }
+        // only the partial copy of an earlier run is resumed, it contains nothing but a prefix of the input
+        long position = verify ? getLength(hdfs, partPath) : -1;
+        System.out.println(MessageFormat.format("archiving {0} in {1}", sourceFile, archivePath));
+        final long startTime = System.currentTimeMillis();
+        long transferred = 0;
+        int attempt = 1;
+        IOException exception = null;
+        while (attempt <= 3) {
+            short actualReplication = attempt == 1 ? replication : 3;
+            try {
+                long start = copy(hdfs, sourceFile.input, partPath, position, bufferSize, actualReplication, blockSize);
+                transferred += fileSize - start;
+                if (actualReplication != replication) {
+                    hdfs.setReplication(partPath, replication);
                 }
-                if (!finished) {
-                    throw new IOException("Failed to copy: " + sourceFile, exception);
+                if (hdfs.exists(destPath)) {
+                    hdfs.delete(destPath, false);
+                }
+                if (!hdfs.rename(partPath, destPath)) {
+                    throw new IOException("failed to rename " + partPath + " to " + destPath);
+                }
+                System.out.println(formatThroughput(MessageFormat.format("archived {0}", sourceFile),
+                                                    transferred, System.currentTimeMillis() - startTime));
+                return transferred;
+            } catch (IOException ioe) {
+                System.err.print("copying attempt " + attempt + " failed.");
+                ioe.printStackTrace();
+                exception = ioe;
+                // resume with what has arrived
+                try {
+                    position = getLength(hdfs, partPath);
+                } catch (IOException e) {
+                    position = -1;
                 }
-            } else {
-                System.out.println(MessageFormat.format("skipping {0} existing in {1}", sourceFile, archivePath));
             }
+            attempt++;
         }
+        throw new IOException("Failed to copy: " + sourceFile, exception);
+    }
 
-        return 0;
+    /**
+     * Appends the input from the position to the target, or copies it completely if the position is not
+     * positive or if the target cannot be appended to.
+     *
+     * @return the position the copy started from
+     */
+    private static long copy(FileSystem hdfs, File input, Path destPath, long position, int bufferSize, short replication, long blockSize) throws IOException {
+        FSDataOutputStream out = null;
+        long start = 0;
+        if (position > 0) {
+            try {
+                out = hdfs.append(destPath, bufferSize);
+                // HDFS reports the length of the file appended to, which may exceed the visible length after a failed write
+                start = out.getPos() > 0 ? out.getPos() : position;
+                if (start > input.length()) {
+                    out.close();
+                    out = null;
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                System.out.println(MessageFormat.format("cannot resume {0}, copying it completely: {1}", destPath, e.getMessage()));
+                out = null;
+            }
+        }
+        if (out == null) {
+            start = 0;
+            out = hdfs.create(destPath, true, bufferSize, replication, blockSize);
+        }
+        FileInputStream in = new FileInputStream(input);
+        try {
+            in.getChannel().position(start);
+            IOUtils.copyBytes(in, out, bufferSize, true);
+        } finally {
+            out.close();
+            in.close();
+        }
+        return start;
+    }
+
+    /**
+     * @return the hidden file the target is written to until the copy is complete
+     */
+    static Path getPartPath(Path destPath) {
+        return new Path(destPath.getParent(), "." + destPath.getName() + PART_SUFFIX);
+    }
+
+    private static long getLength(FileSystem hdfs, Path path) throws IOException {
+        try {
+            return hdfs.getFileStatus(path).getLen();
+        } catch (FileNotFoundException e) {
+            return -1;
+        }
+    }
+
+    private static String formatThroughput(String what, long bytes, long millis) {
+        final double megabytes = bytes / (1024.0 * 1024.0);
+        final double seconds = Math.max(millis, 1) / 1000.0;
+        return String.format("%s: %.1f MB in %.1f s, %.1f MB/s", what, megabytes, seconds, megabytes / seconds);
     }
 
     private static void collectInputFiles(String rootDir, File file, Pattern pattern, String timeElements, String timeFormat, String productType, String revision, String pathTemplate, List<IngestionFile> accu) throws IOException {
@@ -1,9 +1,17 @@
 package com.bc.calvalus.ingestion;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 import java.util.regex.Pattern;
 
 import static org.junit.Assert.*;
@@ -57,6 +65,95 @@ public class IngestionToolTest {
         assertEquals("/calvalus/eodata/MER_RR__1P/r03/2006/07/18", archivePath);
     }
 
+    @Test
+    public void testParallelIngestion() throws IOException {
+        File dir = Files.createTempDirectory("ingestion").toFile();
+        try {
+            FileSystem fs = FileSystem.getLocal(new Configuration());
+            String archivePath = new File(dir, "archive").getPath();
+            List<IngestionTool.IngestionFile> files = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                files.add(new IngestionTool.IngestionFile(createInput(dir, "input" + i, 100000 + i), archivePath));
+            }
+
+            IngestionTool.ingest(null, null, -1, null, fs, (short) 1, false, 3, files);
+
+            for (int i = 0; i < 5; i++) {
+                assertArrayEquals(Files.readAllBytes(files.get(i).input.toPath()),
+                                  Files.readAllBytes(new File(archivePath, "input" + i).toPath()));
+            }
+        } finally {
+            FileUtil.fullyDelete(dir);
+        }
+    }
+
+    @Test
+    public void testPartialCopyIsResumed() throws IOException {
+        File dir = Files.createTempDirectory("ingestion").toFile();
+        try {
+            FileSystem fs = FileSystem.getLocal(new Configuration()).getRaw();
+            File input = createInput(dir, "input", 100000);
+            File archiveDir = new File(dir, "archive");
+            archiveDir.mkdirs();
+            Files.write(new File(archiveDir, ".input.part").toPath(), Arrays.copyOf(Files.readAllBytes(input.toPath()), 60000));
+            IngestionTool.IngestionFile ingestionFile = new IngestionTool.IngestionFile(input, archiveDir.getPath());
+
+            assertEquals(40000, IngestionTool.ingestFile(fs, ingestionFile, IngestionTool.MINIMUM_BLOCK_SIZE, (short) 1, true, 4096));
+            assertArrayEquals(Files.readAllBytes(input.toPath()), Files.readAllBytes(new File(archiveDir, "input").toPath()));
+            assertFalse(new File(archiveDir, ".input.part").exists());
+
+            assertEquals(0, IngestionTool.ingestFile(fs, ingestionFile, IngestionTool.MINIMUM_BLOCK_SIZE, (short) 1, true, 4096));
+        } finally {
+            FileUtil.fullyDelete(dir);
+        }
+    }
+
+    @Test
+    public void testShorterTargetWithOtherContentIsOverwritten() throws IOException {
+        File dir = Files.createTempDirectory("ingestion").toFile();
+        try {
+            FileSystem fs = FileSystem.getLocal(new Configuration()).getRaw();
+            File input = createInput(dir, "input", 100000);
+            File archiveDir = new File(dir, "archive");
+            archiveDir.mkdirs();
+            // not a partial copy of the input, but an older file of the same name
+            Files.write(new File(archiveDir, "input").toPath(), Files.readAllBytes(createInput(dir, "other", 60000).toPath()));
+            IngestionTool.IngestionFile ingestionFile = new IngestionTool.IngestionFile(input, archiveDir.getPath());
+
+            assertEquals(100000, IngestionTool.ingestFile(fs, ingestionFile, IngestionTool.MINIMUM_BLOCK_SIZE, (short) 1, true, 4096));
+            assertArrayEquals(Files.readAllBytes(input.toPath()), Files.readAllBytes(new File(archiveDir, "input").toPath()));
+        } finally {
+            FileUtil.fullyDelete(dir);
+        }
+    }
+
+    @Test
+    public void testPartialCopyIsCopiedCompletelyWithoutAppend() throws IOException {
+        File dir = Files.createTempDirectory("ingestion").toFile();
+        try {
+            // the checksummed local file system does not support append
+            FileSystem fs = FileSystem.getLocal(new Configuration());
+            File input = createInput(dir, "input", 100000);
+            File archiveDir = new File(dir, "archive");
+            archiveDir.mkdirs();
+            Files.write(new File(archiveDir, ".input.part").toPath(), Arrays.copyOf(Files.readAllBytes(input.toPath()), 60000));
+            IngestionTool.IngestionFile ingestionFile = new IngestionTool.IngestionFile(input, archiveDir.getPath());
+
+            assertEquals(100000, IngestionTool.ingestFile(fs, ingestionFile, IngestionTool.MINIMUM_BLOCK_SIZE, (short) 1, true, 4096));
+            assertArrayEquals(Files.readAllBytes(input.toPath()), Files.readAllBytes(new File(archiveDir, "input").toPath()));
+        } finally {
+            FileUtil.fullyDelete(dir);
+        }
+    }
+
+    private static File createInput(File dir, String name, int size) throws IOException {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        File file = new File(dir, name);
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
 //    @Test
 //    public void testAcceptFilename() {
 //        IngestionTool.ProductFilenameFilter filenameFilter = new IngestionTool.ProductFilenameFilter("MER_RR__1P");
@@ -18,6 +18,7 @@ package com.bc.calvalus;
 
 import com.bc.calvalus.commons.CalvalusLogger;
 import com.bc.calvalus.inventory.hadoop.CalvalusShFileSystem;
+import com.bc.calvalus.inventory.hadoop.CalvalusShHelper;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -157,6 +158,7 @@ public class JobClientsMap {
         cacheCleaner.cancel();
         for (CacheEntry cacheEntry : jobClientsCache.values()) {
             cacheEntry.jobClient.close();
+            cacheEntry.closeHelperPool();
         }
         jobClientsCache.clear();
         fileSystemMap.clear();
@@ -173,7 +175,13 @@ public class JobClientsMap {
             fileSystemMap.values().removeIf(fileSystem -> ((fileSystem instanceof CalvalusShFileSystem)
                     && ((CalvalusShFileSystem) fileSystem).getCacheEntry().accessTime < clearIfOlder));
         }
-        jobClientsCache.values().removeIf(cacheEntry -> cacheEntry.accessTime < clearIfOlder);
+        jobClientsCache.values().removeIf(cacheEntry -> {
+            if (cacheEntry.accessTime < clearIfOlder) {
+                cacheEntry.closeHelperPool();
+                return true;
+            }
+            return false;
+        });
     }
 
     /**
@@ -184,12 +192,17 @@ public class JobClientsMap {
         if (withExternalAccessControl) {
             fileSystemMap.clear();
         }
+        for (CacheEntry cacheEntry : jobClientsCache.values()) {
+            cacheEntry.closeHelperPool();
+        }
         jobClientsCache.clear();
     }
 
     public static class CacheEntry  {
         private final JobClient jobClient;
         private long accessTime;
+        private CalvalusShHelper.Pool helperPool;
+        private boolean helperPoolClosed;
 
         public CacheEntry(JobClient jobClient) {
             this.jobClient = jobClient;
@@ -207,5 +220,26 @@ public class JobClientsMap {
         public void setAccessTime() {
             accessTime = System.currentTimeMillis();
         }
+
+        /** The calvalus-sh helpers of the user, shared by the file systems of the user */
+        public synchronized CalvalusShHelper.Pool getHelperPool() {
+            return helperPool;
+        }
+
+        public synchronized void setHelperPool(CalvalusShHelper.Pool helperPool) {
+            this.helperPool = helperPool;
+        }
+
+        /** Whether the entry has been removed from the cache and no helpers shall be started for it any more */
+        public synchronized boolean isHelperPoolClosed() {
+            return helperPoolClosed;
+        }
+
+        synchronized void closeHelperPool() {
+            helperPoolClosed = true;
+            if (helperPool != null) {
+                helperPool.close();
+            }
+        }
     }
 }
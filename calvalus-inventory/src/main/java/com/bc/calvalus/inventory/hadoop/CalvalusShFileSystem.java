@@ -49,6 +49,10 @@ import java.util.logging.Logger;
 
 /**
  * A FileSystem that uses an external program to do ls and cat as user via setuid.
+ * <p>
+ * With the system property {@code calvalus.accesscontrol.helper} stat, ls and glob are sent to long-lived
+ * helper processes of the user, see {@link CalvalusShHelper}, instead of starting one process per call.
+ * A helper that does not answer within {@code calvalus.accesscontrol.helpertimeout} milliseconds is killed.
  *
  * @author boe
  */
@@ -61,6 +65,11 @@ public class CalvalusShFileSystem extends LocalFileSystem {
     protected JobClientsMap.CacheEntry cacheEntry = null;
     protected FileSystem unixFileSystem;
     protected boolean isLoginUser;
+    protected final boolean withHelper = Boolean.getBoolean("calvalus.accesscontrol.helper");
+    private final int maxHelpers = Integer.getInteger("calvalus.accesscontrol.helpers", 2);
+    private final long helperTimeoutMillis = Long.getLong("calvalus.accesscontrol.helpertimeout", 60000L);
+    private String shCommand = CALVALUS_SH_COMMAND;
+    private CalvalusShHelper.Pool helperPool = null;
 
     public CalvalusShFileSystem() throws IOException {
         this.username = UserGroupInformation.getCurrentUser().getShortUserName();
@@ -157,9 +166,7 @@ public class CalvalusShFileSystem extends LocalFileSystem {
         setAccessTime();
         if (isLoginUser) { return unixFileSystem.listStatus(path); }
         String p = path.toUri().getPath();
-        Process proc = callUnixCommand("ls", p);
-        List<FileStatus> files = collectPathsOutput(proc);
-        handleReturnCode(proc, files, path);
+        List<FileStatus> files = listExternally("ls", p, path);
         LOG.info("dir " + path + " externally listed, " + files.size() + " entries");
         return files.toArray(new FileStatus[files.size()]);
     }
@@ -169,9 +176,7 @@ public class CalvalusShFileSystem extends LocalFileSystem {
         setAccessTime();
         if (isLoginUser) { return unixFileSystem.listStatus(path, filter); }
         String p = path.toUri().getPath();
-        Process proc = callUnixCommand("ls", p);
-        List<FileStatus> files = collectPathsOutput(proc);
-        handleReturnCode(proc, files, path);
+        List<FileStatus> files = listExternally("ls", p, path);
         for (int i = 0; i < files.size();) {
             if (! filter.accept(files.get(i).getPath())) {
                 files.remove(i);
@@ -183,6 +188,37 @@ public class CalvalusShFileSystem extends LocalFileSystem {
         return files.toArray(new FileStatus[files.size()]);
     }
 
+    /** Lists all directories with one request to the helper, filtered */
+    @Override
+    public FileStatus[] listStatus(Path[] paths, PathFilter filter) throws FileNotFoundException, IOException {
+        setAccessTime();
+        if (isLoginUser) { return unixFileSystem.listStatus(paths, filter); }
+        CalvalusShHelper.Pool pool = getHelperPool();
+        CalvalusShHelper.Response[] responses = null;
+        if (pool != null) {
+            String[] ps = new String[paths.length];
+            for (int i = 0; i < paths.length; i++) {
+                ps[i] = paths[i].toUri().getPath();
+            }
+            responses = pool.call("ls", ps);
+        }
+        if (responses == null) {
+            return super.listStatus(paths, filter);
+        }
+        List<FileStatus> files = new ArrayList<>();
+        for (int i = 0; i < paths.length; i++) {
+            List<FileStatus> dirFiles = parsePathsOutput(responses[i].lines);
+            handleReturnCode(responses[i].code, dirFiles, paths[i]);
+            for (FileStatus file : dirFiles) {
+                if (filter.accept(file.getPath())) {
+                    files.add(file);
+                }
+            }
+        }
+        LOG.info(paths.length + " dirs externally listed and filtered in one request, " + files.size() + " entries");
+        return files.toArray(new FileStatus[files.size()]);
+    }
+
     @Override
     public RemoteIterator<LocatedFileStatus> listLocatedStatus(Path f)
     throws IOException {
@@ -221,9 +257,7 @@ public class CalvalusShFileSystem extends LocalFileSystem {
             LOG.info("file " + p + " externally listed, return default");
             return new FileStatus(1, true, 1, 1, 0, 0, FsPermission.createImmutable(Short.parseShort("0755", 8)), "cvop", "cvop", path);
         }
-        Process proc = callUnixCommand("stat", p);
-        List<FileStatus> files = collectPathsOutput(proc);
-        handleReturnCode(proc, files, path);
+        List<FileStatus> files = listExternally("stat", p, path);
         if (files.size() < 1) {
             LOG.setLevel(Level.INFO);
             LOG.info("file " + p + " externally listed for user " + username + ", not found");
@@ -238,9 +272,7 @@ public class CalvalusShFileSystem extends LocalFileSystem {
         setAccessTime();
         if (isLoginUser) { return unixFileSystem.globStatus(path); }
         String p = path.toUri().getPath();
-        Process proc = callUnixCommand("glob", p);
-        List<FileStatus> files = collectPathsOutput(proc);
-        handleReturnCode(proc, files, path);
+        List<FileStatus> files = listExternally("glob", p, path);
         LOG.info("paths " + p + " externally listed, " + files.size() + " entries");
         return files.toArray(new FileStatus[files.size()]);
     }
@@ -250,9 +282,7 @@ public class CalvalusShFileSystem extends LocalFileSystem {
         setAccessTime();
         if (isLoginUser) { return unixFileSystem.globStatus(path); }
         String p = path.toUri().getPath();
-        Process proc = callUnixCommand("glob", p);
-        List<FileStatus> files = collectPathsOutput(proc);
-        handleReturnCode(proc, files, path);
+        List<FileStatus> files = listExternally("glob", p, path);
         for (int i = 0; i < files.size();) {
             if (! filter.accept(files.get(i).getPath())) {
                 files.remove(i);
@@ -393,17 +423,74 @@ public class CalvalusShFileSystem extends LocalFileSystem {
         return unixFileSystem.getConf();
     }
 
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (helperPool != null) {
+                helperPool.close();
+            }
+        }
+        super.close();
+    }
+
+    /** For tests, replaces the setuid program by a stand-in */
+    void setShCommand(String shCommand) {
+        this.shCommand = shCommand;
+    }
+
+    /** The helpers of the user, pooled in the cache entry if there is one, or null if disabled */
+    private CalvalusShHelper.Pool getHelperPool() {
+        if (!withHelper) {
+            return null;
+        }
+        if (cacheEntry != null) {
+            synchronized (cacheEntry) {
+                if (cacheEntry.isHelperPoolClosed()) {
+                    // the entry has been evicted, nobody would close a new pool
+                    return null;
+                }
+                if (cacheEntry.getHelperPool() == null) {
+                    cacheEntry.setHelperPool(new CalvalusShHelper.Pool(shCommand, username, maxHelpers, helperTimeoutMillis));
+                }
+                return cacheEntry.getHelperPool();
+            }
+        }
+        synchronized (this) {
+            if (helperPool == null) {
+                helperPool = new CalvalusShHelper.Pool(shCommand, username, maxHelpers, helperTimeoutMillis);
+            }
+            return helperPool;
+        }
+    }
+
+    /** Calls stat, ls or glob with a helper if available, else with a new process */
+    private List<FileStatus> listExternally(String cmd, String p, Path path) throws IOException {
+        CalvalusShHelper.Pool pool = getHelperPool();
+        if (pool != null) {
+            CalvalusShHelper.Response[] responses = pool.call(cmd, p);
+            if (responses != null) {
+                List<FileStatus> files = parsePathsOutput(responses[0].lines);
+                handleReturnCode(responses[0].code, files, path);
+                return files;
+            }
+        }
+        Process proc = callUnixCommand(cmd, p);
+        List<FileStatus> files = collectPathsOutput(proc);
+        handleReturnCode(proc, files, path);
+        return files;
+    }
+
 
     Process callUnixCommand(String cmd, String... path) throws IOException {
         ProcessBuilder pb = path.length == 1
-                ? new ProcessBuilder(CALVALUS_SH_COMMAND, username, cmd, path[0])
-                : new ProcessBuilder(CALVALUS_SH_COMMAND, username, cmd, path[0], path[1]);
+                ? new ProcessBuilder(shCommand, username, cmd, path[0])
+                : new ProcessBuilder(shCommand, username, cmd, path[0], path[1]);
         pb.redirectErrorStream(true);
         Process proc = pb.start();
         if (path.length == 1) {
-            LOG.info("calling " + CALVALUS_SH_COMMAND + " " + username + " " + cmd + " " + path[0]);
+            LOG.info("calling " + shCommand + " " + username + " " + cmd + " " + path[0]);
         } else {
-            LOG.info("calling " + CALVALUS_SH_COMMAND + " " + username + " " + cmd + " " + path[0] + " " + path[1]);
+            LOG.info("calling " + shCommand + " " + username + " " + cmd + " " + path[0] + " " + path[1]);
         }
         return proc;
     }
@@ -413,51 +500,66 @@ public class CalvalusShFileSystem extends LocalFileSystem {
         try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(proc.getInputStream()))) {
             String line;
             while ((line = bufferedReader.readLine()) != null) {
-                String[] token = line.split("\t");
-                boolean isDir = token[0].endsWith("/");
-                Path path = new Path("file://" + (isDir ? token[0].substring(0, token[0].length() - 1) : token[0]));
-                // /hd1/yarn/local/usercache/      4096    1507550699000   755     yarn    hadoop
-                if (token.length >= 6) {
-                    long length = Long.parseLong(token[1]);
-                    long mtime = Long.parseLong(token[2]);
-                    FsPermission perm = FsPermission.createImmutable(Short.parseShort(token[3], 8));
-                    files.add(new FileStatus(length, isDir, 1, length, mtime, mtime, perm, token[4], token[5], path));
-                } else if (token.length >= 3) {
-                    long length = Long.parseLong(token[1]);
-                    long mtime = Long.parseLong(token[2]);
-                    files.add(new FileStatus(length, isDir, 1, length, mtime, mtime, FsPermission.createImmutable(Short.parseShort("0777", 8)), "cvop", "cvop", path));
-                } else {
-                    files.add(new FileStatus(1, isDir, 1, 1, 0, path));
-                }
+                files.add(parsePathLine(line));
             }
         }
         return files;
     }
 
+    private static List<FileStatus> parsePathsOutput(List<String> lines) {
+        List<FileStatus> files = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            files.add(parsePathLine(line));
+        }
+        return files;
+    }
+
+    private static FileStatus parsePathLine(String line) {
+        String[] token = line.split("\t");
+        boolean isDir = token[0].endsWith("/");
+        Path path = new Path("file://" + (isDir ? token[0].substring(0, token[0].length() - 1) : token[0]));
+        // /hd1/yarn/local/usercache/      4096    1507550699000   755     yarn    hadoop
+        if (token.length >= 6) {
+            long length = Long.parseLong(token[1]);
+            long mtime = Long.parseLong(token[2]);
+            FsPermission perm = FsPermission.createImmutable(Short.parseShort(token[3], 8));
+            return new FileStatus(length, isDir, 1, length, mtime, mtime, perm, token[4], token[5], path);
+        } else if (token.length >= 3) {
+            long length = Long.parseLong(token[1]);
+            long mtime = Long.parseLong(token[2]);
+            return new FileStatus(length, isDir, 1, length, mtime, mtime, FsPermission.createImmutable(Short.parseShort("0777", 8)), "cvop", "cvop", path);
+        } else {
+            return new FileStatus(1, isDir, 1, 1, 0, path);
+        }
+    }
+
     private void handleReturnCode(Process proc, List<FileStatus> files, Path path) throws AccessControlException {
         try {
-            int code = proc.waitFor();
-            switch (code) {
-                case 0:
-                    LOG.fine("path " + path.toString() + " externally listed, " + files.size() + " entries");
-                    break;
-                case 2:
-                    LOG.fine("path " + path.toString() + " externally listed, access denied");
-                    throw new AccessControlException(path.toString());
-                case 3:
-                    LOG.fine("path " + path.toString() + " externally listed, not found");
-                    files.clear();
-                    break;
-                default:
-                    LOG.warning("path " + path.toString() + " externally listed, listing failed");
-                    files.clear();
-            }
+            handleReturnCode(proc.waitFor(), files, path);
         } catch (InterruptedException _e) {
             LOG.fine("path " + path.toString() + " externally listed, interrupted");
             files.clear();
         }
     }
 
+    private void handleReturnCode(int code, List<FileStatus> files, Path path) throws AccessControlException {
+        switch (code) {
+            case 0:
+                LOG.fine("path " + path.toString() + " externally listed, " + files.size() + " entries");
+                break;
+            case 2:
+                LOG.fine("path " + path.toString() + " externally listed, access denied");
+                throw new AccessControlException(path.toString());
+            case 3:
+                LOG.fine("path " + path.toString() + " externally listed, not found");
+                files.clear();
+                break;
+            default:
+                LOG.warning("path " + path.toString() + " externally listed, listing failed");
+                files.clear();
+        }
+    }
+
     private int waitForReturnCode(Process proc, Path path) throws AccessControlException {
         try {
             int code = proc.waitFor();
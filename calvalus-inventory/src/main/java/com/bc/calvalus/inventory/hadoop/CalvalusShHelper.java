@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.inventory.hadoop;
+
+import com.bc.calvalus.commons.CalvalusLogger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * A long-lived calvalus-sh process of a user that answers stat, ls and glob requests over its stdin and stdout,
+ * instead of one process per call.
+ * <p>
+ * The helper is started as {@code calvalus-sh <user> serve}, with the same setuid program as the single calls,
+ * so it runs as the user and the security boundary is the same. It first writes the line {@value #GREETING}.
+ * A request is a line {@code <command> <n>} followed by n lines with one path each. For each path the helper
+ * writes the lines the single call {@code calvalus-sh <user> <command> <path>} would write, and then a line
+ * {@code =<code>} with the exit code the single call would have. The lines of the single calls start with
+ * the absolute path, never with '='. The helper terminates when its stdin is closed.
+ * <p>
+ * The serve mode has to be provided by the installed calvalus-sh, it is not part of this repository.
+ * Without it the pool falls back to one process per call. A helper that does not answer the greeting
+ * or a request within the timeout is killed, and the call falls back as well.
+ */
+public class CalvalusShHelper implements Closeable {
+
+    static final String SERVE_COMMAND = "serve";
+    static final String GREETING = "calvalus-sh 1";
+
+    private static final Logger LOG = CalvalusLogger.getLogger();
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "calvalus-sh-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Process process;
+    private final BufferedWriter requests;
+    private final BufferedReader responses;
+    private final long timeoutMillis;
+    private volatile boolean killed = false;
+
+    private CalvalusShHelper(Process process, long timeoutMillis) {
+        this.process = process;
+        this.requests = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        this.responses = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    static CalvalusShHelper start(String shCommand, String username, long timeoutMillis) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(shCommand, username, SERVE_COMMAND);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        CalvalusShHelper helper = new CalvalusShHelper(pb.start(), timeoutMillis);
+        String greeting;
+        ScheduledFuture<?> watchdog = helper.startWatchdog();
+        try {
+            greeting = helper.responses.readLine();
+        } catch (IOException e) {
+            greeting = null;
+        } finally {
+            watchdog.cancel(false);
+        }
+        if (!GREETING.equals(greeting)) {
+            helper.close();
+            throw new IOException(shCommand + " " + username + " " + SERVE_COMMAND + " not supported, answered " + greeting
+                                  + (helper.killed ? " within " + timeoutMillis + " ms" : ""));
+        }
+        LOG.info("started " + shCommand + " " + username + " " + SERVE_COMMAND);
+        return helper;
+    }
+
+    /**
+     * Sends one request for several paths.
+     *
+     * @return one response per path
+     */
+    Response[] call(String command, String... paths) throws IOException {
+        ScheduledFuture<?> watchdog = startWatchdog();
+        try {
+            requests.write(command + " " + paths.length + "\n");
+            for (String path : paths) {
+                requests.write(path);
+                requests.write('\n');
+            }
+            requests.flush();
+            Response[] result = new Response[paths.length];
+            for (int i = 0; i < paths.length; i++) {
+                List<String> lines = new ArrayList<>();
+                String line;
+                while ((line = responses.readLine()) != null && !line.startsWith("=")) {
+                    lines.add(line);
+                }
+                if (line == null) {
+                    throw new IOException("calvalus-sh " + SERVE_COMMAND + " terminated while answering " + command + " " + paths[i]);
+                }
+                result[i] = new Response(lines, Integer.parseInt(line.substring(1)));
+            }
+            return result;
+        } catch (IOException e) {
+            if (killed) {
+                throw new IOException("calvalus-sh " + SERVE_COMMAND + " did not answer " + command + " within " + timeoutMillis + " ms", e);
+            }
+            throw e;
+        } finally {
+            watchdog.cancel(false);
+        }
+    }
+
+    /**
+     * Kills the process unless cancelled within the timeout, so that a blocked read or write returns.
+     */
+    private ScheduledFuture<?> startWatchdog() {
+        return WATCHDOG.schedule(() -> {
+            killed = true;
+            process.destroyForcibly();
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    boolean isAlive() {
+        return process.isAlive();
+    }
+
+    @Override
+    public void close() {
+        try {
+            requests.close();
+            if (!process.waitFor(1, TimeUnit.SECONDS)) {
+                process.destroy();
+            }
+        } catch (IOException | InterruptedException e) {
+            process.destroy();
+        }
+    }
+
+    static class Response {
+
+        final List<String> lines;
+        final int code;
+
+        Response(List<String> lines, int code) {
+            this.lines = lines;
+            this.code = code;
+        }
+    }
+
+    /**
+     * The helpers of a user, started on demand up to a maximum number and re-used.
+     * If the helper cannot be started, e.g. because the installed calvalus-sh does not support the serve mode,
+     * or if a call fails, {@link #call} returns null and the caller falls back to one process per call.
+     * The same applies after the pool has been closed.
+     */
+    public static class Pool implements Closeable {
+
+        private final String shCommand;
+        private final String username;
+        private final int maxHelpers;
+        private final long timeoutMillis;
+        private final Deque<CalvalusShHelper> idleHelpers = new ArrayDeque<>();
+        private int numHelpers = 0;
+        private boolean unsupported = false;
+        private boolean closed = false;
+
+        Pool(String shCommand, String username, int maxHelpers, long timeoutMillis) {
+            this.shCommand = shCommand;
+            this.username = username;
+            this.maxHelpers = Math.max(1, maxHelpers);
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        /**
+         * @return one response per path, or null if no helper is available
+         */
+        Response[] call(String command, String... paths) throws InterruptedIOException {
+            for (String path : paths) {
+                if (path.indexOf('\n') >= 0) {
+                    return null;
+                }
+            }
+            CalvalusShHelper helper = acquire();
+            if (helper == null) {
+                return null;
+            }
+            boolean healthy = false;
+            try {
+                Response[] responses = helper.call(command, paths);
+                healthy = true;
+                return responses;
+            } catch (IOException | RuntimeException e) {
+                LOG.warning("calvalus-sh " + SERVE_COMMAND + " of " + username + " failed, falling back: " + e.getMessage());
+                return null;
+            } finally {
+                release(helper, healthy);
+            }
+        }
+
+        synchronized boolean isUnsupported() {
+            return unsupported;
+        }
+
+        synchronized int getNumHelpers() {
+            return numHelpers;
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Terminates the idle helpers, and the helpers in use when they are released. No new helpers are started.
+         */
+        @Override
+        public synchronized void close() {
+            closed = true;
+            for (CalvalusShHelper helper : idleHelpers) {
+                helper.close();
+            }
+            numHelpers -= idleHelpers.size();
+            idleHelpers.clear();
+            notifyAll();
+        }
+
+        CalvalusShHelper acquire() throws InterruptedIOException {
+            synchronized (this) {
+                while (!unsupported && !closed && idleHelpers.isEmpty() && numHelpers >= maxHelpers) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("interrupted while waiting for calvalus-sh " + SERVE_COMMAND);
+                    }
+                }
+                if (unsupported || closed) {
+                    return null;
+                }
+                if (!idleHelpers.isEmpty()) {
+                    return idleHelpers.pop();
+                }
+                numHelpers++;
+            }
+            try {
+                return start(shCommand, username, timeoutMillis);
+            } catch (IOException e) {
+                LOG.warning(e.getMessage() + ", using one process per call");
+                synchronized (this) {
+                    numHelpers--;
+                    unsupported = true;
+                    notifyAll();
+                }
+                return null;
+            }
+        }
+
+        synchronized void release(CalvalusShHelper helper, boolean healthy) {
+            if (healthy && !closed) {
+                idleHelpers.push(helper);
+            } else {
+                numHelpers--;
+                helper.close();
+            }
+            notifyAll();
+        }
+    }
+}
@@ -17,19 +17,32 @@
 package com.bc.calvalus.inventory.hadoop;
 
 import com.bc.calvalus.JobClientsMap;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -39,6 +52,141 @@ import static org.junit.Assert.*;
  */
 public class CalvalusShFileSystemTest {
 
+    private File testDir;
+    private File shCommand;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("calvalus-sh").toFile();
+        shCommand = new File(testDir, "calvalus-sh-standin");
+        try (InputStream in = getClass().getResourceAsStream("calvalus-sh-standin")) {
+            Files.copy(in, shCommand.toPath());
+        }
+        assertTrue(shCommand.setExecutable(true));
+        File dir = new File(testDir, "dir");
+        assertTrue(new File(dir, "sub").mkdirs());
+        assertTrue(new File(dir, "a").createNewFile());
+        assertTrue(new File(dir, "b").createNewFile());
+        assertTrue(new File(dir, "sub/c").createNewFile());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty("calvalus.accesscontrol.helper");
+        deleteTree(testDir);
+    }
+
+    @Test
+    public void testListingWithHelper() throws Exception {
+        CalvalusShFileSystem fileSystem = createFileSystem(true);
+        try {
+            Path dir = new Path(testDir.getPath(), "dir");
+            assertEquals(3, fileSystem.listStatus(dir).length);
+            assertTrue(fileSystem.getFileStatus(new Path(dir, "sub")).isDirectory());
+            assertEquals(0, fileSystem.getFileStatus(new Path(dir, "a")).getLen());
+            assertEquals(3, fileSystem.globStatus(new Path(dir, "*")).length);
+            try {
+                fileSystem.getFileStatus(new Path(dir, "missing"));
+                fail();
+            } catch (FileNotFoundException expected) {
+            }
+        } finally {
+            fileSystem.close();
+        }
+        assertEquals(Collections.singletonList("serve"), readStarts());
+    }
+
+    @Test
+    public void testBatchedListStatus() throws Exception {
+        CalvalusShFileSystem fileSystem = createFileSystem(true);
+        try {
+            Path dir = new Path(testDir.getPath(), "dir");
+            FileStatus[] files = fileSystem.listStatus(new Path[]{dir, new Path(dir, "sub")},
+                                                       path -> !path.getName().equals("b"));
+            assertEquals(3, files.length);
+            assertEquals("a", files[0].getPath().getName());
+            assertEquals("sub", files[1].getPath().getName());
+            assertEquals("c", files[2].getPath().getName());
+        } finally {
+            fileSystem.close();
+        }
+        assertEquals(Collections.singletonList("serve"), readStarts());
+    }
+
+    @Test
+    public void testFallbackWithoutServeMode() throws Exception {
+        assertTrue(new File(testDir, "calvalus-sh-standin.unsupported").createNewFile());
+        CalvalusShFileSystem fileSystem = createFileSystem(true);
+        Path dir = new Path(testDir.getPath(), "dir");
+        assertEquals(3, fileSystem.listStatus(dir).length);
+        assertEquals(3, fileSystem.listStatus(dir).length);
+        assertEquals(Arrays.asList("serve", "ls", "ls"), readStarts());
+    }
+
+    @Test
+    public void testListingWithoutHelper() throws Exception {
+        CalvalusShFileSystem fileSystem = createFileSystem(false);
+        Path dir = new Path(testDir.getPath(), "dir");
+        assertEquals(3, fileSystem.listStatus(dir).length);
+        assertTrue(fileSystem.getFileStatus(dir).isDirectory());
+        assertEquals(Arrays.asList("ls", "stat"), readStarts());
+    }
+
+    @Test
+    public void testHelperInUseIsTerminatedAfterEviction() throws Exception {
+        CalvalusShHelper.Pool pool = new CalvalusShHelper.Pool(shCommand.getPath(), "calvalus-sh-test", 2, 10000);
+        CalvalusShHelper helper = pool.acquire();
+        assertNotNull(helper);
+        assertEquals(1, pool.getNumHelpers());
+
+        // the cache entry of the pool is evicted while the helper is checked out
+        pool.close();
+        assertTrue(helper.isAlive());
+        pool.release(helper, true);
+
+        assertFalse(helper.isAlive());
+        assertEquals(0, pool.getNumHelpers());
+        assertNull(pool.call("ls", new File(testDir, "dir").getPath()));
+        assertEquals(Collections.singletonList("serve"), readStarts());
+    }
+
+    @Test(timeout = 10000)
+    public void testHangingHelperIsKilled() throws Exception {
+        assertTrue(new File(testDir, "calvalus-sh-standin.hanging").createNewFile());
+        CalvalusShHelper.Pool pool = new CalvalusShHelper.Pool(shCommand.getPath(), "calvalus-sh-test", 2, 500);
+        CalvalusShHelper helper = pool.acquire();
+        assertNotNull(helper);
+        pool.release(helper, true);
+
+        assertNull(pool.call("ls", new File(testDir, "dir").getPath()));
+        assertFalse(helper.isAlive());
+        assertEquals(0, pool.getNumHelpers());
+        pool.close();
+    }
+
+    private CalvalusShFileSystem createFileSystem(boolean withHelper) throws Exception {
+        System.setProperty("calvalus.accesscontrol.helper", String.valueOf(withHelper));
+        // any user other than the login user
+        CalvalusShFileSystem fileSystem = new CalvalusShFileSystem("calvalus-sh-test", new LocalFileSystem());
+        fileSystem.setShCommand(shCommand.getPath());
+        fileSystem.initialize(URI.create("file:///"), new Configuration());
+        return fileSystem;
+    }
+
+    private List<String> readStarts() throws Exception {
+        return Files.readAllLines(new File(testDir, "calvalus-sh-standin.log").toPath(), StandardCharsets.UTF_8);
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
     @Test
     @Ignore
     public void testListStatus() throws Exception {
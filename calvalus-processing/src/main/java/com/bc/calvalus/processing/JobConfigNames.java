@@ -41,11 +41,23 @@ public interface JobConfigNames {
     String CALVALUS_INPUT_COLLECTION_NAME = "calvalus.input.collectionName";
     String CALVALUS_INPUT_PRODUCT_TYPE = "calvalus.input.productType";
     String CALVALUS_INPUT_TIME_INDEX = "calvalus.input.timeIndex";
+    String CALVALUS_INPUT_LOOKUP_THREADS = "calvalus.input.lookupThreads";
+    String CALVALUS_INPUT_LOOKUP_LISTING_MIN_PATHS = "calvalus.input.lookupListingMinPaths";
+    String CALVALUS_INPUT_CATALOGUE_PIPELINED = "calvalus.input.catalogue.pipelined";
+    String CALVALUS_INPUT_CATALOGUE_CONCURRENCY = "calvalus.input.catalogue.concurrency";
+    String CALVALUS_INPUT_STREAMING_RANDOM_ACCESS = "calvalus.input.streaming.randomAccess";
+    String CALVALUS_INPUT_STREAMING_READERS = "calvalus.input.streaming.readers";
+    String CALVALUS_INPUT_STREAMING_TILE_HEIGHT = "calvalus.input.streaming.tileHeight";
 
     String CALVALUS_OUTPUT_DIR = "calvalus.output.dir";
     String CALVALUS_OUTPUT_FORMAT = "calvalus.output.format";
     String CALVALUS_OUTPUT_PRODUCT_TYPE = "calvalus.output.productType";
     String CALVALUS_OUTPUT_COMPRESSION = "calvalus.output.compression";
+    String CALVALUS_OUTPUT_STREAMING_CODEC = "calvalus.output.streaming.codec";
+    String CALVALUS_OUTPUT_STREAMING_SHUFFLE = "calvalus.output.streaming.shuffle";
+    String CALVALUS_OUTPUT_STREAMING_SLICE_HEIGHT = "calvalus.output.streaming.sliceHeight";
+    String CALVALUS_OUTPUT_STREAMING_WRITER_THREADS = "calvalus.output.streaming.writerThreads";
+    String CALVALUS_OUTPUT_STREAMING_WRITER_LOOK_AHEAD = "calvalus.output.streaming.writerLookAhead";
     String CALVALUS_OUTPUT_REPLACE_NAN_VALUE = "calvalus.output.replaceNanValue";
     String CALVALUS_OUTPUT_CRS = "calvalus.output.crs";
     String CALVALUS_OUTPUT_BANDLIST = "calvalus.output.bandList";
@@ -79,12 +91,24 @@ public interface JobConfigNames {
     String CALVALUS_L3_PERIOD_DURATION = "calvalus.l3.periodDuration";
     String CALVALUS_L3_FEATURE_NAMES = "calvalus.l3.featureNames";
     String CALVALUS_L3_FORMAT_PARAMETERS = "calvalus.l3.format.parameters";
+    String CALVALUS_L3_FORMAT_READ_AHEAD_PARTS = "calvalus.l3.format.readAheadParts";
+    String CALVALUS_L3_FORMAT_READ_AHEAD_BINS = "calvalus.l3.format.readAheadBins";
     String CALVALUS_CELL_PARAMETERS = "calvalus.cell.parameters";
     String CALVALUS_L3_REDUCERS = "calvalus.l3.reducers";
     String CALVALUS_L3_COMPUTE_OUTPUTS = "calvalus.l3.computeOutputs";
+    String CALVALUS_L3_COMBINER = "calvalus.l3.combiner";
+    String CALVALUS_L3_BIN_FORMAT = "calvalus.l3.binFormat";
+    String CALVALUS_L3_HALF_FLOAT_AGGREGATORS = "calvalus.l3.halfFloatAggregators";
+    String CALVALUS_L3_PARTITIONER_BALANCE = "calvalus.l3.partitioner.balance";
+    String CALVALUS_L3_PARTITIONER_HISTOGRAM = "calvalus.l3.partitioner.histogram";
+    String CALVALUS_L3_WRITE_ROW_HISTOGRAM = "calvalus.l3.writeRowHistogram";
     String CALVALUS_MOSAIC_PARAMETERS = "calvalus.mosaic.parameters";
     String CALVALUS_MA_PARAMETERS = "calvalus.ma.parameters";
     String CALVALUS_MA_USE_INPUT_PIXEL_POS = "calvalus.ma.useInputPixelPos";
+    String CALVALUS_MA_REFERENCE_INDEX = "calvalus.ma.referenceIndex";
+    String CALVALUS_MA_RECORD_CACHE = "calvalus.ma.recordCache";
+    String CALVALUS_MA_RECORD_CACHE_DIR = "calvalus.ma.recordCacheDir";
+    String CALVALUS_MA_RECORD_CACHE_CAPACITY = "calvalus.ma.recordCacheCapacity";
     String CALVALUS_RA_PARAMETERS = "calvalus.ra.parameters";
     String CALVALUS_TA_PARAMETERS = "calvalus.ta.parameters";
     String PROCESSING_HISTORY = "processing_history";
@@ -116,6 +140,7 @@ public interface JobConfigNames {
 
     String CALVALUS_DEBUG_TILECACHE = "calvalus.debug.tileCache";
     String CALVALUS_DEBUG_FIRE = "calvalus.debug.fire";
+    String CALVALUS_STATUS_TTL = "calvalus.status.ttl";
     String CALVALUS_INPUT_SUBSETTING = "calvalus.input.subsetting";
     String CALVALUS_OUTPUT_SUBSETTING = "calvalus.output.subsetting";
     String CALVALUS_OUTPUT_DATE_ELEMENT = "calvalus.output.dateElement";
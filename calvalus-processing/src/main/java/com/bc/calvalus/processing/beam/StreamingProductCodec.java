@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.beam;
+
+import com.bc.calvalus.processing.JobConfigNames;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.esa.snap.core.datamodel.ProductData;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The slice encoding of version 2 of the streaming format.
+ * <p>
+ * Version 1 stores each slice as a {@link com.bc.calvalus.processing.hadoop.ByteArrayWritable}, deflated at
+ * best speed. Version 2 stores each slice as a {@link BytesWritable} compressed with a configurable Hadoop codec,
+ * e.g. a fast one like lz4 or snappy if the native libraries are available. Optionally the bytes are shuffled
+ * before compression, first all first bytes of the elements, then all second bytes and so on. Neighbouring
+ * floats mostly share sign, exponent and leading mantissa bits, so shuffled slices compress much better.
+ * The codec and the shuffle flag are recorded in the SequenceFile metadata.
+ */
+class StreamingProductCodec {
+
+    static final String FORMAT_VERSION = "format.version";
+    static final String SLICE_CODEC = "slice.codec";
+    static final String SLICE_SHUFFLE = "slice.shuffle";
+    static final String VERSION_2 = "2";
+
+    private final CompressionCodec codec;
+    private final boolean shuffle;
+
+    private StreamingProductCodec(CompressionCodec codec, boolean shuffle) {
+        this.codec = codec;
+        this.shuffle = shuffle;
+    }
+
+    /**
+     * @return the codec configured by {@link JobConfigNames#CALVALUS_OUTPUT_STREAMING_CODEC},
+     * or null if version 1 of the format shall be written
+     */
+    static StreamingProductCodec create(Configuration configuration) {
+        String codecName = configuration.get(JobConfigNames.CALVALUS_OUTPUT_STREAMING_CODEC);
+        if (codecName == null || codecName.isEmpty()) {
+            return null;
+        }
+        CompressionCodec codec = new CompressionCodecFactory(configuration).getCodecByName(codecName);
+        if (codec == null) {
+            throw new IllegalArgumentException("unknown compression codec " + codecName);
+        }
+        boolean shuffle = configuration.getBoolean(JobConfigNames.CALVALUS_OUTPUT_STREAMING_SHUFFLE, false);
+        return new StreamingProductCodec(codec, shuffle);
+    }
+
+    /**
+     * @return the codec of the product, or null if the product is of version 1 of the format
+     */
+    static StreamingProductCodec create(SequenceFile.Metadata metadata, Configuration configuration) {
+        Text version = metadata.get(new Text(FORMAT_VERSION));
+        if (version == null) {
+            return null;
+        }
+        if (!VERSION_2.equals(version.toString())) {
+            throw new IllegalArgumentException("unsupported streaming format version " + version);
+        }
+        String codecClassName = metadata.get(new Text(SLICE_CODEC)).toString();
+        CompressionCodec codec = new CompressionCodecFactory(configuration).getCodecByClassName(codecClassName);
+        if (codec == null) {
+            throw new IllegalArgumentException("unknown compression codec " + codecClassName);
+        }
+        boolean shuffle = Boolean.parseBoolean(metadata.get(new Text(SLICE_SHUFFLE)).toString());
+        return new StreamingProductCodec(codec, shuffle);
+    }
+
+    void addMetadata(SequenceFile.Metadata metadata) {
+        metadata.set(new Text(FORMAT_VERSION), new Text(VERSION_2));
+        metadata.set(new Text(SLICE_CODEC), new Text(codec.getClass().getName()));
+        metadata.set(new Text(SLICE_SHUFFLE), new Text(Boolean.toString(shuffle)));
+    }
+
+    Encoder createEncoder() {
+        return new Encoder();
+    }
+
+    Decoder createDecoder() {
+        return new Decoder();
+    }
+
+    /**
+     * Encodes slices, re-using its buffers and compression stream. Not thread-safe.
+     */
+    final class Encoder {
+
+        private final Compressor compressor = CodecPool.getCompressor(codec);
+        private final DataOutputBuffer compressed = new DataOutputBuffer();
+        private final CompressionOutputStream outputStream;
+        private byte[] raw = new byte[0];
+        private byte[] shuffled = new byte[0];
+
+        Encoder() {
+            try {
+                outputStream = codec.createOutputStream(compressed, compressor);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * @return the encoded slice, valid until the next call
+         */
+        BytesWritable encode(ProductData productData) throws IOException {
+            int numElems = productData.getNumElems();
+            int elemSize = productData.getElemSize();
+            int numBytes = numElems * elemSize;
+            if (raw.length < numBytes) {
+                raw = new byte[numBytes];
+            }
+            toBytes(productData.getElems(), numElems, raw);
+            byte[] bytes = raw;
+            if (shuffle && elemSize > 1) {
+                if (shuffled.length < numBytes) {
+                    shuffled = new byte[numBytes];
+                }
+                shuffle(raw, shuffled, numElems, elemSize);
+                bytes = shuffled;
+            }
+            compressed.reset();
+            outputStream.resetState();
+            outputStream.write(bytes, 0, numBytes);
+            outputStream.finish();
+            return new BytesWritable(compressed.getData(), compressed.getLength());
+        }
+
+        void close() {
+            CodecPool.returnCompressor(compressor);
+        }
+    }
+
+    /**
+     * Decodes slices, re-using its buffers and decompression stream. Not thread-safe.
+     */
+    final class Decoder {
+
+        private final Decompressor decompressor = CodecPool.getDecompressor(codec);
+        private final DataInputBuffer compressed = new DataInputBuffer();
+        private final CompressionInputStream inputStream;
+        private byte[] raw = new byte[0];
+        private byte[] unshuffled = new byte[0];
+
+        Decoder() {
+            try {
+                inputStream = codec.createInputStream(compressed, decompressor);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void decode(byte[] bytes, int offset, int length, Object samples, int numSamples) throws IOException {
+            int elemSize = getElemSize(samples);
+            int numBytes = numSamples * elemSize;
+            if (raw.length < numBytes) {
+                raw = new byte[numBytes];
+            }
+            compressed.reset(bytes, offset, length);
+            inputStream.resetState();
+            IOUtils.readFully(inputStream, raw, 0, numBytes);
+            if (inputStream.read() != -1) {
+                throw new IllegalStateException(String.format("slice has more than %d bytes", numBytes));
+            }
+            byte[] data = raw;
+            if (shuffle && elemSize > 1) {
+                if (unshuffled.length < numBytes) {
+                    unshuffled = new byte[numBytes];
+                }
+                unshuffle(raw, unshuffled, numSamples, elemSize);
+                data = unshuffled;
+            }
+            fromBytes(data, 0, samples, numSamples);
+        }
+
+        void close() {
+            CodecPool.returnDecompressor(decompressor);
+        }
+    }
+
+    static int getElemSize(Object samples) {
+        if (samples instanceof byte[]) {
+            return 1;
+        } else if (samples instanceof short[]) {
+            return 2;
+        } else if (samples instanceof int[] || samples instanceof float[]) {
+            return 4;
+        } else if (samples instanceof long[] || samples instanceof double[]) {
+            return 8;
+        }
+        throw new IllegalArgumentException("unsupported sample array " + samples.getClass().getSimpleName());
+    }
+
+    /**
+     * Converts samples into big-endian bytes, the byte order of version 1.
+     */
+    static void toBytes(Object samples, int numSamples, byte[] bytes) {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes, 0, numSamples * getElemSize(samples));
+        if (samples instanceof byte[]) {
+            byteBuffer.put((byte[]) samples, 0, numSamples);
+        } else if (samples instanceof short[]) {
+            byteBuffer.asShortBuffer().put((short[]) samples, 0, numSamples);
+        } else if (samples instanceof int[]) {
+            byteBuffer.asIntBuffer().put((int[]) samples, 0, numSamples);
+        } else if (samples instanceof float[]) {
+            byteBuffer.asFloatBuffer().put((float[]) samples, 0, numSamples);
+        } else if (samples instanceof long[]) {
+            byteBuffer.asLongBuffer().put((long[]) samples, 0, numSamples);
+        } else {
+            byteBuffer.asDoubleBuffer().put((double[]) samples, 0, numSamples);
+        }
+    }
+
+    /**
+     * Converts big-endian bytes into samples.
+     */
+    static void fromBytes(byte[] bytes, int offset, Object samples, int numSamples) {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes, offset, numSamples * getElemSize(samples)).slice();
+        if (samples instanceof byte[]) {
+            byteBuffer.get((byte[]) samples, 0, numSamples);
+        } else if (samples instanceof short[]) {
+            byteBuffer.asShortBuffer().get((short[]) samples, 0, numSamples);
+        } else if (samples instanceof int[]) {
+            byteBuffer.asIntBuffer().get((int[]) samples, 0, numSamples);
+        } else if (samples instanceof float[]) {
+            byteBuffer.asFloatBuffer().get((float[]) samples, 0, numSamples);
+        } else if (samples instanceof long[]) {
+            byteBuffer.asLongBuffer().get((long[]) samples, 0, numSamples);
+        } else {
+            byteBuffer.asDoubleBuffer().get((double[]) samples, 0, numSamples);
+        }
+    }
+
+    static void shuffle(byte[] src, byte[] dest, int numElems, int elemSize) {
+        for (int i = 0; i < numElems; i++) {
+            for (int b = 0; b < elemSize; b++) {
+                dest[b * numElems + i] = src[i * elemSize + b];
+            }
+        }
+    }
+
+    static void unshuffle(byte[] src, byte[] dest, int numElems, int elemSize) {
+        for (int b = 0; b < elemSize; b++) {
+            for (int i = 0; i < numElems; i++) {
+                dest[i * elemSize + b] = src[b * numElems + i];
+            }
+        }
+    }
+}
@@ -16,13 +16,16 @@
 
 package com.bc.calvalus.processing.beam;
 
+import com.bc.calvalus.processing.JobConfigNames;
 import com.bc.calvalus.processing.hadoop.ByteArrayWritable;
 import com.bc.ceres.core.ProgressMonitor;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.esa.snap.core.dataio.AbstractProductReader;
 import org.esa.snap.core.dataio.IllegalFileFormatException;
 import org.esa.snap.core.dataio.ProductReaderPlugIn;
@@ -32,7 +35,6 @@ import org.esa.snap.core.image.ImageManager;
 import org.esa.snap.core.image.ResolutionLevel;
 import org.esa.snap.core.image.SingleBandedOpImage;
 import org.esa.snap.core.util.ImageUtils;
-import org.esa.snap.core.util.math.MathUtils;
 import org.jdom.Document;
 
 import javax.imageio.stream.ImageInputStream;
@@ -45,7 +47,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
 
-
+/**
+ * Reads products in the streaming format, a SequenceFile with one record per band slice.
+ * <p>
+ * With {@link JobConfigNames#CALVALUS_INPUT_STREAMING_RANDOM_ACCESS} set, slices are read by a
+ * {@link StreamingProductSliceReader} that serves concurrent tile requests in parallel instead of
+ * seeking the one SequenceFile reader. The tile height can differ from the slice height of the product, it is set by
+ * {@link JobConfigNames#CALVALUS_INPUT_STREAMING_TILE_HEIGHT}.
+ */
 public class StreamingProductReader extends AbstractProductReader {
 
     private Path path;
@@ -53,6 +62,8 @@ public class StreamingProductReader extends AbstractProductReader {
     private Map<String, Long> keyIndex;
 
     private SequenceFile.Reader reader;
+    private StreamingProductCodec codec;
+    private StreamingProductSliceReader sliceReader;
     private int sliceHeight;
     private Document dom;
 
@@ -73,7 +84,13 @@ public class StreamingProductReader extends AbstractProductReader {
         FileSystem fileSystem = path.getFileSystem(configuration);
         reader = new SequenceFile.Reader(fileSystem, path, configuration);
         Product product = readHeader();
-        product.setPreferredTileSize(product.getSceneRasterWidth(), sliceHeight);
+        if (configuration.getBoolean(JobConfigNames.CALVALUS_INPUT_STREAMING_RANDOM_ACCESS, false)) {
+            int numReaders = configuration.getInt(JobConfigNames.CALVALUS_INPUT_STREAMING_READERS,
+                                                  Runtime.getRuntime().availableProcessors());
+            sliceReader = StreamingProductSliceReader.create(path, fileSystem, codec, numReaders);
+        }
+        int tileHeight = configuration.getInt(JobConfigNames.CALVALUS_INPUT_STREAMING_TILE_HEIGHT, sliceHeight);
+        product.setPreferredTileSize(product.getSceneRasterWidth(), tileHeight);
         Band[] bands = product.getBands();
         for (Band band : bands) {
             band.setSourceImage(new BandImage(band, product.getPreferredTileSize()));
@@ -95,6 +112,9 @@ public class StreamingProductReader extends AbstractProductReader {
 
     public void close() throws IOException {
         reader.close();
+        if (sliceReader != null) {
+            sliceReader.close();
+        }
         keyIndex.clear();
     }
 
@@ -103,6 +123,7 @@ public class StreamingProductReader extends AbstractProductReader {
         long startPos = reader.getPosition();
         Text sliceHeightText = metadata.get(new Text("slice.height"));
         sliceHeight = Integer.parseInt(sliceHeightText.toString());
+        codec = StreamingProductCodec.create(metadata, configuration);
 
         dom = createDOM(metadata.get(new Text("dim")));
         Product product = DimapProductHelpers.createProduct(dom, "unknown", null);
@@ -127,7 +148,7 @@ public class StreamingProductReader extends AbstractProductReader {
 
     private void readTiepoints(Product product) throws IOException {
         Text key = new Text();
-        ByteArrayWritable value = new ByteArrayWritable();
+        Writable value = createValue();
         TiePointGrid[] tiePointGrids = product.getTiePointGrids();
         for (TiePointGrid tpg : tiePointGrids) {
             String expectedKey = "tiepoint:" + tpg.getName();
@@ -135,14 +156,33 @@ public class StreamingProductReader extends AbstractProductReader {
             if (!key.toString().equals(expectedKey)) {
                 throw new IllegalStateException(String.format("key '%s' expected but got '%s'", expectedKey, key));
             }
-            byte[] byteArray = value.getArray();
             ProductData productData = ProductData.createInstance(tpg.getDataType(), (int) tpg.getNumDataElems());
+            decodeValue(value, productData);
+            tpg.setData(productData);
+        }
+    }
+
+    private Writable createValue() {
+        return codec != null ? new BytesWritable() : new ByteArrayWritable();
+    }
+
+    private void decodeValue(Writable value, ProductData productData) throws IOException {
+        if (codec != null) {
+            BytesWritable bytesWritable = (BytesWritable) value;
+            StreamingProductCodec.Decoder decoder = codec.createDecoder();
+            try {
+                decoder.decode(bytesWritable.getBytes(), 0, bytesWritable.getLength(),
+                               productData.getElems(), productData.getNumElems());
+            } finally {
+                decoder.close();
+            }
+        } else {
+            byte[] byteArray = ((ByteArrayWritable) value).getArray();
 
             InputStream inputStream = new ByteArrayInputStream(byteArray);
             ImageInputStream iis = new MemoryCacheImageInputStream(inputStream);
 
             productData.readFrom(iis);
-            tpg.setData(productData);
         }
     }
 
@@ -192,7 +232,25 @@ public class StreamingProductReader extends AbstractProductReader {
             }
 
             try {
-                computeProductData(productData, destRect.y);
+                int firstSlice = destRect.y / sliceHeight;
+                int lastSlice = (destRect.y + destRect.height - 1) / sliceHeight;
+                for (int sliceIndex = firstSlice; sliceIndex <= lastSlice; sliceIndex++) {
+                    int sliceY = sliceIndex * sliceHeight;
+                    int sliceRows = Math.min(sliceHeight, getHeight() - sliceY);
+                    if (sliceY == destRect.y && sliceRows == destRect.height) {
+                        computeProductData(productData, sliceIndex);
+                    } else {
+                        // tile and slice overlap partially, the rows are copied
+                        ProductData sliceData = ProductData.createInstance(rasterDataNode.getDataType(),
+                                                                           destRect.width * sliceRows);
+                        computeProductData(sliceData, sliceIndex);
+                        int y0 = Math.max(sliceY, destRect.y);
+                        int y1 = Math.min(sliceY + sliceRows, destRect.y + destRect.height);
+                        System.arraycopy(sliceData.getElems(), (y0 - sliceY) * destRect.width,
+                                         productData.getElems(), (y0 - destRect.y) * destRect.width,
+                                         (y1 - y0) * destRect.width);
+                    }
+                }
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -202,12 +260,15 @@ public class StreamingProductReader extends AbstractProductReader {
             }
         }
 
-        private void computeProductData(ProductData productData, int y) throws IOException {
-            int sliceIndex = MathUtils.floorInt(y / sliceHeight);
+        private void computeProductData(ProductData productData, int sliceIndex) throws IOException {
             String expectedKey = rasterDataNode.getName() + ":" + sliceIndex;
 
+            if (sliceReader != null) {
+                sliceReader.readSlice(keyIndex.get(expectedKey), expectedKey, productData.getElems(), productData.getNumElems());
+                return;
+            }
             Text key = new Text();
-            ByteArrayWritable value = new ByteArrayWritable();
+            Writable value = createValue();
             synchronized (reader) {
                 Long keyPosition = keyIndex.get(expectedKey);
                 if (keyPosition != reader.getPosition()) {
@@ -218,12 +279,7 @@ public class StreamingProductReader extends AbstractProductReader {
             if (!key.toString().equals(expectedKey)) {
                 throw new IllegalStateException(String.format("key '%s' expected but got '%s'", expectedKey, key));
             }
-            byte[] byteArray = value.getArray();
-
-            InputStream inputStream = new ByteArrayInputStream(byteArray);
-            ImageInputStream iis = new MemoryCacheImageInputStream(inputStream);
-
-            productData.readFrom(iis);
+            decodeValue(value, productData);
         }
 
     }
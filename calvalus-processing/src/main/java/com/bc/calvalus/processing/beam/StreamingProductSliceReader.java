@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.beam;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Random access to the slices of a product in the streaming format, for concurrent tile computation.
+ * <p>
+ * The records are located by the index and decoded without a {@code SequenceFile.Reader}: a local file is
+ * memory-mapped, on other file systems a pool of streams does positional reads. Each slice read borrows a
+ * decoder with its own stream, buffers and inflater, so concurrent reads do not block each other as long as
+ * there are enough decoders, and no buffer is allocated per slice. The samples are decoded directly into the
+ * primitive array of the tile. Both versions of the format are supported, see {@link StreamingProductCodec}.
+ */
+abstract class StreamingProductSliceReader implements Closeable {
+
+    // the layout of an uncompressed SequenceFile record, optionally preceded by a sync mark
+    private static final int SYNC_ESCAPE = -1;
+    private static final int SYNC_HASH_SIZE = 16;
+    private static final int MAX_RECORD_HEADER_SIZE = 4 + SYNC_HASH_SIZE + 4 + 4;
+
+    private final StreamingProductCodec codec;
+    private final int maxDecoders;
+    private final BlockingQueue<Decoder> decoders;
+    private final AtomicInteger numDecoders;
+
+    private StreamingProductSliceReader(StreamingProductCodec codec, int maxDecoders) {
+        this.codec = codec;
+        this.maxDecoders = Math.max(1, maxDecoders);
+        this.decoders = new LinkedBlockingQueue<>();
+        this.numDecoders = new AtomicInteger();
+    }
+
+    /**
+     * @param codec      the slice codec of the product, null for version 1 of the format
+     * @param numReaders the maximum number of concurrent slice reads
+     */
+    static StreamingProductSliceReader create(Path path, FileSystem fileSystem, StreamingProductCodec codec,
+                                              int numReaders) throws IOException {
+        if (fileSystem instanceof LocalFileSystem) {
+            File file = ((LocalFileSystem) fileSystem).pathToFile(path);
+            if (file.length() <= Integer.MAX_VALUE) {
+                return new Mapped(file, codec, numReaders);
+            }
+        }
+        return new Positional(path, fileSystem, codec, numReaders);
+    }
+
+    /**
+     * Reads the slice record at the given position into the samples array.
+     *
+     * @param position    the position of the record, as stored in the index
+     * @param expectedKey the key of the record
+     * @param samples     a primitive array, the data of a tile
+     * @param numSamples  the number of samples of the slice
+     */
+    void readSlice(long position, String expectedKey, Object samples, int numSamples) throws IOException {
+        Decoder decoder = acquireDecoder();
+        try {
+            decoder.readSlice(position, expectedKey, samples, numSamples);
+        } finally {
+            decoders.add(decoder);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        Decoder decoder;
+        while ((decoder = decoders.poll()) != null) {
+            decoder.close();
+        }
+    }
+
+    abstract Decoder createDecoder() throws IOException;
+
+    StreamingProductCodec.Decoder createSliceDecoder() {
+        return codec != null ? codec.createDecoder() : null;
+    }
+
+    private Decoder acquireDecoder() throws IOException {
+        Decoder decoder = decoders.poll();
+        if (decoder != null) {
+            return decoder;
+        }
+        if (numDecoders.incrementAndGet() <= maxDecoders) {
+            try {
+                return createDecoder();
+            } catch (IOException | RuntimeException e) {
+                numDecoders.decrementAndGet();
+                throw e;
+            }
+        }
+        numDecoders.decrementAndGet();
+        try {
+            return decoders.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while waiting for a slice reader");
+        }
+    }
+
+    private static final class Mapped extends StreamingProductSliceReader {
+
+        private final MappedByteBuffer buffer;
+
+        private Mapped(File file, StreamingProductCodec codec, int numReaders) throws IOException {
+            super(codec, numReaders);
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+                buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+            }
+        }
+
+        @Override
+        Decoder createDecoder() {
+            final ByteBuffer view = buffer.duplicate();
+            return new Decoder(buffer.capacity(), createSliceDecoder()) {
+                @Override
+                void readFully(long position, byte[] bytes, int numBytes) {
+                    view.position((int) position);
+                    view.get(bytes, 0, numBytes);
+                }
+            };
+        }
+    }
+
+    static final class Positional extends StreamingProductSliceReader {
+
+        private final Path path;
+        private final FileSystem fileSystem;
+        private final long length;
+
+        Positional(Path path, FileSystem fileSystem, StreamingProductCodec codec, int numReaders) throws IOException {
+            super(codec, numReaders);
+            this.path = path;
+            this.fileSystem = fileSystem;
+            this.length = fileSystem.getFileStatus(path).getLen();
+        }
+
+        @Override
+        Decoder createDecoder() throws IOException {
+            final FSDataInputStream inputStream = fileSystem.open(path);
+            return new Decoder(length, createSliceDecoder()) {
+                @Override
+                void readFully(long position, byte[] bytes, int numBytes) throws IOException {
+                    inputStream.readFully(position, bytes, 0, numBytes);
+                }
+
+                @Override
+                void close() throws IOException {
+                    super.close();
+                    inputStream.close();
+                }
+            };
+        }
+    }
+
+    private abstract static class Decoder {
+
+        private final long length;
+        private final StreamingProductCodec.Decoder sliceDecoder;
+        private final byte[] header = new byte[MAX_RECORD_HEADER_SIZE];
+        private final Inflater inflater = new Inflater();
+        private byte[] record = new byte[0];
+        private byte[] data = new byte[0];
+
+        Decoder(long length, StreamingProductCodec.Decoder sliceDecoder) {
+            this.length = length;
+            this.sliceDecoder = sliceDecoder;
+        }
+
+        abstract void readFully(long position, byte[] bytes, int numBytes) throws IOException;
+
+        void close() throws IOException {
+            inflater.end();
+            if (sliceDecoder != null) {
+                sliceDecoder.close();
+            }
+        }
+
+        void readSlice(long position, String expectedKey, Object samples, int numSamples) throws IOException {
+            int headerLength = (int) Math.min(MAX_RECORD_HEADER_SIZE, length - position);
+            readFully(position, header, headerLength);
+            int offset = readInt(header, 0) == SYNC_ESCAPE ? 4 + SYNC_HASH_SIZE : 0;
+            int recordLength = readInt(header, offset);
+            int keyLength = readInt(header, offset + 4);
+            if (record.length < recordLength) {
+                record = new byte[recordLength];
+            }
+            readFully(position + offset + 8, record, recordLength);
+
+            // the key is a Text, the value a ByteArrayWritable, that is a CompressedWritable, or in version 2 a BytesWritable
+            int keyOffset = WritableUtils.decodeVIntSize(record[0]);
+            int keyTextLength = WritableComparator.readVInt(record, 0);
+            String key = new String(record, keyOffset, keyTextLength, StandardCharsets.UTF_8);
+            if (!key.equals(expectedKey)) {
+                throw new IllegalStateException(String.format("key '%s' expected but got '%s'", expectedKey, key));
+            }
+            int compressedLength = readInt(record, keyLength);
+            if (sliceDecoder != null) {
+                sliceDecoder.decode(record, keyLength + 4, compressedLength, samples, numSamples);
+                return;
+            }
+            int elemSize = StreamingProductCodec.getElemSize(samples);
+            int dataLength = 4 + numSamples * elemSize;
+            if (data.length < dataLength) {
+                data = new byte[dataLength];
+            }
+            inflate(record, keyLength + 4, compressedLength, dataLength);
+            int arrayLength = readInt(data, 0);
+            if (arrayLength != numSamples * elemSize) {
+                throw new IllegalStateException(String.format("slice '%s' has %d bytes, expected %d",
+                                                              key, arrayLength, numSamples * elemSize));
+            }
+            StreamingProductCodec.fromBytes(data, 4, samples, numSamples);
+        }
+
+        private void inflate(byte[] compressed, int offset, int compressedLength, int dataLength) throws IOException {
+            inflater.reset();
+            inflater.setInput(compressed, offset, compressedLength);
+            int inflated = 0;
+            try {
+                while (inflated < dataLength) {
+                    int n = inflater.inflate(data, inflated, dataLength - inflated);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("slice record is truncated");
+                    }
+                    inflated += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("slice record is corrupt", e);
+            }
+        }
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24)
+               | ((bytes[offset + 1] & 0xff) << 16)
+               | ((bytes[offset + 2] & 0xff) << 8)
+               | (bytes[offset + 3] & 0xff);
+    }
+}
@@ -24,6 +24,7 @@ import com.sun.media.jai.util.SunTileCache;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.util.Progressable;
@@ -60,6 +61,10 @@ import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 
@@ -71,6 +76,7 @@ public class StreamingProductWriter extends AbstractProductWriter {
     private Configuration configuration;
     private final Progressable progressable = null; // TODO no longer needed ??, progress through pm
     private SequenceFile.Writer sequenceFileWriter;
+    private StreamingProductCodec.Encoder encoder;
     private int tileHeight;
     private static boolean tileCacheDebugging;
 
@@ -92,9 +98,14 @@ public class StreamingProductWriter extends AbstractProductWriter {
         } else {
             throw new IllegalFileFormatException("input is not of the correct type.");
         }
-        tileHeight = product.getPreferredTileSize().height;
-        sequenceFileWriter = writeHeader(product, path);
-        writeTiePointData(product, sequenceFileWriter, indexMap);
+        tileHeight = configuration.getInt(JobConfigNames.CALVALUS_OUTPUT_STREAMING_SLICE_HEIGHT,
+                                          product.getPreferredTileSize().height);
+        StreamingProductCodec codec = StreamingProductCodec.create(configuration);
+        if (codec != null) {
+            encoder = codec.createEncoder();
+        }
+        sequenceFileWriter = writeHeader(product, path, codec);
+        writeTiePointData(product);
         LOG.info(" written header");
     }
 
@@ -103,7 +114,7 @@ public class StreamingProductWriter extends AbstractProductWriter {
         int sliceIndex = sourceOffsetY / tileHeight;
         String key = band.getName() + ":" + sliceIndex;
         updateIndex(indexMap, key, sequenceFileWriter.getLength());
-        writeProductData(sequenceFileWriter, key, productData);
+        writeProductData(key, productData);
     }
 
     @Override
@@ -114,6 +125,9 @@ public class StreamingProductWriter extends AbstractProductWriter {
     @Override
     public void close() throws IOException {
         sequenceFileWriter.close();
+        if (encoder != null) {
+            encoder.close();
+        }
 
         Path indexPath = StreamingProductIndex.getIndexPath(path);
         StreamingProductIndex streamingProductIndex = new StreamingProductIndex(indexPath, configuration);
@@ -125,28 +139,50 @@ public class StreamingProductWriter extends AbstractProductWriter {
 
     }
 
+    /**
+     * Writes the product in slices of the given height,
+     * or of the height given by {@link JobConfigNames#CALVALUS_OUTPUT_STREAMING_SLICE_HEIGHT}.
+     * With {@link JobConfigNames#CALVALUS_OUTPUT_STREAMING_WRITER_THREADS} greater than 1 the slices
+     * are computed concurrently, see {@link #writeProductInSlices(Product, Object, String, int, int, int, ProgressMonitor)}.
+     */
     public static void writeProductInSlices(Configuration configuration,
                                             ProgressMonitor pm,
                                             Product product,
                                             Path path,
                                             int tileHeight) throws IOException {
-        PathConfiguration output = new PathConfiguration(path, configuration);
-        writeProductInSlices(product, output, StreamingProductPlugin.FORMAT_NAME, tileHeight, pm);
+        int sliceHeight = configuration.getInt(JobConfigNames.CALVALUS_OUTPUT_STREAMING_SLICE_HEIGHT, tileHeight);
+        // the writer derives the slice keys from the same slice height the slices are cut with
+        Configuration writerConfiguration = new Configuration(configuration);
+        writerConfiguration.setInt(JobConfigNames.CALVALUS_OUTPUT_STREAMING_SLICE_HEIGHT, sliceHeight);
+        PathConfiguration output = new PathConfiguration(path, writerConfiguration);
+        int numThreads = configuration.getInt(JobConfigNames.CALVALUS_OUTPUT_STREAMING_WRITER_THREADS, 1);
+        int lookAhead = configuration.getInt(JobConfigNames.CALVALUS_OUTPUT_STREAMING_WRITER_LOOK_AHEAD, 2 * numThreads);
+        writeProductInSlices(product, output, StreamingProductPlugin.FORMAT_NAME, sliceHeight, numThreads, lookAhead, pm);
     }
 
     public static void writeProductInSlices(Product product, Object output, String format, int tileHeight, ProgressMonitor pm) throws IOException {
+        writeProductInSlices(product, output, format, tileHeight, 1, 1, pm);
+    }
+
+    /**
+     * Writes the product in slices. With more than one thread the slices of all bands are computed by a thread pool,
+     * ahead of the slice being written, at most lookAhead slices. They are written by the calling thread in the same
+     * order as with one thread, so the output does not depend on the number of threads.
+     */
+    public static void writeProductInSlices(Product product, Object output, String format, int tileHeight,
+                                            int numThreads, int lookAhead, ProgressMonitor pm) throws IOException {
         ProductWriter productWriter = ProductIO.getProductWriter(format);
         if (productWriter == null) {
             throw new IllegalArgumentException(String.format("No product writer found for format %s.", format));
         }
         product.setProductWriter(productWriter);
         productWriter.writeProductNodes(product, output);
-        writeAllBandsInSlices(product, pm, tileHeight);
+        writeAllBandsInSlices(product, pm, tileHeight, numThreads, lookAhead);
         product.closeProductWriter();
     }
 
     // TODO move to calvalusProductIO
-    private static void writeAllBandsInSlices(Product product, ProgressMonitor pm, int tileHeight) throws IOException {
+    private static void writeAllBandsInSlices(Product product, ProgressMonitor pm, int tileHeight, int numThreads, int lookAhead) throws IOException {
         ProductWriter productWriter = product.getProductWriter();
 
         // for correct progress indication we need to collect
@@ -163,12 +199,19 @@ public class StreamingProductWriter extends AbstractProductWriter {
             int sceneHeight = product.getSceneRasterHeight();
             pm.beginTask("Writing bands of product '" + product.getName() + "'...", bandsToWrite.size() * sceneHeight);
 
+            List<Slice> slices;
             if (allBandsSameSize(bandsToWrite)) {
                 CalvalusLogger.getLogger().info("Writing bands of the same size");
-                writeSameSizedBands(product, tileHeight, sceneHeight, bandsToWrite, productWriter, pm);
+                slices = getSameSizedSlices(product, tileHeight, sceneHeight, bandsToWrite);
             } else {
                 CalvalusLogger.getLogger().info("Writing bands of different sizes");
-                writeDifferentSizedBands(product, pm, productWriter, bandsToWrite);
+                slices = getDifferentSizedSlices(product, tileHeight, bandsToWrite);
+            }
+            if (numThreads > 1) {
+                CalvalusLogger.getLogger().info(String.format("Computing slices with %d threads", numThreads));
+                writeSlicesConcurrently(slices, productWriter, numThreads, Math.max(1, lookAhead), pm);
+            } else {
+                writeSlices(slices, productWriter, pm);
             }
         }
     }
@@ -189,81 +232,129 @@ public class StreamingProductWriter extends AbstractProductWriter {
         return true;
     }
 
-    private static void writeDifferentSizedBands(Product product, ProgressMonitor pm, ProductWriter productWriter, List<Band> bandsToWrite) throws IOException {
-        try {
-
-            int x = 0;
-            int sliceIndex = 0;
-            int[] bandTileHeights = new int[bandsToWrite.size()];
-            int[] bandTileWidths = new int[bandsToWrite.size()];
-            for (int i = 0; i < bandsToWrite.size(); i++) {
-                bandTileHeights[i] = Math.min((int) product.getPreferredTileSize().getHeight(), bandsToWrite.get(i).getRasterHeight());
-                bandTileWidths[i] = Math.min(product.getSceneRasterWidth(), bandsToWrite.get(i).getRasterWidth());
+    /**
+     * @return the slices band by band
+     */
+    private static List<Slice> getDifferentSizedSlices(Product product, int tileHeight, List<Band> bandsToWrite) {
+        List<Slice> slices = new ArrayList<>();
+        int x = 0;
+        for (Band band : bandsToWrite) {
+            int h = Math.min(tileHeight, band.getRasterHeight());
+            int w = Math.min(product.getSceneRasterWidth(), band.getRasterWidth());
+            for (int y = 0; y < band.getRasterHeight(); y += h) {
+                slices.add(new Slice(band, new Rectangle(x, y, w, Math.min(h, band.getRasterHeight() - y))));
             }
+        }
+        return slices;
+    }
 
-            for (int i = 0; i < bandsToWrite.size(); i++) {
-                final Band band = bandsToWrite.get(i);
-                int h = bandTileHeights[i];
-                int w = bandTileWidths[i];
+    /**
+     * @return the slices row by row, the bands within a row
+     */
+    private static List<Slice> getSameSizedSlices(Product product, int tileHeight, int sceneHeight, List<Band> bandsToWrite) {
+        List<Slice> slices = new ArrayList<>();
+        int x = 0;
+        int w = product.getSceneRasterWidth();
+        for (int y = 0; y < sceneHeight; y += tileHeight) {
+            int h = Math.min(tileHeight, sceneHeight - y);
+            for (Band band : bandsToWrite) {
+                slices.add(new Slice(band, new Rectangle(x, y, w, h)));
+            }
+        }
+        return slices;
+    }
 
-                for (int y = 0; y < bandsToWrite.get(i).getRasterHeight(); y += bandTileHeights[i], sliceIndex++) {
-                    if (y + h > bandsToWrite.get(i).getRasterHeight()) {
-                        h = bandsToWrite.get(i).getRasterHeight() - y;
-                    }
-                    Rectangle rectangle = new Rectangle(x, y, w, h);
-                    Raster tile = band.getSourceImage().getData(rectangle);
-                    tileCacheDebugging(band, rectangle);
-                    boolean directMode = tile.getDataBuffer().getSize() == w * h;
-                    ProductData productData;
-                    if (directMode) {
-                        Object primitiveArray = ImageUtils.getPrimitiveArray(tile.getDataBuffer());
-                        productData = ProductData.createInstance(band.getDataType(), primitiveArray);
-                    } else {
-                        productData = ProductData.createInstance(band.getDataType(), w * h);
-                        tile.getDataElements(x, y, w, h, productData.getElems());
-                    }
-                    productWriter.writeBandRasterData(band, x, y, w, h, productData, ProgressMonitor.NULL);
-                    pm.worked(h);
-                }
+    private static void writeSlices(List<Slice> slices, ProductWriter productWriter, ProgressMonitor pm) throws IOException {
+        try {
+            for (Slice slice : slices) {
+                writeSlice(slice, computeSlice(slice), productWriter, pm);
             }
         } finally {
             pm.done();
         }
     }
 
-    private static void writeSameSizedBands(Product product, int tileHeight, int sceneHeight, List<Band> bandsToWrite, ProductWriter productWriter, ProgressMonitor pm) throws IOException {
+    private static void writeSlicesConcurrently(List<Slice> slices, ProductWriter productWriter,
+                                                int numThreads, int lookAhead, ProgressMonitor pm) throws IOException {
+        for (Slice slice : slices) {
+            // the source images are created lazily, not in the pool
+            slice.band.getSourceImage();
+        }
+        ExecutorService slicePool = Executors.newFixedThreadPool(numThreads);
         try {
-            int x = 0;
-            int w = product.getSceneRasterWidth();
-            int h = tileHeight;
-            int sliceIndex = 0;
-
-            for (int y = 0; y < sceneHeight; y += tileHeight, sliceIndex++) {
-                if (y + h > sceneHeight) {
-                    h = sceneHeight - y;
-                }
-                for (Band band : bandsToWrite) {
-                    Rectangle rectangle = new Rectangle(x, y, w, h);
-                    Raster tile = band.getSourceImage().getData(rectangle);
-                    tileCacheDebugging(band, rectangle);
-                    boolean directMode = tile.getDataBuffer().getSize() == w * h;
-                    ProductData productData;
-                    if (directMode) {
-                        Object primitiveArray = ImageUtils.getPrimitiveArray(tile.getDataBuffer());
-                        productData = ProductData.createInstance(band.getDataType(), primitiveArray);
-                    } else {
-                        productData = ProductData.createInstance(band.getDataType(), w * h);
-                        tile.getDataElements(x, y, w, h, productData.getElems());
+            List<Future<ProductData>> futures = new ArrayList<>(slices.size());
+            for (int i = 0; i < lookAhead && i < slices.size(); i++) {
+                futures.add(submit(slicePool, slices.get(i)));
+            }
+            for (int i = 0; i < slices.size(); i++) {
+                ProductData productData;
+                try {
+                    productData = futures.get(i).get();
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted while computing slices", e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
                     }
-                    productWriter.writeBandRasterData(band, x, y, w, h, productData, ProgressMonitor.NULL);
-                    pm.worked(h);
+                    throw new IOException(e.getCause());
+                }
+                // release the slice before the next one is computed, so at most lookAhead slices are held
+                futures.set(i, null);
+                if (i + lookAhead < slices.size()) {
+                    futures.add(submit(slicePool, slices.get(i + lookAhead)));
                 }
+                writeSlice(slices.get(i), productData, productWriter, pm);
             }
         } finally {
+            slicePool.shutdownNow();
             pm.done();
         }
     }
 
+    private static Future<ProductData> submit(ExecutorService slicePool, Slice slice) {
+        return slicePool.submit(() -> computeSlice(slice));
+    }
+
+    private static ProductData computeSlice(Slice slice) {
+        Band band = slice.band;
+        Rectangle rectangle = slice.rectangle;
+        Raster tile = band.getSourceImage().getData(rectangle);
+        tileCacheDebugging(band, rectangle);
+        int w = rectangle.width;
+        int h = rectangle.height;
+        boolean directMode = tile.getDataBuffer().getSize() == w * h;
+        ProductData productData;
+        if (directMode) {
+            Object primitiveArray = ImageUtils.getPrimitiveArray(tile.getDataBuffer());
+            productData = ProductData.createInstance(band.getDataType(), primitiveArray);
+        } else {
+            productData = ProductData.createInstance(band.getDataType(), w * h);
+            tile.getDataElements(rectangle.x, rectangle.y, w, h, productData.getElems());
+        }
+        return productData;
+    }
+
+    private static void writeSlice(Slice slice, ProductData productData, ProductWriter productWriter, ProgressMonitor pm) throws IOException {
+        Rectangle rectangle = slice.rectangle;
+        productWriter.writeBandRasterData(slice.band, rectangle.x, rectangle.y, rectangle.width, rectangle.height,
+                                          productData, ProgressMonitor.NULL);
+        pm.worked(rectangle.height);
+    }
+
+    /**
+     * A band and the rectangle of one of its slices
+     */
+    private static final class Slice {
+
+        private final Band band;
+        private final Rectangle rectangle;
+
+        private Slice(Band band, Rectangle rectangle) {
+            this.band = band;
+            this.rectangle = rectangle;
+        }
+    }
+
     private static void tileCacheDebugging(Band band, Rectangle rect) {
         if (!tileCacheDebugging) {
             return;
@@ -284,14 +375,17 @@ public class StreamingProductWriter extends AbstractProductWriter {
     }
 
 
-    private SequenceFile.Writer writeHeader(Product product, Path outputPath) throws IOException {
+    private SequenceFile.Writer writeHeader(Product product, Path outputPath, StreamingProductCodec codec) throws IOException {
         SequenceFile.Metadata metadata = createMetadata(product, tileHeight);
+        if (codec != null) {
+            codec.addMetadata(metadata);
+        }
         FileSystem fileSystem = outputPath.getFileSystem(configuration);
         return SequenceFile.createWriter(fileSystem,
                 configuration,
                 outputPath,
                 Text.class,
-                ByteArrayWritable.class,
+                codec != null ? BytesWritable.class : ByteArrayWritable.class,
                 1024 * 1024, //buffersize,
                 fileSystem.getDefaultReplication(),
                 fileSystem.getDefaultBlockSize(),
@@ -301,20 +395,24 @@ public class StreamingProductWriter extends AbstractProductWriter {
                 metadata);
     }
 
-    private static void writeTiePointData(Product product, SequenceFile.Writer writer, Map<String, Long> indexMap) throws IOException {
+    private void writeTiePointData(Product product) throws IOException {
         TiePointGrid[] tiePointGrids = product.getTiePointGrids();
         for (TiePointGrid tiePointGrid : tiePointGrids) {
             String key = "tiepoint:" + tiePointGrid.getName();
             ProductData productData = tiePointGrid.getData();
-            updateIndex(indexMap, key, writer.getLength());
-            writeProductData(writer, key, productData);
+            updateIndex(indexMap, key, sequenceFileWriter.getLength());
+            writeProductData(key, productData);
         }
     }
 
-    private static void writeProductData(SequenceFile.Writer writer, String key, ProductData productData) throws IOException {
+    private void writeProductData(String key, ProductData productData) throws IOException {
+        if (encoder != null) {
+            sequenceFileWriter.append(new Text(key), encoder.encode(productData));
+            return;
+        }
         final byte[] buffer = new byte[productData.getNumElems() * productData.getElemSize()];
         productData.writeTo(new ByteArrayBackedImageOutputStream(buffer));
-        writer.append(new Text(key), new ByteArrayWritable(buffer));
+        sequenceFileWriter.append(new Text(key), new ByteArrayWritable(buffer));
     }
 
     private static void updateIndex(Map<String, Long> indexMap, String key, long position) {
@@ -6,9 +6,15 @@ import org.esa.snap.core.datamodel.ProductData;
 
 import java.awt.*;
 import java.io.IOException;
-import java.util.SortedMap;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Stack;
-import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static com.bc.calvalus.processing.fire.format.grid.GridFormatUtils.NO_DATA;
 
@@ -17,17 +23,28 @@ public abstract class AbstractFireGridDataSource implements FireGridDataSource {
     protected int doyFirstOfMonth = -1;
     protected int doyLastOfMonth = -1;
 
-    private final SortedMap<String, Integer> bandToMinY;
-    private final SortedMap<String, ProductData> data;
+    private final Map<String, BandStrip> bandStrips;
 
     private final int cacheSize;
     private final int rasterWidth;
+    private boolean prefetch;
+    private ExecutorService prefetchExecutor;
 
     protected AbstractFireGridDataSource(int cacheSize, int rasterWidth) {
         this.cacheSize = cacheSize;
         this.rasterWidth = rasterWidth;
-        data = new TreeMap<>();
-        bandToMinY = new TreeMap<>();
+        bandStrips = new HashMap<>();
+    }
+
+    /**
+     * Off by default. The prefetch reads a band while the caller reads other bands of the same products,
+     * hence it must only be switched on for product readers that support concurrent reads.
+     * A data source with prefetch must be {@link #close() closed}.
+     *
+     * @param prefetch whether the strip below the current one is read in the background
+     */
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
     }
 
     @Override
@@ -91,38 +108,130 @@ public abstract class AbstractFireGridDataSource implements FireGridDataSource {
     }
 
     public float getFloatPixelValue(Band band, String tile, int pixelIndex) throws IOException {
-        String key = band.getName() + "_" + tile;
-        refreshCache(band, key, pixelIndex);
-        int subPixelIndex = pixelIndex % rasterWidth + ((pixelIndex / rasterWidth) % cacheSize) * rasterWidth;
-        return data.get(key).getElemFloatAt(subPixelIndex);
+        return getBandStrip(band, tile).getFloat(pixelIndex);
     }
 
     public int getIntPixelValue(Band band, String tile, int pixelIndex) throws IOException {
-        String key = band.getName() + "_" + tile;
-        refreshCache(band, key, pixelIndex);
-        int subPixelIndex = pixelIndex % rasterWidth + ((pixelIndex / rasterWidth) % cacheSize) * rasterWidth;
-        return data.get(key).getElemIntAt(subPixelIndex);
+        return getBandStrip(band, tile).getInt(pixelIndex);
+    }
+
+    /**
+     * Resolves the pixel access for a band and tile once, to be used in the pixel loops
+     * instead of {@link #getFloatPixelValue} and {@link #getIntPixelValue}.
+     */
+    public BandStrip getBandStrip(Band band, String tile) {
+        return bandStrips.computeIfAbsent(band.getName() + "_" + tile, key -> new BandStrip(band));
     }
 
-    private void refreshCache(Band band, String key, int pixelIndex) throws IOException {
-        int currentMinY;
-        if (bandToMinY.containsKey(key)) {
-            currentMinY = bandToMinY.get(key);
-        } else {
+    /**
+     * The pixels of a band in a strip of cacheSize rows of the full raster width. The strip is read when a pixel
+     * outside of it is accessed. With prefetch the strip below is read in advance into a second buffer.
+     */
+    public final class BandStrip {
+
+        private final Band band;
+        private ProductData data;
+        // the elements of data for float bands, read without conversion
+        private float[] floatData;
+        private int minY = -cacheSize;
+        private ProductData nextData;
+        private Future<?> nextRead;
+        private int nextMinY;
+
+        private BandStrip(Band band) {
+            this.band = band;
+        }
+
+        public float getFloat(int pixelIndex) throws IOException {
             int pixelIndexY = pixelIndex / rasterWidth;
-            currentMinY = pixelIndexY - pixelIndexY % cacheSize;
+            if (pixelIndexY < minY || pixelIndexY - minY >= cacheSize) {
+                readStrip(pixelIndexY - pixelIndexY % cacheSize);
+            }
+            int subPixelIndex = pixelIndex - minY * rasterWidth;
+            return floatData != null ? floatData[subPixelIndex] : data.getElemFloatAt(subPixelIndex);
+        }
+
+        public int getInt(int pixelIndex) throws IOException {
+            int pixelIndexY = pixelIndex / rasterWidth;
+            if (pixelIndexY < minY || pixelIndexY - minY >= cacheSize) {
+                readStrip(pixelIndexY - pixelIndexY % cacheSize);
+            }
+            return data.getElemIntAt(pixelIndex - minY * rasterWidth);
+        }
+
+        private void readStrip(int stripMinY) throws IOException {
+            boolean prefetched = false;
+            if (nextRead != null) {
+                try {
+                    nextRead.get();
+                    prefetched = nextMinY == stripMinY;
+                } catch (ExecutionException e) {
+                    // read again below, failing there if the error persists
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while reading " + band.getName());
+                } finally {
+                    nextRead = null;
+                }
+            }
+            if (prefetched) {
+                ProductData stripData = nextData;
+                nextData = data;
+                data = stripData;
+            } else {
+                if (data == null) {
+                    data = ProductData.createInstance(band.getDataType(), rasterWidth * cacheSize);
+                }
+                read(stripMinY, data);
+            }
+            minY = stripMinY;
+            floatData = data instanceof ProductData.Float ? (float[]) data.getElems() : null;
+            if (prefetch && stripMinY + cacheSize < band.getRasterHeight()) {
+                if (nextData == null) {
+                    nextData = ProductData.createInstance(band.getDataType(), rasterWidth * cacheSize);
+                }
+                final ProductData stripData = nextData;
+                final int nextStripMinY = stripMinY + cacheSize;
+                nextMinY = nextStripMinY;
+                nextRead = getPrefetchExecutor().submit(() -> {
+                    read(nextStripMinY, stripData);
+                    return null;
+                });
+            }
         }
 
-        int pixelIndexY = pixelIndex / rasterWidth;
-        boolean pixelIndexIsInCache = pixelIndexY >= currentMinY && pixelIndexY < currentMinY + cacheSize;
-        boolean alreadyRead = pixelIndexIsInCache && data.containsKey(key);
-        if (!alreadyRead) {
-            ProductData productData = ProductData.createInstance(band.getDataType(), band.getRasterWidth() * cacheSize);
-            band.readRasterData(0, pixelIndexY - pixelIndexY % cacheSize, rasterWidth, cacheSize, productData);
-            data.put(key, productData);
-            currentMinY = pixelIndexY - pixelIndexY % cacheSize;
-            bandToMinY.put(key, currentMinY);
+        private void read(int stripMinY, ProductData stripData) throws IOException {
+            int numRows = Math.min(cacheSize, band.getRasterHeight() - stripMinY);
+            band.readRasterData(0, stripMinY, rasterWidth, numRows, stripData);
+        }
+    }
+
+    /**
+     * Waits for pending prefetch reads and stops the prefetch thread. To be called before the products are disposed.
+     */
+    public void close() throws IOException {
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdown();
+            try {
+                prefetchExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for prefetch reads");
+            } finally {
+                prefetchExecutor = null;
+            }
+        }
+    }
+
+    private ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "fire-grid-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
+        return prefetchExecutor;
     }
 
     private boolean clearObjects(float[][] array, boolean[][] burnable, int x, int y) {
@@ -22,6 +22,9 @@ public class AvhrrFireGridDataSource extends AbstractFireGridDataSource {
     private final Product lcProduct;
     private final Band[] lcFractionBand = new Band[1+18];
     private final int tileIndex;
+    private final BandStrip pcStrip;
+    private final BandStrip clStrip;
+    private final BandStrip[] lcFractionStrips = new BandStrip[1+18];
 
     public AvhrrFireGridDataSource(Product porcProduct, Product lcProduct, Product uncProduct, int tileIndex) {
         super(1000, 7200);
@@ -33,6 +36,13 @@ public class AvhrrFireGridDataSource extends AbstractFireGridDataSource {
         for (int i=1; i<19; ++i) {
             lcFractionBand[i] = lcProduct.getBand(String.format("lc_class_%02d", i));
         }
+        pcStrip = getBandStrip(porcProduct.getBand("band_1"), "porcentage");
+        clStrip = getBandStrip(uncProduct.getBand("band_1"), "confidence");
+        for (int c = 0; c < lcFractionBand.length; ++c) {
+            if (lcFractionBand[c] != null) {
+                lcFractionStrips[c] = getBandStrip(lcFractionBand[c], lcFractionBand[c].getName());
+            }
+        }
     }
 
     public String toString() {
@@ -53,8 +63,6 @@ public class AvhrrFireGridDataSource extends AbstractFireGridDataSource {
         data.reset();
 
         AreaCalculator areaCalculator = new AreaCalculator(porcProduct.getSceneGeoCoding());
-        Band pc = porcProduct.getBand("band_1");
-        Band cl = uncProduct.getBand("band_1");
         //Band lc = lcProduct.getBand("band_1");
 
         for (int sourceY = 0; sourceY < data.height; sourceY++) {
@@ -62,12 +70,12 @@ public class AvhrrFireGridDataSource extends AbstractFireGridDataSource {
 
                 int sourcePixelIndex = getPixelIndex(x, y, sourceX, sourceY, tileIndex);
 
-                float sourcePC = getFloatPixelValue(pc, "porcentage", sourcePixelIndex);
+                float sourcePC = pcStrip.getFloat(sourcePixelIndex);
                 int targetPixelIndex = sourceY * 5 + sourceX;
                 if (isValidPixel(sourcePC)) {
                     data.burnedPixels[targetPixelIndex] = sourcePC;
                 }
-                float sourceCL = getFloatPixelValue(cl, "confidence", sourcePixelIndex) / 100.0F;
+                float sourceCL = clStrip.getFloat(sourcePixelIndex) / 100.0F;
                 data.probabilityOfBurn[targetPixelIndex] = sourceCL;
                 //int sourceLC = getIntPixelValue(lc, "landcover", sourcePixelIndex);
                 //data.lcClasses[targetPixelIndex] = sourceLC;
@@ -123,7 +131,7 @@ public class AvhrrFireGridDataSource extends AbstractFireGridDataSource {
                 for (int sourceX = 0; sourceX < 5; sourceX++) {
                     int sourcePixelIndex = getPixelIndex(x, y, sourceX, sourceY, tileIndex);
                     try {
-                        float fraction = getFloatPixelValue(lcFractionBand[c], lcFractionBand[c].getName(), sourcePixelIndex);
+                        float fraction = lcFractionStrips[c].getFloat(sourcePixelIndex);
                         if (fraction > 1.0 - EPS) {
                             fraction = 1.0f;
                         }
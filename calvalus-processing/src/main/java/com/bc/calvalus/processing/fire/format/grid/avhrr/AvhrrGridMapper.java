@@ -64,9 +64,15 @@ public class AvhrrGridMapper extends AbstractGridMapper {
         AvhrrFireGridDataSource dataSource = new AvhrrFireGridDataSource(porcProduct, lcProduct, uncProduct, tileIndex);
         dataSource.setDoyFirstOfMonth(doyFirstOfMonth);
         dataSource.setDoyLastOfMonth(doyLastOfMonth);
+        dataSource.setPrefetch(context.getConfiguration().getBoolean("calvalus.fire.prefetch", false));
 
         setDataSource(dataSource);
-        GridCells gridCells = computeGridCells(year, month, context);
+        GridCells gridCells;
+        try {
+            gridCells = computeGridCells(year, month, context);
+        } finally {
+            dataSource.close();
+        }
 
         context.write(new Text(String.format("%d-%02d-%d", year, month, tileIndex)), gridCells);
     }
@@ -34,7 +34,9 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.InputFormat;
 import org.apache.hadoop.mapreduce.InputSplit;
@@ -47,12 +49,21 @@ import org.esa.snap.core.util.StringUtils;
 import java.awt.geom.Point2D;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 /**
@@ -65,6 +76,13 @@ import java.util.logging.Logger;
 public class GeodbInputFormat extends InputFormat {
 
     private static final Logger LOG = CalvalusLogger.getLogger();
+    private static final int DEFAULT_LOOKUP_THREADS = 16;
+    /**
+     * A listing with block locations returns up to dfs.ls.limit (1000) entries per namenode call, while a path looked
+     * up on its own takes two calls. 64 paths looked up on their own cost about as much as listing a day directory of
+     * a few thousand products, whose block locations the namenode resolves from memory.
+     */
+    private static final int DEFAULT_LISTING_MIN_PATHS = 64;
 
     @Override
     public List<InputSplit> getSplits(JobContext context) throws IOException, InterruptedException {
@@ -77,32 +95,145 @@ public class GeodbInputFormat extends InputFormat {
         return splits;
     }
 
+    /**
+     * Creates a split for each path that can be found, in the order of the given paths, up to the request size limit.
+     * <p>
+     * File status and block locations are looked up by {@link JobConfigNames#CALVALUS_INPUT_LOOKUP_THREADS} threads.
+     * Paths that share a parent directory are resolved by a single directory listing if there are at least
+     * {@link JobConfigNames#CALVALUS_INPUT_LOOKUP_LISTING_MIN_PATHS} of them. With a request size limit, lookups
+     * are only submitted as far as needed to reach the limit.
+     */
     public static List<InputSplit> createInputSplits(Configuration conf, Collection<String> paths, int requestSizeLimit) throws IOException {
+        long t0 = System.currentTimeMillis();
+        int numThreads = conf.getInt(JobConfigNames.CALVALUS_INPUT_LOOKUP_THREADS, DEFAULT_LOOKUP_THREADS);
+        int listingMinPaths = conf.getInt(JobConfigNames.CALVALUS_INPUT_LOOKUP_LISTING_MIN_PATHS, DEFAULT_LISTING_MIN_PATHS);
         List<InputSplit> splits = new ArrayList<>(requestSizeLimit);
+        if (numThreads <= 1 || paths.size() <= 1) {
+            for (String stringPath : paths) {
+                final Path path = new Path(stringPath);
+                InputSplit split = createInputSplit(path.getFileSystem(conf), path);
+                if (split != null) {
+                    splits.add(split);
+                    if (requestSizeLimit > 0 && splits.size() == requestSizeLimit) {
+                        break;
+                    }
+                }
+            }
+            LOG.info(String.format("%d splits created from %d paths, lookups done in [ms]: %d",
+                                   splits.size(), paths.size(), System.currentTimeMillis() - t0));
+            return splits;
+        }
+
+        final Path[] inputPaths = new Path[paths.size()];
+        final Map<Path, List<Integer>> pathsByParent = new LinkedHashMap<>();
+        int index = 0;
         for (String stringPath : paths) {
-            final Path path = new Path(stringPath);
-            FileSystem fileSystem = path.getFileSystem(conf);
+            inputPaths[index] = new Path(stringPath);
+            pathsByParent.computeIfAbsent(inputPaths[index].getParent(), k -> new ArrayList<>()).add(index);
+            index++;
+        }
+        final InputSplit[] resolvedSplits = new InputSplit[inputPaths.length];
+        final Future<?>[] lookupOfPath = new Future<?>[inputPaths.length];
+        ExecutorService lookupPool = Executors.newFixedThreadPool(Math.min(numThreads, pathsByParent.size()));
+        try {
+            Iterator<Map.Entry<Path, List<Integer>>> directories = pathsByParent.entrySet().iterator();
+            int numSubmitted = 0;
+            for (int i = 0; i < inputPaths.length; i++) {
+                // all paths before i have been submitted, keep as many ahead as are needed for the limit
+                while (directories.hasNext()
+                       && (lookupOfPath[i] == null || requestSizeLimit == 0 || numSubmitted - i < requestSizeLimit - splits.size())) {
+                    Map.Entry<Path, List<Integer>> entry = directories.next();
+                    final Path parent = entry.getKey();
+                    final List<Integer> indexes = entry.getValue();
+                    Future<?> lookup = lookupPool.submit(() -> {
+                        resolveInputSplits(conf, parent, indexes, inputPaths, resolvedSplits, listingMinPaths);
+                        return null;
+                    });
+                    for (int j : indexes) {
+                        lookupOfPath[j] = lookup;
+                    }
+                    numSubmitted += indexes.size();
+                }
+                lookupOfPath[i].get();
+                if (resolvedSplits[i] != null) {
+                    splits.add(resolvedSplits[i]);
+                    if (requestSizeLimit > 0 && splits.size() == requestSizeLimit) {
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("lookup of input paths interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            lookupPool.shutdownNow();
+        }
+        LOG.info(String.format("%d splits created from %d paths in %d directories with %d threads, lookups done in [ms]: %d",
+                               splits.size(), paths.size(), pathsByParent.size(), numThreads, System.currentTimeMillis() - t0));
+        return splits;
+    }
+
+    private static void resolveInputSplits(Configuration conf, Path parent, List<Integer> indexes,
+                                           Path[] inputPaths, InputSplit[] resolvedSplits, int listingMinPaths) throws IOException {
+        FileSystem fileSystem = inputPaths[indexes.get(0)].getFileSystem(conf);
+        if (parent != null && indexes.size() >= listingMinPaths) {
+            Set<String> names = new HashSet<>();
+            for (int i : indexes) {
+                names.add(inputPaths[i].getName());
+            }
+            Map<String, LocatedFileStatus> listedFiles = new HashMap<>();
             try {
-                final FileStatus status = fileSystem.getFileStatus(path);
-                if (status != null) {
-                    final BlockLocation[] locations = fileSystem.getFileBlockLocations(status, 0, status.getLen());
-                    if (locations == null || locations.length == 0) {
-                        LOG.warning("cannot find hosts of input " + stringPath);
-                    } else {
-                        LOG.fine("adding input split for  " + path.toUri().getPath());
-                        splits.add(new ProductSplit(path, status.getLen(), locations[0].getHosts()));
+                // stop listing once all paths are found
+                RemoteIterator<LocatedFileStatus> iterator = fileSystem.listLocatedStatus(parent);
+                while (listedFiles.size() < names.size() && iterator.hasNext()) {
+                    LocatedFileStatus status = iterator.next();
+                    if (names.contains(status.getPath().getName())) {
+                        listedFiles.put(status.getPath().getName(), status);
                     }
-                } else {
-                    LOG.warning("cannot find input " + stringPath);
                 }
             } catch (FileNotFoundException e) {
-                LOG.warning("cannot find input " + stringPath);
+                // all paths of this directory are reported missing below
+            }
+            for (int i : indexes) {
+                LocatedFileStatus status = listedFiles.get(inputPaths[i].getName());
+                if (status != null) {
+                    resolvedSplits[i] = createInputSplit(inputPaths[i], status.getLen(), status.getBlockLocations());
+                } else {
+                    LOG.warning("cannot find input " + inputPaths[i]);
+                }
             }
-            if (requestSizeLimit > 0 && splits.size() == requestSizeLimit) {
-                break;
+        } else {
+            for (int i : indexes) {
+                resolvedSplits[i] = createInputSplit(fileSystem, inputPaths[i]);
             }
         }
-        return splits;
+    }
+
+    private static InputSplit createInputSplit(FileSystem fileSystem, Path path) throws IOException {
+        try {
+            final FileStatus status = fileSystem.getFileStatus(path);
+            if (status != null) {
+                return createInputSplit(path, status.getLen(), fileSystem.getFileBlockLocations(status, 0, status.getLen()));
+            } else {
+                LOG.warning("cannot find input " + path);
+            }
+        } catch (FileNotFoundException e) {
+            LOG.warning("cannot find input " + path);
+        }
+        return null;
+    }
+
+    private static InputSplit createInputSplit(Path path, long length, BlockLocation[] locations) throws IOException {
+        if (locations == null || locations.length == 0) {
+            LOG.warning("cannot find hosts of input " + path);
+            return null;
+        }
+        LOG.fine("adding input split for  " + path.toUri().getPath());
+        return new ProductSplit(path, length, locations[0].getHosts());
     }
 
     public static Set<String> queryGeoInventory(boolean failOnMissingDB, Configuration conf) throws IOException {
@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2018 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.hadoop;
+
+import com.bc.calvalus.commons.CalvalusLogger;
+import com.bc.calvalus.commons.DateRange;
+import com.bc.calvalus.commons.DateUtils;
+import com.jayway.jsonpath.JsonPath;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pipelined search of an OpenSearch or OData catalogue, used by the {@link PatternBasedInputFormat}.
+ * <p>
+ * Date ranges are queried in parallel. Within a date range the next page is requested as soon as the
+ * response of the current one arrives and its total results count, OpenSearch <code>totalResults</code>
+ * or OData <code>@odata.count</code>, tells that there are more pages. If the response head does not
+ * contain a count the next page is requested once the current one turns out to be complete while it is
+ * parsed. Pages are assumed to be complete except for the last one, as in the sequential search. XPath expressions
+ * that are simple absolute paths, optionally with attribute predicates and ending in an attribute or a text
+ * node, are evaluated with a streaming parser.
+ * Other XPath expressions are evaluated on a DOM, JsonPath expressions on the parsed JSON.
+ */
+class CatalogueSearch {
+
+    private static final Logger LOG = CalvalusLogger.getLogger();
+    private static final int RESPONSE_HEAD_SIZE = 16 * 1024;
+    private static final Pattern TOTAL_RESULTS = Pattern.compile("totalResults\"?\\s*[>:]\\s*(\\d+)|\"@odata\\.count\"\\s*:\\s*(\\d+)");
+
+    private final HttpClient httpClient;
+    private final String searchUrlTemplate;
+    private final String searchXPath;
+    private final String searchJPath;
+    private final String searchCredentials;
+    private final Pattern pathPattern;
+    private final String pathReplacement;
+    private final int chunkSize;
+    private final int concurrency;
+    private final StreamingPath streamingPath;
+    private final DocumentBuilderFactory docFactory;
+    private final XPathFactory xPathFactory;
+    private final AtomicInteger numQueries = new AtomicInteger();
+
+    CatalogueSearch(String searchUrlTemplate, String searchXPath, String searchJPath, String searchCredentials,
+                    Pattern pathPattern, String pathReplacement, int chunkSize, int concurrency) {
+        if (searchXPath == null && searchJPath == null) {
+            throw new IllegalArgumentException("missing searchXPath or searchJPath configuration");
+        }
+        this.searchUrlTemplate = searchUrlTemplate;
+        this.searchXPath = searchXPath;
+        this.searchJPath = searchJPath;
+        this.searchCredentials = searchCredentials;
+        this.pathPattern = pathPattern;
+        this.pathReplacement = pathReplacement;
+        this.chunkSize = chunkSize;
+        this.concurrency = Math.max(1, concurrency);
+        this.streamingPath = searchXPath != null ? StreamingPath.parse(searchXPath, PatternBasedInputFormat.ATOM_NAMESPACE_CONTEXT) : null;
+        if (searchXPath != null && streamingPath == null) {
+            LOG.info("search xpath not supported by streaming parser, using DOM: " + searchXPath);
+        }
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(2 * this.concurrency);
+        connectionManager.getParams().setMaxTotalConnections(2 * this.concurrency);
+        httpClient = new HttpClient(connectionManager);
+        docFactory = DocumentBuilderFactory.newInstance();
+        docFactory.setNamespaceAware(true);
+        docFactory.setValidating(false);
+        xPathFactory = XPathFactory.newInstance();
+    }
+
+    int getNumQueries() {
+        return numQueries.get();
+    }
+
+    /**
+     * @return the product paths of all date ranges in the order of the date ranges and of the responses,
+     * truncated to the request size limit if it is positive
+     */
+    List<String> search(Map<String, String> searchParameters, List<DateRange> dateRanges, int requestSizeLimit) throws IOException {
+        ExecutorService dateRangePool = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, dateRanges.size())));
+        ExecutorService fetchPool = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<List<String>>> results = new ArrayList<>(dateRanges.size());
+            for (DateRange dateRange : dateRanges) {
+                Map<String, String> parameters = new HashMap<>(searchParameters);
+                parameters.put("start", DateUtils.formatDate(dateRange.getStartDate()));
+                parameters.put("stop", DateUtils.formatDate(dateRange.getStopDate()));
+                parameters.put("startmillis", String.valueOf(dateRange.getStartDate().getTime()));
+                parameters.put("stopmillis", String.valueOf(dateRange.getStopDate().getTime() + 86399000));
+                results.add(dateRangePool.submit(() -> searchDateRange(parameters, fetchPool, requestSizeLimit)));
+            }
+            List<String> paths = new ArrayList<>();
+            for (Future<List<String>> result : results) {
+                for (String path : result.get()) {
+                    paths.add(path);
+                    if (requestSizeLimit > 0 && paths.size() >= requestSizeLimit) {
+                        LOG.info(String.format("query response truncated to request size limit %d", requestSizeLimit));
+                        return paths;
+                    }
+                }
+            }
+            return paths;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("catalogue search interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            dateRangePool.shutdownNow();
+            fetchPool.shutdownNow();
+        }
+    }
+
+    private List<String> searchDateRange(Map<String, String> parameters, ExecutorService fetchPool, int requestSizeLimit)
+            throws IOException, InterruptedException {
+        List<String> paths = new ArrayList<>();
+        Page page = new Page(parameters, 0, 0, fetchPool, requestSizeLimit);
+        while (true) {
+            List<String> pagePaths = page.get();
+            paths.addAll(pagePaths);
+            if (pagePaths.size() < chunkSize || (requestSizeLimit > 0 && paths.size() >= requestSizeLimit) || page.next == null) {
+                page.cancelNext();
+                return paths;
+            }
+            page = page.next;
+        }
+    }
+
+    /**
+     * A page of a date range that is fetched and parsed from the response stream in the fetch pool.
+     * The next page is requested before this one is parsed if the total results count of the response
+     * tells that there are more, else as soon as this one turns out to be complete, and only if the
+     * request size limit is not yet reached.
+     */
+    private class Page {
+
+        private final Future<List<String>> result;
+        private volatile Page next;
+
+        Page(Map<String, String> parameters, int offset, int numPathsBefore, ExecutorService fetchPool, int requestSizeLimit) {
+            boolean belowLimit = requestSizeLimit == 0 || numPathsBefore + chunkSize < requestSizeLimit;
+            result = fetchPool.submit(() -> {
+                List<String> pagePaths = new ArrayList<>(chunkSize);
+                boolean[] countKnown = new boolean[1];
+                fetch(parameters, offset, totalResults -> {
+                    countKnown[0] = totalResults >= 0;
+                    if (belowLimit && totalResults > offset + chunkSize) {
+                        next = new Page(parameters, offset + chunkSize, numPathsBefore + chunkSize, fetchPool, requestSizeLimit);
+                    }
+                }, path -> {
+                    pagePaths.add(path);
+                    if (!countKnown[0] && belowLimit && pagePaths.size() == chunkSize) {
+                        next = new Page(parameters, offset + chunkSize, numPathsBefore + chunkSize, fetchPool, requestSizeLimit);
+                    }
+                });
+                return pagePaths;
+            });
+        }
+
+        void cancelNext() {
+            if (next != null) {
+                next.result.cancel(true);
+            }
+        }
+
+        List<String> get() throws IOException, InterruptedException {
+            try {
+                return result.get();
+            } catch (ExecutionException e) {
+                cancelNext();
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @param onResponse called with the total results count of the response, or -1 if the response head does
+     *                   not contain one, when the response arrives and before it is parsed
+     */
+    private void fetch(Map<String, String> parameters, int offset, IntConsumer onResponse, Consumer<String> sink)
+            throws IOException, SAXException, XPathExpressionException, ParserConfigurationException, XMLStreamException {
+        Map<String, String> pageParameters = new HashMap<>(parameters);
+        pageParameters.put("offset", String.valueOf(offset));
+        pageParameters.put("offset1", String.valueOf(offset + 1));
+        pageParameters.put("count", String.valueOf(chunkSize));
+        String searchUrl = PatternBasedInputFormat.urlEncode(PatternBasedInputFormat.replaceSearchParameters(searchUrlTemplate, pageParameters));
+        if (offset == 0) {
+            LOG.info(searchUrl);
+        }
+        GetMethod catalogueRequest = new GetMethod(searchUrl);
+        if (searchCredentials != null) {
+            catalogueRequest.setRequestHeader("Authorization", "Basic " + Base64.getEncoder().encodeToString(searchCredentials.getBytes(StandardCharsets.UTF_8)));
+        }
+        try {
+            int statusCode = httpClient.executeMethod(catalogueRequest);
+            numQueries.incrementAndGet();
+            if (statusCode > 299) {
+                String message = catalogueRequest.getResponseBodyAsString();
+                throw new IOException("search error: " + message + " query: " + catalogueRequest.getQueryString());
+            }
+            BufferedInputStream response = new BufferedInputStream(catalogueRequest.getResponseBodyAsStream(), RESPONSE_HEAD_SIZE);
+            onResponse.accept(peekTotalResults(response));
+            parse(response, sink);
+        } finally {
+            catalogueRequest.releaseConnection();
+        }
+    }
+
+    /**
+     * Looks for an OpenSearch totalResults or OData count in the head of the response and resets the stream.
+     *
+     * @return the total results count or -1 if there is none in the head
+     */
+    static int peekTotalResults(BufferedInputStream response) throws IOException {
+        response.mark(RESPONSE_HEAD_SIZE);
+        byte[] head = new byte[RESPONSE_HEAD_SIZE];
+        int length = 0;
+        int n;
+        while (length < head.length && (n = response.read(head, length, head.length - length)) > 0) {
+            length += n;
+        }
+        response.reset();
+        Matcher matcher = TOTAL_RESULTS.matcher(new String(head, 0, length, StandardCharsets.UTF_8));
+        if (!matcher.find()) {
+            return -1;
+        }
+        return Integer.parseInt(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+    }
+
+    private void parse(InputStream response, Consumer<String> sink)
+            throws IOException, SAXException, XPathExpressionException, ParserConfigurationException, XMLStreamException {
+        if (streamingPath != null) {
+            InputStream in = new PatternBasedInputFormat.TokenReplacingStream(response,
+                                                                               "xmlns:media=".getBytes(),
+                                                                               "xmlns:resto=\"http://whereeverrestoresides\" xmlns:media=".getBytes());
+            streamingPath.evaluate(in, path -> sink.accept(replacePath(path)));
+        } else if (searchXPath != null) {
+            NodeList pathNodes = PatternBasedInputFormat.parseCatalogueResponse(docFactory, xPathFactory, response, searchXPath);
+            for (int i = 0; i < pathNodes.getLength(); ++i) {
+                sink.accept(replacePath(pathNodes.item(i).getTextContent()));
+            }
+        } else {
+            List<String> responsePaths = JsonPath.parse(response).read(searchJPath, List.class);
+            for (String path : responsePaths) {
+                sink.accept(replacePath(path));
+            }
+        }
+    }
+
+    private String replacePath(String productArchivePath) {
+        if (pathPattern != null && pathReplacement != null) {
+            return PatternBasedInputFormat.replacePathPattern(productArchivePath, pathPattern, pathReplacement);
+        }
+        return productArchivePath;
+    }
+
+    /**
+     * The subset of XPath that can be evaluated on a stream of XML events: an absolute path of
+     * elements, each optionally with one attribute predicate, ending in an attribute or a text node,
+     * e.g. <code>/a:feed/a:entry/a:link[@rel="enclosure"]/@href</code>.
+     */
+    static class StreamingPath {
+
+        private static final Pattern STEP = Pattern.compile("/(?:([\\w.-]+):)?([\\w.-]+)(?:\\[@([\\w.-]+)=(?:\"([^\"]*)\"|'([^']*)')\\])?");
+        private static final Pattern ATTRIBUTE = Pattern.compile("/@([\\w.-]+)$");
+        private static final Pattern TEXT = Pattern.compile("/text\\(\\)$");
+
+        private final String[] namespaces;
+        private final String[] localNames;
+        private final String[] predicateNames;
+        private final String[] predicateValues;
+        private final String attributeName;
+
+        private StreamingPath(List<String[]> steps, String attributeName) {
+            int n = steps.size();
+            namespaces = new String[n];
+            localNames = new String[n];
+            predicateNames = new String[n];
+            predicateValues = new String[n];
+            for (int i = 0; i < n; i++) {
+                namespaces[i] = steps.get(i)[0];
+                localNames[i] = steps.get(i)[1];
+                predicateNames[i] = steps.get(i)[2];
+                predicateValues[i] = steps.get(i)[3];
+            }
+            this.attributeName = attributeName;
+        }
+
+        /**
+         * @return the streaming path or null if the expression is not in the supported subset
+         */
+        static StreamingPath parse(String xpath, NamespaceContext namespaceContext) {
+            String expression = xpath.trim();
+            List<String[]> steps = new ArrayList<>();
+            String attributeName = null;
+            Matcher step = STEP.matcher(expression);
+            Matcher attribute = ATTRIBUTE.matcher(expression);
+            Matcher text = TEXT.matcher(expression);
+            int pos = 0;
+            while (pos < expression.length()) {
+                if (attribute.region(pos, expression.length()).lookingAt()) {
+                    attributeName = attribute.group(1);
+                    pos = expression.length();
+                } else if (text.region(pos, expression.length()).lookingAt()) {
+                    pos = expression.length();
+                } else if (step.region(pos, expression.length()).lookingAt()) {
+                    String namespace = "";
+                    if (step.group(1) != null) {
+                        try {
+                            namespace = namespaceContext.getNamespaceURI(step.group(1));
+                        } catch (IllegalArgumentException e) {
+                            return null;
+                        }
+                    }
+                    String value = step.group(4) != null ? step.group(4) : step.group(5);
+                    steps.add(new String[]{namespace, step.group(2), step.group(3), value});
+                    pos = step.end();
+                } else {
+                    return null;
+                }
+            }
+            return steps.isEmpty() ? null : new StreamingPath(steps, attributeName);
+        }
+
+        List<String> evaluate(InputStream in) throws XMLStreamException {
+            List<String> values = new ArrayList<>();
+            evaluate(in, values::add);
+            return values;
+        }
+
+        /**
+         * Passes the values to the consumer while the stream is parsed.
+         */
+        void evaluate(InputStream in, Consumer<String> values) throws XMLStreamException {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            StringBuilder text = null;
+            int depth = 0;
+            int matchedDepth = 0;
+            try {
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        ++depth;
+                        if (matchedDepth == depth - 1 && depth <= localNames.length && matches(reader, depth - 1)) {
+                            matchedDepth = depth;
+                            if (depth == localNames.length) {
+                                if (attributeName != null) {
+                                    String value = reader.getAttributeValue(null, attributeName);
+                                    if (value != null) {
+                                        values.accept(value);
+                                    }
+                                } else {
+                                    text = new StringBuilder();
+                                }
+                            }
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        if (matchedDepth == depth) {
+                            if (text != null && depth == localNames.length) {
+                                values.accept(text.toString().trim());
+                                text = null;
+                            }
+                            --matchedDepth;
+                        }
+                        --depth;
+                    } else if (text != null && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+                        text.append(reader.getText());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        private boolean matches(XMLStreamReader reader, int step) {
+            String namespace = reader.getNamespaceURI() != null ? reader.getNamespaceURI() : "";
+            if (!localNames[step].equals(reader.getLocalName()) || !namespaces[step].equals(namespace)) {
+                return false;
+            }
+            return predicateNames[step] == null || predicateValues[step].equals(reader.getAttributeValue(null, predicateNames[step]));
+        }
+    }
+}
@@ -8,11 +8,11 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.mapreduce.InputSplit;
-import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 
 import java.io.IOException;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -47,18 +47,20 @@ public class GranuleTilesInputFormat extends PatternBasedInputFormat {
     @Override
     protected void createSplits(ProductInventory productInventory,
                                 RemoteIterator<LocatedFileStatus> fileStatusIt,
-                                List<InputSplit> splits,
+                                List<InputSplit> splits, Set<String> tileNames,
                                 Configuration conf, int requestSizeLimit, boolean withDirs) throws IOException {
         while (fileStatusIt.hasNext()) {
             LocatedFileStatus locatedFileStatus = fileStatusIt.next();
             String fileName = locatedFileStatus.getPath().getName();
-            if (tileNameIn(tileNameOf(fileName), splits)) {
+            String tileName = tileNameOf(fileName);
+            if (tileNames.contains(tileName)) {
                 continue;
             }
-            LOG.info("tile " + fileName + " represents " + tileNameOf(fileName));
+            LOG.info("tile " + fileName + " represents " + tileName);
             InputSplit split = createSplit(productInventory, conf, locatedFileStatus, withDirs);
             if (split != null) {
                 splits.add(split);
+                tileNames.add(tileName);
                 if (requestSizeLimit > 0 && splits.size() == requestSizeLimit) {
                     break;
                 }
@@ -70,15 +72,6 @@ public class GranuleTilesInputFormat extends PatternBasedInputFormat {
         return file.getPath().getFileSystem(conf);
     }
 
-    private static boolean tileNameIn(String tileName, List<InputSplit> splits) {
-        for (InputSplit split : splits) {
-            if (tileName.equals(tileNameOf(((FileSplit)split).getPath().getName()))) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private static String tileNameOf(String fileName) {
         Matcher matcher = FILENAME_PATTERN.matcher(fileName);
         if (! matcher.matches()) {
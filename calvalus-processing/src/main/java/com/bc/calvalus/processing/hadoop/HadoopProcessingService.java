@@ -18,7 +18,6 @@ package com.bc.calvalus.processing.hadoop;
 
 
 import com.bc.calvalus.JobClientsMap;
-import com.bc.calvalus.commons.ProcessState;
 import com.bc.calvalus.commons.ProcessStatus;
 import com.bc.calvalus.commons.shared.BundleFilter;
 import com.bc.calvalus.processing.BundleDescriptor;
@@ -37,7 +36,6 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.mapred.JobClient;
-import org.apache.hadoop.mapred.JobStatus;
 import org.apache.hadoop.mapred.RunningJob;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.JobID;
@@ -56,13 +54,10 @@ import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -77,10 +72,11 @@ public class HadoopProcessingService implements ProcessingService<JobID> {
     public static final String DEFAULT_SNAP_BUNDLE = "snap-8.0.0-SNAPSHOT";
     public static final String BUNDLE_DESCRIPTOR_XML_FILENAME = "bundle-descriptor.xml";
     private static final long CACHE_RETENTION = 30 * 1000;
+    private static final long STATUS_TTL = 60 * 60;
 
     private final JobClientsMap jobClientsMap;
     private final String softwareDir;
-    private final Map<JobID, ProcessStatus> jobStatusMap;
+    private final JobStatusPoller jobStatusPoller;
     private final List<BundleQueryCacheEntry> bundleQueryCache;
     private final Timer bundlesQueryCleaner;
     private final Map<String, BundleCacheEntry> bundleCache;
@@ -100,7 +96,7 @@ public class HadoopProcessingService implements ProcessingService<JobID> {
         this.jobClientsMap = jobClientsMap;
         jobClientsMapSingleton = jobClientsMap;
         this.softwareDir = softwareDir;
-        this.jobStatusMap = new WeakHashMap<>();
+        this.jobStatusPoller = new JobStatusPoller(jobClientsMap.getConfiguration().getLong(JobConfigNames.CALVALUS_STATUS_TTL, STATUS_TTL) * 1000);
         this.withExternalAccessControl = Boolean.getBoolean("calvalus.accesscontrol.external");
         this.bundleQueryCache = new ArrayList<>();
         // TODO there should be one Timer for a process that is used for all timer tasks
@@ -132,6 +128,8 @@ public class HadoopProcessingService implements ProcessingService<JobID> {
     @Override
     public Timer getTimer() { return bundlesQueryCleaner; }
 
+    public ExecutorService getExecutorService() { return executorService; }
+
     @Override
     public BundleDescriptor[] getBundles(final String username, final BundleFilter filter) throws IOException {
         logger.fine("HadoopProcessingService.getBundles.start username = [" + username + "], filter = [" + filter + "]");
@@ -458,36 +456,15 @@ public class HadoopProcessingService implements ProcessingService<JobID> {
         JobClient jobClient = jobClientsMap.getJobClient(username);
         String rmHostname = jobClientsMap.getConfiguration().get("yarn.resourcemanager.hostname");
         logger.fine("rm host for status polling is " + rmHostname);
-        JobStatus[] jobStatuses;
         if (rmHostname != null && ! "0.0.0.0".equals(rmHostname)) {
             jobClient.getConf().set("yarn.resourcemanager.hostname", rmHostname);
-            jobStatuses = jobClient.getAllJobs();
-        } else {
-            jobStatuses = new JobStatus[0];
-        }
-        synchronized (jobStatusMap) {
-            if (jobStatuses != null && jobStatuses.length > 0) {
-                Set<JobID> allJobs = new HashSet<>(jobStatusMap.keySet());
-                for (JobStatus jobStatus : jobStatuses) {
-                    org.apache.hadoop.mapred.JobID jobID = jobStatus.getJobID();
-                    jobStatusMap.put(jobID, convertStatus(jobID, jobStatus, jobClient));
-                    allJobs.remove(jobID);
-                }
-                for (JobID jobID : allJobs) {
-                    float progress = jobStatusMap.get(jobID).getProgress();
-                    ProcessStatus processStatus = new ProcessStatus(ProcessState.ERROR, progress, "Hadoop job '" + jobID + "' cancelled by backend");
-                    jobStatusMap.put(jobID, processStatus);
-                }
-            }
+            jobStatusPoller.poll(jobClient);
         }
     }
 
     @Override
     public ProcessStatus getJobStatus(JobID jobId) {
-        synchronized (jobStatusMap) {
-            ProcessStatus jobStatus = jobStatusMap.get(jobId);
-            return jobStatus != null ? jobStatus : ProcessStatus.UNKNOWN;
-        }
+        return jobStatusPoller.getJobStatus(jobId);
     }
 
     @Override
@@ -529,48 +506,6 @@ public class HadoopProcessingService implements ProcessingService<JobID> {
         throw new FileNotFoundException(url);
     }
 
-    /**
-     * Updates the status. This method is called periodically after a fixed delay period.
-     *
-     * @param jobID
-     * @param jobStatus The hadoop job status. May be null, which is interpreted as the job is being done.
-     * @param jobClient
-     *
-     * @return The process status.
-     */
-    private ProcessStatus convertStatus(org.apache.hadoop.mapred.JobID jobID, JobStatus jobStatus, JobClient jobClient) {
-        ProcessStatus oldProcessStatus = jobStatusMap.get(jobID);
-        float oldProgress = oldProcessStatus != null ? oldProcessStatus.getProgress() : 0f;
-
-        if (jobStatus.getRunState() == JobStatus.FAILED) {
-            return new ProcessStatus(ProcessState.ERROR, oldProgress,
-                    "Hadoop job '" + jobStatus.getJobID() + "' failed, see logs for details");
-        } else if (jobStatus.getRunState() == JobStatus.KILLED) {
-            return new ProcessStatus(ProcessState.CANCELLED, oldProgress);
-        } else if (jobStatus.getRunState() == JobStatus.PREP) {
-            return new ProcessStatus(ProcessState.SCHEDULED, 0f);
-        } else if (jobStatus.getRunState() == JobStatus.RUNNING) {
-            float progress = getMapReduceProgress(jobStatus, jobClient);
-            return new ProcessStatus(ProcessState.RUNNING, progress);
-        } else if (jobStatus.getRunState() == JobStatus.SUCCEEDED) {
-            return new ProcessStatus(ProcessState.COMPLETED, 1.0f);
-        } else {
-            return ProcessStatus.UNKNOWN;
-        }
-    }
-
-    private float getMapReduceProgress(JobStatus jobStatus, JobClient jobClient) {
-        try {
-            Job job = jobClient.getClusterHandle().getJob(jobStatus.getJobID());
-            if (job != null) {
-                return calculateProgress(job.getStatus(), job.getNumReduceTasks() > 0);
-            }
-        } catch (Throwable e) {
-            e.printStackTrace();
-        }
-        return 0f;
-    }
-
     static float calculateProgress(org.apache.hadoop.mapreduce.JobStatus jobStatus, boolean hasReducer) {
         if (hasReducer) {
             return (9.0F * jobStatus.getMapProgress() + jobStatus.getReduceProgress()) / 10.0F;
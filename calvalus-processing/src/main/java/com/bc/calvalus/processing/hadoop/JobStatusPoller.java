@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.hadoop;
+
+import com.bc.calvalus.commons.ProcessState;
+import com.bc.calvalus.commons.ProcessStatus;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobID;
+import org.apache.hadoop.mapred.JobStatus;
+import org.apache.hadoop.mapreduce.Job;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Polls the statuses of the Hadoop jobs that are still of interest.
+ * <p>
+ * A job is of interest once its status has been requested, usually by the workflow of an open production,
+ * and as long as its status is not done. Only if there are such jobs the ResourceManager is asked, with one
+ * batch request for all jobs, and only the jobs of interest are converted. Their progress is taken from the
+ * batch response if it contains one. Otherwise, as with YARN, the job is asked for its progress, but only
+ * if it is running. The very first poll converts all jobs of the batch response without asking for their
+ * progress, so that the productions of a restarted service get their statuses in the first round.
+ * <p>
+ * Done statuses are evicted after a time-to-live, and so are jobs whose status is no longer requested.
+ * The latency and the number of RPCs of the polls are recorded as metrics and logged every
+ * {@value #SUMMARY_INTERVAL} polls.
+ */
+class JobStatusPoller {
+
+    private static final int SUMMARY_INTERVAL = 100;
+
+    private final long ttl;
+    private final Map<JobID, Entry> entries;
+    private final Object pollLock;
+    private final Logger logger;
+    private boolean initialPoll;
+
+    private int pollRpcCount;
+    private int lastPollRpcCount;
+    private long totalRpcCount;
+    private long pollCount;
+
+    /**
+     * @param ttl the time in milliseconds done statuses are kept
+     */
+    JobStatusPoller(long ttl) {
+        this.ttl = ttl;
+        this.entries = new HashMap<>();
+        this.pollLock = new Object();
+        this.logger = Logger.getLogger("com.bc.calvalus");
+        this.initialPoll = true;
+    }
+
+    /**
+     * @return the last polled status of the job, or {@link ProcessStatus#UNKNOWN} if the job has not been polled
+     * yet. In the latter case the job is polled with the next poll.
+     */
+    synchronized ProcessStatus getJobStatus(org.apache.hadoop.mapreduce.JobID jobId) {
+        JobID key = JobID.downgrade(jobId);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(key, entry);
+        }
+        entry.lastRequested = System.currentTimeMillis();
+        return entry.status != null ? entry.status : ProcessStatus.UNKNOWN;
+    }
+
+    void poll(JobClient jobClient) throws IOException {
+        synchronized (pollLock) {
+            long t0 = System.currentTimeMillis();
+            pollRpcCount = 0;
+            try {
+                Map<JobID, Entry> pendingEntries = getPendingEntries(t0);
+                if (pendingEntries.isEmpty() && !initialPoll) {
+                    return;
+                }
+                pollRpcCount++;
+                JobStatus[] jobStatuses = jobClient.getAllJobs();
+                boolean initial = initialPoll;
+                initialPoll = false;
+                if (jobStatuses == null || jobStatuses.length == 0) {
+                    return;
+                }
+                Map<JobID, ProcessStatus> newStatuses = new HashMap<>();
+                for (JobStatus jobStatus : jobStatuses) {
+                    JobID jobId = jobStatus.getJobID();
+                    Entry entry = pendingEntries.remove(jobId);
+                    if (entry != null) {
+                        newStatuses.put(jobId, convertStatus(jobStatus, entry, jobClient, true));
+                    } else if (initial) {
+                        newStatuses.put(jobId, convertStatus(jobStatus, new Entry(), jobClient, false));
+                    }
+                }
+                for (Map.Entry<JobID, Entry> pendingEntry : pendingEntries.entrySet()) {
+                    ProcessStatus oldStatus = pendingEntry.getValue().status;
+                    if (oldStatus != null) {
+                        newStatuses.put(pendingEntry.getKey(),
+                                        new ProcessStatus(ProcessState.ERROR, oldStatus.getProgress(),
+                                                          "Hadoop job '" + pendingEntry.getKey() + "' cancelled by backend"));
+                    }
+                }
+                updateEntries(newStatuses, System.currentTimeMillis());
+            } finally {
+                recordPoll(System.currentTimeMillis() - t0);
+            }
+        }
+    }
+
+    /**
+     * @return the number of RPCs of the last poll
+     */
+    int getLastPollRpcCount() {
+        synchronized (pollLock) {
+            return lastPollRpcCount;
+        }
+    }
+
+    /**
+     * @return the number of RPCs of all polls
+     */
+    long getTotalRpcCount() {
+        synchronized (pollLock) {
+            return totalRpcCount;
+        }
+    }
+
+    long getPollCount() {
+        synchronized (pollLock) {
+            return pollCount;
+        }
+    }
+
+    synchronized int getNumJobs() {
+        return entries.size();
+    }
+
+    /**
+     * Evicts expired entries and returns those to be polled.
+     */
+    private synchronized Map<JobID, Entry> getPendingEntries(long now) {
+        entries.values().removeIf(entry -> entry.isExpired(now, ttl));
+        Map<JobID, Entry> pendingEntries = new HashMap<>();
+        for (Map.Entry<JobID, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().status == null || !entry.getValue().status.isDone()) {
+                pendingEntries.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return pendingEntries;
+    }
+
+    private synchronized void updateEntries(Map<JobID, ProcessStatus> newStatuses, long now) {
+        for (Map.Entry<JobID, ProcessStatus> newStatus : newStatuses.entrySet()) {
+            Entry entry = entries.get(newStatus.getKey());
+            if (entry == null) {
+                // a job of the initial poll, kept until it is either requested or expired
+                entry = new Entry();
+                entry.lastRequested = now;
+                entries.put(newStatus.getKey(), entry);
+            }
+            if (newStatus.getValue().isDone() && (entry.status == null || !entry.status.isDone())) {
+                entry.doneSince = now;
+            }
+            entry.status = newStatus.getValue();
+        }
+    }
+
+    private void recordPoll(long millis) {
+        lastPollRpcCount = pollRpcCount;
+        totalRpcCount += pollRpcCount;
+        pollCount++;
+        logger.fine(String.format("polled job statuses in %d ms with %d RPCs, %d jobs tracked",
+                                  millis, pollRpcCount, getNumJobs()));
+        if (pollCount % SUMMARY_INTERVAL == 0) {
+            logger.info(String.format("%d job status polls with %d RPCs to the ResourceManager, last poll took %d ms",
+                                      pollCount, totalRpcCount, millis));
+        }
+    }
+
+    private ProcessStatus convertStatus(JobStatus jobStatus, Entry entry, JobClient jobClient, boolean askForProgress) {
+        float oldProgress = entry.status != null ? entry.status.getProgress() : 0f;
+
+        if (jobStatus.getRunState() == JobStatus.FAILED) {
+            return new ProcessStatus(ProcessState.ERROR, oldProgress,
+                                     "Hadoop job '" + jobStatus.getJobID() + "' failed, see logs for details");
+        } else if (jobStatus.getRunState() == JobStatus.KILLED) {
+            return new ProcessStatus(ProcessState.CANCELLED, oldProgress);
+        } else if (jobStatus.getRunState() == JobStatus.PREP) {
+            return new ProcessStatus(ProcessState.SCHEDULED, 0f);
+        } else if (jobStatus.getRunState() == JobStatus.RUNNING) {
+            float progress = getMapReduceProgress(jobStatus, entry, jobClient, askForProgress, oldProgress);
+            return new ProcessStatus(ProcessState.RUNNING, progress);
+        } else if (jobStatus.getRunState() == JobStatus.SUCCEEDED) {
+            return new ProcessStatus(ProcessState.COMPLETED, 1.0f);
+        } else {
+            return ProcessStatus.UNKNOWN;
+        }
+    }
+
+    private float getMapReduceProgress(JobStatus jobStatus, Entry entry, JobClient jobClient,
+                                       boolean askForProgress, float oldProgress) {
+        boolean batchHasProgress = jobStatus.getMapProgress() > 0f || jobStatus.getReduceProgress() > 0f;
+        if (batchHasProgress && (entry.hasReducer != null || !askForProgress)) {
+            boolean hasReducer = entry.hasReducer != null ? entry.hasReducer : jobStatus.getReduceProgress() > 0f;
+            return HadoopProcessingService.calculateProgress(jobStatus, hasReducer);
+        }
+        if (!askForProgress) {
+            return oldProgress;
+        }
+        try {
+            // one RPC for the job, one for its status
+            pollRpcCount += 2;
+            Job job = jobClient.getClusterHandle().getJob(jobStatus.getJobID());
+            if (job != null) {
+                entry.hasReducer = job.getNumReduceTasks() > 0;
+                return HadoopProcessingService.calculateProgress(job.getStatus(), entry.hasReducer);
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "failed to retrieve progress of Hadoop job '" + jobStatus.getJobID() + "'", e);
+        }
+        return oldProgress;
+    }
+
+    private static class Entry {
+
+        private ProcessStatus status;
+        private Boolean hasReducer;
+        private long lastRequested;
+        private long doneSince;
+
+        private boolean isExpired(long now, long ttl) {
+            if (status != null && status.isDone()) {
+                return now - doneSince > ttl;
+            }
+            return now - lastRequested > ttl;
+        }
+    }
+}
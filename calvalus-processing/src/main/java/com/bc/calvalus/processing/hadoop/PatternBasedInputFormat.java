@@ -82,6 +82,7 @@ public class PatternBasedInputFormat extends InputFormat {
 
     protected static final Logger LOG = CalvalusLogger.getLogger();
     private static final int DEFAULT_SEARCH_CHUNK_SIZE = 100;
+    private static final int DEFAULT_SEARCH_CONCURRENCY = 4;
     private static final String[] EMPTY_STRING_ARRAY = new String[0];
     private static final TypeReference<Map<String, Object>> VALUE_TYPE_REF = new TypeReference<Map<String, Object>>() {};
 
@@ -107,7 +108,7 @@ public class PatternBasedInputFormat extends InputFormat {
             throw new UnsupportedOperationException();
         }
     }
-    private static NamespaceContext ATOM_NAMESPACE_CONTEXT = new AtomNamespaceContext();
+    static final NamespaceContext ATOM_NAMESPACE_CONTEXT = new AtomNamespaceContext();
 
     /**
      * Maps each input file to a single (file) split.
@@ -175,18 +176,20 @@ public class PatternBasedInputFormat extends InputFormat {
 
             ProductInventory productInventory = ProductInventory.createInventory(conf);
             splits = new ArrayList<>(1000);
+            Set<String> splitKeys = new HashSet<>();
             if (InputPathResolver.containsDateVariables(inputPathPatterns)) {
-                List<DateRange> dateRanges = createDateRangeList(dateRangesString);
+            final List<DateRange> dateRanges = createDateRangeList(dateRangesString);
                 for (DateRange dateRange : dateRanges) {
                     List<String> inputPatterns = getInputPatterns(inputPathPatterns, dateRange.getStartDate(),
                                                                   dateRange.getStopDate(), regionName);
+                    long t1 = System.currentTimeMillis();
                     RemoteIterator<LocatedFileStatus> fileStatusIt = getFileStatuses(hdfsFileSystemService,
                                                                                      inputPatterns, conf, null, true);
-                    LOG.info("query for " + dateRange + " done");
+                    LOG.info("query for " + dateRange + " done in [ms]: " + (System.currentTimeMillis() - t1));
                     if (!productIdentifiers.isEmpty()) {
                         fileStatusIt = filterUsingProductIdentifiers(fileStatusIt, productIdentifiers);
                     }
-                    createSplits(productInventory, fileStatusIt, splits, conf, requestSizeLimit, true);
+                    createSplits(productInventory, fileStatusIt, splits, splitKeys, conf, requestSizeLimit, true);
                     if (requestSizeLimit > 0 && splits.size() >= requestSizeLimit) {
                         splits = splits.subList(0, requestSizeLimit);
                         break;
@@ -199,7 +202,7 @@ public class PatternBasedInputFormat extends InputFormat {
                 if (!productIdentifiers.isEmpty()) {
                     fileStatusIt = filterUsingProductIdentifiers(fileStatusIt, productIdentifiers);
                 }
-                createSplits(productInventory, fileStatusIt, splits, conf, requestSizeLimit, true);
+                createSplits(productInventory, fileStatusIt, splits, splitKeys, conf, requestSizeLimit, true);
             }
             LOG.info("file system query done in [ms]: " + (System.currentTimeMillis() - t0));
 
@@ -213,6 +216,7 @@ public class PatternBasedInputFormat extends InputFormat {
 
             ProductInventory productInventory = ProductInventory.createInventory(conf);
             splits = new ArrayList<>(1000);
+            Set<String> splitKeys = new HashSet<>();
             if (InputPathResolver.containsDateVariables(inputPathPatterns)) {
                 List<DateRange> dateRanges = createDateRangeList(dateRangesString);
                 for (DateRange dateRange : dateRanges) {
@@ -223,7 +227,7 @@ public class PatternBasedInputFormat extends InputFormat {
                     if (!productIdentifiers.isEmpty()) {
                         fileStatusIt = filterUsingProductIdentifiers(fileStatusIt, productIdentifiers);
                     }
-                    createSplits(productInventory, fileStatusIt, splits, conf, requestSizeLimit, false);
+                    createSplits(productInventory, fileStatusIt, splits, splitKeys, conf, requestSizeLimit, false);
                     if (requestSizeLimit > 0 && splits.size() >= requestSizeLimit) {
                         splits = splits.subList(0, requestSizeLimit);
                         break;
@@ -236,7 +240,7 @@ public class PatternBasedInputFormat extends InputFormat {
                 if (!productIdentifiers.isEmpty()) {
                     fileStatusIt = filterUsingProductIdentifiers(fileStatusIt, productIdentifiers);
                 }
-                createSplits(productInventory, fileStatusIt, splits, conf, requestSizeLimit, false);
+                createSplits(productInventory, fileStatusIt, splits, splitKeys, conf, requestSizeLimit, false);
             }
             LOG.info("geo-inventory query and complementary file system query done in [ms]: " + (System.currentTimeMillis() - t0));
 
@@ -254,7 +258,7 @@ public class PatternBasedInputFormat extends InputFormat {
                     ? Pattern.compile(conf.get("calvalus." + provider + ".pathpattern")) : null;
             final String pathReplacement = conf.get("calvalus." + provider + ".pathreplacement");
             final String geometryWkt = conf.get(JobConfigNames.CALVALUS_REGION_GEOMETRY);
-            final List<DateRange> dateRanges = createDateRangeList(dateRangesString);
+            List<DateRange> dateRanges = createDateRangeList(dateRangesString);
 
             if (geometryWkt != null) {
                 searchParameters.put("polygon", geometryWkt);
@@ -262,92 +266,104 @@ public class PatternBasedInputFormat extends InputFormat {
                 searchParameters.put("polygon", "POLYGON((-180 -90,-180 90,180 90,180 -90,-180 -90))");
             }
 
-            final HttpClient httpClient = new HttpClient();
-            final DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-            docFactory.setNamespaceAware(true);
-            docFactory.setValidating(false);
-            final XPathFactory xPathfactory = XPathFactory.newInstance();
+            final int searchChunkSize = conf.getInt("calvalus." + provider + ".searchchunksize", DEFAULT_SEARCH_CHUNK_SIZE);
             splits = new ArrayList<>(1000);
             int numQueries = 0;
 
-            // date ranges loop
-            for (DateRange dateRange : dateRanges) {
-                searchParameters.put("start", DateUtils.formatDate(dateRange.getStartDate()));
-                searchParameters.put("stop", DateUtils.formatDate(dateRange.getStopDate()));
-                searchParameters.put("startmillis", String.valueOf(dateRange.getStartDate().getTime()));
-                searchParameters.put("stopmillis", String.valueOf(dateRange.getStopDate().getTime() + 86399000));
-
-                // incremental query loop
-                int offset = 0;
-                while (true) {
-                    searchParameters.put("offset", String.valueOf(offset));
-                    searchParameters.put("offset1", String.valueOf(offset + 1));
-                    searchParameters.put("count", String.valueOf(DEFAULT_SEARCH_CHUNK_SIZE));
-                    final String searchUrl = urlEncode(replaceSearchParameters(searchUrlTemplate, searchParameters));
-
-                    if (offset == 0) {
-                        LOG.info(searchUrl);
-                    }
-                    final GetMethod catalogueRequest = new GetMethod(searchUrl);
-                    if (searchCredentials != null) {
-                        catalogueRequest.setRequestHeader("Authorization", "Basic " + Base64.getEncoder().encodeToString(searchCredentials.getBytes(StandardCharsets.UTF_8)));
-                    }
-                    final InputStream response = inquireCatalogue(httpClient, catalogueRequest);
-                    ++numQueries;
-
-                    if (searchXPath != null) {
-                        try {
-                            NodeList pathNodes = parseCatalogueResponse(docFactory, xPathfactory, response, searchXPath);
+            if (conf.getBoolean(JobConfigNames.CALVALUS_INPUT_CATALOGUE_PIPELINED, false)) {
+                CatalogueSearch catalogueSearch = new CatalogueSearch(searchUrlTemplate, searchXPath, searchJPath, searchCredentials,
+                                                                      pathPattern, pathReplacement, searchChunkSize,
+                                                                      conf.getInt(JobConfigNames.CALVALUS_INPUT_CATALOGUE_CONCURRENCY, DEFAULT_SEARCH_CONCURRENCY));
+                for (String productArchivePath : catalogueSearch.search(searchParameters, dateRanges, requestSizeLimit)) {
+                    splits.add(new ProductSplit(new Path(productArchivePath), -1, null));
+                }
+                numQueries = catalogueSearch.getNumQueries();
+            } else {
+                final HttpClient httpClient = new HttpClient();
+                final DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
+                docFactory.setNamespaceAware(true);
+                docFactory.setValidating(false);
+                final XPathFactory xPathfactory = XPathFactory.newInstance();
 
-                            // search results loop
+                // date ranges loop
+                for (DateRange dateRange : dateRanges) {
+                    searchParameters.put("start", DateUtils.formatDate(dateRange.getStartDate()));
+                    searchParameters.put("stop", DateUtils.formatDate(dateRange.getStopDate()));
+                    searchParameters.put("startmillis", String.valueOf(dateRange.getStartDate().getTime()));
+                    searchParameters.put("stopmillis", String.valueOf(dateRange.getStopDate().getTime() + 86399000));
+
+                    // incremental query loop
+                    int offset = 0;
+                    while (true) {
+                        searchParameters.put("offset", String.valueOf(offset));
+                        searchParameters.put("offset1", String.valueOf(offset + 1));
+                        searchParameters.put("count", String.valueOf(searchChunkSize));
+                        final String searchUrl = urlEncode(replaceSearchParameters(searchUrlTemplate, searchParameters));
+
+                        if (offset == 0) {
+                            LOG.info(searchUrl);
+                        }
+                        final GetMethod catalogueRequest = new GetMethod(searchUrl);
+                        if (searchCredentials != null) {
+                            catalogueRequest.setRequestHeader("Authorization", "Basic " + Base64.getEncoder().encodeToString(searchCredentials.getBytes(StandardCharsets.UTF_8)));
+                        }
+                        final InputStream response = inquireCatalogue(httpClient, catalogueRequest);
+                        ++numQueries;
+
+                        if (searchXPath != null) {
+                            try {
+                                NodeList pathNodes = parseCatalogueResponse(docFactory, xPathfactory, response, searchXPath);
+
+                                // search results loop
+                                int count = 0;
+                                for (int i = 0; i < pathNodes.getLength() && (requestSizeLimit == 0 || splits.size() < requestSizeLimit); ++i) {
+                                    String productArchivePath = pathNodes.item(i).getTextContent();
+                                    if (pathPattern != null && pathReplacement != null) {
+                                        productArchivePath = replacePathPattern(productArchivePath, pathPattern, pathReplacement);
+                                    }
+                                    System.out.println(productArchivePath);
+                                    splits.add(new ProductSplit(new Path(productArchivePath), -1, null));
+                                    ++count;
+                                }
+                                if (requestSizeLimit > 0 && splits.size() >= requestSizeLimit) {
+                                    LOG.info(String.format("query response truncated to request size limit %d", requestSizeLimit));
+                                    break;
+                                }
+                                if (count < searchChunkSize) {
+                                    break;
+                                }
+                                offset += count;
+                            } catch (SAXException | XPathExpressionException | ParserConfigurationException e) {
+                                throw new IOException(e);
+                            }
+                        } else if (searchJPath != null) {
+                            List<String> paths = JsonPath.parse(response).read(searchJPath, List.class);
                             int count = 0;
-                            for (int i = 0; i < pathNodes.getLength() && (requestSizeLimit == 0 || splits.size() < requestSizeLimit); ++i) {
-                                String productArchivePath = pathNodes.item(i).getTextContent();
+                            for (String path : paths) {
+                                String productArchivePath = path;
                                 if (pathPattern != null && pathReplacement != null) {
                                     productArchivePath = replacePathPattern(productArchivePath, pathPattern, pathReplacement);
                                 }
                                 System.out.println(productArchivePath);
                                 splits.add(new ProductSplit(new Path(productArchivePath), -1, null));
                                 ++count;
+                                if (requestSizeLimit > 0 && splits.size() >= requestSizeLimit) {
+                                    break;
+                                }
                             }
                             if (requestSizeLimit > 0 && splits.size() >= requestSizeLimit) {
                                 LOG.info(String.format("query response truncated to request size limit %d", requestSizeLimit));
                                 break;
                             }
-                            if (count < DEFAULT_SEARCH_CHUNK_SIZE) {
+                            if (count < searchChunkSize) {
                                 break;
                             }
                             offset += count;
-                        } catch (SAXException | XPathExpressionException | ParserConfigurationException e) {
-                            throw new IOException(e);
+                        } else {
+                            throw new IllegalArgumentException("missing searchXPath or searchJPath configuration");
                         }
-                    } else if (searchJPath != null) {
-                        List<String> paths = JsonPath.parse(response).read(searchJPath, List.class);
-                        int count = 0;
-                        for (String path : paths) {
-                            String productArchivePath = path;
-                            if (pathPattern != null && pathReplacement != null) {
-                                productArchivePath = replacePathPattern(productArchivePath, pathPattern, pathReplacement);
-                            }
-                            System.out.println(productArchivePath);
-                            splits.add(new ProductSplit(new Path(productArchivePath), -1, null));
-                            ++count;
-                            if (requestSizeLimit > 0 && splits.size() >= requestSizeLimit) {
-                                break;
-                            }
-                        }
-                        if (requestSizeLimit > 0 && splits.size() >= requestSizeLimit) {
-                            LOG.info(String.format("query response truncated to request size limit %d", requestSizeLimit));
-                            break;
-                        }
-                        if (count < DEFAULT_SEARCH_CHUNK_SIZE) {
-                            break;
-                        }
-                        offset += count;
-                    } else {
-                        throw new IllegalArgumentException("missing searchXPath or searchJPath configuration");
+                        catalogueRequest.releaseConnection();
                     }
-                    catalogueRequest.releaseConnection();
                 }
             }
             LOG.info(String.format("%d splits created.", splits.size()));
@@ -373,10 +389,12 @@ public class PatternBasedInputFormat extends InputFormat {
         // add parameters for cube generation if requested
 
         if (timeIndex != null) {
+            long t1 = System.currentTimeMillis();
             sortAndIndexSplits(timeIndex, splits);
+            LOG.info("sorting and indexing of splits done in [ms]: " + (System.currentTimeMillis() - t1));
         }
 
-        LOG.info("Total files to process : " + splits.size());
+        LOG.info("Total files to process : " + splits.size() + ", split planning done in [ms]: " + (System.currentTimeMillis() - t0));
         return splits;
     }
 
@@ -414,15 +432,15 @@ public class PatternBasedInputFormat extends InputFormat {
     }
 
 
-    private String replaceSearchParameters(String searchUrl,
-                                           Map<String, String> searchParameters) {
+    static String replaceSearchParameters(String searchUrl,
+                                          Map<String, String> searchParameters) {
         for (Map.Entry<String,String> param : searchParameters.entrySet()) {
             searchUrl = searchUrl.replaceAll("\\$\\{"+param.getKey()+"\\}", param.getValue());
         }
         return searchUrl;
     }
 
-    private String urlEncode(String searchUrl) {
+    static String urlEncode(String searchUrl) {
         return searchUrl.
                 replaceAll(" ", "%20").
                 replaceAll("\"", "%22").
@@ -443,7 +461,7 @@ public class PatternBasedInputFormat extends InputFormat {
         return getMethod.getResponseBodyAsStream();
     }
 
-    private NodeList parseCatalogueResponse(DocumentBuilderFactory factory, XPathFactory xPathfactory, InputStream response, String searchXPath) throws ParserConfigurationException, SAXException, IOException, XPathExpressionException {
+    static NodeList parseCatalogueResponse(DocumentBuilderFactory factory, XPathFactory xPathfactory, InputStream response, String searchXPath) throws ParserConfigurationException, SAXException, IOException, XPathExpressionException {
         if (true) {  // TODO fix for CreoDias that returns XML with missing namespace declaration
             response = new TokenReplacingStream(response,
                                                 "xmlns:media=".getBytes(),
@@ -457,7 +475,7 @@ public class PatternBasedInputFormat extends InputFormat {
         return (NodeList) expr.evaluate(doc, XPathConstants.NODESET);
     }
 
-    private String replacePathPattern(String productArchivePath, Pattern pathPattern, String pathReplacement) {
+    static String replacePathPattern(String productArchivePath, Pattern pathPattern, String pathReplacement) {
         Matcher matcher = pathPattern.matcher(productArchivePath);
         productArchivePath = matcher.replaceAll(pathReplacement);
         return productArchivePath;
@@ -553,32 +571,38 @@ public class PatternBasedInputFormat extends InputFormat {
         return dateRanges;
     }
 
+    /**
+     * Creates splits for the listed files and adds them to the list of splits.
+     *
+     * @param splitKeys the keys of the splits created so far, shared by subsequent calls for the same list of splits,
+     *                  the paths of the files in this implementation
+     */
     protected void createSplits(ProductInventory productInventory,
                                 RemoteIterator<LocatedFileStatus> fileStatusIt,
-                                List<InputSplit> splits,
+                                List<InputSplit> splits, Set<String> splitKeys,
                                 Configuration conf, int requestSizeLimit, boolean withDirs) throws IOException {
+        long t0 = System.currentTimeMillis();
+        int numFiles = 0;
+        int numDuplicates = 0;
         while (fileStatusIt.hasNext()) {
             LocatedFileStatus locatedFileStatus = fileStatusIt.next();
-            if (containsPath(locatedFileStatus.getPath(), splits)) {
+            ++numFiles;
+            String splitKey = locatedFileStatus.getPath().toString();
+            if (splitKeys.contains(splitKey)) {
+                ++numDuplicates;
                 continue;
             }
             InputSplit split = createSplit(productInventory, conf, locatedFileStatus, withDirs);
             if (split != null) {
                 splits.add(split);
+                splitKeys.add(splitKey);
                 if (requestSizeLimit > 0 && splits.size() == requestSizeLimit) {
                     break;
                 }
             }
         }
-    }
-
-    private boolean containsPath(Path p, List<InputSplit> splits) {
-        for (InputSplit s : splits) {
-            if (p.equals(((FileSplit)s).getPath())) {
-                return true;
-            }
-        }
-        return false;
+        LOG.info(String.format("%d files listed, %d duplicates skipped, %d splits in total, listing and split creation done in [ms]: %d",
+                               numFiles, numDuplicates, splits.size(), System.currentTimeMillis() - t0));
     }
 
     protected InputSplit createSplit(ProductInventory productInventory, Configuration conf, FileStatus file, boolean withDirs) throws
@@ -674,7 +698,7 @@ public class PatternBasedInputFormat extends InputFormat {
 
     /** from https://stackoverflow.com/questions/7743534/filter-search-and-replace-array-of-bytes-in-an-inputstream */
 
-    public class TokenReplacingStream extends InputStream {
+    public static class TokenReplacingStream extends InputStream {
 
         private final InputStream source;
         private final byte[] oldBytes;
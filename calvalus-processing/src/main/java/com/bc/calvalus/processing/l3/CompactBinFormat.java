@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact wire format of {@link L3SpatialBin} and {@link L3TemporalBin} records.
+ * <p>
+ * Counts are written as Hadoop VInts, features as floats or, for the features of selected
+ * aggregators, as IEEE 754 half-precision floats. A compact record starts with a marker byte
+ * in the range 0x80 to 0xfe. This can never be the first byte of a record in the standard
+ * format, which starts with a non-negative number of observations or one of the negative
+ * magic numbers, so readers detect the format record by record and need no configuration.
+ * Only the first 64 features can be stored as half-precision floats.
+ */
+public class CompactBinFormat {
+
+    static final int MARKER = 0x80;
+    static final int MARKER_HALF_FLOATS = 0x81;
+
+    private final long halfFloatMask;
+
+    CompactBinFormat(long halfFloatMask) {
+        this.halfFloatMask = halfFloatMask;
+    }
+
+    /**
+     * @param featureCounts         number of features of each aggregator in the bin
+     * @param halfFloatAggregators indexes of the aggregators whose features are written as half-precision floats
+     */
+    static CompactBinFormat create(int[] featureCounts, int[] halfFloatAggregators) {
+        long mask = 0L;
+        int offset = 0;
+        for (int i = 0; i < featureCounts.length; i++) {
+            for (int aggregatorIndex : halfFloatAggregators) {
+                if (aggregatorIndex == i) {
+                    for (int k = offset; k < offset + featureCounts[i] && k < 64; k++) {
+                        mask |= 1L << k;
+                    }
+                }
+            }
+            offset += featureCounts[i];
+        }
+        return new CompactBinFormat(mask);
+    }
+
+    long getHalfFloatMask(int numFeatures) {
+        return numFeatures >= 64 ? halfFloatMask : halfFloatMask & ((1L << numFeatures) - 1);
+    }
+
+    int getMarker(int numFeatures) {
+        return getHalfFloatMask(numFeatures) != 0L ? MARKER_HALF_FLOATS : MARKER;
+    }
+
+    void writeFeatures(DataOutput dataOutput, float[] featureValues) throws IOException {
+        long mask = getHalfFloatMask(featureValues.length);
+        if (mask != 0L) {
+            WritableUtils.writeVLong(dataOutput, mask);
+        }
+        for (int i = 0; i < featureValues.length; i++) {
+            if (i < 64 && (mask & (1L << i)) != 0L) {
+                dataOutput.writeShort(toHalfFloat(featureValues[i]));
+            } else {
+                dataOutput.writeFloat(featureValues[i]);
+            }
+        }
+    }
+
+    static void readFeatures(DataInput dataInput, int marker, float[] featureValues) throws IOException {
+        long mask = marker == MARKER_HALF_FLOATS ? WritableUtils.readVLong(dataInput) : 0L;
+        for (int i = 0; i < featureValues.length; i++) {
+            if (i < 64 && (mask & (1L << i)) != 0L) {
+                featureValues[i] = toFloat(dataInput.readShort());
+            } else {
+                featureValues[i] = dataInput.readFloat();
+            }
+        }
+    }
+
+    static boolean isCompact(int firstByte) {
+        return firstByte >= MARKER && firstByte < 0xff;
+    }
+
+    /**
+     * Completes an int of the standard format whose first byte has already been read.
+     */
+    static int readInt(int firstByte, DataInput dataInput) throws IOException {
+        return (firstByte << 24) | (dataInput.readUnsignedByte() << 16) | dataInput.readUnsignedShort();
+    }
+
+    static short toHalfFloat(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+        int mantissa = bits & 0x7fffff;
+        if (exponent == 0xff - 127 + 15) {
+            // NaN stays NaN, infinity stays infinity
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        if (exponent >= 0x1f) {
+            return (short) (sign | 0x7c00);
+        }
+        if (exponent <= 0) {
+            if (exponent < -10) {
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            int shift = 14 - exponent;
+            int roundBit = 1 << (shift - 1);
+            int half = mantissa >> shift;
+            if ((mantissa & roundBit) != 0 && (mantissa & (3 * roundBit - 1)) != 0) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = (exponent << 10) | (mantissa >> 13);
+        // round to nearest even, a carry into the exponent is intended
+        if ((mantissa & 0x1000) != 0 && (mantissa & 0x2fff) != 0) {
+            half++;
+        }
+        return (short) (sign | half);
+    }
+
+    static float toFloat(short halfFloat) {
+        int bits = halfFloat & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        if (exponent == 0) {
+            float value = mantissa * 0x1p-24f;
+            return sign != 0 ? -value : value;
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+}
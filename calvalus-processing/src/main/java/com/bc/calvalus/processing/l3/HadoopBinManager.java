@@ -29,13 +29,42 @@ public class HadoopBinManager extends BinManager {
     public static final String DATE_INPUT_PATTERN = "yyyy-MM-dd";
     public static final String DATETIME_INPUT_PATTERN = "yyyy-MM-dd HH:mm:ss";
 
+    private CompactBinFormat spatialBinFormat;
+    private CompactBinFormat temporalBinFormat;
+    private CompactBinFormat outputBinFormat;
+    private CompactBinFormat processBinFormat;
+
     public HadoopBinManager(VariableContext variableContext, CellProcessorConfig postProcessorConfig, Aggregator... aggregators) {
         super(variableContext, postProcessorConfig, aggregators);
     }
 
+    /**
+     * Lets the bins created by this bin manager be written in the {@link CompactBinFormat}.
+     *
+     * @param halfFloatAggregators indexes of the aggregators whose features are written as half-precision floats
+     */
+    public void setCompactBinFormat(int... halfFloatAggregators) {
+        int numAggregators = getAggregatorCount();
+        int[] spatialFeatureCounts = new int[numAggregators];
+        int[] temporalFeatureCounts = new int[numAggregators];
+        int[] outputFeatureCounts = new int[numAggregators];
+        for (int i = 0; i < numAggregators; i++) {
+            Aggregator aggregator = getAggregator(i);
+            spatialFeatureCounts[i] = aggregator.getSpatialFeatureNames().length;
+            temporalFeatureCounts[i] = aggregator.getTemporalFeatureNames().length;
+            outputFeatureCounts[i] = aggregator.getOutputFeatureNames().length;
+        }
+        spatialBinFormat = CompactBinFormat.create(spatialFeatureCounts, halfFloatAggregators);
+        temporalBinFormat = CompactBinFormat.create(temporalFeatureCounts, halfFloatAggregators);
+        outputBinFormat = CompactBinFormat.create(outputFeatureCounts, halfFloatAggregators);
+        // features of cell processors are not related to aggregators
+        processBinFormat = new CompactBinFormat(0L);
+    }
+
     @Override
     public L3SpatialBin createSpatialBin(long binIndex) {
         final L3SpatialBin spatialBin = new L3SpatialBin(binIndex, getSpatialFeatureCount(), getGrowableAggregatorCount());
+        spatialBin.setCompactBinFormat(spatialBinFormat);
         initSpatialBin(spatialBin);
         return spatialBin;
     }
@@ -43,18 +72,23 @@ public class HadoopBinManager extends BinManager {
     @Override
     public L3TemporalBin createTemporalBin(long binIndex) {
         final L3TemporalBin temporalBin = new L3TemporalBin(binIndex, getTemporalFeatureCount());
+        temporalBin.setCompactBinFormat(temporalBinFormat);
         initTemporalBin(temporalBin);
         return temporalBin;
     }
 
     @Override
     public L3TemporalBin createOutputBin(long binIndex) {
-        return new L3TemporalBin(binIndex, getOutputFeatureCount());
+        final L3TemporalBin outputBin = new L3TemporalBin(binIndex, getOutputFeatureCount());
+        outputBin.setCompactBinFormat(outputBinFormat);
+        return outputBin;
     }
 
     @Override
     public L3TemporalBin createProcessBin(long binIndex) {
-        return new L3TemporalBin(binIndex, getPostProcessFeatureCount());
+        final L3TemporalBin processBin = new L3TemporalBin(binIndex, getPostProcessFeatureCount());
+        processBin.setCompactBinFormat(processBinFormat);
+        return processBin;
     }
 
     public static BinningConfig getBinningConfig(Configuration jobConfig) {
@@ -70,6 +104,19 @@ public class HadoopBinManager extends BinManager {
         }
     }
 
+    /**
+     * Creates a binning context whose bins use the wire format selected in the job configuration.
+     */
+    public static BinningContext createBinningContext(Configuration conf, BinningConfig binningConfig, DataPeriod dataPeriod, Geometry regionGeometry) {
+        BinningContext binningContext = createBinningContext(binningConfig, dataPeriod, regionGeometry);
+        if ("compact".equals(conf.get(JobConfigNames.CALVALUS_L3_BIN_FORMAT, "standard"))) {
+            HadoopBinManager binManager = (HadoopBinManager) binningContext.getBinManager();
+            binManager.setCompactBinFormat(conf.getInts(JobConfigNames.CALVALUS_L3_HALF_FLOAT_AGGREGATORS));
+            CalvalusLogger.getLogger().info("using compact bin format");
+        }
+        return binningContext;
+    }
+
     public static BinningContext createBinningContext(BinningConfig binningConfig, DataPeriod dataPeriod, Geometry regionGeometry) {
         VariableContext variableContext = binningConfig.createVariableContext();
         Aggregator[] aggregators = binningConfig.createAggregators(variableContext);
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import com.bc.calvalus.commons.CalvalusLogger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.esa.snap.binning.Aggregator;
+import org.esa.snap.binning.BinManager;
+import org.esa.snap.binning.BinningContext;
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.binning.operator.BinningConfig;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Merges the spatial bins of a map task that share the same bin index before they are spilled.
+ * <p>
+ * The merge uses the temporal aggregation of the aggregators, i.e. the same logic the {@link L3Reducer}
+ * applies. This only yields the same result as the reducer without combiner if the temporal aggregation
+ * is associative, does not depend on the number of observations of a spatial bin and has the same
+ * feature layout as the spatial one. This is checked by {@link #isApplicable(BinningConfig)}.
+ * The number of merged spatial bins is kept in the bin, so that the reducer can restore num_passes.
+ * Metadata records are passed through untouched.
+ * <p>
+ * AVG is not combinable: its temporal features are sums of spatial means weighted by the number of
+ * observations, and a merged bin fed to the reducer as one spatial bin would carry the weight of one.
+ */
+public class L3Combiner extends Reducer<LongWritable, L3SpatialBin, LongWritable, L3SpatialBin> {
+
+    static final String COUNTER_GROUP_NAME = "L3 Combiner";
+
+    private static final List<String> COMBINABLE_AGGREGATORS = Arrays.asList("MIN_MAX", "ON_MAX_SET", "FIRST");
+
+    private BinManager binManager;
+    private L3SpatialBin combinedBin;
+    private long numBinsIn;
+    private long numBinsOut;
+
+    /**
+     * @return true if spatial bins of the given binning configuration can be merged without changing the L3 result
+     */
+    public static boolean isApplicable(BinningConfig binningConfig) {
+        Aggregator[] aggregators = binningConfig.createAggregators(binningConfig.createVariableContext());
+        for (Aggregator aggregator : aggregators) {
+            if (!COMBINABLE_AGGREGATORS.contains(aggregator.getName())
+                || aggregator.getSpatialFeatureNames().length != aggregator.getTemporalFeatureNames().length) {
+                return false;
+            }
+        }
+        return aggregators.length > 0;
+    }
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        init(context.getConfiguration());
+    }
+
+    void init(Configuration conf) {
+        BinningConfig binningConfig = HadoopBinManager.getBinningConfig(conf);
+        BinningContext binningContext = HadoopBinManager.createBinningContext(conf, binningConfig, null, null);
+        binManager = binningContext.getBinManager();
+        combinedBin = (L3SpatialBin) binManager.createSpatialBin(0L);
+    }
+
+    @Override
+    protected void reduce(LongWritable binIndex, Iterable<L3SpatialBin> spatialBins, Context context) throws IOException, InterruptedException {
+        if (binIndex.get() == L3SpatialBin.METADATA_MAGIC_NUMBER) {
+            for (L3SpatialBin metadataBin : spatialBins) {
+                context.write(binIndex, metadataBin);
+                numBinsIn++;
+                numBinsOut++;
+            }
+            return;
+        }
+        numBinsIn += combine(binIndex.get(), spatialBins, combinedBin);
+        context.write(binIndex, combinedBin);
+        numBinsOut++;
+    }
+
+    /**
+     * Merges the spatial bins into the combined bin.
+     *
+     * @return the number of merged spatial bins
+     */
+    int combine(long binIndex, Iterable<L3SpatialBin> spatialBins, L3SpatialBin combinedBin) {
+        TemporalBin temporalBin = binManager.createTemporalBin(binIndex);
+        int numPasses = 0;
+        int numBins = 0;
+        for (L3SpatialBin spatialBin : spatialBins) {
+            binManager.aggregateTemporalBin(spatialBin, temporalBin);
+            numPasses += spatialBin.getNumPasses();
+            numBins++;
+        }
+        combinedBin.setIndex(binIndex);
+        combinedBin.setNumObs(temporalBin.getNumObs());
+        combinedBin.setNumPasses(numPasses);
+        float[] featureValues = temporalBin.getFeatureValues();
+        System.arraycopy(featureValues, 0, combinedBin.getFeatureValues(), 0, featureValues.length);
+        return numBins;
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        context.getCounter(COUNTER_GROUP_NAME, "Spatial bins in").increment(numBinsIn);
+        context.getCounter(COUNTER_GROUP_NAME, "Spatial bins out").increment(numBinsOut);
+        if (numBinsIn > 0) {
+            CalvalusLogger.getLogger().info(String.format("combined %d spatial bins to %d, reduction ratio %.3f",
+                                                          numBinsIn, numBinsOut, (double) numBinsOut / numBinsIn));
+        }
+    }
+}
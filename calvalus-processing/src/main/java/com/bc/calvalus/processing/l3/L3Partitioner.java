@@ -16,30 +16,55 @@
 
 package com.bc.calvalus.processing.l3;
 
+import com.bc.calvalus.commons.CalvalusLogger;
 import com.bc.calvalus.processing.JobConfigNames;
 import com.bc.calvalus.processing.utils.GeometryUtils;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.mapreduce.Partitioner;
 import org.esa.snap.binning.PlanetaryGrid;
 import org.esa.snap.binning.operator.BinningConfig;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
 /**
  * Partitions the bins by their bin index.
  * Reduces will receive spatial bins of contiguous latitude ranges.
+ * By default the rows are split evenly. With {@link JobConfigNames#CALVALUS_L3_PARTITIONER_BALANCE}
+ * set to "bins" the rows are split by the cumulative number of grid bins per row, with "histogram"
+ * by the cumulative number of bins per row given in a histogram written by an earlier L3 job,
+ * see {@link JobConfigNames#CALVALUS_L3_WRITE_ROW_HISTOGRAM}.
  *
  * @author Marco Zuehlke
  * @author Norman Fomferra
  */
 public class L3Partitioner extends Partitioner<LongWritable, L3SpatialBin> implements Configurable {
 
+    public static final String BALANCE_ROWS = "rows";
+    public static final String BALANCE_BINS = "bins";
+    public static final String BALANCE_HISTOGRAM = "histogram";
+    public static final String ROW_HISTOGRAM_PREFIX = "_rowhistogram-";
+
+    private static final Logger LOG = CalvalusLogger.getLogger();
+
     private Configuration conf;
     private PlanetaryGrid planetaryGrid;
     private int minRowIndex;
     private int numRowsCovered;
+    private long[] rowWeights;
+    private int[] partitionOfRow;
+    private int numPartitionsOfRows;
 
     @Override
     public int getPartition(LongWritable binIndex, L3SpatialBin spatialBin, int numPartitions) {
@@ -50,7 +75,11 @@ public class L3Partitioner extends Partitioner<LongWritable, L3SpatialBin> imple
             partition = 0;
         } else {
             int row = planetaryGrid.getRowIndex(idx);
-            partition = ((row - minRowIndex) * numPartitions) / numRowsCovered;
+            if (rowWeights == null) {
+                partition = ((row - minRowIndex) * numPartitions) / numRowsCovered;
+            } else {
+                partition = getWeightedPartition(row - minRowIndex, numPartitions);
+            }
             if (partition < 0) {
                 partition = 0;
             } else if (partition >= numPartitions) {
@@ -80,6 +109,105 @@ public class L3Partitioner extends Partitioner<LongWritable, L3SpatialBin> imple
             numRowsCovered = planetaryGrid.getNumRows();
             minRowIndex = 0;
         }
+        String balance = conf.get(JobConfigNames.CALVALUS_L3_PARTITIONER_BALANCE, BALANCE_ROWS);
+        if (BALANCE_BINS.equals(balance)) {
+            rowWeights = new long[numRowsCovered];
+            for (int i = 0; i < numRowsCovered; i++) {
+                rowWeights[i] = planetaryGrid.getNumCols(minRowIndex + i);
+            }
+        } else if (BALANCE_HISTOGRAM.equals(balance)) {
+            String histogramPath = conf.get(JobConfigNames.CALVALUS_L3_PARTITIONER_HISTOGRAM);
+            if (histogramPath == null) {
+                throw new IllegalArgumentException("Missing row histogram '" + JobConfigNames.CALVALUS_L3_PARTITIONER_HISTOGRAM + "'");
+            }
+            try {
+                rowWeights = readRowHistogram(new Path(histogramPath), conf, minRowIndex, numRowsCovered);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Failed to read row histogram " + histogramPath + ": " + e.getMessage(), e);
+            }
+        } else if (!BALANCE_ROWS.equals(balance)) {
+            throw new IllegalArgumentException("Unknown partitioner balance '" + balance + "'");
+        }
+        partitionOfRow = null;
+    }
+
+    private int getWeightedPartition(int rowOffset, int numPartitions) {
+        if (rowOffset < 0) {
+            return 0;
+        } else if (rowOffset >= numRowsCovered) {
+            return numPartitions - 1;
+        }
+        if (partitionOfRow == null || numPartitionsOfRows != numPartitions) {
+            partitionOfRow = computePartitionOfRow(rowWeights, numPartitions);
+            numPartitionsOfRows = numPartitions;
+        }
+        return partitionOfRow[rowOffset];
+    }
+
+    /**
+     * Assigns each row to the partition that contains the centre of the row's weight
+     * in the cumulated weights of all rows. Partitions remain contiguous row ranges.
+     */
+    static int[] computePartitionOfRow(long[] rowWeights, int numPartitions) {
+        long totalWeight = 0;
+        for (long rowWeight : rowWeights) {
+            totalWeight += rowWeight;
+        }
+        int[] partitionOfRow = new int[rowWeights.length];
+        long[] partitionWeights = new long[numPartitions];
+        long cumulatedWeight = 0;
+        for (int i = 0; i < rowWeights.length; i++) {
+            double centre = cumulatedWeight + rowWeights[i] / 2.0;
+            int partition = totalWeight > 0 ? (int) (centre * numPartitions / totalWeight) : (i * numPartitions) / rowWeights.length;
+            partitionOfRow[i] = Math.min(partition, numPartitions - 1);
+            partitionWeights[partitionOfRow[i]] += rowWeights[i];
+            cumulatedWeight += rowWeights[i];
+        }
+        long maxWeight = 0;
+        for (long partitionWeight : partitionWeights) {
+            maxWeight = Math.max(maxWeight, partitionWeight);
+        }
+        LOG.info(String.format("weighted partitioning of %d rows into %d partitions, planned skew %.2f",
+                               rowWeights.length, numPartitions,
+                               totalWeight > 0 ? (double) maxWeight * numPartitions / totalWeight : 1.0));
+        return partitionOfRow;
+    }
+
+    /**
+     * Reads the number of bins per row from a histogram file or from all histogram files of a directory.
+     * Each line contains a row index and a number of bins separated by whitespace.
+     * Every row gets a weight of at least one, rows not contained in the histogram may still receive bins.
+     */
+    static long[] readRowHistogram(Path path, Configuration conf, int minRowIndex, int numRows) throws IOException {
+        long[] rowWeights = new long[numRows];
+        Arrays.fill(rowWeights, 1L);
+        FileSystem fs = path.getFileSystem(conf);
+        FileStatus[] histogramFiles;
+        if (fs.getFileStatus(path).isDirectory()) {
+            histogramFiles = fs.listStatus(path, new PathFilter() {
+                @Override
+                public boolean accept(Path path) {
+                    return path.getName().startsWith(ROW_HISTOGRAM_PREFIX);
+                }
+            });
+        } else {
+            histogramFiles = new FileStatus[]{fs.getFileStatus(path)};
+        }
+        for (FileStatus histogramFile : histogramFiles) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(histogramFile.getPath())))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] tokens = line.trim().split("\\s+");
+                    if (tokens.length == 2) {
+                        int rowOffset = Integer.parseInt(tokens[0]) - minRowIndex;
+                        if (rowOffset >= 0 && rowOffset < numRows) {
+                            rowWeights[rowOffset] += Long.parseLong(tokens[1]);
+                        }
+                    }
+                }
+            }
+        }
+        return rowWeights;
     }
 
     @Override
@@ -42,6 +42,7 @@ import org.apache.hadoop.mapreduce.TaskAttemptID;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.security.Credentials;
 import org.esa.snap.binning.BinningContext;
+import org.esa.snap.binning.PlanetaryGrid;
 import org.esa.snap.binning.TemporalBin;
 import org.esa.snap.binning.TemporalBinSource;
 import org.esa.snap.binning.TemporalBinner;
@@ -55,6 +56,8 @@ import org.esa.snap.core.datamodel.MetadataElement;
 import org.esa.snap.core.datamodel.ProductData;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URI;
 import java.text.DateFormat;
 import java.util.Iterator;
@@ -71,6 +74,8 @@ public class L3Reducer extends Reducer<LongWritable, L3SpatialBin, LongWritable,
 
     private static final String DATETIME_OUTPUT_PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
     private static final DateFormat DATETIME_OUTPUT_FORMAT = DateUtils.createDateFormat(DATETIME_OUTPUT_PATTERN);
+    static final String COUNTER_GROUP_NAME_PARTITIONS = "L3 Partitions";
+    static final String COUNTER_NAME_BINS = "Bins";
 
     static {
         DATETIME_OUTPUT_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
@@ -83,6 +88,9 @@ public class L3Reducer extends Reducer<LongWritable, L3SpatialBin, LongWritable,
     private BinningConfig binningConfig;
     private MetadataElement processingGraphMetadata;
     private MetadataSerializer metadataSerializer;
+    private PlanetaryGrid planetaryGrid;
+    private long[] rowHistogram;
+    private long numBinsReduced;
 
     @Override
     public void run(Context context) throws IOException, InterruptedException {
@@ -155,8 +163,12 @@ public class L3Reducer extends Reducer<LongWritable, L3SpatialBin, LongWritable,
         metadataSerializer = new MetadataSerializer();
 
         Geometry regionGeometry = GeometryUtils.createGeometry(conf.get(JobConfigNames.CALVALUS_REGION_GEOMETRY));
-        BinningContext binningContext = HadoopBinManager.createBinningContext(binningConfig, null, regionGeometry);
+        BinningContext binningContext = HadoopBinManager.createBinningContext(conf, binningConfig, null, regionGeometry);
         temporalBinner = new TemporalBinner(binningContext);
+        if (conf.getBoolean(JobConfigNames.CALVALUS_L3_WRITE_ROW_HISTOGRAM, false)) {
+            planetaryGrid = binningContext.getPlanetaryGrid();
+            rowHistogram = new long[planetaryGrid.getNumRows()];
+        }
         cellChain = new CellProcessorChain(binningContext);
         conf.setStrings(JobConfigNames.CALVALUS_L3_FEATURE_NAMES, binningContext.getBinManager().getResultFeatureNames());
     }
@@ -191,7 +203,11 @@ public class L3Reducer extends Reducer<LongWritable, L3SpatialBin, LongWritable,
             processingGraphMetadata = aggregateMetadata(spatialBins);
             return null;
         } else {
-            TemporalBin temporalBin = temporalBinner.processSpatialBins(idx, spatialBins);
+            numBinsReduced++;
+            if (rowHistogram != null) {
+                rowHistogram[planetaryGrid.getRowIndex(idx)]++;
+            }
+            TemporalBin temporalBin = aggregateSpatialBins(temporalBinner, idx, spatialBins);
 
             if (computeOutput) {
                 temporalBin = temporalBinner.computeOutput(idx, temporalBin);
@@ -201,6 +217,14 @@ public class L3Reducer extends Reducer<LongWritable, L3SpatialBin, LongWritable,
         }
     }
 
+    static TemporalBin aggregateSpatialBins(TemporalBinner temporalBinner, long binIndex, Iterable<L3SpatialBin> spatialBins) {
+        PassCountingIterable countingSpatialBins = new PassCountingIterable(spatialBins);
+        TemporalBin temporalBin = temporalBinner.processSpatialBins(binIndex, countingSpatialBins);
+        // spatial bins merged by the combiner count for several passes
+        temporalBin.setNumPasses(countingSpatialBins.getNumPasses());
+        return temporalBin;
+    }
+
     private MetadataElement aggregateMetadata(Iterable<L3SpatialBin> spatialBins) {
         String metadataAggregatorName = binningConfig.getMetadataAggregatorName();
         final MetadataAggregator metadataAggregator = MetadataAggregatorFactory.create(metadataAggregatorName);
@@ -224,6 +248,25 @@ public class L3Reducer extends Reducer<LongWritable, L3SpatialBin, LongWritable,
             final Path workOutputPath = FileOutputFormat.getWorkOutputPath(context);
             ProcessingMetadata.write(workOutputPath, conf, metadata);
         }
+        // the job-level counters give the mean, the per-reducer counters are read by L3WorkflowItem for the skew
+        context.getCounter(COUNTER_GROUP_NAME_PARTITIONS, "Reducers").increment(1);
+        context.getCounter(COUNTER_GROUP_NAME_PARTITIONS, COUNTER_NAME_BINS).increment(numBinsReduced);
+        CalvalusLogger.getLogger().info(String.format("partition %d reduced %d bins", partition, numBinsReduced));
+        if (rowHistogram != null) {
+            writeRowHistogram(context, partition);
+        }
+    }
+
+    private void writeRowHistogram(Context context, int partition) throws IOException, InterruptedException {
+        final Path workOutputPath = FileOutputFormat.getWorkOutputPath(context);
+        final Path histogramPath = new Path(workOutputPath, String.format("%s%05d", L3Partitioner.ROW_HISTOGRAM_PREFIX, partition));
+        try (Writer writer = new OutputStreamWriter(histogramPath.getFileSystem(conf).create(histogramPath))) {
+            for (int row = 0; row < rowHistogram.length; row++) {
+                if (rowHistogram[row] > 0) {
+                    writer.write(row + "\t" + rowHistogram[row] + "\n");
+                }
+            }
+        }
     }
 
     private static MetadataElement createL3Metadata(MetadataElement sourcesMetadata, BinningConfig binningConfig, Configuration conf) {
@@ -585,4 +628,38 @@ public class L3Reducer extends Reducer<LongWritable, L3SpatialBin, LongWritable,
         }
     }
 
+    /**
+     * Counts the passes of the spatial bins while they are iterated by the temporal binner.
+     */
+    static class PassCountingIterable implements Iterable<L3SpatialBin> {
+
+        private final Iterable<L3SpatialBin> spatialBins;
+        private int numPasses;
+
+        PassCountingIterable(Iterable<L3SpatialBin> spatialBins) {
+            this.spatialBins = spatialBins;
+        }
+
+        int getNumPasses() {
+            return numPasses;
+        }
+
+        @Override
+        public Iterator<L3SpatialBin> iterator() {
+            final Iterator<L3SpatialBin> iterator = spatialBins.iterator();
+            return new Iterator<L3SpatialBin>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public L3SpatialBin next() {
+                    L3SpatialBin spatialBin = iterator.next();
+                    numPasses += spatialBin.getNumPasses();
+                    return spatialBin;
+                }
+            };
+        }
+    }
 }
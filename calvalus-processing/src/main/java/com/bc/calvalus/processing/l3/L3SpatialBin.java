@@ -1,6 +1,7 @@
 package com.bc.calvalus.processing.l3;
 
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 import org.esa.snap.binning.SpatialBin;
 import org.esa.snap.binning.support.GrowableVector;
 
@@ -20,8 +21,15 @@ import java.util.Arrays;
 public class L3SpatialBin extends SpatialBin implements Writable {
 
     public static final int METADATA_MAGIC_NUMBER = -1;
+    /**
+     * Marks a bin that has been merged from several spatial bins by the {@link L3Combiner}.
+     * It is followed by the number of passes and the usual bin content.
+     */
+    public static final int COMBINED_MAGIC_NUMBER = -2;
 
     String metadata = null;
+    int numPasses = 1;
+    CompactBinFormat compactBinFormat = null;
 
     @SuppressWarnings("UnusedDeclaration")
     public L3SpatialBin() {
@@ -45,9 +53,35 @@ public class L3SpatialBin extends SpatialBin implements Writable {
         this.metadata = metadata;
     }
 
+    /**
+     * @return the number of spatial bins (passes) this bin stands for, 1 unless it has been combined
+     */
+    public int getNumPasses() {
+        return numPasses;
+    }
+
+    public void setNumPasses(int numPasses) {
+        this.numPasses = numPasses;
+    }
+
+    /**
+     * Selects the compact wire format for this bin, null for the standard format.
+     */
+    public void setCompactBinFormat(CompactBinFormat compactBinFormat) {
+        this.compactBinFormat = compactBinFormat;
+    }
+
     public void write(DataOutput dataOutput) throws IOException {
          // Note, we don't serialise the index, because it is usually the MapReduce key
         if (metadata == null) {
+            if (compactBinFormat != null) {
+                writeCompact(dataOutput);
+                return;
+            }
+            if (numPasses != 1) {
+                dataOutput.writeInt(COMBINED_MAGIC_NUMBER);
+                dataOutput.writeInt(numPasses);
+            }
             super.write(dataOutput);
         } else {
             dataOutput.writeInt(METADATA_MAGIC_NUMBER);
@@ -64,10 +98,41 @@ public class L3SpatialBin extends SpatialBin implements Writable {
 
      }
 
+    private void writeCompact(DataOutput dataOutput) throws IOException {
+        final float[] featureValues = getFeatureValues();
+        dataOutput.writeByte(compactBinFormat.getMarker(featureValues.length));
+        WritableUtils.writeVInt(dataOutput, getNumObs());
+        WritableUtils.writeVInt(dataOutput, numPasses);
+        WritableUtils.writeVInt(dataOutput, featureValues.length);
+        compactBinFormat.writeFeatures(dataOutput, featureValues);
+        final int numVectors = vectors != null ? vectors.length : 0;
+        WritableUtils.writeVInt(dataOutput, numVectors);
+        for (int i = 0; i < numVectors; i++) {
+            final GrowableVector vector = vectors[i];
+            WritableUtils.writeVInt(dataOutput, vector.size());
+            for (int k = 0; k < vector.size(); k++) {
+                dataOutput.writeFloat(vector.get(k));
+            }
+        }
+    }
+
      public void readFields(DataInput dataInput) throws IOException {
          // // Note, we don't serialise the index, because it is usually the MapReduce key
-         setNumObs(dataInput.readInt());
+         final int firstByte = dataInput.readUnsignedByte();
+         if (CompactBinFormat.isCompact(firstByte)) {
+             readCompact(firstByte, dataInput);
+             return;
+         }
+         int numObs = CompactBinFormat.readInt(firstByte, dataInput);
+         if (numObs == COMBINED_MAGIC_NUMBER) {
+             numPasses = dataInput.readInt();
+             numObs = dataInput.readInt();
+         } else {
+             numPasses = 1;
+         }
+         setNumObs(numObs);
          if (getNumObs() != METADATA_MAGIC_NUMBER) {
+             metadata = null;
              final int numFeatures = dataInput.readInt();
              if (getFeatureValues() == null || getFeatureValues().length != numFeatures) {
                  setNumFeatures(numFeatures);
@@ -77,13 +142,11 @@ public class L3SpatialBin extends SpatialBin implements Writable {
              }
 
              final int numVectors = dataInput.readInt();
-             vectors = new GrowableVector[numVectors];
+             reuseVectors(numVectors);
              for (int i = 0; i < numVectors; i++) {
-                 final int vectorLength = dataInput.readInt();
-                 final GrowableVector vector = new GrowableVector(vectorLength);
-                 vectors[i] = vector;
-                 for (int k = 0; k < vectorLength; k++) {
-                     vector.add(dataInput.readFloat());
+                 final ReusableVector vector = reuseVector(i, dataInput.readInt());
+                 for (int k = 0; k < vector.size(); k++) {
+                     vector.set(k, dataInput.readFloat());
                  }
              }
          } else {
@@ -96,6 +159,42 @@ public class L3SpatialBin extends SpatialBin implements Writable {
          }
      }
 
+    private void readCompact(int marker, DataInput dataInput) throws IOException {
+        metadata = null;
+        setNumObs(WritableUtils.readVInt(dataInput));
+        numPasses = WritableUtils.readVInt(dataInput);
+        final int numFeatures = WritableUtils.readVInt(dataInput);
+        if (getFeatureValues() == null || getFeatureValues().length != numFeatures) {
+            setNumFeatures(numFeatures);
+        }
+        CompactBinFormat.readFeatures(dataInput, marker, getFeatureValues());
+        final int numVectors = WritableUtils.readVInt(dataInput);
+        reuseVectors(numVectors);
+        for (int i = 0; i < numVectors; i++) {
+            final ReusableVector vector = reuseVector(i, WritableUtils.readVInt(dataInput));
+            for (int k = 0; k < vector.size(); k++) {
+                vector.set(k, dataInput.readFloat());
+            }
+        }
+    }
+
+    private void reuseVectors(int numVectors) {
+        // the vectors array is kept across records, mostly it is empty anyway
+        if (vectors == null || vectors.length != numVectors) {
+            vectors = new GrowableVector[numVectors];
+        }
+    }
+
+    private ReusableVector reuseVector(int i, int vectorLength) {
+        // the vectors of the previous record are re-used, their capacity only grows
+        if (!(vectors[i] instanceof ReusableVector)) {
+            vectors[i] = new ReusableVector(vectorLength);
+        }
+        final ReusableVector vector = (ReusableVector) vectors[i];
+        vector.setSize(vectorLength);
+        return vector;
+    }
+
      public static SpatialBin read(DataInput dataInput) throws IOException {
          return read(-1L, dataInput);
      }
@@ -1,6 +1,7 @@
 package com.bc.calvalus.processing.l3;
 
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 import org.esa.snap.binning.TemporalBin;
 
 import java.io.DataInput;
@@ -11,11 +12,14 @@ import java.io.IOException;
 /**
  * A Hadoop-serializable, temporal bin.
  * The class is final for allowing method in-lining.
+ * Records in the standard format and in the {@link CompactBinFormat} can both be read.
  *
  * @author Norman Fomferra
  */
 public final class L3TemporalBin extends TemporalBin implements Writable {
 
+    private CompactBinFormat compactBinFormat = null;
+
     public L3TemporalBin() {
         super();
     }
@@ -24,14 +28,57 @@ public final class L3TemporalBin extends TemporalBin implements Writable {
         super(index, numFeatures);
     }
 
+    /**
+     * Selects the compact wire format for this bin, null for the standard format.
+     */
+    public void setCompactBinFormat(CompactBinFormat compactBinFormat) {
+        this.compactBinFormat = compactBinFormat;
+    }
+
     @Override
     public void write(DataOutput dataOutput) throws IOException {
-        super.write(dataOutput);
+        if (compactBinFormat == null) {
+            super.write(dataOutput);
+        } else {
+            final float[] featureValues = getFeatureValues();
+            dataOutput.writeByte(compactBinFormat.getMarker(featureValues.length));
+            WritableUtils.writeVInt(dataOutput, getNumObs());
+            WritableUtils.writeVInt(dataOutput, getNumPasses());
+            WritableUtils.writeVInt(dataOutput, featureValues.length);
+            compactBinFormat.writeFeatures(dataOutput, featureValues);
+        }
     }
 
     @Override
     public void readFields(DataInput dataInput) throws IOException {
-        super.readFields(dataInput);
+        // the standard format is numObs, numPasses, numFeatures and the feature values
+        final int firstByte = dataInput.readUnsignedByte();
+        final int numObs;
+        final int numPasses;
+        final int numFeatures;
+        final boolean compact = CompactBinFormat.isCompact(firstByte);
+        if (compact) {
+            numObs = WritableUtils.readVInt(dataInput);
+            numPasses = WritableUtils.readVInt(dataInput);
+            numFeatures = WritableUtils.readVInt(dataInput);
+        } else {
+            numObs = CompactBinFormat.readInt(firstByte, dataInput);
+            numPasses = dataInput.readInt();
+            numFeatures = dataInput.readInt();
+        }
+        if (featureValues == null || featureValues.length != numFeatures) {
+            featureValues = new float[numFeatures];
+        }
+        setNumObs(numObs);
+        setNumPasses(numPasses);
+        final float[] featureValues = getFeatureValues();
+        if (compact) {
+            CompactBinFormat.readFeatures(dataInput, firstByte, featureValues);
+        } else {
+            for (int i = 0; i < numFeatures; i++) {
+                featureValues[i] = dataInput.readFloat();
+            }
+        }
     }
 
     public static L3TemporalBin read(DataInput dataInput) throws IOException {
@@ -17,6 +17,7 @@
 package com.bc.calvalus.processing.l3;
 
 import com.bc.calvalus.commons.CalvalusLogger;
+import com.bc.calvalus.processing.JobConfigNames;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
@@ -34,10 +35,24 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
  * For formatting the results of a SNAP Level 3 Hadoop Job.
+ * <p>
+ * With {@link JobConfigNames#CALVALUS_L3_FORMAT_READ_AHEAD_PARTS} set to n &gt; 0 the part files are opened
+ * concurrently and up to n parts are read and decoded ahead by background threads. The bins are
+ * passed to the formatter through a bounded queue per part, so that reading overlaps reprojection.
+ * Parts cover disjoint contiguous bin index ranges, hence they are still delivered one after the other.
  *
  * @author Norman Fomferra
  */
@@ -45,19 +60,26 @@ public class L3TemporalBinSource implements TemporalBinSource {
 
     private static final Logger LOG = CalvalusLogger.getLogger();
     private static final String PART_FILE_PREFIX = "part-";
+    private static final L3TemporalBin END_OF_PART = new L3TemporalBin();
 
     private final Configuration configuration;
     private final Path partsDir;
     private final long startTime;
     private final Mapper.Context context;
+    private final int readAheadParts;
+    private final int readAheadBins;
     private List<PartFile> partFiles;
     private FileSystem hdfs;
+    private ExecutorService readerPool;
+    private PrefetchedPart[] prefetchedParts;
 
     public L3TemporalBinSource(Path partsDir, Mapper.Context context) {
         this.context = context;
         this.configuration = context.getConfiguration();
         this.partsDir = partsDir;
         this.startTime = System.nanoTime();
+        this.readAheadParts = configuration.getInt(JobConfigNames.CALVALUS_L3_FORMAT_READ_AHEAD_PARTS, 0);
+        this.readAheadBins = configuration.getInt(JobConfigNames.CALVALUS_L3_FORMAT_READ_AHEAD_BINS, 10000);
     }
 
     @Override
@@ -70,15 +92,54 @@ public class L3TemporalBinSource implements TemporalBinSource {
                 return path.getName().startsWith(PART_FILE_PREFIX);
             }
         });
-        partFiles = readFirstIndices(parts);
+        if (readAheadParts > 0) {
+            readerPool = Executors.newFixedThreadPool(readAheadParts);
+            partFiles = readFirstIndicesConcurrently(parts);
+        } else {
+            partFiles = readFirstIndices(parts);
+        }
 
         LOG.info(MessageFormat.format("start reprojection, collecting {0} parts", parts.length));
 
         Collections.sort(partFiles);
 
+        if (readerPool != null) {
+            prefetchedParts = new PrefetchedPart[partFiles.size()];
+            for (int i = 0; i < readAheadParts && i < partFiles.size(); i++) {
+                prefetch(i);
+            }
+        }
         return partFiles.size();
     }
 
+    private List<PartFile> readFirstIndicesConcurrently(FileStatus[] parts) throws IOException {
+        List<Future<List<PartFile>>> futures = new ArrayList<>(parts.length);
+        for (final FileStatus part : parts) {
+            futures.add(readerPool.submit(new Callable<List<PartFile>>() {
+                @Override
+                public List<PartFile> call() throws Exception {
+                    return readFirstIndices(new FileStatus[]{part});
+                }
+            }));
+        }
+        List<PartFile> partFiles = new ArrayList<PartFile>(parts.length);
+        for (Future<List<PartFile>> future : futures) {
+            try {
+                partFiles.addAll(future.get());
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted while reading first indices of parts", e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+        return partFiles;
+    }
+
+    private void prefetch(int index) {
+        prefetchedParts[index] = new PrefetchedPart(partFiles.get(index).getPath());
+        prefetchedParts[index].future = readerPool.submit(prefetchedParts[index]);
+    }
+
     private List<PartFile> readFirstIndices(FileStatus[] parts) throws IOException {
         List<PartFile> partFiles = new ArrayList<PartFile>(parts.length);
         for (FileStatus part : parts) {
@@ -102,6 +163,9 @@ public class L3TemporalBinSource implements TemporalBinSource {
         context.progress();
         Path partFile = partFiles.get(index).getPath();
         LOG.info(MessageFormat.format("reading and reprojecting part {0}", partFile));
+        if (prefetchedParts != null) {
+            return prefetchedParts[index];
+        }
         SequenceFile.Reader reader = new SequenceFile.Reader(hdfs, partFile, configuration);
         return new SequenceFileBinIterator(reader);
     }
@@ -109,16 +173,148 @@ public class L3TemporalBinSource implements TemporalBinSource {
     @Override
     public void partProcessed(int index, Iterator<? extends TemporalBin> part) throws IOException {
         context.progress();
+        if (prefetchedParts != null) {
+            // the formatter may not have consumed the part completely
+            prefetchedParts[index].cancel();
+            prefetchedParts[index] = null;
+            if (index + readAheadParts < partFiles.size()) {
+                prefetch(index + readAheadParts);
+            }
+            return;
+        }
         ((SequenceFileBinIterator) part).getReader().close();
     }
 
     @Override
     public void close() {
         context.progress();
+        if (prefetchedParts != null) {
+            for (PrefetchedPart prefetchedPart : prefetchedParts) {
+                if (prefetchedPart != null) {
+                    prefetchedPart.cancel();
+                }
+            }
+        }
+        if (readerPool != null) {
+            readerPool.shutdownNow();
+        }
         long stopTime = System.nanoTime();
         LOG.info(MessageFormat.format("stop reprojection after {0} sec", (stopTime - startTime) / 1E9));
     }
 
+    /**
+     * Reads a part in a background thread into a bounded queue and serves it as iterator to the formatter.
+     * The end of the part is always enqueued, with the failure of the reader if there is one,
+     * unless the part has been cancelled.
+     */
+    private class PrefetchedPart implements Runnable, Iterator<L3TemporalBin> {
+
+        private final Path path;
+        private final BlockingQueue<L3TemporalBin> queue;
+        private volatile Throwable failure;
+        private volatile boolean cancelled;
+        private Future<?> future;
+        private L3TemporalBin nextBin;
+
+        PrefetchedPart(Path path) {
+            this.path = path;
+            this.queue = new ArrayBlockingQueue<>(readAheadBins);
+        }
+
+        @Override
+        public void run() {
+            try {
+                SequenceFile.Reader reader = new SequenceFile.Reader(hdfs, path, configuration);
+                try {
+                    LongWritable binIndex = new LongWritable();
+                    L3TemporalBin temporalBin = new L3TemporalBin();
+                    while (reader.next(binIndex, temporalBin)) {
+                        temporalBin.setIndex(binIndex.get());
+                        if (!enqueue(temporalBin)) {
+                            return;
+                        }
+                        temporalBin = new L3TemporalBin();
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                boolean interrupted = Thread.interrupted();
+                try {
+                    enqueue(END_OF_PART);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } finally {
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return false if the part has been cancelled and the bin has not been enqueued
+         */
+        private boolean enqueue(L3TemporalBin temporalBin) throws InterruptedException {
+            while (!cancelled) {
+                if (queue.offer(temporalBin, 100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Stops the reader and releases the bins not yet consumed.
+         */
+        void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(true);
+            }
+            queue.clear();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextBin == null) {
+                try {
+                    nextBin = queue.take();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            if (nextBin == END_OF_PART) {
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                } else if (failure instanceof Error) {
+                    throw (Error) failure;
+                } else if (failure != null) {
+                    throw new IllegalStateException("failed to read " + path, failure);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public L3TemporalBin next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            L3TemporalBin temporalBin = nextBin;
+            nextBin = null;
+            return temporalBin;
+        }
+
+        @Override
+        public void remove() {
+            throw new IllegalStateException("remove() not supported");
+        }
+    }
+
     private static class PartFile implements Comparable<PartFile> {
 
         private final Path path;
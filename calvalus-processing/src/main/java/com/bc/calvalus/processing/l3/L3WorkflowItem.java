@@ -16,22 +16,33 @@
 
 package com.bc.calvalus.processing.l3;
 
+import com.bc.calvalus.commons.CalvalusLogger;
+import com.bc.calvalus.commons.ProcessState;
+import com.bc.calvalus.commons.WorkflowStatusEvent;
+import com.bc.calvalus.commons.WorkflowStatusListener;
 import com.bc.calvalus.processing.JobConfigNames;
 import com.bc.calvalus.processing.JobUtils;
 import com.bc.calvalus.processing.hadoop.HadoopProcessingService;
 import com.bc.calvalus.processing.hadoop.HadoopWorkflowItem;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobID;
+import org.apache.hadoop.mapred.TaskReport;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A workflow item creating a Hadoop job for n input products processed to a single L3 product.
  */
 public class L3WorkflowItem extends HadoopWorkflowItem {
 
+    private volatile long[] binsPerReducer;
+
     public L3WorkflowItem(HadoopProcessingService processingService, String username, String jobName, Configuration jobConfig) {
         super(processingService, username, jobName, jobConfig);
     }
@@ -44,6 +55,38 @@ public class L3WorkflowItem extends HadoopWorkflowItem {
         return getJobConfig().get(JobConfigNames.CALVALUS_MAX_DATE);
     }
 
+    /**
+     * @return the bins reduced by each reducer, or null before the job has completed and the counters
+     * of its reducers are read
+     */
+    public long[] getBinsPerReducer() {
+        return binsPerReducer;
+    }
+
+    /**
+     * @return the maximum number of bins reduced by one reducer, or -1 before the bins per reducer are read
+     */
+    public long getMaxBinsPerReducer() {
+        long[] bins = binsPerReducer;
+        return bins != null ? computeMaxBins(bins) : -1L;
+    }
+
+    /**
+     * @return the mean number of bins reduced by one reducer, or -1 before the bins per reducer are read
+     */
+    public double getMeanBinsPerReducer() {
+        long[] bins = binsPerReducer;
+        return bins != null ? computeMeanBins(bins) : -1.0;
+    }
+
+    /**
+     * @return the maximum divided by the mean number of bins per reducer, or -1 before the bins per reducer are read
+     */
+    public double getPartitionSkew() {
+        long[] bins = binsPerReducer;
+        return bins != null ? computePartitionSkew(bins) : -1.0;
+    }
+
     @Override
     public String getOutputDir() {
         return getJobConfig().get(JobConfigNames.CALVALUS_OUTPUT_DIR);
@@ -84,12 +127,83 @@ public class L3WorkflowItem extends HadoopWorkflowItem {
         if (jobConfig.get("mapreduce.job.partitioner.class") == null) {
             job.setPartitionerClass(L3Partitioner.class);
         }
+        if (jobConfig.getBoolean(JobConfigNames.CALVALUS_L3_COMBINER, false)) {
+            if (L3Combiner.isApplicable(HadoopBinManager.getBinningConfig(jobConfig))) {
+                job.setCombinerClass(L3Combiner.class);
+            } else {
+                CalvalusLogger.getLogger().info("aggregators cannot be combined, combiner not used");
+            }
+        }
         job.setReducerClass(L3Reducer.class);
         job.setOutputKeyClass(LongWritable.class);
         job.setOutputValueClass(L3TemporalBin.class);
         job.setOutputFormatClass(SequenceFileOutputFormat.class);
 
         JobUtils.clearAndSetOutputDir(getOutputDir(), job, this);
+
+        addWorkflowStatusListener(new PartitionSkewReporter());
+    }
+
+    /**
+     * @return the maximum divided by the mean number of bins per reducer, 1.0 for a perfectly balanced partitioning
+     */
+    static double computePartitionSkew(long[] binsPerReducer) {
+        double meanBins = computeMeanBins(binsPerReducer);
+        return meanBins > 0.0 ? computeMaxBins(binsPerReducer) / meanBins : 1.0;
     }
 
+    static long computeMaxBins(long[] binsPerReducer) {
+        long maxBins = 0;
+        for (long bins : binsPerReducer) {
+            maxBins = Math.max(maxBins, bins);
+        }
+        return maxBins;
+    }
+
+    static double computeMeanBins(long[] binsPerReducer) {
+        long sumBins = 0;
+        for (long bins : binsPerReducer) {
+            sumBins += bins;
+        }
+        return binsPerReducer.length > 0 ? (double) sumBins / binsPerReducer.length : 0.0;
+    }
+
+    /**
+     * Reads the bins counted by the reducers when the job has completed and stores the maximum and mean
+     * bins per reducer with the workflow item. The task reports are requested in the executor of the
+     * processing service, not in the thread that updates the status.
+     */
+    private class PartitionSkewReporter implements WorkflowStatusListener {
+
+        private final AtomicBoolean requested = new AtomicBoolean();
+
+        @Override
+        public void handleStatusChanged(WorkflowStatusEvent event) {
+            if (event.getSource() == L3WorkflowItem.this
+                && event.getNewStatus().getState() == ProcessState.COMPLETED
+                && getJobId() != null
+                && requested.compareAndSet(false, true)) {
+                getProcessingService().getExecutorService().submit(this::readBinsPerReducer);
+            }
+        }
+
+        private void readBinsPerReducer() {
+            try {
+                JobClient jobClient = getProcessingService().getJobClient(getUserName());
+                TaskReport[] reports = jobClient.getReduceTaskReports(JobID.downgrade(getJobId()));
+                long[] bins = new long[reports.length];
+                for (int i = 0; i < reports.length; i++) {
+                    Counters.Counter counter = reports[i].getCounters().findCounter(L3Reducer.COUNTER_GROUP_NAME_PARTITIONS,
+                                                                                     L3Reducer.COUNTER_NAME_BINS);
+                    bins[i] = counter != null ? counter.getValue() : 0L;
+                }
+                binsPerReducer = bins;
+                CalvalusLogger.getLogger().info(String.format("partition skew of %s: %.2f (max %d / mean %.1f bins per reducer, %d reducers)",
+                                                              getJobId(), getPartitionSkew(), getMaxBinsPerReducer(),
+                                                              getMeanBinsPerReducer(), reports.length));
+            } catch (IOException e) {
+                CalvalusLogger.getLogger().warning("failed to determine partition skew of " + getJobId() + ": " + e.getMessage());
+            }
+        }
+    }
 }
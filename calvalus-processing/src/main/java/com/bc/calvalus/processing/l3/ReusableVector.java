@@ -0,0 +1,65 @@
+package com.bc.calvalus.processing.l3;
+
+import org.esa.snap.binning.support.GrowableVector;
+
+import java.util.Arrays;
+
+/**
+ * A growable vector that can be re-filled, for reading the vectors of many bins into the same instances.
+ * It keeps its own elements, the ones of the super class remain empty.
+ */
+final class ReusableVector extends GrowableVector {
+
+    private float[] elements;
+    private int size;
+
+    ReusableVector(int capacity) {
+        super(0);
+        elements = new float[capacity];
+    }
+
+    /**
+     * Sets the number of elements, growing the capacity if needed. The element values are undefined.
+     */
+    void setSize(int size) {
+        if (size > elements.length) {
+            elements = new float[size];
+        }
+        this.size = size;
+    }
+
+    void set(int index, float element) {
+        elements[index] = element;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public float get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " >= size " + size);
+        }
+        return elements[index];
+    }
+
+    @Override
+    public void add(float element) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(8, 2 * size));
+        }
+        elements[size++] = element;
+    }
+
+    @Override
+    public float[] getElements() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(getElements());
+    }
+}
@@ -0,0 +1,173 @@
+package com.bc.calvalus.processing.l3.seasonal;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * The decoded source bands of the products for one micro tile.
+ * <p>
+ * Bands are decoded with copyData into pooled primitive arrays instead of a new raster per getData call.
+ * As long as the size limit permits, all source bands of a product are decoded once, in the first pass,
+ * and the later passes over the same micro tile use the cached arrays. Bands of products that do not fit
+ * are decoded into one scratch array per band, as before, on every pass. The bytes decoded and the time
+ * spent per pass are recorded.
+ */
+class MicroTileBandCache {
+
+    static final int PASS_MAJORITY = 0;
+    static final int PASS_AGGREGATION = 1;
+    static final int NUM_PASSES = 2;
+
+    private final long maxBytes;
+    private final int numPixels;
+    private final List<Object[]> productBands = new ArrayList<>();
+    private final Object[] scratchBands;
+    private final Deque<short[]> shortPool = new ArrayDeque<>();
+    private final Deque<float[]> floatPool = new ArrayDeque<>();
+    private long cachedBytes;
+
+    final long[] bytesRead = new long[NUM_PASSES];
+    final long[] readNanos = new long[NUM_PASSES];
+
+    /**
+     * @param maxBytes       the size limit of the cached bands
+     * @param numSourceBands the number of source bands of a product
+     * @param numPixels      the number of pixels of a micro tile
+     */
+    MicroTileBandCache(long maxBytes, int numSourceBands, int numPixels) {
+        this.maxBytes = maxBytes;
+        this.numPixels = numPixels;
+        this.scratchBands = new Object[numSourceBands];
+    }
+
+    /**
+     * Releases the cached bands of the previous micro tile into the pools.
+     */
+    void clear() {
+        for (Object[] bands : productBands) {
+            if (bands != null) {
+                for (Object band : bands) {
+                    release(band);
+                }
+            }
+        }
+        productBands.clear();
+        cachedBytes = 0;
+    }
+
+    /**
+     * Decodes all source bands of the product if they fit into the cache.
+     *
+     * @return whether the bands of the product are cached
+     */
+    boolean cacheProduct(int product, RenderedImage[] bandImage, Rectangle microTileArea, int numSourceBands, int pass) {
+        if (getCachedBands(product) != null) {
+            return true;
+        }
+        long productBytes = 0;
+        for (int b = 0; b < numSourceBands; ++b) {
+            productBytes += (long) numPixels * bytesPerSample(bandImage[b]);
+        }
+        if (cachedBytes + productBytes > maxBytes) {
+            return false;
+        }
+        final Object[] bands = new Object[numSourceBands];
+        for (int b = 0; b < numSourceBands; ++b) {
+            bands[b] = read(bandImage[b], microTileArea, acquire(bandImage[b]), pass);
+        }
+        while (productBands.size() <= product) {
+            productBands.add(null);
+        }
+        productBands.set(product, bands);
+        cachedBytes += productBytes;
+        return true;
+    }
+
+    /**
+     * @return the samples of the band of the product, a short[] or a float[], valid until the next call for
+     * the same band of an uncached product
+     */
+    Object getBand(int product, int band, RenderedImage image, Rectangle microTileArea, int pass) {
+        final Object[] cachedBands = getCachedBands(product);
+        if (cachedBands != null) {
+            return cachedBands[band];
+        }
+        if (scratchBands[band] == null || ! fits(scratchBands[band], image)) {
+            scratchBands[band] = newArray(image);
+        }
+        return read(image, microTileArea, scratchBands[band], pass);
+    }
+
+    private Object[] getCachedBands(int product) {
+        return product < productBands.size() ? productBands.get(product) : null;
+    }
+
+    private Object read(RenderedImage image, Rectangle microTileArea, Object samples, int pass) {
+        final long t0 = System.nanoTime();
+        final SampleModel sampleModel = image.getSampleModel().createCompatibleSampleModel(microTileArea.width,
+                                                                                            microTileArea.height);
+        final DataBuffer dataBuffer;
+        switch (sampleModel.getDataType()) {
+            case DataBuffer.TYPE_SHORT:
+                dataBuffer = new DataBufferShort((short[]) samples, numPixels);
+                break;
+            case DataBuffer.TYPE_USHORT:
+                dataBuffer = new DataBufferUShort((short[]) samples, numPixels);
+                break;
+            case DataBuffer.TYPE_FLOAT:
+                dataBuffer = new DataBufferFloat((float[]) samples, numPixels);
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported data type " + sampleModel.getDataType());
+        }
+        image.copyData(Raster.createWritableRaster(sampleModel, dataBuffer, new Point(microTileArea.x, microTileArea.y)));
+        bytesRead[pass] += (long) numPixels * DataBuffer.getDataTypeSize(sampleModel.getDataType()) / 8;
+        readNanos[pass] += System.nanoTime() - t0;
+        return samples;
+    }
+
+    private Object acquire(RenderedImage image) {
+        if (isFloat(image)) {
+            final float[] samples = floatPool.poll();
+            return samples != null ? samples : new float[numPixels];
+        } else {
+            final short[] samples = shortPool.poll();
+            return samples != null ? samples : new short[numPixels];
+        }
+    }
+
+    private void release(Object samples) {
+        if (samples instanceof float[]) {
+            floatPool.push((float[]) samples);
+        } else {
+            shortPool.push((short[]) samples);
+        }
+    }
+
+    private Object newArray(RenderedImage image) {
+        return isFloat(image) ? new float[numPixels] : new short[numPixels];
+    }
+
+    private static boolean fits(Object samples, RenderedImage image) {
+        return isFloat(image) ? samples instanceof float[] : samples instanceof short[];
+    }
+
+    private static boolean isFloat(RenderedImage image) {
+        return image.getSampleModel().getDataType() == DataBuffer.TYPE_FLOAT;
+    }
+
+    private static int bytesPerSample(RenderedImage image) {
+        return isFloat(image) ? 4 : 2;
+    }
+}
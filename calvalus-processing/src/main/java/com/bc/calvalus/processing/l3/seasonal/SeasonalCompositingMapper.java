@@ -6,6 +6,8 @@ import com.bc.calvalus.processing.JobConfigNames;
 import com.bc.calvalus.processing.beam.GpfUtils;
 import com.bc.calvalus.processing.hadoop.ProgressSplitProgressMonitor;
 import com.bc.ceres.binding.BindingException;
+import com.bc.ceres.core.NullProgressMonitor;
+import com.bc.ceres.core.ProgressMonitor;
 import com.bc.ceres.glevel.MultiLevelImage;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
@@ -22,7 +24,6 @@ import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.gpf.GPF;
 import org.esa.snap.core.gpf.common.BandMathsOp;
-import org.esa.snap.core.util.ImageUtils;
 import org.esa.snap.runtime.Engine;
 
 import java.awt.Rectangle;
@@ -31,14 +32,20 @@ import java.io.IOException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Deque;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -78,16 +85,8 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
     public static final boolean DEBUG = false;
     private static final float EPS = 1.0E-6f;
 
-    short[][] bandDataB;
-    short[][] bandDataS;
-    float[][] bandDataF;
-    float[][] ndxiSum;
-    float[][] ndxiSqrSum;
-    int[][] ndxiCount;
-    int[][] statusCount;
-    float[][] ndxiMean;
-    float[][] ndxiSdev;
-    float[][] accu;
+    private static final String COUNTER_GROUP_NAME = "Seasonal compositing";
+    private static final String[] PASS_NAMES = {"Majority status", "Aggregation"};
 
     float srThreshold;
 
@@ -185,79 +184,9 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
                                  srRootDir, conf, fs, isMsi, isOlci, isSyn, numSourceBands, sourceBandIndex,
                                  products, bandImages);
         LOG.info("inputs determined in " + (System.currentTimeMillis()-timestamp0) + " millis");
-        // pre-allocate arrays for band values per data type, for best pixels aggregation, and for transfer to reducer
-        bandDataB = new short[numSourceBands][];
-        bandDataS = new short[numSourceBands][];
-        bandDataF = new float[numSourceBands][];
-        if (withBestPixels) {
-            statusCount = new int[NUM_INDEXES][microTileSize*microTileSize];
-            ndxiSum = new float[(isSyn ? 3 : 1) * NUM_INDEXES][microTileSize*microTileSize];
-            ndxiSqrSum = new float[(isSyn ? 3 : 1) * NUM_INDEXES][microTileSize*microTileSize];
-            ndxiCount = new int[(isSyn ? 3 : 1) * NUM_INDEXES][microTileSize*microTileSize];
-            ndxiMean = new float[(isSyn ? 3 : 1)][microTileSize*microTileSize];
-            ndxiSdev = new float[(isSyn ? 3 : 1)][microTileSize*microTileSize];
-        }
-        accu = new float[numTargetBands][microTileSize * microTileSize];
-
-        // micro tile loop
-        LOG.info("processing " + (numMicroTiles*numMicroTiles) + " micro tiles ...");
-        for (int microTileY = 0; microTileY < numMicroTiles; ++microTileY) {
-            for (int microTileX = 0; microTileX < numMicroTiles; ++microTileX) {
-                long timestamp1 = System.currentTimeMillis();
-                long timestamp3;
-                final Rectangle microTileArea = new Rectangle(microTileX * microTileSize, microTileY * microTileSize, microTileSize, microTileSize);
-                clearAccu(numTargetBands, accu);
-                if (withBestPixels) {
-                    clearNdxi(isSyn ? 3 : 1);
-                    determineMajorityStatus(bandImages, microTileArea, isSyn,
-                                            sl01BandIndex, b3BandIndex, b11BandIndex, ndviBandIndex,
-                                            ndxiMean, ndxiSdev, accu);
-                    long timestamp2 = System.currentTimeMillis();
-                    LOG.info("majority status determined in " + (timestamp2-timestamp1) + " millis");
-                    aggregateBestPixels(bandImages, microTileArea, isSyn,
-                                        b3BandIndex, b11BandIndex, ndviBandIndex,
-                                        sl01BandIndex, numSourceBands, numTargetBands,
-                                        accu);
-                    divideByCount(microTileArea, numTargetBands, isSyn, sl01BandIndex, accu);
-                    timestamp3 = System.currentTimeMillis();
-                    LOG.info("best pixels aggregated in " + (timestamp3-timestamp2) + " millis");
-                } else if (withMaxNdvi) {
-                    aggregateByMaxNdvi(bandImages, microTileArea, ndviBandIndex, numSourceBands, numTargetBands,
-                                       accu);
-                    timestamp3 = System.currentTimeMillis();
-                    LOG.info("max ndvi aggregated in " + (timestamp3-timestamp1) + " millis");
-                } else {
-                    aggregateByStatusRank(bandImages, microTileArea, ndviBandIndex, numSourceBands, numTargetBands,
-                                          accu);
-                    divideByCount(microTileArea, numTargetBands, false, sl01BandIndex, accu);
-                    timestamp3 = System.currentTimeMillis();
-                    LOG.info("average aggregated in " + (timestamp3-timestamp1) + " millis");
-                }
-                // statistics for logging
-                final int[] counts = new int[16];
-                for (float state : accu[0]) {
-                    ++counts[rank(state)];
-                }
-                LOG.info((counts[14]+counts[10]+counts[9]+counts[8]) + " land, " + (counts[15]) + " water, " + counts[13] + " snow, " + counts[5] + " shadow, " + (counts[1]+counts[2]) + " cloud");
-                if (counts[14]+counts[10]+counts[9]+counts[8] == 0 && counts[15] == 0 && counts[13] == 0 && counts[5] == 0 && counts[1]+counts[2] == 0) {
-                    continue;
-                }
-                // stream results, one per band
-                for (int b = 0; b < numTargetBands; ++b) {
-                    // compose key from band and tile
-                    //final int bandAndTile = ((sensorBands.length - 3) << 27) + (targetBandIndex[b] << 22) + ((tileRow * numMicroTiles + microTileY) << 11) + (tileColumn * numMicroTiles + microTileX);
-                    final int bandAndTile = ((sensorBands.length - (isSyn ? 1 : 3)) << 26) + (targetBandIndex[b] << 21) + ((tileRow * numMicroTiles + microTileY) << 11) + (tileColumn * numMicroTiles + microTileX);
-                    //LOG.info("streaming band " + targetBandIndex[b] + " tile row " + (tileRow * numMicroTiles + microTileY) + " tile column " + (tileColumn * numMicroTiles + microTileX) + " key " + bandAndTile);
-                    // write tile
-                    final IntWritable key = new IntWritable(bandAndTile);
-                    final BandTileWritable value = new BandTileWritable(accu[b]);
-                    context.write(key, value);
-                }
-                long timestamp4 = System.currentTimeMillis();
-                LOG.info("result streamed in " + (timestamp4-timestamp3) + " millis");
-                pm.worked(4);
-            }
-        }
+        processMicroTiles(context, bandImages, numMicroTiles, microTileSize, withBestPixels, withMaxNdvi, isSyn,
+                          sl01BandIndex, b3BandIndex, b11BandIndex, ndviBandIndex, numSourceBands, numTargetBands,
+                          targetBandIndex, sensorBands.length, tileColumn, tileRow);
         for (Product product : products) {
             final File productFile = product.getFileLocation();
             product.dispose();
@@ -269,6 +198,169 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
         }
     }
 
+    /**
+     * Aggregates and streams the micro tiles of a tile, on several threads if configured.
+     * The output does not depend on the number of threads.
+     */
+    void processMicroTiles(Context context, List<MultiLevelImage[]> bandImages, int numMicroTiles, int microTileSize,
+                           boolean withBestPixels, boolean withMaxNdvi, boolean isSyn,
+                           int sl01BandIndex, int b3BandIndex, int b11BandIndex, int ndviBandIndex,
+                           int numSourceBands, int numTargetBands, int[] targetBandIndex, int numSensorBands,
+                           int tileColumn, int tileRow) throws IOException, InterruptedException {
+        final Configuration conf = context.getConfiguration();
+        // micro tile loop, on several threads if configured, the results are streamed in micro tile order
+        final int numMicroTilesTotal = numMicroTiles * numMicroTiles;
+        final int numThreads = Math.max(1, Math.min(conf.getInt("calvalus.compositing.threads", 1), numMicroTilesTotal));
+        LOG.info("processing " + numMicroTilesTotal + " micro tiles with " + numThreads + " threads ...");
+        // only best pixels aggregation has a second pass over the bands, the limit is shared by the threads
+        final long maxCacheBytes = withBestPixels ? conf.getLong("calvalus.compositing.cacheMegabytes", 256) * 1024 * 1024 / numThreads : 0;
+        // pre-allocate arrays for band values per data type, for best pixels aggregation, and for transfer to reducer,
+        // one set per micro tile in flight
+        final Deque<MicroTileBuffers> idleBuffers = new ArrayDeque<>();
+        for (int t = 0; t < numThreads; ++t) {
+            idleBuffers.add(new MicroTileBuffers(withBestPixels, isSyn, numSourceBands, numTargetBands, microTileSize,
+                                                 maxCacheBytes));
+        }
+        final ForkJoinPool pool = numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+        final List<Future<float[][]>> results = new ArrayList<>();
+        final MicroTileBuffers[] resultBuffers = new MicroTileBuffers[numMicroTilesTotal];
+        final WorkCounter[] resultWork = new WorkCounter[numMicroTilesTotal];
+        try {
+            for (int microTile = 0; microTile < numMicroTilesTotal; ++microTile) {
+                while (results.size() < numMicroTilesTotal && ! idleBuffers.isEmpty()) {
+                    final int microTileX = results.size() % numMicroTiles;
+                    final int microTileY = results.size() / numMicroTiles;
+                    final MicroTileBuffers buffers = idleBuffers.poll();
+                    resultBuffers[results.size()] = buffers;
+                    if (pool == null) {
+                        results.add(CompletableFuture.completedFuture(
+                                processMicroTile(bandImages, microTileX, microTileY, microTileSize,
+                                                 withBestPixels, withMaxNdvi, isSyn,
+                                                 sl01BandIndex, b3BandIndex, b11BandIndex, ndviBandIndex,
+                                                 numSourceBands, numTargetBands, buffers, pm)));
+                    } else {
+                        // the progress monitor is not thread-safe, the work is counted and reported when streaming
+                        final WorkCounter work = new WorkCounter();
+                        resultWork[results.size()] = work;
+                        results.add(pool.submit(() -> processMicroTile(bandImages, microTileX, microTileY, microTileSize,
+                                                                       withBestPixels, withMaxNdvi, isSyn,
+                                                                       sl01BandIndex, b3BandIndex, b11BandIndex, ndviBandIndex,
+                                                                       numSourceBands, numTargetBands, buffers, work)));
+                    }
+                }
+                final float[][] accu = getResult(results.get(microTile));
+                results.set(microTile, null);
+                if (resultWork[microTile] != null) {
+                    pm.worked(resultWork[microTile].work);
+                }
+                reportReadCounters(context, resultBuffers[microTile].cache);
+                if (accu != null) {
+                    final int microTileX = microTile % numMicroTiles;
+                    final int microTileY = microTile / numMicroTiles;
+                    long timestamp3 = System.currentTimeMillis();
+                    // stream results, one per band
+                    for (int b = 0; b < numTargetBands; ++b) {
+                        // compose key from band and tile
+                        //final int bandAndTile = ((sensorBands.length - 3) << 27) + (targetBandIndex[b] << 22) + ((tileRow * numMicroTiles + microTileY) << 11) + (tileColumn * numMicroTiles + microTileX);
+                        final int bandAndTile = ((numSensorBands - (isSyn ? 1 : 3)) << 26) + (targetBandIndex[b] << 21) + ((tileRow * numMicroTiles + microTileY) << 11) + (tileColumn * numMicroTiles + microTileX);
+                        //LOG.info("streaming band " + targetBandIndex[b] + " tile row " + (tileRow * numMicroTiles + microTileY) + " tile column " + (tileColumn * numMicroTiles + microTileX) + " key " + bandAndTile);
+                        // write tile
+                        final IntWritable key = new IntWritable(bandAndTile);
+                        final BandTileWritable value = new BandTileWritable(accu[b]);
+                        context.write(key, value);
+                    }
+                    long timestamp4 = System.currentTimeMillis();
+                    LOG.info("result streamed in " + (timestamp4-timestamp3) + " millis");
+                    pm.worked(4);
+                }
+                idleBuffers.add(resultBuffers[microTile]);
+                resultBuffers[microTile] = null;
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Aggregates one micro tile into the accu of the buffers.
+     *
+     * @return the accu, or null if the micro tile contains no valid pixel
+     */
+    private float[][] processMicroTile(List<MultiLevelImage[]> bandImages, int microTileX, int microTileY, int microTileSize,
+                                       boolean withBestPixels, boolean withMaxNdvi, boolean isSyn,
+                                       int sl01BandIndex, int b3BandIndex, int b11BandIndex, int ndviBandIndex,
+                                       int numSourceBands, int numTargetBands,
+                                       MicroTileBuffers buffers, ProgressMonitor pm) {
+        final float[][] accu = buffers.accu;
+        long timestamp1 = System.currentTimeMillis();
+        long timestamp3;
+        final Rectangle microTileArea = new Rectangle(microTileX * microTileSize, microTileY * microTileSize, microTileSize, microTileSize);
+        clearAccu(numTargetBands, accu);
+        buffers.cache.clear();
+        if (withBestPixels) {
+            clearNdxi(isSyn ? 3 : 1, buffers);
+            determineMajorityStatus(bandImages, microTileArea, isSyn,
+                                    sl01BandIndex, b3BandIndex, b11BandIndex, ndviBandIndex,
+                                    buffers.ndxiMean, buffers.ndxiSdev, accu, buffers, pm);
+            long timestamp2 = System.currentTimeMillis();
+            LOG.info("majority status determined in " + (timestamp2-timestamp1) + " millis");
+            aggregateBestPixels(bandImages, microTileArea, isSyn,
+                                b3BandIndex, b11BandIndex, ndviBandIndex,
+                                sl01BandIndex, numSourceBands, numTargetBands,
+                                accu, buffers, pm);
+            divideByCount(microTileArea, numTargetBands, isSyn, sl01BandIndex, accu);
+            timestamp3 = System.currentTimeMillis();
+            LOG.info("best pixels aggregated in " + (timestamp3-timestamp2) + " millis");
+        } else if (withMaxNdvi) {
+            aggregateByMaxNdvi(bandImages, microTileArea, ndviBandIndex, numSourceBands, numTargetBands,
+                               accu, buffers, pm);
+            timestamp3 = System.currentTimeMillis();
+            LOG.info("max ndvi aggregated in " + (timestamp3-timestamp1) + " millis");
+        } else {
+            aggregateByStatusRank(bandImages, microTileArea, ndviBandIndex, numSourceBands, numTargetBands,
+                                  accu, buffers, pm);
+            divideByCount(microTileArea, numTargetBands, false, sl01BandIndex, accu);
+            timestamp3 = System.currentTimeMillis();
+            LOG.info("average aggregated in " + (timestamp3-timestamp1) + " millis");
+        }
+        // statistics for logging
+        final int[] counts = new int[16];
+        for (float state : accu[0]) {
+            ++counts[rank(state)];
+        }
+        LOG.info((counts[14]+counts[10]+counts[9]+counts[8]) + " land, " + (counts[15]) + " water, " + counts[13] + " snow, " + counts[5] + " shadow, " + (counts[1]+counts[2]) + " cloud");
+        if (counts[14]+counts[10]+counts[9]+counts[8] == 0 && counts[15] == 0 && counts[13] == 0 && counts[5] == 0 && counts[1]+counts[2] == 0) {
+            return null;
+        }
+        return accu;
+    }
+
+    private static void reportReadCounters(Context context, MicroTileBandCache cache) {
+        for (int pass = 0; pass < MicroTileBandCache.NUM_PASSES; ++pass) {
+            context.getCounter(COUNTER_GROUP_NAME, PASS_NAMES[pass] + " bytes read").increment(cache.bytesRead[pass]);
+            // single reads take less than a millisecond, the remainder is kept for the next report
+            context.getCounter(COUNTER_GROUP_NAME, PASS_NAMES[pass] + " read millis").increment(cache.readNanos[pass] / 1000000);
+            cache.bytesRead[pass] = 0;
+            cache.readNanos[pass] %= 1000000;
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
     private void findAndOpenInputProducts(String sensorAndResolution, int tileColumn, int tileRow,
                                           Date start, Date stop, int daysPerWeek,
                                           Path srRootDir, Configuration conf, FileSystem fs,
@@ -335,10 +427,21 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
 
     private void determineMajorityStatus(List<MultiLevelImage[]> bandImages, Rectangle microTileArea, boolean isSyn,
                                          int sl01BandIndex, int b3BandIndex, int b11BandIndex, int ndviBandIndex,
-                                         float[][] ndxiMean, float[][] ndxiSdev, float[][] accu) {
+                                         float[][] ndxiMean, float[][] ndxiSdev, float[][] accu,
+                                         MicroTileBuffers buffers, ProgressMonitor pm) {
+        final short[][] bandDataB = buffers.bandDataB;
+        final float[][] bandDataF = buffers.bandDataF;
+        final int[][] statusCount = buffers.statusCount;
+        final float[][] ndxiSum = buffers.ndxiSum;
+        final float[][] ndxiSqrSum = buffers.ndxiSqrSum;
+        final int[][] ndxiCount = buffers.ndxiCount;
+        int product = 0;
         for (MultiLevelImage[] bandImage : bandImages) {
-            readStatusBand(bandImage, microTileArea, bandDataB);
-            readNdviNdwiBands(bandImage, b3BandIndex, b11BandIndex, ndviBandIndex, isSyn, sl01BandIndex, microTileArea, bandDataF);
+            // decode all bands of the product once if they fit, for the aggregation pass
+            buffers.cache.cacheProduct(product, bandImage, microTileArea, bandImage.length, MicroTileBandCache.PASS_MAJORITY);
+            readStatusBand(bandImage, microTileArea, bandDataB, buffers.cache, product, MicroTileBandCache.PASS_MAJORITY);
+            readNdviNdwiBands(bandImage, b3BandIndex, b11BandIndex, ndviBandIndex, isSyn, sl01BandIndex, microTileArea, bandDataF,
+                              buffers.cache, product, MicroTileBandCache.PASS_MAJORITY);
             // pixel loop
             for (int i = 0; i < microTileArea.height * microTileArea.width; ++i) {
                 final int state = (int) bandDataB[0][i];
@@ -399,6 +502,7 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
                 //traceState(state, index, i, statusCount, microTileArea);
             }
             pm.worked(1);
+            ++product;
         }
         for (int i = 0; i < microTileArea.height * microTileArea.width; ++i) {
             int state = majorityPriorityStatusOf(statusCount, i);
@@ -447,10 +551,17 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
     private void aggregateBestPixels(List<MultiLevelImage[]> bandImages, Rectangle microTileArea, boolean isSyn,
                                      int b3BandIndex, int b11BandIndex, int ndviBandIndex, int sl01BandIndex,
                                      int numSourceBands, int numTargetBands,
-                                     float[][] accu) {
+                                     float[][] accu, MicroTileBuffers buffers, ProgressMonitor pm) {
+        final short[][] bandDataB = buffers.bandDataB;
+        final short[][] bandDataS = buffers.bandDataS;
+        final float[][] bandDataF = buffers.bandDataF;
+        final float[][] ndxiMean = buffers.ndxiMean;
+        final float[][] ndxiSdev = buffers.ndxiSdev;
         // product loop
+        int product = 0;
         for (MultiLevelImage[] bandImage : bandImages) {
-            readSourceBands(bandImage, microTileArea, numSourceBands, bandDataB, bandDataS, bandDataF);
+            readSourceBands(bandImage, microTileArea, numSourceBands, bandDataB, bandDataS, bandDataF,
+                            buffers.cache, product, MicroTileBandCache.PASS_AGGREGATION);
             // pixel loop
             for (int i = 0; i < microTileArea.height * microTileArea.width; ++i) {
                 final int state = (int) bandDataB[0][i];
@@ -611,14 +722,20 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
                 }
             }
             pm.worked(5);
+            ++product;
         }
     }
 
     private void aggregateByMaxNdvi(List<MultiLevelImage[]> bandImages, Rectangle microTileArea,
                                     int ndviBandIndex, int numSourceBands, int numTargetBands,
-                                    float[][] accu) {
+                                    float[][] accu, MicroTileBuffers buffers, ProgressMonitor pm) {
+        final short[][] bandDataB = buffers.bandDataB;
+        final short[][] bandDataS = buffers.bandDataS;
+        final float[][] bandDataF = buffers.bandDataF;
+        int product = 0;
         for (MultiLevelImage[] bandImage : bandImages) {
-            readSourceBands(bandImage, microTileArea, numSourceBands, bandDataB, bandDataS, bandDataF);
+            readSourceBands(bandImage, microTileArea, numSourceBands, bandDataB, bandDataS, bandDataF,
+                            buffers.cache, product, MicroTileBandCache.PASS_AGGREGATION);
             // pixel loop
             for (int i = 0; i < microTileArea.height * microTileArea.width; ++i) {
                 // aggregate pixel-wise using aggregation rules
@@ -647,14 +764,20 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
                 }
             }
             pm.worked(6);
+            ++product;
         }
     }
 
     private void aggregateByStatusRank(List<MultiLevelImage[]> bandImages, Rectangle microTileArea,
                                        int ndviBandIndex, int numSourceBands, int numTargetBands,
-                                       float[][] accu) {
+                                       float[][] accu, MicroTileBuffers buffers, ProgressMonitor pm) {
+        final short[][] bandDataB = buffers.bandDataB;
+        final short[][] bandDataS = buffers.bandDataS;
+        final float[][] bandDataF = buffers.bandDataF;
+        int product = 0;
         for (MultiLevelImage[] bandImage : bandImages) {
-            readSourceBands(bandImage, microTileArea, numSourceBands, bandDataB, bandDataS, bandDataF);
+            readSourceBands(bandImage, microTileArea, numSourceBands, bandDataB, bandDataS, bandDataF,
+                            buffers.cache, product, MicroTileBandCache.PASS_AGGREGATION);
             // pixel loop
             for (int i = 0; i < microTileArea.height * microTileArea.width; ++i) {
                 final int state = (int) bandDataB[0][i];
@@ -680,6 +803,7 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
                 }
             }
             pm.worked(6);
+            ++product;
         }
     }
 
@@ -736,7 +860,11 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
         }
     }
 
-    private void clearNdxi(int numBandGroups) {
+    private void clearNdxi(int numBandGroups, MicroTileBuffers buffers) {
+        final float[][] ndxiSum = buffers.ndxiSum;
+        final float[][] ndxiSqrSum = buffers.ndxiSqrSum;
+        final int[][] ndxiCount = buffers.ndxiCount;
+        final int[][] statusCount = buffers.statusCount;
         for (int j=0; j<numBandGroups * NUM_INDEXES; ++j) {
             Arrays.fill(ndxiSum[j], 0.0f);
             Arrays.fill(ndxiSqrSum[j], 0.0f);
@@ -753,31 +881,34 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
         return ProductIO.readProduct(localFile);
     }
 
-    private void readSourceBands(MultiLevelImage[] bandImage, Rectangle microTileArea, int numSourceBands, short[][] bandDataB, short[][] bandDataS, float[][] bandDataF) {
+    private void readSourceBands(MultiLevelImage[] bandImage, Rectangle microTileArea, int numSourceBands, short[][] bandDataB, short[][] bandDataS, float[][] bandDataF,
+                                 MicroTileBandCache cache, int product, int pass) {
         for (int b = 0; b < numSourceBands; b++) {
             if (b == 0) {
-                bandDataB[b] = (short[]) ImageUtils.getPrimitiveArray(bandImage[b].getData(microTileArea).getDataBuffer());
+                bandDataB[b] = (short[]) cache.getBand(product, b, bandImage[b], microTileArea, pass);
             } else if (b < 6) {
-                bandDataS[b] = (short[]) ImageUtils.getPrimitiveArray(bandImage[b].getData(microTileArea).getDataBuffer());
+                bandDataS[b] = (short[]) cache.getBand(product, b, bandImage[b], microTileArea, pass);
             } else {
-                bandDataF[b] = (float[]) ImageUtils.getPrimitiveArray(bandImage[b].getData(microTileArea).getDataBuffer());
+                bandDataF[b] = (float[]) cache.getBand(product, b, bandImage[b], microTileArea, pass);
             }
         }
     }
 
-    private void readStatusBand(MultiLevelImage[] bandImage, Rectangle microTileArea, short[][] bandDataB) {
-        bandDataB[0] = (short[]) ImageUtils.getPrimitiveArray(bandImage[0].getData(microTileArea).getDataBuffer());
+    private void readStatusBand(MultiLevelImage[] bandImage, Rectangle microTileArea, short[][] bandDataB,
+                                MicroTileBandCache cache, int product, int pass) {
+        bandDataB[0] = (short[]) cache.getBand(product, 0, bandImage[0], microTileArea, pass);
     }
 
-    private void readNdviNdwiBands(MultiLevelImage[] bandImage, int b3BandIndex, int b11BandIndex, int ndviBandIndex, boolean isSyn, int sl01BandIndex, Rectangle microTileArea, float[][] bandDataF) {
-        bandDataF[b3BandIndex] = (float[]) ImageUtils.getPrimitiveArray(bandImage[b3BandIndex].getData(microTileArea).getDataBuffer());
-        bandDataF[b11BandIndex] = (float[]) ImageUtils.getPrimitiveArray(bandImage[b11BandIndex].getData(microTileArea).getDataBuffer());
-        bandDataF[ndviBandIndex] = (float[]) ImageUtils.getPrimitiveArray(bandImage[ndviBandIndex].getData(microTileArea).getDataBuffer());
+    private void readNdviNdwiBands(MultiLevelImage[] bandImage, int b3BandIndex, int b11BandIndex, int ndviBandIndex, boolean isSyn, int sl01BandIndex, Rectangle microTileArea, float[][] bandDataF,
+                                   MicroTileBandCache cache, int product, int pass) {
+        bandDataF[b3BandIndex] = (float[]) cache.getBand(product, b3BandIndex, bandImage[b3BandIndex], microTileArea, pass);
+        bandDataF[b11BandIndex] = (float[]) cache.getBand(product, b11BandIndex, bandImage[b11BandIndex], microTileArea, pass);
+        bandDataF[ndviBandIndex] = (float[]) cache.getBand(product, ndviBandIndex, bandImage[ndviBandIndex], microTileArea, pass);
         if (isSyn) {
-            bandDataF[sl01BandIndex + 1] = (float[]) ImageUtils.getPrimitiveArray(bandImage[sl01BandIndex + 1].getData(microTileArea).getDataBuffer());
-            bandDataF[sl01BandIndex + 2] = (float[]) ImageUtils.getPrimitiveArray(bandImage[sl01BandIndex + 2].getData(microTileArea).getDataBuffer());
-            bandDataF[sl01BandIndex + 3] = (float[]) ImageUtils.getPrimitiveArray(bandImage[sl01BandIndex + 3].getData(microTileArea).getDataBuffer());
-            bandDataF[sl01BandIndex + 4] = (float[]) ImageUtils.getPrimitiveArray(bandImage[sl01BandIndex + 4].getData(microTileArea).getDataBuffer());
+            bandDataF[sl01BandIndex + 1] = (float[]) cache.getBand(product, sl01BandIndex + 1, bandImage[sl01BandIndex + 1], microTileArea, pass);
+            bandDataF[sl01BandIndex + 2] = (float[]) cache.getBand(product, sl01BandIndex + 2, bandImage[sl01BandIndex + 2], microTileArea, pass);
+            bandDataF[sl01BandIndex + 3] = (float[]) cache.getBand(product, sl01BandIndex + 3, bandImage[sl01BandIndex + 3], microTileArea, pass);
+            bandDataF[sl01BandIndex + 4] = (float[]) cache.getBand(product, sl01BandIndex + 4, bandImage[sl01BandIndex + 4], microTileArea, pass);
         }
     }
 
@@ -1257,4 +1388,60 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
             LOG.info("x=" + DEBUG_X2 + " y=" + DEBUG_Y2 + " i=" + i + " count=" + stateCount + " b=" + b + " bandvalue=" + accu[b][i]);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * The arrays for band values per data type, for best pixels aggregation, and for transfer to reducer
+     * of one micro tile
+     */
+    static class MicroTileBuffers {
+
+        final short[][] bandDataB;
+        final short[][] bandDataS;
+        final float[][] bandDataF;
+        final float[][] ndxiSum;
+        final float[][] ndxiSqrSum;
+        final int[][] ndxiCount;
+        final int[][] statusCount;
+        final float[][] ndxiMean;
+        final float[][] ndxiSdev;
+        final float[][] accu;
+        final MicroTileBandCache cache;
+
+        MicroTileBuffers(boolean withBestPixels, boolean isSyn, int numSourceBands, int numTargetBands, int microTileSize,
+                         long maxCacheBytes) {
+            bandDataB = new short[numSourceBands][];
+            bandDataS = new short[numSourceBands][];
+            bandDataF = new float[numSourceBands][];
+            if (withBestPixels) {
+                statusCount = new int[NUM_INDEXES][microTileSize*microTileSize];
+                ndxiSum = new float[(isSyn ? 3 : 1) * NUM_INDEXES][microTileSize*microTileSize];
+                ndxiSqrSum = new float[(isSyn ? 3 : 1) * NUM_INDEXES][microTileSize*microTileSize];
+                ndxiCount = new int[(isSyn ? 3 : 1) * NUM_INDEXES][microTileSize*microTileSize];
+                ndxiMean = new float[(isSyn ? 3 : 1)][microTileSize*microTileSize];
+                ndxiSdev = new float[(isSyn ? 3 : 1)][microTileSize*microTileSize];
+            } else {
+                statusCount = null;
+                ndxiSum = null;
+                ndxiSqrSum = null;
+                ndxiCount = null;
+                ndxiMean = null;
+                ndxiSdev = null;
+            }
+            accu = new float[numTargetBands][microTileSize * microTileSize];
+            cache = new MicroTileBandCache(maxCacheBytes, numSourceBands, microTileSize * microTileSize);
+        }
+    }
+
+    /**
+     * Counts the work of a micro tile processed on a pool thread
+     */
+    private static class WorkCounter extends NullProgressMonitor {
+
+        private int work;
+
+        @Override
+        public void worked(int work) {
+            this.work += work;
+        }
+    }
+}
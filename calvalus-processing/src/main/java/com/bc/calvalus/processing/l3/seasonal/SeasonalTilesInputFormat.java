@@ -14,12 +14,10 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.mapreduce.InputSplit;
-import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -73,15 +71,16 @@ public class SeasonalTilesInputFormat extends PatternBasedInputFormat {
     @Override
     protected void createSplits(ProductInventory productInventory,
                                 RemoteIterator<LocatedFileStatus> fileStatusIt,
-                                List<InputSplit> splits,
+                                List<InputSplit> splits, Set<String> tileNames,
                                 Configuration conf, int requestSizeLimit, boolean withDirs) throws IOException {
         while (fileStatusIt.hasNext()) {
             LocatedFileStatus locatedFileStatus = fileStatusIt.next();
             String fileName = locatedFileStatus.getPath().getName();
-            if (tileNameIn(tileNameOf(fileName), splits)) {
+            String tileName = tileNameOf(fileName);
+            if (tileNames.contains(tileName)) {
                 continue;
             }
-            LOG.info("tile " + fileName + " represents " + tileNameOf(fileName));
+            LOG.info("tile " + fileName + " represents " + tileName);
             if (locatedFileStatus.getBlockLocations() == null) {
                 BlockLocation[] blocks = locatedFileStatus.getPath().getFileSystem(conf).getFileBlockLocations(locatedFileStatus.getPath(), 0, locatedFileStatus.getLen());
                 ((LazilyLocatedFileStatus) locatedFileStatus).locate(blocks);
@@ -89,6 +88,7 @@ public class SeasonalTilesInputFormat extends PatternBasedInputFormat {
             InputSplit split = createSplit(productInventory, conf, locatedFileStatus, withDirs);
             if (split != null) {
                 splits.add(split);
+                tileNames.add(tileName);
                 if (requestSizeLimit > 0 && splits.size() == requestSizeLimit) {
                     break;
                 }
@@ -100,15 +100,6 @@ public class SeasonalTilesInputFormat extends PatternBasedInputFormat {
         return file.getPath().getFileSystem(conf);
     }
 
-    private static boolean tileNameIn(String tileName, List<InputSplit> splits) {
-        for (InputSplit split : splits) {
-            if (tileName.equals(tileNameOf(((FileSplit)split).getPath().getName()))) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private static String tileNameOf(String fileName) {
         Matcher matcher = SR_FILENAME_PATTERN.matcher(fileName);
         if (! matcher.matches()) {
@@ -36,7 +36,6 @@ import org.esa.snap.core.util.io.FileUtils;
 
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.Area;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -99,27 +98,34 @@ public class MAMapper extends Mapper<NullWritable, NullWritable, Text, RecordWri
                                                                      PixelTimeProvider.create(inputProduct),
                                                                      maConfig.getMaxTimeDifference(),
                                                                      referenceRecordHeader.hasTime());
+            ReferenceRecordIndex referenceRecordIndex = null;
             List<PixelPosProvider.PixelPosRecord> pixelPosRecords;
             try {
-                pixelPosRecords = pixelPosProvider.computePixelPosRecords(referenceRecordSource.getRecords());
+                if (conf.getBoolean(JobConfigNames.CALVALUS_MA_REFERENCE_INDEX, false)) {
+                    referenceRecordIndex = new ReferenceRecordIndex(referenceRecordSource.getRecords());
+                    LOG.info(String.format("indexed %d reference records, took %s sec", referenceRecordIndex.size(), (now() - t0) / 1E3));
+                    pixelPosRecords = pixelPosProvider.computePixelPosRecords(referenceRecordIndex);
+                } else {
+                    pixelPosRecords = pixelPosProvider.computePixelPosRecords(referenceRecordSource.getRecords());
+                }
             } catch (Exception e) {
                 throw new RuntimeException("Failed to retrieve input records. " + e.getMessage(), e);
             }
 
-            Area pixelArea = PixelPosProvider.computePixelArea(pixelPosRecords, maConfig.getMacroPixelSize());
-            LOG.info("pixelArea.isEmpty = " + pixelArea.isEmpty());
+            Rectangle pixelBounds = PixelPosProvider.computePixelBounds(pixelPosRecords, maConfig.getMacroPixelSize());
+            LOG.info("pixelBounds.isEmpty = " + pixelBounds.isEmpty());
 
             long referencePixelTime = (now() - t0);
             LOG.info(String.format("tested reference records, found %s matches, took %s sec",
                                    pixelPosRecords.size(), referencePixelTime / 1E3));
 
-            if (!pixelArea.isEmpty()) {
+            if (!pixelBounds.isEmpty()) {
                 t0 = now();
                 if (!pullProcessing) {
                     // prepare call to external processor
                     Rectangle fullScene = new Rectangle(inputProduct.getSceneRasterWidth(),
                                                         inputProduct.getSceneRasterHeight());
-                    Rectangle maRectangle = pixelArea.getBounds();
+                    Rectangle maRectangle = new Rectangle(pixelBounds);
                     maRectangle.grow(20, 20); // grow relevant pixelArea to have a bit surrounding product content
                     Rectangle processingRectangle = fullScene.intersection(maRectangle);
                     LOG.info("processing rectangle: " + processingRectangle);
@@ -160,7 +166,11 @@ public class MAMapper extends Mapper<NullWritable, NullWritable, Text, RecordWri
                                                                 referenceRecordHeader.hasTime());
 
                         try {
-                            pixelPosRecords = pixelPosProvider.computePixelPosRecords(referenceRecordSource.getRecords());
+                            if (referenceRecordIndex != null) {
+                                pixelPosRecords = pixelPosProvider.computePixelPosRecords(referenceRecordIndex);
+                            } else {
+                                pixelPosRecords = pixelPosProvider.computePixelPosRecords(referenceRecordSource.getRecords());
+                            }
                         } catch (Exception e) {
                             throw new RuntimeException("Failed to retrieve input records. " + e.getMessage(), e);
                         }
@@ -234,7 +244,11 @@ public class MAMapper extends Mapper<NullWritable, NullWritable, Text, RecordWri
     private RecordSource getReferenceRecordSource(MAConfig maConfig, Geometry regionGeometry, Configuration conf) {
         final RecordSource referenceRecordSource;
         try {
-            referenceRecordSource = maConfig.createRecordSource(conf);
+            if (conf.getBoolean(JobConfigNames.CALVALUS_MA_RECORD_CACHE, false)) {
+                referenceRecordSource = ReferenceRecordCache.getRecordSource(maConfig, conf);
+            } else {
+                referenceRecordSource = maConfig.createRecordSource(conf);
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -194,6 +194,48 @@ public class PixelPosProvider {
         return getInputRecordsSortedByPixelYX(referenceRecords);
     }
 
+    /**
+     * Like {@link #computePixelPosRecords(Iterable)}, but only geo-codes the records of the index
+     * that may lie within the product.
+     */
+    public List<PixelPosRecord> computePixelPosRecords(ReferenceRecordIndex referenceRecordIndex) {
+        return getInputRecordsSortedByPixelYX(referenceRecordIndex.getCandidates(product));
+    }
+
+    /**
+     * Computes the bounding rectangle of the macro pixels around the given pixel positions in linear time.
+     *
+     * @return the bounds of the same area as {@link #computePixelArea(List, int)}, an empty rectangle if there is none
+     */
+    public static Rectangle computePixelBounds(List<PixelPosRecord> pixelPosRecords, int macroPixelSize) {
+        if (macroPixelSize <= 0 || pixelPosRecords.isEmpty()) {
+            return new Rectangle();
+        }
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        int i = 0;
+        for (PixelPosProvider.PixelPosRecord pixelPosRecord : pixelPosRecords) {
+            PixelPos pixelPos = pixelPosRecord.getPixelPos();
+            if (++i <= 4) {
+                LOG.info(String.format("pixel pos y=%9.4f, x=%9.4f ...", pixelPos.y, pixelPos.x));
+            }
+            int x = (int) pixelPos.x - macroPixelSize / 2;
+            int y = (int) pixelPos.y - macroPixelSize / 2;
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x + macroPixelSize);
+            maxY = Math.max(maxY, y + macroPixelSize);
+        }
+        return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * @deprecated the union of areas is superlinear in the number of pixel positions,
+     * use {@link #computePixelBounds(List, int)}
+     */
+    @Deprecated
     public static Area computePixelArea(List<PixelPosRecord> pixelPosRecords, int macroPixelSize) {
         Area pixelArea = new Area();
         int i = 0;
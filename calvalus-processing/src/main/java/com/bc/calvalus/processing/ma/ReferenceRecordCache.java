@@ -0,0 +1,517 @@
+/*
+ * Copyright (C) 2012 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ma;
+
+import com.bc.calvalus.commons.CalvalusLogger;
+import com.bc.calvalus.processing.JobConfigNames;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.esa.snap.core.datamodel.GeoPos;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A per-node cache of parsed reference records, so that the mappers of an MA job on a node do not
+ * download and parse the same CSV or placemark file again and again.
+ * <p>
+ * The records are stored in a compact binary file, keyed by the URL and the modification time of
+ * the record source, in {@link JobConfigNames#CALVALUS_MA_RECORD_CACHE_DIR} (default
+ * <code>${hadoop.tmp.dir}/calvalus-ma-records</code>). Location, time and id are stored as columns of
+ * primitives, the attribute and annotation values as rows that are only decoded when requested.
+ * The file is memory-mapped by the readers. It is written to a temporary file first and renamed,
+ * so that concurrent tasks either see the complete file or none.
+ * <p>
+ * The cache keeps at most {@link JobConfigNames#CALVALUS_MA_RECORD_CACHE_CAPACITY} files (default 16). When a new
+ * file is added, the least recently used file is deleted. Within a JVM, the record sources that have been opened
+ * are kept with their files and are reused.
+ * <p>
+ * Record sources whose modification time cannot be determined (e.g. HTTP URLs), that contain
+ * attribute values other than numbers, strings and dates, or that exceed 2 GB are not cached.
+ */
+public class ReferenceRecordCache {
+
+    private static final Logger LOG = CalvalusLogger.getLogger();
+
+    private static final int MAGIC = 0x4d415243; // "MARC"
+    private static final int VERSION = 1;
+    private static final long NO_TIME = Long.MIN_VALUE;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final String CACHE_FILE_SUFFIX = ".records";
+
+    private static NodeCache nodeCache;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_DOUBLE = 1;
+    private static final byte TYPE_FLOAT = 2;
+    private static final byte TYPE_INTEGER = 3;
+    private static final byte TYPE_LONG = 4;
+    private static final byte TYPE_STRING = 5;
+    private static final byte TYPE_DATE = 6;
+
+    /**
+     * @return the cached record source, or the record source created by the MA configuration if it cannot be cached
+     */
+    public static RecordSource getRecordSource(MAConfig maConfig, Configuration conf) throws Exception {
+        String url = maConfig.getRecordSourceUrl();
+        long modificationTime = getModificationTime(url, conf);
+        if (modificationTime <= 0L) {
+            LOG.info("modification time of " + url + " unknown, reference records not cached");
+            return maConfig.createRecordSource(conf);
+        }
+        File cacheDir = new File(conf.get(JobConfigNames.CALVALUS_MA_RECORD_CACHE_DIR,
+                                          conf.get("hadoop.tmp.dir", System.getProperty("java.io.tmpdir")) + "/calvalus-ma-records"));
+        File cacheFile = new File(cacheDir, getCacheKey(url, modificationTime) + CACHE_FILE_SUFFIX);
+        NodeCache nodeCache = getNodeCache(cacheDir, conf.getInt(JobConfigNames.CALVALUS_MA_RECORD_CACHE_CAPACITY, DEFAULT_CAPACITY));
+        synchronized (nodeCache) {
+            RecordSource recordSource = nodeCache.get(cacheFile);
+            if (!cacheFile.exists()) {
+                long t0 = System.currentTimeMillis();
+                try {
+                    write(maConfig.createRecordSource(conf), cacheDir, cacheFile);
+                } catch (IOException | IllegalArgumentException e) {
+                    LOG.warning("reference records of " + url + " not cached: " + e.getMessage());
+                    return maConfig.createRecordSource(conf);
+                }
+                recordSource = null;
+                LOG.info(String.format("cached reference records of %s in %s, took %s sec", url, cacheFile, (System.currentTimeMillis() - t0) / 1E3));
+            } else {
+                // the modification time orders the files of the node by their use
+                cacheFile.setLastModified(System.currentTimeMillis());
+                LOG.info(String.format("using cached reference records of %s in %s", url, cacheFile));
+            }
+            if (recordSource == null) {
+                recordSource = read(cacheFile);
+            }
+            nodeCache.put(cacheFile, recordSource);
+            return recordSource;
+        }
+    }
+
+    static synchronized NodeCache getNodeCache(File cacheDir, int capacity) {
+        if (nodeCache == null || !nodeCache.cacheDir.equals(cacheDir)) {
+            nodeCache = new NodeCache(cacheDir, capacity);
+        }
+        nodeCache.capacity = capacity;
+        return nodeCache;
+    }
+
+    static long getModificationTime(String url, Configuration conf) {
+        if (!(url.startsWith("hdfs:") || url.startsWith("s3a") || url.startsWith("file:") || url.startsWith("/"))) {
+            return 0L;
+        }
+        try {
+            Path path = new Path(url);
+            return path.getFileSystem(conf).getFileStatus(path).getModificationTime();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    private static String getCacheKey(String url, long modificationTime) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest((url + '|' + modificationTime).getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void write(RecordSource recordSource, File cacheDir, File cacheFile) throws Exception {
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs() && !cacheDir.isDirectory()) {
+            throw new IOException("cannot create cache directory " + cacheDir);
+        }
+        Header header = recordSource.getHeader();
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(headerBytes)) {
+            out.writeBoolean(header.hasLocation());
+            out.writeBoolean(header.hasTime());
+            writeStrings(out, header.getAttributeNames());
+            writeStrings(out, header.getAnnotationNames());
+            out.writeUTF(String.valueOf(recordSource.getTimeAndLocationColumnDescription()));
+        }
+
+        File rowsFile = File.createTempFile("rows-", ".tmp", cacheDir);
+        File tmpFile = File.createTempFile("records-", ".tmp", cacheDir);
+        try {
+            int numRecords = 0;
+            double[] lats = new double[1024];
+            double[] lons = new double[1024];
+            long[] times = new long[1024];
+            int[] ids = new int[1024];
+            byte[] hasLocations = new byte[1024];
+            long[] rowOffsets = new long[1025];
+            try (DataOutputStream rows = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(rowsFile)))) {
+                long rowOffset = 0L;
+                for (Record record : recordSource.getRecords()) {
+                    if (numRecords == ids.length) {
+                        int capacity = 2 * numRecords;
+                        lats = Arrays.copyOf(lats, capacity);
+                        lons = Arrays.copyOf(lons, capacity);
+                        times = Arrays.copyOf(times, capacity);
+                        ids = Arrays.copyOf(ids, capacity);
+                        hasLocations = Arrays.copyOf(hasLocations, capacity);
+                        rowOffsets = Arrays.copyOf(rowOffsets, capacity + 1);
+                    }
+                    GeoPos location = record.getLocation();
+                    hasLocations[numRecords] = (byte) (location != null ? 1 : 0);
+                    lats[numRecords] = location != null ? location.getLat() : Double.NaN;
+                    lons[numRecords] = location != null ? location.getLon() : Double.NaN;
+                    times[numRecords] = record.getTime() != null ? record.getTime().getTime() : NO_TIME;
+                    ids[numRecords] = record.getId();
+                    int rowStart = rows.size();
+                    writeValues(rows, record.getAttributeValues());
+                    writeValues(rows, record.getAnnotationValues());
+                    rowOffset += rows.size() - rowStart;
+                    if (rows.size() == Integer.MAX_VALUE) {
+                        throw new IOException("too many reference records to cache");
+                    }
+                    rowOffsets[++numRecords] = rowOffset;
+                }
+            }
+
+            int headerLength = headerBytes.size();
+            long columnsOffset = align(16 + headerLength);
+            long rowsOffset = align(columnsOffset + (long) numRecords * (8 + 8 + 8 + 4 + 1)) + 8L * (numRecords + 1);
+            if (rowsOffset + rowsFile.length() > Integer.MAX_VALUE) {
+                throw new IOException("too many reference records to cache");
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(headerLength);
+                headerBytes.writeTo(out);
+                out.writeInt(numRecords);
+                pad(out, columnsOffset);
+                for (int i = 0; i < numRecords; i++) {
+                    out.writeDouble(lats[i]);
+                }
+                for (int i = 0; i < numRecords; i++) {
+                    out.writeDouble(lons[i]);
+                }
+                for (int i = 0; i < numRecords; i++) {
+                    out.writeLong(times[i]);
+                }
+                for (int i = 0; i < numRecords; i++) {
+                    out.writeInt(ids[i]);
+                }
+                out.write(hasLocations, 0, numRecords);
+                pad(out, rowsOffset - 8L * (numRecords + 1));
+                for (int i = 0; i <= numRecords; i++) {
+                    out.writeLong(rowOffsets[i]);
+                }
+                Files.copy(rowsFile.toPath(), out);
+            }
+            Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            rowsFile.delete();
+            tmpFile.delete();
+        }
+    }
+
+    static RecordSource read(File cacheFile) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(cacheFile, "r"); FileChannel channel = file.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("not a reference record cache file: " + cacheFile);
+        }
+        int headerLength = buffer.getInt(8);
+        byte[] headerBytes = new byte[headerLength];
+        ByteBuffer headerBuffer = buffer.duplicate();
+        headerBuffer.position(12);
+        headerBuffer.get(headerBytes);
+        int numRecords = headerBuffer.getInt();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(headerBytes))) {
+            boolean hasLocation = in.readBoolean();
+            boolean hasTime = in.readBoolean();
+            String[] attributeNames = readStrings(in);
+            String[] annotationNames = readStrings(in);
+            String description = in.readUTF();
+            Header header = new DefaultHeader(hasLocation, hasTime, attributeNames, annotationNames);
+            return new MappedRecordSource(buffer, header, description, numRecords, (int) align(16 + headerLength));
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static void pad(DataOutputStream out, long offset) throws IOException {
+        while (out.size() < offset) {
+            out.writeByte(0);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+        return strings;
+    }
+
+    private static void writeValues(DataOutputStream out, Object[] values) throws IOException {
+        out.writeInt(values.length);
+        for (Object value : values) {
+            if (value == null) {
+                out.writeByte(TYPE_NULL);
+            } else if (value instanceof Double) {
+                out.writeByte(TYPE_DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Float) {
+                out.writeByte(TYPE_FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(TYPE_INTEGER);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof String) {
+                byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                out.writeByte(TYPE_STRING);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            } else if (value instanceof Date) {
+                out.writeByte(TYPE_DATE);
+                out.writeLong(((Date) value).getTime());
+            } else {
+                throw new IllegalArgumentException("unsupported attribute value type " + value.getClass().getName());
+            }
+        }
+    }
+
+    private static Object[] readValues(ByteBuffer in) {
+        Object[] values = new Object[in.getInt()];
+        for (int i = 0; i < values.length; i++) {
+            byte type = in.get();
+            switch (type) {
+                case TYPE_NULL:
+                    break;
+                case TYPE_DOUBLE:
+                    values[i] = in.getDouble();
+                    break;
+                case TYPE_FLOAT:
+                    values[i] = in.getFloat();
+                    break;
+                case TYPE_INTEGER:
+                    values[i] = in.getInt();
+                    break;
+                case TYPE_LONG:
+                    values[i] = in.getLong();
+                    break;
+                case TYPE_STRING:
+                    byte[] bytes = new byte[in.getInt()];
+                    in.get(bytes);
+                    values[i] = new String(bytes, StandardCharsets.UTF_8);
+                    break;
+                case TYPE_DATE:
+                    values[i] = new Date(in.getLong());
+                    break;
+                default:
+                    throw new IllegalStateException("corrupt reference record cache, value type " + type);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * The cache files of the node in the order of their use, with the record sources opened by this JVM.
+     * The least recently used file is deleted when there are more files than the capacity.
+     */
+    static class NodeCache extends LinkedHashMap<File, RecordSource> {
+
+        private final File cacheDir;
+        private int capacity;
+
+        NodeCache(File cacheDir, int capacity) {
+            super(16, 0.75f, true);
+            this.cacheDir = cacheDir;
+            this.capacity = capacity;
+            File[] files = cacheDir.listFiles((dir, name) -> name.endsWith(CACHE_FILE_SUFFIX));
+            if (files != null) {
+                Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+                for (File file : files) {
+                    put(file, null);
+                }
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, RecordSource> eldest) {
+            if (size() <= capacity) {
+                return false;
+            }
+            // readers of other tasks that have mapped the file keep their mapping
+            if (eldest.getKey().delete()) {
+                LOG.info("evicted reference record cache file " + eldest.getKey());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A record source on a memory-mapped cache file. Its records can be iterated any number of times.
+     */
+    private static class MappedRecordSource implements RecordSource {
+
+        private final ByteBuffer buffer;
+        private final Header header;
+        private final String description;
+        private final int numRecords;
+        private final int latOffset;
+        private final int lonOffset;
+        private final int timeOffset;
+        private final int idOffset;
+        private final int hasLocationOffset;
+        private final int rowOffsetsOffset;
+        private final int rowsOffset;
+
+        MappedRecordSource(ByteBuffer buffer, Header header, String description, int numRecords, int columnsOffset) {
+            this.buffer = buffer;
+            this.header = header;
+            this.description = description;
+            this.numRecords = numRecords;
+            latOffset = columnsOffset;
+            lonOffset = latOffset + 8 * numRecords;
+            timeOffset = lonOffset + 8 * numRecords;
+            idOffset = timeOffset + 8 * numRecords;
+            hasLocationOffset = idOffset + 4 * numRecords;
+            rowOffsetsOffset = (int) align(hasLocationOffset + numRecords);
+            rowsOffset = rowOffsetsOffset + 8 * (numRecords + 1);
+        }
+
+        @Override
+        public Header getHeader() {
+            return header;
+        }
+
+        @Override
+        public Iterable<Record> getRecords() {
+            return new AbstractList<Record>() {
+                @Override
+                public Record get(int index) {
+                    if (index < 0 || index >= numRecords) {
+                        throw new IndexOutOfBoundsException(String.valueOf(index));
+                    }
+                    return new MappedRecord(index);
+                }
+
+                @Override
+                public int size() {
+                    return numRecords;
+                }
+            };
+        }
+
+        @Override
+        public String getTimeAndLocationColumnDescription() {
+            return description;
+        }
+
+        private class MappedRecord implements Record {
+
+            private final int index;
+
+            MappedRecord(int index) {
+                this.index = index;
+            }
+
+            @Override
+            public int getId() {
+                return buffer.getInt(idOffset + 4 * index);
+            }
+
+            @Override
+            public GeoPos getLocation() {
+                if (buffer.get(hasLocationOffset + index) == 0) {
+                    return null;
+                }
+                return new GeoPos(buffer.getDouble(latOffset + 8 * index), buffer.getDouble(lonOffset + 8 * index));
+            }
+
+            @Override
+            public Date getTime() {
+                long time = buffer.getLong(timeOffset + 8 * index);
+                return time != NO_TIME ? new Date(time) : null;
+            }
+
+            @Override
+            public Object[] getAttributeValues() {
+                return readValues(row());
+            }
+
+            @Override
+            public Object[] getAnnotationValues() {
+                ByteBuffer row = row();
+                readValues(row);
+                return readValues(row);
+            }
+
+            private ByteBuffer row() {
+                ByteBuffer row = buffer.duplicate();
+                row.position(rowsOffset + (int) buffer.getLong(rowOffsetsOffset + 8 * index));
+                return row;
+            }
+
+            @Override
+            public String toString() {
+                return "MappedRecord{" +
+                       "id=" + getId() +
+                       ", location=" + getLocation() +
+                       ", time=" + getTime() +
+                       ", values=" + Arrays.asList(getAttributeValues()) +
+                       '}';
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2012 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ma;
+
+import com.bc.calvalus.commons.CalvalusLogger;
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.util.ProductUtils;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A spatial index of reference records. It selects the records that may lie within a product,
+ * so that only these have to be geo-coded by the {@link PixelPosProvider}.
+ * <p>
+ * The product footprint is approximated by the lat/lon bounding box of its geo-boundary, enlarged
+ * by a margin and split at the anti-meridian if necessary. If the footprint cannot be determined,
+ * e.g. because the product covers a pole or its boundary is not geo-coded, all records are candidates.
+ * Records without a valid location are never candidates because they cannot be geo-coded anyway.
+ */
+public class ReferenceRecordIndex {
+
+    private static final Logger LOG = CalvalusLogger.getLogger();
+    private static final double MARGIN_DEG = 1.0;
+    private static final double MAX_ABS_LAT_FOR_LON_RANGE = 80.0;
+
+    private final List<Record> records;
+    private final STRtree tree;
+
+    public ReferenceRecordIndex(Iterable<Record> referenceRecords) {
+        records = new ArrayList<>();
+        tree = new STRtree();
+        for (Record record : referenceRecords) {
+            GeoPos location = record.getLocation();
+            if (location != null && location.isValid()) {
+                double lon = normaliseLon(location.getLon());
+                tree.insert(new Envelope(lon, lon, location.getLat(), location.getLat()), records.size());
+            }
+            records.add(record);
+        }
+        tree.build();
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * @return the records that may lie within the product, in the order they have been indexed
+     */
+    public List<Record> getCandidates(Product product) {
+        Envelope[] footprint = computeFootprint(product);
+        if (footprint == null) {
+            return Collections.unmodifiableList(records);
+        }
+        List<Integer> indexes = new ArrayList<>();
+        for (Envelope envelope : footprint) {
+            for (Object index : tree.query(envelope)) {
+                indexes.add((Integer) index);
+            }
+        }
+        Collections.sort(indexes);
+        List<Record> candidates = new ArrayList<>(indexes.size());
+        int previousIndex = -1;
+        for (int index : indexes) {
+            if (index != previousIndex) {
+                candidates.add(records.get(index));
+                previousIndex = index;
+            }
+        }
+        LOG.info(String.format("%d of %d reference records within footprint %s", candidates.size(), records.size(), Arrays.toString(footprint)));
+        return candidates;
+    }
+
+    /**
+     * @return one or two lat/lon envelopes that contain the product, or null if they cannot be determined
+     */
+    static Envelope[] computeFootprint(Product product) {
+        GeoCoding geoCoding = product.getSceneGeoCoding();
+        if (geoCoding == null || containsPixel(product, geoCoding, 90.0) || containsPixel(product, geoCoding, -90.0)) {
+            return null;
+        }
+        int width = product.getSceneRasterWidth();
+        int height = product.getSceneRasterHeight();
+        int step = Math.max(1, Math.min(width, height) / 16);
+        GeoPos[] boundary;
+        try {
+            boundary = ProductUtils.createGeoBoundary(product, new Rectangle(0, 0, width, height), step, true);
+        } catch (Exception e) {
+            LOG.warning("failed to compute product boundary, using all reference records: " + e.getMessage());
+            return null;
+        }
+        if (boundary == null || boundary.length == 0) {
+            return null;
+        }
+        double minLat = 90.0;
+        double maxLat = -90.0;
+        double[] lons = new double[boundary.length];
+        for (int i = 0; i < boundary.length; i++) {
+            if (boundary[i] == null || !boundary[i].isValid()) {
+                return null;
+            }
+            minLat = Math.min(minLat, boundary[i].getLat());
+            maxLat = Math.max(maxLat, boundary[i].getLat());
+            lons[i] = normaliseLon(boundary[i].getLon());
+        }
+        minLat = Math.max(-90.0, minLat - MARGIN_DEG);
+        maxLat = Math.min(90.0, maxLat + MARGIN_DEG);
+        double maxAbsLat = Math.max(Math.abs(minLat), Math.abs(maxLat));
+        if (maxAbsLat > MAX_ABS_LAT_FOR_LON_RANGE) {
+            return new Envelope[]{new Envelope(-180.0, 180.0, minLat, maxLat)};
+        }
+        double lonMargin = MARGIN_DEG / Math.cos(Math.toRadians(maxAbsLat));
+
+        // the longitude range is the complement of the largest gap between boundary longitudes
+        Arrays.sort(lons);
+        int gapStart = lons.length - 1;
+        double largestGap = lons[0] + 360.0 - lons[lons.length - 1];
+        for (int i = 0; i < lons.length - 1; i++) {
+            if (lons[i + 1] - lons[i] > largestGap) {
+                largestGap = lons[i + 1] - lons[i];
+                gapStart = i;
+            }
+        }
+        if (largestGap <= 2 * lonMargin) {
+            return new Envelope[]{new Envelope(-180.0, 180.0, minLat, maxLat)};
+        }
+        double westLon = lons[(gapStart + 1) % lons.length] - lonMargin;
+        double eastLon = lons[gapStart] + lonMargin;
+        if (eastLon < westLon) {
+            eastLon += 360.0;
+        }
+        // split a range that crosses the anti-meridian
+        List<Envelope> envelopes = new ArrayList<>(2);
+        for (double shift = -360.0; shift <= 360.0; shift += 360.0) {
+            double lo = Math.max(-180.0, westLon + shift);
+            double hi = Math.min(180.0, eastLon + shift);
+            if (lo <= hi) {
+                envelopes.add(new Envelope(lo, hi, minLat, maxLat));
+            }
+        }
+        return envelopes.toArray(new Envelope[0]);
+    }
+
+    private static boolean containsPixel(Product product, GeoCoding geoCoding, double lat) {
+        PixelPos pixelPos = geoCoding.getPixelPos(new GeoPos(lat, 0.0), null);
+        return pixelPos != null && pixelPos.isValid() && product.containsPixel(pixelPos);
+    }
+
+    private static double normaliseLon(double lon) {
+        double normalised = lon % 360.0;
+        if (normalised >= 180.0) {
+            normalised -= 360.0;
+        } else if (normalised < -180.0) {
+            normalised += 360.0;
+        }
+        return normalised;
+    }
+}
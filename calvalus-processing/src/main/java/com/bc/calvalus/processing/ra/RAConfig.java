@@ -150,6 +150,19 @@ public class RAConfig implements XmlConvertible {
     @Parameter(defaultValue = "false")
     private boolean binValuesAsRatio = false;
 
+    // if set the mapper computes mergeable statistics summaries instead of emitting the samples,
+    // pixel values and exact percentiles are not available then
+    @Parameter(defaultValue = "false")
+    private boolean summariesInMapper = false;
+
+    // if set the percentiles are estimated with fixed memory per band instead of computed from all samples
+    @Parameter(defaultValue = "false")
+    private boolean streamingPercentiles = false;
+
+    // if set the regions are rasterized per product, only pixels near region borders are tested exactly
+    @Parameter(defaultValue = "false")
+    private boolean rasterizeRegions = false;
+
     // internal, will be set by the production type, to prevent repeated reading
     @Parameter
     private String[] internalRegionNames;
@@ -273,6 +286,30 @@ public class RAConfig implements XmlConvertible {
         this.binValuesAsRatio = binValuesAsRatio;
     }
 
+    public boolean isSummariesInMapper() {
+        return summariesInMapper;
+    }
+
+    public void setSummariesInMapper(boolean summariesInMapper) {
+        this.summariesInMapper = summariesInMapper;
+    }
+
+    public boolean isStreamingPercentiles() {
+        return streamingPercentiles;
+    }
+
+    public void setStreamingPercentiles(boolean streamingPercentiles) {
+        this.streamingPercentiles = streamingPercentiles;
+    }
+
+    public boolean isRasterizeRegions() {
+        return rasterizeRegions;
+    }
+
+    public void setRasterizeRegions(boolean rasterizeRegions) {
+        this.rasterizeRegions = rasterizeRegions;
+    }
+
     public static RAConfig get(Configuration conf) {
         String xml = conf.get(JobConfigNames.CALVALUS_RA_PARAMETERS);
         if (xml == null) {
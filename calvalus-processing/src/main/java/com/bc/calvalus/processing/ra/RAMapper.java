@@ -23,6 +23,7 @@ import com.bc.calvalus.processing.ProcessorFactory;
 import com.bc.calvalus.processing.hadoop.ProgressSplitProgressMonitor;
 import com.bc.calvalus.processing.ra.stat.Extractor;
 import com.bc.calvalus.processing.ra.stat.RADateRanges;
+import com.bc.calvalus.processing.ra.stat.StatisticsSummary;
 import com.bc.ceres.core.ProgressMonitor;
 import com.bc.ceres.core.SubProgressMonitor;
 import org.apache.hadoop.conf.Configuration;
@@ -34,7 +35,9 @@ import org.esa.snap.core.datamodel.ProductData;
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
@@ -83,13 +86,32 @@ public class RAMapper extends Mapper<NullWritable, NullWritable, RAKey, RAValue>
                 final AtomicLong numSamplesTotal = new AtomicLong(0);
                 final Set<Integer> regionIdSet = new HashSet<>();
                 final String productName = product.getName();
+                final boolean summariesInMapper = raConfig.isSummariesInMapper() && !raConfig.isWritePixelValues();
+                if (raConfig.isSummariesInMapper() && raConfig.isWritePixelValues()) {
+                    LOG.warning("pixel values requested, emitting samples instead of summaries");
+                }
+                final Map<Integer, RegionSummary> regionSummaries = new TreeMap<>();
                 RARegions.RegionIterator regionIterator = raConfig.createNamedRegionIterator(context.getConfiguration());
-                Extractor extractor = new Extractor(product, raConfig.getGoodPixelExpression(), raConfig.getBandNames(), regionIterator) {
+                Extractor extractor = new Extractor(product, raConfig.getGoodPixelExpression(), raConfig.getBandNames(), regionIterator,
+                                                    raConfig.isRasterizeRegions()) {
                     @Override
                     public void extractedData(int regionIndex, String regionName, long time, int numObs, float[][] samples) throws IOException, InterruptedException {
-                        RAKey key = new RAKey(regionIndex, regionName, time);
-                        RAValue value = new RAValue(numObs, samples, time, productName);
-                        context.write(key, value);
+                        if (summariesInMapper) {
+                            RegionSummary regionSummary = regionSummaries.get(regionIndex);
+                            if (regionSummary != null && regionSummary.time != time) {
+                                regionSummary.write(context, productName);
+                                regionSummary = null;
+                            }
+                            if (regionSummary == null) {
+                                regionSummary = new RegionSummary(regionIndex, regionName, time, raConfig);
+                                regionSummaries.put(regionIndex, regionSummary);
+                            }
+                            regionSummary.add(numObs, samples);
+                        } else {
+                            RAKey key = new RAKey(regionIndex, regionName, time);
+                            RAValue value = new RAValue(numObs, samples, time, productName);
+                            context.write(key, value);
+                        }
 
                         int numSamples = samples[0].length;
                         context.getCounter(COUNTER_GROUP_NAME_PRODUCTS, "Observations").increment(numObs);
@@ -102,6 +124,9 @@ public class RAMapper extends Mapper<NullWritable, NullWritable, RAKey, RAValue>
                     }
                 };
                 extractor.extract(pm);
+                for (RegionSummary regionSummary : regionSummaries.values()) {
+                    regionSummary.write(context, productName);
+                }
                 if (foundPixel.get()) {
                     context.getCounter(COUNTER_GROUP_NAME_PRODUCTS, "Product with pixel").increment(1);
                     LOG.info("");
@@ -119,4 +144,33 @@ public class RAMapper extends Mapper<NullWritable, NullWritable, RAKey, RAValue>
         }
     }
 
+    /**
+     * The summaries of all extracts of a region in a product, emitted as a single value.
+     */
+    private class RegionSummary {
+
+        private final int regionIndex;
+        private final String regionName;
+        private final long time;
+        private final StatisticsSummary[] summaries;
+        private int numObs;
+
+        RegionSummary(int regionIndex, String regionName, long time, RAConfig raConfig) {
+            this.regionIndex = regionIndex;
+            this.regionName = regionName;
+            this.time = time;
+            this.summaries = StatisticsSummary.create(raConfig);
+        }
+
+        void add(int numObs, float[][] samples) {
+            this.numObs += numObs;
+            for (int bandId = 0; bandId < summaries.length; bandId++) {
+                summaries[bandId].process(samples[bandId]);
+            }
+        }
+
+        void write(Context context, String productName) throws IOException, InterruptedException {
+            context.write(new RAKey(regionIndex, regionName, time), new RAValue(numObs, summaries, time, productName));
+        }
+    }
 }
@@ -22,6 +22,7 @@ import com.bc.calvalus.processing.l2.ProductFormatter;
 import com.bc.calvalus.processing.ra.stat.PixelArchiver;
 import com.bc.calvalus.processing.ra.stat.RADateRanges;
 import com.bc.calvalus.processing.ra.stat.RegionAnalysis;
+import com.bc.calvalus.processing.ra.stat.StatisticsSummary;
 import com.bc.calvalus.processing.ra.stat.WriterFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
@@ -95,9 +96,18 @@ public class RAReducer extends Reducer<RAKey, RAValue, NullWritable, NullWritabl
         for (RAValue extract : values) {
             long time = extract.getTime();
             int numObs = extract.getNumObs();
+            String productName = extract.getProductName();
+            StatisticsSummary[] summaries = extract.getSummaries();
+            if (summaries != null) {
+                long numSamples = summaries.length > 0 ? summaries[0].getNumValid() : 0;
+                String timeFormatted = RADateRanges.dateFormat.format(new Date(time));
+                LOG.info(String.format("    time: %s numObs: %8d  numValid: %8d   %s", timeFormatted, numObs, numSamples, productName));
+
+                regionAnalysis.addSummaries(time, numObs, summaries, productName);
+                continue;
+            }
             float[][] samples = extract.getSamples();
             int numSamples = samples[0].length;
-            String productName = extract.getProductName();
 
             String timeFormatted = RADateRanges.dateFormat.format(new Date(time));
             LOG.info(String.format("    time: %s numObs: %8d  numSamples: %8d   %s", timeFormatted, numObs, numSamples, productName));
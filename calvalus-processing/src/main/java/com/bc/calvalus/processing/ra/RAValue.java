@@ -17,6 +17,7 @@
 package com.bc.calvalus.processing.ra;
 
 import com.bc.calvalus.processing.hadoop.WritableUtils;
+import com.bc.calvalus.processing.ra.stat.StatisticsSummary;
 import org.apache.hadoop.io.CompressedWritable;
 import org.apache.hadoop.io.Text;
 
@@ -25,14 +26,18 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 /**
- * A {@link org.apache.hadoop.io.Writable} to hold a region analysis extract.
+ * A {@link org.apache.hadoop.io.Writable} to hold a region analysis extract,
+ * either its samples or its statistics summaries, one per band.
  *
  * @author MarcoZ
  */
 public class RAValue extends CompressedWritable {
 
+    private static final int SUMMARIES_MARKER = -1;
+
     private int numObs;
     private float[][] sampleValues;
+    private StatisticsSummary[] summaries;
     private long time;
     private String productName;
 
@@ -47,6 +52,13 @@ public class RAValue extends CompressedWritable {
         this.productName = productName;
     }
 
+    public RAValue(int numObs, StatisticsSummary[] summaries, long time, String productName) {
+        this.numObs = numObs;
+        this.summaries = summaries;
+        this.time = time;
+        this.productName = productName;
+    }
+
     public int getNumObs() {
         ensureInflated();
         return numObs;
@@ -62,16 +74,35 @@ public class RAValue extends CompressedWritable {
         return time;
     }
 
+    /**
+     * @return the samples, or null if the value holds summaries
+     */
     public float[][] getSamples() {
         ensureInflated();
         return sampleValues;
     }
 
+    /**
+     * @return the statistics summaries, or null if the value holds samples
+     */
+    public StatisticsSummary[] getSummaries() {
+        ensureInflated();
+        return summaries;
+    }
+
     @Override
     public void writeCompressed(DataOutput out) throws IOException {
         out.writeInt(numObs);
         out.writeLong(time);
         Text.writeString(out, productName);
+        if (summaries != null) {
+            out.writeInt(summaries.length);
+            out.writeInt(SUMMARIES_MARKER);
+            for (StatisticsSummary summary : summaries) {
+                summary.write(out);
+            }
+            return;
+        }
         float[][] array2D = sampleValues;
         int numBands = array2D.length;
         int numElems = array2D[0].length;
@@ -91,6 +122,15 @@ public class RAValue extends CompressedWritable {
         productName = Text.readString(in);
         int numBands = in.readInt();
         int numSamples = in.readInt();
+        if (numSamples == SUMMARIES_MARKER) {
+            summaries = new StatisticsSummary[numBands];
+            for (int i = 0; i < numBands; i++) {
+                summaries[i] = StatisticsSummary.read(in);
+            }
+            sampleValues = null;
+            return;
+        }
+        summaries = null;
         float[][] array2D = sampleValues;
         if (array2D == null || array2D.length != numBands || array2D[0].length != numSamples) {
             array2D = new float[numBands][numSamples];
@@ -104,7 +144,9 @@ public class RAValue extends CompressedWritable {
     }
 
     public String toString() {
-        if (sampleValues != null && sampleValues.length > 0 && sampleValues[0] != null) {
+        if (summaries != null) {
+            return "ExtractWritable(" + summaries.length + ",summaries)";
+        } else if (sampleValues != null && sampleValues.length > 0 && sampleValues[0] != null) {
             return "ExtractWritable(" + sampleValues.length + "," + sampleValues[0].length + ")";
         } else {
             return "ExtractWritable(null)";
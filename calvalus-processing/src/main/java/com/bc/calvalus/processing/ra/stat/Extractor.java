@@ -60,6 +60,15 @@ public abstract class Extractor {
     private long time;
 
     public Extractor(Product product, String validExpression, String[] bandNames, RARegions.RegionIterator regionIterator) {
+        this(product, validExpression, bandNames, regionIterator, false);
+    }
+
+    /**
+     * @param rasterizeRegions if true, the regions are rasterized once, so that only pixels near the region
+     *                         borders need the point-in-polygon test
+     */
+    public Extractor(Product product, String validExpression, String[] bandNames, RARegions.RegionIterator regionIterator,
+                     boolean rasterizeRegions) {
         this.product = product;
 
         if (product.getSceneTimeCoding() == null && product.getStartTime() == null && product.getEndTime() == null) {
@@ -96,6 +105,7 @@ public abstract class Extractor {
         LOG.info("MaskImage and DataImages have same tile grid: " + equalTileGrids);
 
         int regionIndex = 0;
+        int numRasterized = 0;
         regionFilters = new ArrayList<>();
         while (regionIterator.hasNext()) {
             RAConfig.NamedRegion namedRegion = regionIterator.next();
@@ -104,11 +114,19 @@ public abstract class Extractor {
 
                 if (!pixelRect.isEmpty()) {
                     PreparedGeometry preparedGeometry = PreparedGeometryFactory.prepare(namedRegion.region);
+                    RegionMask regionMask = null;
+                    if (rasterizeRegions) {
+                        regionMask = RegionMask.create(namedRegion.region, pixelRect, product.getSceneGeoCoding());
+                        if (regionMask != null) {
+                            numRasterized++;
+                        }
+                    }
                     regionFilters.add(new Extractor.GeometryFilter(regionIndex,
                             namedRegion.name,
                             pixelRect,
                             product.getSceneGeoCoding(),
-                            preparedGeometry));
+                            preparedGeometry,
+                            regionMask));
                 }
                 regionIndex++;
             }
@@ -116,6 +134,9 @@ public abstract class Extractor {
                 System.err.println("Region is skipped: "+namedRegion.name+" "+namedRegion.region+". Reason:"+e);
             }
         }
+        if (rasterizeRegions) {
+            LOG.info(String.format("rasterized %d of %d regions", numRasterized, regionFilters.size()));
+        }
         time = -1;
     }
 
@@ -258,17 +279,25 @@ public abstract class Extractor {
         private final GeoCoding geoCoding;
         private final PreparedGeometry geometry;
         private final GeometryFactory geometryFactory;
+        private final RegionMask regionMask;
 
-        GeometryFilter(int geoId, String name, Rectangle pixelRect, GeoCoding geoCoding, PreparedGeometry geometry) {
+        GeometryFilter(int geoId, String name, Rectangle pixelRect, GeoCoding geoCoding, PreparedGeometry geometry, RegionMask regionMask) {
             this.geoId = geoId;
             this.name = name;
             this.pixelRect = pixelRect;
             this.geoCoding = geoCoding;
             this.geometry = geometry;
             this.geometryFactory = new GeometryFactory();
+            this.regionMask = regionMask;
         }
 
         boolean test(int x, int y) {
+            if (regionMask != null) {
+                int classification = regionMask.classify(x, y);
+                if (classification != RegionMask.BORDER) {
+                    return classification == RegionMask.INSIDE;
+                }
+            }
             final PixelPos pixelPos = new PixelPos(x + 0.5, y + 0.5);
             final GeoPos geoPos = geoCoding.getGeoPos(pixelPos, null);
             Coordinate coordinate = new Coordinate(geoPos.lon, geoPos.lat);
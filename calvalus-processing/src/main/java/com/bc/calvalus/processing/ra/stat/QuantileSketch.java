@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ra.stat;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A streaming quantile estimator with bounded memory, an alternative to the {@link Accumulator}.
+ * <p>
+ * This is a KLL sketch (Karnin, Lang, Liberty: Optimal Quantile Approximation in Streams, 2016).
+ * Values are collected in levels. A full level is sorted and every other value is promoted to the
+ * next level with double weight. The capacity of the levels decreases by 2/3 from the top level down,
+ * so the sketch keeps about 3 * k values, independent of the number of values. A level may exceed its
+ * capacity until it is compacted, when its buffer is reallocated to the capacity. The buffers therefore
+ * hold less than 7 * k values (5.6 KB for k = 200).
+ * Sketches can be merged, e.g. those computed in mappers.
+ * <p>
+ * Accuracy: as long as no compaction has happened (up to k values) the percentiles are exact and
+ * identical to those of {@link Statistics#computePercentile}. Beyond that the rank of an estimated
+ * percentile deviates from the true rank by less than about 1.7% of the number of values for k = 200
+ * in 99% of the cases, e.g. the estimated p50 lies between the true p48.3 and p51.7.
+ * The estimate is always one of the values or an interpolation between two of them.
+ */
+public class QuantileSketch {
+
+    public static final int DEFAULT_K = 200;
+
+    private static final double CAPACITY_DECAY = 2.0 / 3.0;
+    private static final int MIN_CAPACITY = 2;
+
+    private final int k;
+    private final Random random;
+    private float[][] levels;
+    private int[] sizes;
+    private int[] capacities;
+    private int totalCapacity;
+    private int numLevels;
+    private int numRetained;
+    private long count;
+
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    public QuantileSketch(int k) {
+        if (k < MIN_CAPACITY) {
+            throw new IllegalArgumentException("k must be at least " + MIN_CAPACITY);
+        }
+        this.k = k;
+        // a fixed seed makes the results reproducible
+        this.random = new Random(k);
+        clear();
+    }
+
+    public void accumulateNoNaN(float... samples) {
+        for (float sample : samples) {
+            if (!Float.isNaN(sample)) {
+                append(0, sample);
+                count++;
+                if (numRetained >= totalCapacity) {
+                    compress();
+                }
+            }
+        }
+    }
+
+    public void merge(QuantileSketch other) {
+        if (other.k != k) {
+            throw new IllegalArgumentException(String.format("cannot merge sketches with k=%d and k=%d", k, other.k));
+        }
+        while (numLevels < other.numLevels) {
+            addLevel();
+        }
+        for (int h = 0; h < other.numLevels; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        count += other.count;
+        compress();
+    }
+
+    public void clear() {
+        levels = new float[1][k];
+        sizes = new int[1];
+        capacities = new int[]{k};
+        totalCapacity = k;
+        numLevels = 1;
+        numRetained = 0;
+        count = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of values retained
+     */
+    public int getNumRetained() {
+        return numRetained;
+    }
+
+    /**
+     * @return the number of values the level buffers can hold
+     */
+    int getNumAllocated() {
+        int numAllocated = 0;
+        for (int h = 0; h < numLevels; h++) {
+            numAllocated += levels[h].length;
+        }
+        return numAllocated;
+    }
+
+    /**
+     * Estimates the p-th percentile following the same definition as {@link Statistics#computePercentile}.
+     *
+     * @param p The percentage in percent ranging from 0 to 100.
+     * @return The estimated p-th percentile, or NaN if no value has been accumulated.
+     */
+    public double getPercentile(int p) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (numLevels == 1) {
+            float[] values = Arrays.copyOf(levels[0], sizes[0]);
+            Arrays.sort(values);
+            return Statistics.computePercentile(p, values);
+        }
+        float[] values = new float[getNumRetained()];
+        long[] cumulativeWeights = new long[values.length];
+        sortWeighted(values, cumulativeWeights);
+
+        double n = (p / 100.0) * (count + 1);
+        long rank = (long) Math.floor(n);
+        double d = n - rank;
+        if (rank == 0) {
+            return values[0];
+        } else if (rank >= count) {
+            return values[values.length - 1];
+        } else {
+            double lower = valueAtRank(rank, values, cumulativeWeights);
+            double upper = valueAtRank(rank + 1, values, cumulativeWeights);
+            return lower + d * (upper - lower);
+        }
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(k);
+        out.writeLong(count);
+        out.writeInt(numLevels);
+        for (int h = 0; h < numLevels; h++) {
+            out.writeInt(sizes[h]);
+            for (int i = 0; i < sizes[h]; i++) {
+                out.writeFloat(levels[h][i]);
+            }
+        }
+    }
+
+    public static QuantileSketch read(DataInput in) throws IOException {
+        QuantileSketch sketch = new QuantileSketch(in.readInt());
+        sketch.count = in.readLong();
+        int numLevels = in.readInt();
+        while (sketch.numLevels < numLevels) {
+            sketch.addLevel();
+        }
+        for (int h = 0; h < numLevels; h++) {
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                sketch.append(h, in.readFloat());
+            }
+        }
+        return sketch;
+    }
+
+    /////////////////////////////////
+
+    /**
+     * Compacts the lowest full level until the sketch is within its total capacity.
+     */
+    private void compress() {
+        while (numRetained >= totalCapacity) {
+            int h = 0;
+            while (sizes[h] < capacities[h]) {
+                h++;
+            }
+            compact(h);
+        }
+    }
+
+    /**
+     * Sorts a level and promotes every other value to the next level, keeping one value if the size is odd.
+     */
+    private void compact(int level) {
+        if (level + 1 == numLevels) {
+            addLevel();
+        }
+        float[] items = levels[level];
+        int size = sizes[level];
+        Arrays.sort(items, 0, size);
+        int keep = size % 2;
+        int offset = random.nextBoolean() ? 1 : 0;
+        for (int i = keep + offset; i < size; i += 2) {
+            append(level + 1, items[i]);
+        }
+        numRetained -= size - keep;
+        sizes[level] = keep;
+        if (items.length > capacities[level]) {
+            // a level that has grown beyond its capacity, or whose capacity has decreased, is reallocated
+            levels[level] = Arrays.copyOf(items, capacities[level]);
+        }
+    }
+
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, numLevels + 1);
+        sizes = Arrays.copyOf(sizes, numLevels + 1);
+        levels[numLevels] = new float[MIN_CAPACITY];
+        numLevels++;
+        capacities = new int[numLevels];
+        totalCapacity = 0;
+        for (int h = 0; h < numLevels; h++) {
+            int depth = numLevels - 1 - h;
+            capacities[h] = Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+            totalCapacity += capacities[h];
+        }
+    }
+
+    private void append(int level, float value) {
+        float[] items = levels[level];
+        if (sizes[level] == items.length) {
+            // grow up to the capacity of the level, beyond it only until the level is compacted
+            int capacity = capacities[level];
+            items = Arrays.copyOf(items, items.length < capacity ? Math.min(2 * items.length, capacity) : 2 * items.length);
+            levels[level] = items;
+        }
+        items[sizes[level]++] = value;
+        numRetained++;
+    }
+
+    /**
+     * Merges the sorted levels into ascending values with their cumulative weights.
+     */
+    private void sortWeighted(float[] values, long[] cumulativeWeights) {
+        float[][] sorted = new float[numLevels][];
+        int[] positions = new int[numLevels];
+        for (int h = 0; h < numLevels; h++) {
+            sorted[h] = Arrays.copyOf(levels[h], sizes[h]);
+            Arrays.sort(sorted[h]);
+        }
+        long cumulativeWeight = 0;
+        for (int i = 0; i < values.length; i++) {
+            int minLevel = -1;
+            for (int h = 0; h < numLevels; h++) {
+                if (positions[h] < sorted[h].length
+                    && (minLevel == -1 || sorted[h][positions[h]] < sorted[minLevel][positions[minLevel]])) {
+                    minLevel = h;
+                }
+            }
+            values[i] = sorted[minLevel][positions[minLevel]++];
+            cumulativeWeight += 1L << minLevel;
+            cumulativeWeights[i] = cumulativeWeight;
+        }
+    }
+
+    /**
+     * @param rank 1-based rank
+     */
+    private static float valueAtRank(long rank, float[] values, long[] cumulativeWeights) {
+        int index = Arrays.binarySearch(cumulativeWeights, rank);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return values[Math.min(index, values.length - 1)];
+    }
+}
@@ -41,28 +41,31 @@ public class RegionAnalysis {
         stats = new Statistics[bandConfigs.length];
         for (int i = 0; i < bandConfigs.length; i++) {
             RAConfig.BandConfig bConfig = bandConfigs[i];
-            stats[i] = new Statistics(bConfig.getNumBins(), bConfig.getMin(), bConfig.getMax(), raConfig.getPercentiles(), binValuesAsRatio);
+            stats[i] = new Statistics(bConfig.getNumBins(), bConfig.getMin(), bConfig.getMax(), raConfig.getPercentiles(), binValuesAsRatio,
+                                      raConfig.isStreamingPercentiles());
         }
         withProductNames = raConfig.withProductNames();
         statisticsWriter = new StatisticsWriter(raConfig, stats, writerFactor);
     }
 
     public void addData(long time, int numObs, float[][] samples, String... productNames) throws IOException {
-        int newDateRange = dateRanges.findIndex(time);
-        if (newDateRange == -1) {
-            String out_ouf_range_date = dateRanges.format(time);
-            LOG.warning("out_ouf_range_date = " + out_ouf_range_date + " --> ignoring extract data");
-        } else {
-            if (newDateRange != dataRangeHandler.current()) {
-                writeCurrentRecord();
-                resetRecord();
-                writeEmptyRecords(regionHandler.current(), dataRangeHandler.preceedingUnhandledIndices(newDateRange));
-            }
+        if (selectDateRange(time)) {
             accumulate(time, numObs, samples);
             productName = productNames.length > 0 ? productNames[0] : null;
         }
     }
 
+    /**
+     * Adds the statistics summaries of an extract, one per band, instead of its samples.
+     * Exact percentiles cannot be computed from summaries, streaming percentiles can.
+     */
+    public void addSummaries(long time, int numObs, StatisticsSummary[] summaries, String... productNames) throws IOException {
+        if (selectDateRange(time)) {
+            merge(time, numObs, summaries);
+            productName = productNames.length > 0 ? productNames[0] : null;
+        }
+    }
+
     public void startRegion(int regionId, String regionName) throws IOException {
         dataRangeHandler.reset();
         //for (int regionIndex : regionHandler.preceedingUnhandledIndices(regionNameList.indexOf(regionName))) {
@@ -96,12 +99,41 @@ public class RegionAnalysis {
 
     /////////////////////////////////
 
-    private void accumulate(long time, int numObs, float[][] samples) {
+    private boolean selectDateRange(long time) throws IOException {
+        int newDateRange = dateRanges.findIndex(time);
+        if (newDateRange == -1) {
+            String out_ouf_range_date = dateRanges.format(time);
+            LOG.warning("out_ouf_range_date = " + out_ouf_range_date + " --> ignoring extract data");
+            return false;
+        }
+        if (newDateRange != dataRangeHandler.current()) {
+            writeCurrentRecord();
+            resetRecord();
+            writeEmptyRecords(regionHandler.current(), dataRangeHandler.preceedingUnhandledIndices(newDateRange));
+        }
+        return true;
+    }
+
+    private void countPass(long time, int numObs) {
         if (time != currentTime) {
             currentTime = time;
             numPasses++;
         }
         this.numObs += numObs;
+    }
+
+    private void merge(long time, int numObs, StatisticsSummary[] summaries) {
+        countPass(time, numObs);
+        if (summaries.length != stats.length) {
+            throw new IllegalArgumentException(String.format("summaries.length(%d) does not match num bands(%d)", summaries.length, stats.length));
+        }
+        for (int bandId = 0; bandId < summaries.length; bandId++) {
+            stats[bandId].merge(summaries[bandId]);
+        }
+    }
+
+    private void accumulate(long time, int numObs, float[][] samples) {
+        countPass(time, numObs);
         if (samples.length != stats.length) {
             throw new IllegalArgumentException(String.format("samples.length(%d) does not match num bands(%d)", samples.length, stats.length));
         }
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ra.stat;
+
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * A region rasterized in pixel space, stored as run-lengths per pixel row.
+ * <p>
+ * The polygon rings are transformed into pixel space, with edges subdivided where the geo-coding
+ * bends them, and scan-line filled at the pixel centres. Pixels close to an edge are classified
+ * as {@link #BORDER}, for them the exact point-in-polygon test has to be done. All other pixels are
+ * classified by a lookup in the runs of their row. Each region has its own runs, so overlapping
+ * regions are no problem.
+ */
+class RegionMask {
+
+    static final int OUTSIDE = 0;
+    static final int INSIDE = 1;
+    static final int BORDER = 2;
+
+    // max distance in pixels between the transformed edge and the polygon edge
+    private static final double MAX_DEVIATION = 0.1;
+    private static final double MAX_SEGMENT_LENGTH = 64.0;
+    private static final double MAX_BORDER_SEGMENT_LENGTH = 8.0;
+    private static final int MAX_SUBDIVISION_DEPTH = 16;
+    // pixels whose centre is closer to an edge are tested exactly
+    private static final double BORDER_WIDTH = 1.0;
+
+    private final Rectangle pixelRect;
+    private final int[][] insideRuns;
+    private final int[][] borderRuns;
+
+    private RegionMask(Rectangle pixelRect, int[][] insideRuns, int[][] borderRuns) {
+        this.pixelRect = pixelRect;
+        this.insideRuns = insideRuns;
+        this.borderRuns = borderRuns;
+    }
+
+    /**
+     * @return the mask of the region within the pixel rectangle, or null if the region cannot be rasterized,
+     * e.g. because it is not polygonal or a vertex cannot be geo-coded
+     */
+    static RegionMask create(Geometry region, Rectangle pixelRect, GeoCoding geoCoding) {
+        Runs[] crossings = new Runs[pixelRect.height];
+        Runs[] borders = new Runs[pixelRect.height];
+        for (int i = 0; i < pixelRect.height; i++) {
+            crossings[i] = new Runs();
+            borders[i] = new Runs();
+        }
+        Rasterizer rasterizer = new Rasterizer(pixelRect, geoCoding, crossings, borders);
+        for (int i = 0; i < region.getNumGeometries(); i++) {
+            Geometry geometry = region.getGeometryN(i);
+            if (!(geometry instanceof Polygon)) {
+                return null;
+            }
+            Polygon polygon = (Polygon) geometry;
+            if (!rasterizer.addRing(polygon.getExteriorRing())) {
+                return null;
+            }
+            for (int r = 0; r < polygon.getNumInteriorRing(); r++) {
+                if (!rasterizer.addRing(polygon.getInteriorRingN(r))) {
+                    return null;
+                }
+            }
+        }
+        int[][] insideRuns = new int[pixelRect.height][];
+        int[][] borderRuns = new int[pixelRect.height][];
+        for (int row = 0; row < pixelRect.height; row++) {
+            insideRuns[row] = fill(crossings[row], pixelRect);
+            borderRuns[row] = borders[row].merge();
+        }
+        return new RegionMask(new Rectangle(pixelRect), insideRuns, borderRuns);
+    }
+
+    int classify(int x, int y) {
+        int row = y - pixelRect.y;
+        if (row < 0 || row >= pixelRect.height) {
+            return OUTSIDE;
+        }
+        if (contains(borderRuns[row], x)) {
+            return BORDER;
+        }
+        return contains(insideRuns[row], x) ? INSIDE : OUTSIDE;
+    }
+
+    /**
+     * Even-odd filling of the pixel centres between the sorted crossings of a row
+     */
+    private static int[] fill(Runs crossings, Rectangle pixelRect) {
+        double[] xs = crossings.sortedCrossings();
+        int[] runs = new int[xs.length];
+        int size = 0;
+        for (int i = 0; i + 1 < xs.length; i += 2) {
+            int start = Math.max(pixelRect.x, (int) Math.ceil(xs[i] - 0.5));
+            int end = Math.min(pixelRect.x + pixelRect.width, (int) Math.ceil(xs[i + 1] - 0.5));
+            if (start < end) {
+                runs[size++] = start;
+                runs[size++] = end;
+            }
+        }
+        return Arrays.copyOf(runs, size);
+    }
+
+    /**
+     * @param runs sorted, disjoint pairs of start (inclusive) and end (exclusive)
+     */
+    private static boolean contains(int[] runs, int x) {
+        int lo = 0;
+        int hi = runs.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (x < runs[2 * mid]) {
+                hi = mid - 1;
+            } else if (x >= runs[2 * mid + 1]) {
+                lo = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Rasterizer {
+
+        private final Rectangle pixelRect;
+        private final GeoCoding geoCoding;
+        private final Runs[] crossings;
+        private final Runs[] borders;
+
+        Rasterizer(Rectangle pixelRect, GeoCoding geoCoding, Runs[] crossings, Runs[] borders) {
+            this.pixelRect = pixelRect;
+            this.geoCoding = geoCoding;
+            this.crossings = crossings;
+            this.borders = borders;
+        }
+
+        boolean addRing(LineString ring) {
+            Coordinate[] coordinates = ring.getCoordinates();
+            if (coordinates.length < 2) {
+                return true;
+            }
+            PixelPos p1 = toPixel(coordinates[0]);
+            if (p1 == null) {
+                return false;
+            }
+            for (int i = 1; i < coordinates.length; i++) {
+                PixelPos p2 = toPixel(coordinates[i]);
+                if (p2 == null || !addEdge(coordinates[i - 1], p1, coordinates[i], p2, 0)) {
+                    return false;
+                }
+                p1 = p2;
+            }
+            return true;
+        }
+
+        private PixelPos toPixel(Coordinate coordinate) {
+            PixelPos pixelPos = geoCoding.getPixelPos(new GeoPos(coordinate.y, coordinate.x), null);
+            return pixelPos != null && pixelPos.isValid() ? pixelPos : null;
+        }
+
+        private boolean addEdge(Coordinate c1, PixelPos p1, Coordinate c2, PixelPos p2, int depth) {
+            double length = Math.hypot(p2.x - p1.x, p2.y - p1.y);
+            if (depth < MAX_SUBDIVISION_DEPTH && length > BORDER_WIDTH) {
+                Coordinate cm = new Coordinate((c1.x + c2.x) / 2, (c1.y + c2.y) / 2);
+                PixelPos pm = toPixel(cm);
+                if (pm == null) {
+                    return false;
+                }
+                double deviation = Math.hypot(pm.x - (p1.x + p2.x) / 2, pm.y - (p1.y + p2.y) / 2);
+                if (deviation > MAX_DEVIATION || length > MAX_SEGMENT_LENGTH) {
+                    return addEdge(c1, p1, cm, pm, depth + 1) && addEdge(cm, pm, c2, p2, depth + 1);
+                }
+            }
+            addCrossings(p1, p2);
+            int numPieces = (int) Math.ceil(length / MAX_BORDER_SEGMENT_LENGTH);
+            for (int i = 0; i < numPieces; i++) {
+                double t1 = (double) i / numPieces;
+                double t2 = (double) (i + 1) / numPieces;
+                addBorder(p1.x + t1 * (p2.x - p1.x), p1.y + t1 * (p2.y - p1.y),
+                          p1.x + t2 * (p2.x - p1.x), p1.y + t2 * (p2.y - p1.y));
+            }
+            if (numPieces == 0) {
+                addBorder(p1.x, p1.y, p2.x, p2.y);
+            }
+            return true;
+        }
+
+        private void addCrossings(PixelPos p1, PixelPos p2) {
+            double yMin = Math.min(p1.y, p2.y);
+            double yMax = Math.max(p1.y, p2.y);
+            int rowMin = Math.max(pixelRect.y, (int) Math.ceil(yMin - 0.5));
+            int rowMax = Math.min(pixelRect.y + pixelRect.height - 1, (int) Math.ceil(yMax - 0.5));
+            for (int y = rowMin; y <= rowMax; y++) {
+                double yc = y + 0.5;
+                if ((p1.y <= yc) != (p2.y <= yc)) {
+                    double x = p1.x + (yc - p1.y) * (p2.x - p1.x) / (p2.y - p1.y);
+                    crossings[y - pixelRect.y].addCrossing(x);
+                }
+            }
+        }
+
+        private void addBorder(double x1, double y1, double x2, double y2) {
+            int xMin = Math.max(pixelRect.x, (int) Math.ceil(Math.min(x1, x2) - 0.5 - BORDER_WIDTH));
+            int xMax = Math.min(pixelRect.x + pixelRect.width - 1, (int) Math.floor(Math.max(x1, x2) - 0.5 + BORDER_WIDTH));
+            int yMin = Math.max(pixelRect.y, (int) Math.ceil(Math.min(y1, y2) - 0.5 - BORDER_WIDTH));
+            int yMax = Math.min(pixelRect.y + pixelRect.height - 1, (int) Math.floor(Math.max(y1, y2) - 0.5 + BORDER_WIDTH));
+            if (xMin > xMax) {
+                return;
+            }
+            for (int y = yMin; y <= yMax; y++) {
+                borders[y - pixelRect.y].addRun(xMin, xMax + 1);
+            }
+        }
+    }
+
+    /**
+     * A growable list of crossings or runs of a row
+     */
+    private static class Runs {
+
+        private double[] values = new double[4];
+        private int size;
+
+        void addCrossing(double x) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            values[size++] = x;
+        }
+
+        void addRun(int start, int end) {
+            addCrossing(start);
+            addCrossing(end);
+        }
+
+        double[] sortedCrossings() {
+            double[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        /**
+         * @return the runs sorted by start, overlapping or adjacent runs joined
+         */
+        int[] merge() {
+            int numRuns = size / 2;
+            long[] packed = new long[numRuns];
+            for (int i = 0; i < numRuns; i++) {
+                packed[i] = ((long) values[2 * i] << 32) | ((long) values[2 * i + 1] & 0xffffffffL);
+            }
+            Arrays.sort(packed);
+            int[] runs = new int[2 * numRuns];
+            int n = 0;
+            for (long run : packed) {
+                int start = (int) (run >> 32);
+                int end = (int) run;
+                if (n > 0 && start <= runs[n - 1]) {
+                    runs[n - 1] = Math.max(runs[n - 1], end);
+                } else {
+                    runs[n++] = start;
+                    runs[n++] = end;
+                }
+            }
+            return Arrays.copyOf(runs, n);
+        }
+    }
+}
@@ -20,17 +20,7 @@ import java.util.List;
 class Statistics {
 
 
-    private long numValid;
-    private double min;
-    private double max;
-    private double sum;
-    private double sumSQ;
-    private long geomNumValid;
-    private double geomLogSum;
-
-    private final Histogram64 histogram;
-    private long belowHistogram;
-    private long aboveHistogram;
+    private final StatisticsSummary summary;
 
     private final int[] percentiles;
     private final Accumulator accu;
@@ -51,14 +41,24 @@ class Statistics {
                double highValue,
                int[] percentiles,
                boolean binValuesAsRatio) {
-        if (numBins > 0) {
-            histogram = new Histogram64(numBins, lowValue, highValue, 1);
-        } else {
-            histogram = null;
-        }
-        if (percentiles != null && percentiles.length > 0) {
+        this(numBins, lowValue, highValue, percentiles, binValuesAsRatio, false);
+    }
+
+    /**
+     * @param streamingPercentiles if true the percentiles are estimated by a {@link QuantileSketch} with fixed memory,
+     *                             otherwise they are computed exactly from all samples
+     */
+    Statistics(int numBins,
+               double lowValue,
+               double highValue,
+               int[] percentiles,
+               boolean binValuesAsRatio,
+               boolean streamingPercentiles) {
+        boolean withPercentiles = percentiles != null && percentiles.length > 0;
+        summary = new StatisticsSummary(numBins, lowValue, highValue, withPercentiles && streamingPercentiles);
+        if (withPercentiles) {
             this.percentiles = percentiles;
-            this.accu = new Accumulator();
+            this.accu = streamingPercentiles ? null : new Accumulator();
         } else {
             this.percentiles = null;
             this.accu = null;
@@ -68,59 +68,22 @@ class Statistics {
     }
 
     public void process(float... samples) {
-        for (float value : samples) {
-            if (!Float.isNaN(value)) {
-                numValid++;
-                min = Math.min(min, value);
-                max = Math.max(max, value);
-                sum += value;
-                sumSQ += value * value;
-                if (value > 0) {
-                    // the geometric mean is only defined, if for values bigger than zero
-                    geomNumValid++;
-                    geomLogSum += Math.log(value);
-                }
-            }
-        }
-        if (histogram != null) {
-            final long[] bins = histogram.getBins(0);
-            final double lowValue = histogram.getLowValue(0);
-            final double highValue = histogram.getHighValue(0);
-            final double binWidth = (highValue - lowValue) / bins.length;
-            for (float value : samples) {
-                if (!Float.isNaN(value)) {
-                    if (value < lowValue) {
-                        belowHistogram++;
-                    } else if (value > highValue) {
-                        aboveHistogram++;
-                    } else {
-                        int i = (int) ((value - lowValue) / binWidth);
-                        if (i == bins.length) {
-                            i--;
-                        }
-                        bins[i]++;
-                    }
-                }
-            }
-        }
+        summary.process(samples);
         if (accu != null) {
             accu.accumulateNoNaN(samples);
         }
     }
 
+    /**
+     * Merges a summary computed elsewhere, e.g. in the mapper. The samples of the summary
+     * are not available for exact percentiles, only for streaming percentiles.
+     */
+    public void merge(StatisticsSummary other) {
+        summary.merge(other);
+    }
+
     public void reset() {
-        numValid = 0;
-        min = +Double.MAX_VALUE;
-        max = -Double.MAX_VALUE;
-        sum = 0;
-        sumSQ = 0;
-        geomNumValid = 0;
-        geomLogSum = 0;
-        if (histogram != null) {
-            histogram.clearHistogram();
-            belowHistogram = 0;
-            aboveHistogram = 0;
-        }
+        summary.reset();
         if (accu != null) {
             accu.clear();
         }
@@ -145,13 +108,13 @@ class Statistics {
 
     public List<String> getHistogramHeaders(String bandName) {
         List<String> header = new ArrayList<>();
-        if (histogram != null) {
+        if (summary.getNumBins() > 0) {
             header.add(bandName + "_belowHistogram");
             header.add(bandName + "_aboveHistogram");
             header.add(bandName + "_numBins");
             header.add(bandName + "_lowValue");
             header.add(bandName + "_highValue");
-            for (int i = 0; i < histogram.getNumBins(0); i++) {
+            for (int i = 0; i < summary.getNumBins(); i++) {
                 header.add(bandName + "_bin_" + i);
             }
         }
@@ -161,15 +124,17 @@ class Statistics {
 
     public List<String> getStatisticsRecords() {
         List<String> stats = new ArrayList<>();
+        final long numValid = summary.getNumValid();
         stats.add(Long.toString(numValid));
         if (numValid > 0) {
-            final double arithMean = sum / numValid;
-            final double sigmaSqr = sumSQ / numValid - arithMean * arithMean;
+            final double arithMean = summary.getSum() / numValid;
+            final double sigmaSqr = summary.getSumSQ() / numValid - arithMean * arithMean;
             final double sigma = sigmaSqr > 0.0 ? Math.sqrt(sigmaSqr) : 0.0;
-            final double geomMean = geomNumValid > 0 ? Math.exp(geomLogSum / geomNumValid) : Double.NaN;
+            final long geomNumValid = summary.getGeomNumValid();
+            final double geomMean = geomNumValid > 0 ? Math.exp(summary.getGeomLogSum() / geomNumValid) : Double.NaN;
 
-            stats.add(Double.toString(min));
-            stats.add(Double.toString(max));
+            stats.add(Double.toString(summary.getMin()));
+            stats.add(Double.toString(summary.getMax()));
             stats.add(Double.toString(arithMean));
             stats.add(Double.toString(sigma));
             stats.add(Double.toString(geomMean));
@@ -186,24 +151,30 @@ class Statistics {
             for (int percentile : percentiles) {
                 stats.add(Double.toString(computePercentile(percentile, values)));
             }
+        } else if (summary.getQuantileSketch() != null) {
+            QuantileSketch quantileSketch = summary.getQuantileSketch();
+            for (int percentile : percentiles) {
+                stats.add(Double.toString(quantileSketch.getPercentile(percentile)));
+            }
         }
         return stats;
     }
 
     public List<String> getHistogramRecords() {
         List<String> stats = new ArrayList<>();
-        if (histogram != null) {
+        if (summary.getNumBins() > 0) {
+            final long numValid = summary.getNumValid();
             if (! binValuesAsRatio) {
-                stats.add(Long.toString(belowHistogram));
-                stats.add(Long.toString(aboveHistogram));
+                stats.add(Long.toString(summary.getBelowHistogram()));
+                stats.add(Long.toString(summary.getAboveHistogram()));
             } else {
-                stats.add(Double.toString(((double)belowHistogram) / numValid));
-                stats.add(Double.toString(((double)aboveHistogram) / numValid));
+                stats.add(Double.toString(((double)summary.getBelowHistogram()) / numValid));
+                stats.add(Double.toString(((double)summary.getAboveHistogram()) / numValid));
             }
-            stats.add(Integer.toString(histogram.getNumBins(0)));
-            stats.add(Double.toString(histogram.getLowValue(0)));
-            stats.add(Double.toString(histogram.getHighValue(0)));
-            long[] bins = histogram.getBins(0);
+            stats.add(Integer.toString(summary.getNumBins()));
+            stats.add(Double.toString(summary.getLowValue()));
+            stats.add(Double.toString(summary.getHighValue()));
+            long[] bins = summary.getBins();
             for (long bin : bins) {
                 if (! binValuesAsRatio) {
                     stats.add(Long.toString(bin));
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ra.stat;
+
+import com.bc.calvalus.processing.ra.RAConfig;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The mergeable part of the {@link Statistics} of one band: count, min, max, sum, sum of squares,
+ * the log-sum for the geometric mean, the histogram bins and, for streaming percentiles, a {@link QuantileSketch}.
+ * <p>
+ * Summaries can be computed in the mapper and merged in the reducer, so that only their
+ * size, and not the number of pixels, goes through the shuffle.
+ */
+public class StatisticsSummary {
+
+    private final Histogram64 histogram;
+    private final QuantileSketch quantileSketch;
+
+    private long numValid;
+    private double min;
+    private double max;
+    private double sum;
+    private double sumSQ;
+    private long geomNumValid;
+    private double geomLogSum;
+    private long belowHistogram;
+    private long aboveHistogram;
+
+    public StatisticsSummary(int numBins, double lowValue, double highValue) {
+        this(numBins, lowValue, highValue, false);
+    }
+
+    public StatisticsSummary(int numBins, double lowValue, double highValue, boolean withQuantileSketch) {
+        if (numBins > 0) {
+            histogram = new Histogram64(numBins, lowValue, highValue, 1);
+        } else {
+            histogram = null;
+        }
+        quantileSketch = withQuantileSketch ? new QuantileSketch() : null;
+        reset();
+    }
+
+    /**
+     * @return one empty summary per band of the region analysis
+     */
+    public static StatisticsSummary[] create(RAConfig raConfig) {
+        RAConfig.BandConfig[] bandConfigs = raConfig.getBandConfigs();
+        boolean withQuantileSketch = raConfig.isStreamingPercentiles()
+                                     && raConfig.getPercentiles() != null && raConfig.getPercentiles().length > 0;
+        StatisticsSummary[] summaries = new StatisticsSummary[bandConfigs.length];
+        for (int i = 0; i < bandConfigs.length; i++) {
+            RAConfig.BandConfig bConfig = bandConfigs[i];
+            summaries[i] = new StatisticsSummary(bConfig.getNumBins(), bConfig.getMin(), bConfig.getMax(), withQuantileSketch);
+        }
+        return summaries;
+    }
+
+    public void process(float... samples) {
+        for (float value : samples) {
+            if (!Float.isNaN(value)) {
+                numValid++;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                sum += value;
+                sumSQ += value * value;
+                if (value > 0) {
+                    // the geometric mean is only defined, if for values bigger than zero
+                    geomNumValid++;
+                    geomLogSum += Math.log(value);
+                }
+            }
+        }
+        if (histogram != null) {
+            final long[] bins = histogram.getBins(0);
+            final double lowValue = histogram.getLowValue(0);
+            final double highValue = histogram.getHighValue(0);
+            final double binWidth = (highValue - lowValue) / bins.length;
+            for (float value : samples) {
+                if (!Float.isNaN(value)) {
+                    if (value < lowValue) {
+                        belowHistogram++;
+                    } else if (value > highValue) {
+                        aboveHistogram++;
+                    } else {
+                        int i = (int) ((value - lowValue) / binWidth);
+                        if (i == bins.length) {
+                            i--;
+                        }
+                        bins[i]++;
+                    }
+                }
+            }
+        }
+        if (quantileSketch != null) {
+            quantileSketch.accumulateNoNaN(samples);
+        }
+    }
+
+    public void merge(StatisticsSummary other) {
+        if (getNumBins() != other.getNumBins()
+            || (histogram != null && (getLowValue() != other.getLowValue() || getHighValue() != other.getHighValue()))) {
+            throw new IllegalArgumentException("cannot merge statistics summaries with different histograms");
+        }
+        if ((quantileSketch != null) != (other.quantileSketch != null)) {
+            throw new IllegalArgumentException("cannot merge statistics summaries with and without quantile sketch");
+        }
+        numValid += other.numValid;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        sum += other.sum;
+        sumSQ += other.sumSQ;
+        geomNumValid += other.geomNumValid;
+        geomLogSum += other.geomLogSum;
+        if (histogram != null) {
+            belowHistogram += other.belowHistogram;
+            aboveHistogram += other.aboveHistogram;
+            long[] bins = histogram.getBins(0);
+            long[] otherBins = other.histogram.getBins(0);
+            for (int i = 0; i < bins.length; i++) {
+                bins[i] += otherBins[i];
+            }
+        }
+        if (quantileSketch != null) {
+            quantileSketch.merge(other.quantileSketch);
+        }
+    }
+
+    public void reset() {
+        numValid = 0;
+        min = +Double.MAX_VALUE;
+        max = -Double.MAX_VALUE;
+        sum = 0;
+        sumSQ = 0;
+        geomNumValid = 0;
+        geomLogSum = 0;
+        if (histogram != null) {
+            histogram.clearHistogram();
+            belowHistogram = 0;
+            aboveHistogram = 0;
+        }
+        if (quantileSketch != null) {
+            quantileSketch.clear();
+        }
+    }
+
+    public long getNumValid() {
+        return numValid;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getSumSQ() {
+        return sumSQ;
+    }
+
+    public long getGeomNumValid() {
+        return geomNumValid;
+    }
+
+    public double getGeomLogSum() {
+        return geomLogSum;
+    }
+
+    public long getBelowHistogram() {
+        return belowHistogram;
+    }
+
+    public long getAboveHistogram() {
+        return aboveHistogram;
+    }
+
+    public int getNumBins() {
+        return histogram != null ? histogram.getNumBins(0) : 0;
+    }
+
+    public double getLowValue() {
+        return histogram != null ? histogram.getLowValue(0) : Double.NaN;
+    }
+
+    public double getHighValue() {
+        return histogram != null ? histogram.getHighValue(0) : Double.NaN;
+    }
+
+    public long[] getBins() {
+        return histogram != null ? histogram.getBins(0) : new long[0];
+    }
+
+    /**
+     * @return the quantile sketch, or null if percentiles are not estimated
+     */
+    public QuantileSketch getQuantileSketch() {
+        return quantileSketch;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        int numBins = getNumBins();
+        out.writeInt(numBins);
+        if (numBins > 0) {
+            out.writeDouble(getLowValue());
+            out.writeDouble(getHighValue());
+        }
+        out.writeBoolean(quantileSketch != null);
+        out.writeLong(numValid);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        out.writeDouble(sum);
+        out.writeDouble(sumSQ);
+        out.writeLong(geomNumValid);
+        out.writeDouble(geomLogSum);
+        if (numBins > 0) {
+            out.writeLong(belowHistogram);
+            out.writeLong(aboveHistogram);
+            for (long bin : histogram.getBins(0)) {
+                out.writeLong(bin);
+            }
+        }
+        if (quantileSketch != null) {
+            quantileSketch.write(out);
+        }
+    }
+
+    public static StatisticsSummary read(DataInput in) throws IOException {
+        int numBins = in.readInt();
+        double lowValue = Double.NaN;
+        double highValue = Double.NaN;
+        if (numBins > 0) {
+            lowValue = in.readDouble();
+            highValue = in.readDouble();
+        }
+        StatisticsSummary summary = new StatisticsSummary(numBins, lowValue, highValue, in.readBoolean());
+        summary.numValid = in.readLong();
+        summary.min = in.readDouble();
+        summary.max = in.readDouble();
+        summary.sum = in.readDouble();
+        summary.sumSQ = in.readDouble();
+        summary.geomNumValid = in.readLong();
+        summary.geomLogSum = in.readDouble();
+        if (numBins > 0) {
+            summary.belowHistogram = in.readLong();
+            summary.aboveHistogram = in.readLong();
+            long[] bins = summary.histogram.getBins(0);
+            for (int i = 0; i < bins.length; i++) {
+                bins[i] = in.readLong();
+            }
+        }
+        if (summary.quantileSketch != null) {
+            summary.quantileSketch.merge(QuantileSketch.read(in));
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,95 @@
+package com.bc.calvalus.processing.ta;
+
+import com.bc.calvalus.commons.CalvalusLogger;
+import com.bc.calvalus.processing.l3.HadoopBinManager;
+import com.bc.calvalus.processing.l3.L3TemporalBin;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Reads the L3 part files of a TA job like the {@link SequenceFileInputFormat}, but drops the splits of part files
+ * with a bin index range outside of all regions, so that no map task is scheduled for them.
+ * The bins of an L3 part file are sorted by bin index, the range is given by the first and the last bin.
+ */
+public class TAInputFormat extends SequenceFileInputFormat<LongWritable, L3TemporalBin> {
+
+    private static final Logger LOGGER = CalvalusLogger.getLogger();
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        final List<InputSplit> splits = super.getSplits(job);
+        final Configuration conf = job.getConfiguration();
+        final TARegionLookup regionLookup = new TARegionLookup(HadoopBinManager.getBinningConfig(conf).createPlanetaryGrid(),
+                                                               TAConfig.get(conf).getRegions());
+        // a part file of several blocks has several splits, its bin range is read once
+        final Map<Path, Boolean> inRegions = new HashMap<>();
+        final List<InputSplit> selectedSplits = new ArrayList<>(splits.size());
+        for (InputSplit split : splits) {
+            final Path path = ((FileSplit) split).getPath();
+            if (inRegions.computeIfAbsent(path, p -> isInRegions(p, conf, regionLookup))) {
+                selectedSplits.add(split);
+            }
+        }
+        LOGGER.info(String.format("%d of %d splits of L3 part files intersect the regions", selectedSplits.size(), splits.size()));
+        return selectedSplits;
+    }
+
+    /**
+     * @return false if the bins of the L3 part file are all outside of the regions
+     */
+    private static boolean isInRegions(Path path, Configuration conf, TARegionLookup regionLookup) {
+        try {
+            final long[] binRange = readBinRange(path, conf);
+            if (binRange != null && regionLookup.intersects(binRange[0], binRange[1])) {
+                return true;
+            }
+            LOGGER.info("skipping " + path + (binRange != null ? " with bins " + binRange[0] + " to " + binRange[1] + " outside of regions" : ", empty"));
+            return false;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warning("failed to determine bin range of " + path + ", reading all bins: " + e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Reads the first key and the keys of the last sync block of a sequence file with bins sorted by bin index.
+     *
+     * @return the first and the last bin index, or null if the file is empty
+     */
+    static long[] readBinRange(Path path, Configuration conf) throws IOException {
+        final long length = path.getFileSystem(conf).getFileStatus(path).getLen();
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(path.getFileSystem(conf), path, conf)) {
+            final LongWritable key = new LongWritable();
+            if (!reader.next(key)) {
+                return null;
+            }
+            final long first = Math.max(0L, key.get());
+            long last = first;
+            for (long tail = 64 * 1024; ; tail *= 4) {
+                final long position = Math.max(0L, length - tail);
+                reader.sync(position);
+                boolean found = false;
+                while (reader.next(key)) {
+                    last = key.get();
+                    found = true;
+                }
+                if (found || position == 0L) {
+                    return new long[]{first, Math.max(first, last)};
+                }
+            }
+        }
+    }
+}
@@ -4,9 +4,7 @@ import com.bc.calvalus.commons.CalvalusLogger;
 import com.bc.calvalus.commons.DateUtils;
 import com.bc.calvalus.processing.l3.HadoopBinManager;
 import com.bc.calvalus.processing.l3.L3TemporalBin;
-import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.geom.Point;
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.LongWritable;
@@ -23,6 +21,8 @@ import java.util.logging.Logger;
 /**
  * Sorts temporal bins (as produced by L3Reducer) by region and maps them to region-time-binIndex keys.
  * The time parameter must be determined by parsing the file path since it is not available in the data.
+ * The regions of a bin are determined with a lookup prepared once per task. L3 part files with a bin index range
+ * outside of all regions are already dropped by the {@link TAInputFormat}.
  *
  * @author Norman
  * @author Martin
@@ -35,8 +35,10 @@ public class TAMapper extends Mapper<LongWritable, L3TemporalBin, TAKey, L3Tempo
     public static final Logger LOGGER = CalvalusLogger.getLogger();
 
     private Configuration conf;
-    private PlanetaryGrid planetaryGrid;
-    private TAConfig.RegionConfiguration[] regions;
+    private TARegionLookup regionLookup;
+    private int[] regionIds;
+    private final TAKey key = new TAKey();
+    private long time = 0;
 
     public static Date parseDate(String dateString) throws ParseException {
         synchronized (DATE_FORMAT) {
@@ -52,26 +54,30 @@ public class TAMapper extends Mapper<LongWritable, L3TemporalBin, TAKey, L3Tempo
 
     @Override
     protected void map(LongWritable binIndex, L3TemporalBin temporalBin, Context context) throws IOException, InterruptedException {
-        long time = 0;
-        double[] centerLatLon = planetaryGrid.getCenterLatLon(binIndex.get());
-        Point point = GEOMETRY_FACTORY.createPoint(new Coordinate(centerLatLon[1], centerLatLon[0]));
-        for (int regionId=0; regionId<regions.length; ++regionId) {
-            TAConfig.RegionConfiguration region = regions[regionId];
-            if (region.getGeometry().contains(point)) {
-                if (time == 0) {
-                    time = getTimeOfL3(context);
-                }
-                temporalBin.setIndex(binIndex.get());
-                context.write(new TAKey(regionId, time, binIndex.get()), new L3TemporalBinWithIndex(temporalBin, time));
-            }
+        int numRegions = regionLookup.getRegions(binIndex.get(), regionIds);
+        if (numRegions == 0) {
+            return;
+        }
+        if (time == 0) {
+            time = getTimeOfL3(context);
+        }
+        temporalBin.setIndex(binIndex.get());
+        // the context serialises key and value on write, both may be re-used
+        L3TemporalBinWithIndex value = new L3TemporalBinWithIndex(temporalBin, time);
+        key.time = time;
+        key.binIndex = binIndex.get();
+        for (int i = 0; i < numRegions; ++i) {
+            key.regionId = regionIds[i];
+            context.write(key, value);
         }
     }
 
     @Override
     public void setConf(Configuration conf) {
         this.conf = conf;
-        planetaryGrid = HadoopBinManager.getBinningConfig(conf).createPlanetaryGrid();
-        regions = TAConfig.get(conf).getRegions();
+        PlanetaryGrid planetaryGrid = HadoopBinManager.getBinningConfig(conf).createPlanetaryGrid();
+        regionLookup = new TARegionLookup(planetaryGrid, TAConfig.get(conf).getRegions());
+        regionIds = new int[regionLookup.getNumRegions()];
     }
 
     @Override
@@ -0,0 +1,207 @@
+package com.bc.calvalus.processing.ta;
+
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.support.PlateCarreeGrid;
+import org.esa.snap.binning.support.SEAGrid;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Determines the regions a bin belongs to, i.e. the regions that contain the bin centre.
+ * <p>
+ * For grids with rows of constant latitude and columns of increasing longitude the regions are cut
+ * with the centre line of each row once, and the bins with their centre inside are kept as bin index ranges
+ * per row and region. Region membership of a bin then is a range check.
+ * For other grids the prepared region geometries are tested with the bin centre.
+ */
+class TARegionLookup {
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+    private static final long[] NO_RANGES = new long[0];
+
+    private final PlanetaryGrid planetaryGrid;
+    private final int numRegions;
+    // per region the first row and per row the start and end (exclusive) bin indexes of the ranges
+    private final int[] minRows;
+    private final long[][][] rowRanges;
+    private final PreparedGeometry[] preparedGeometries;
+
+    TARegionLookup(PlanetaryGrid planetaryGrid, TAConfig.RegionConfiguration[] regions) {
+        this.planetaryGrid = planetaryGrid;
+        this.numRegions = regions.length;
+        if (isRowGrid(planetaryGrid)) {
+            minRows = new int[numRegions];
+            rowRanges = new long[numRegions][][];
+            for (int regionId = 0; regionId < numRegions; regionId++) {
+                computeRowRanges(regionId, regions[regionId].getGeometry());
+            }
+            preparedGeometries = null;
+        } else {
+            minRows = null;
+            rowRanges = null;
+            preparedGeometries = new PreparedGeometry[numRegions];
+            for (int regionId = 0; regionId < numRegions; regionId++) {
+                preparedGeometries[regionId] = PreparedGeometryFactory.prepare(regions[regionId].getGeometry());
+            }
+        }
+    }
+
+    int getNumRegions() {
+        return numRegions;
+    }
+
+    /**
+     * @param binIndex  the bin
+     * @param regionIds receives the regions of the bin, at least of the number of regions
+     * @return the number of regions of the bin
+     */
+    int getRegions(long binIndex, int[] regionIds) {
+        int count = 0;
+        if (rowRanges != null) {
+            int row = planetaryGrid.getRowIndex(binIndex);
+            for (int regionId = 0; regionId < numRegions; regionId++) {
+                if (contains(getRanges(regionId, row), binIndex)) {
+                    regionIds[count++] = regionId;
+                }
+            }
+        } else {
+            double[] centerLatLon = planetaryGrid.getCenterLatLon(binIndex);
+            Point point = GEOMETRY_FACTORY.createPoint(new Coordinate(centerLatLon[1], centerLatLon[0]));
+            for (int regionId = 0; regionId < numRegions; regionId++) {
+                if (preparedGeometries[regionId].contains(point)) {
+                    regionIds[count++] = regionId;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return whether any bin of the bin index range belongs to a region, always true if this is unknown
+     */
+    boolean intersects(long minBinIndex, long maxBinIndex) {
+        if (rowRanges == null) {
+            return true;
+        }
+        int minRow = planetaryGrid.getRowIndex(minBinIndex);
+        int maxRow = planetaryGrid.getRowIndex(maxBinIndex);
+        for (int regionId = 0; regionId < numRegions; regionId++) {
+            int firstRow = Math.max(minRow, minRows[regionId]);
+            int lastRow = Math.min(maxRow, minRows[regionId] + rowRanges[regionId].length - 1);
+            for (int row = firstRow; row <= lastRow; row++) {
+                long[] ranges = rowRanges[regionId][row - minRows[regionId]];
+                for (int i = 0; i < ranges.length; i += 2) {
+                    if (ranges[i] <= maxBinIndex && ranges[i + 1] > minBinIndex) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    static boolean isRowGrid(PlanetaryGrid planetaryGrid) {
+        return planetaryGrid instanceof SEAGrid || planetaryGrid instanceof PlateCarreeGrid;
+    }
+
+    private long[] getRanges(int regionId, int row) {
+        int rowOffset = row - minRows[regionId];
+        if (rowOffset < 0 || rowOffset >= rowRanges[regionId].length) {
+            return NO_RANGES;
+        }
+        return rowRanges[regionId][rowOffset];
+    }
+
+    private static boolean contains(long[] ranges, long binIndex) {
+        for (int i = 0; i < ranges.length && ranges[i] <= binIndex; i += 2) {
+            if (binIndex < ranges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void computeRowRanges(int regionId, Geometry geometry) {
+        if (geometry == null || geometry.isEmpty()) {
+            rowRanges[regionId] = new long[0][];
+            return;
+        }
+        Envelope envelope = geometry.getEnvelopeInternal();
+        int northRow = planetaryGrid.getRowIndex(planetaryGrid.getBinIndex(clampLat(envelope.getMaxY()), 0.0));
+        int southRow = planetaryGrid.getRowIndex(planetaryGrid.getBinIndex(clampLat(envelope.getMinY()), 0.0));
+        int minRow = Math.min(northRow, southRow);
+        int maxRow = Math.max(northRow, southRow);
+        minRows[regionId] = minRow;
+        rowRanges[regionId] = new long[maxRow - minRow + 1][];
+        List<long[]> ranges = new ArrayList<>();
+        for (int row = minRow; row <= maxRow; row++) {
+            double lat = planetaryGrid.getCenterLat(row);
+            LineString centerLine = GEOMETRY_FACTORY.createLineString(new Coordinate[]{
+                    new Coordinate(envelope.getMinX() - 1.0, lat),
+                    new Coordinate(envelope.getMaxX() + 1.0, lat)});
+            Geometry intersection = geometry.intersection(centerLine);
+            ranges.clear();
+            for (int i = 0; i < intersection.getNumGeometries(); i++) {
+                Geometry part = intersection.getGeometryN(i);
+                if (part instanceof LineString) {
+                    Envelope segment = part.getEnvelopeInternal();
+                    long[] range = getBinRange(row, lat, segment.getMinX(), segment.getMaxX());
+                    if (range != null) {
+                        ranges.add(range);
+                    }
+                }
+            }
+            rowRanges[regionId][row - minRow] = toSortedRanges(ranges);
+        }
+    }
+
+    /**
+     * @return the start and end (exclusive) bin index of the bins of the row with their centre between the longitudes
+     */
+    private long[] getBinRange(int row, double lat, double minLon, double maxLon) {
+        long firstBinOfRow = planetaryGrid.getFirstBinIndex(row);
+        long endBinOfRow = firstBinOfRow + planetaryGrid.getNumCols(row);
+        long start = planetaryGrid.getBinIndex(lat, clampLon(minLon));
+        if (planetaryGrid.getCenterLatLon(start)[1] <= minLon) {
+            start++;
+        }
+        long last = planetaryGrid.getBinIndex(lat, clampLon(maxLon));
+        if (planetaryGrid.getCenterLatLon(last)[1] >= maxLon) {
+            last--;
+        }
+        start = Math.max(start, firstBinOfRow);
+        long end = Math.min(last + 1, endBinOfRow);
+        return start < end ? new long[]{start, end} : null;
+    }
+
+    private static long[] toSortedRanges(List<long[]> ranges) {
+        if (ranges.isEmpty()) {
+            return NO_RANGES;
+        }
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        long[] sortedRanges = new long[2 * ranges.size()];
+        for (int i = 0; i < ranges.size(); i++) {
+            sortedRanges[2 * i] = ranges.get(i)[0];
+            sortedRanges[2 * i + 1] = ranges.get(i)[1];
+        }
+        return sortedRanges;
+    }
+
+    private static double clampLat(double lat) {
+        return Math.max(Math.nextUp(-90.0), Math.min(90.0, lat));
+    }
+
+    private static double clampLon(double lon) {
+        return Math.max(-180.0, Math.min(Math.nextDown(180.0), lon));
+    }
+}
@@ -29,7 +29,6 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 
 import java.io.IOException;
@@ -82,7 +81,7 @@ public class TAWorkflowItem extends HadoopWorkflowItem {
     protected void configureJob(Job job) throws IOException {
 
         FileInputFormat.addInputPaths(job, getInputDir());
-        job.setInputFormatClass(SequenceFileInputFormat.class);
+        job.setInputFormatClass(TAInputFormat.class);
 
         JobUtils.clearAndSetOutputDir(getOutputDir(), job, this);
         job.setOutputFormatClass(SequenceFileOutputFormat.class);
@@ -50,7 +50,6 @@ import org.esa.snap.core.datamodel.Product;
 
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.Area;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -120,11 +119,11 @@ public class VCMapper extends Mapper<NullWritable, NullWritable, Text, RecordWri
             } catch (Exception e) {
                 throw new RuntimeException("Failed to retrieve input records.", e);
             }
-            Area pixelArea = PixelPosProvider.computePixelArea(pixelPosRecords, maConfig.getMacroPixelSize());
+            Rectangle pixelBounds = PixelPosProvider.computePixelBounds(pixelPosRecords, maConfig.getMacroPixelSize());
 
             pm.worked(5);
 
-            if (!pixelArea.isEmpty()) {
+            if (!pixelBounds.isEmpty()) {
                 List<NamedRecordSource> namedRecordSources = new ArrayList<>();
 
                 // save Level 1 product
@@ -163,7 +162,7 @@ public class VCMapper extends Mapper<NullWritable, NullWritable, Text, RecordWri
                     return;
                 }
 
-                Rectangle maRectangle = pixelArea.getBounds();
+                Rectangle maRectangle = new Rectangle(pixelBounds);
                 maRectangle.grow(20, 20); // grow relevant area to have a bit surrounding product content
                 Rectangle processingRectangle = fullScene.intersection(maRectangle);
                 LOG.info("processing rectangle: " + processingRectangle);
@@ -17,16 +17,19 @@
 package com.bc.calvalus.processing.beam;
 
 
+import com.bc.calvalus.processing.JobConfigNames;
 import com.bc.calvalus.processing.UnixTestRunner;
 import com.bc.calvalus.processing.hadoop.ByteArrayWritable;
 import com.bc.ceres.core.ProgressMonitor;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.esa.snap.core.dataio.ProductIO;
 import org.esa.snap.core.dataio.ProductReader;
+import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.util.math.MathUtils;
@@ -42,6 +45,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -49,6 +53,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author MarcoZ
@@ -105,6 +110,126 @@ public class StreamingFormatTest {
         }
     }
 
+    @Test
+    public void testRandomAccessRead() throws Exception {
+        Product sourceProduct = createSyntheticProduct();
+        Path outputDir = new Path("target/testdata/StreamingProductReaderTest");
+        Path productPath = new Path(outputDir, "testRandomAccess.seq");
+        try {
+            StreamingProductWriter.writeProductInSlices(configuration, ProgressMonitor.NULL, sourceProduct, productPath, 8);
+
+            Configuration randomAccessConfiguration = new Configuration(configuration);
+            randomAccessConfiguration.setBoolean(JobConfigNames.CALVALUS_INPUT_STREAMING_RANDOM_ACCESS, true);
+            randomAccessConfiguration.setInt(JobConfigNames.CALVALUS_INPUT_STREAMING_READERS, 3);
+            testThatBandsAreEqual(sourceProduct, productPath, randomAccessConfiguration);
+
+            Map<String, Long> index = new StreamingProductIndex(StreamingProductIndex.getIndexPath(productPath), configuration).readIndex();
+            try (StreamingProductSliceReader sliceReader = new StreamingProductSliceReader.Positional(productPath, fileSystem, null, 2)) {
+                float[] samples = new float[120 * 8];
+                sliceReader.readSlice(index.get("f:3"), "f:3", samples, samples.length);
+                assertEquals(120 * 24 * 0.5f, samples[0], 1e-6f);
+                assertEquals((120 * 32 - 1) * 0.5f, samples[samples.length - 1], 1e-6f);
+                try {
+                    sliceReader.readSlice(index.get("f:3"), "f:4", samples, samples.length);
+                    fail();
+                } catch (IllegalStateException expected) {
+                    assertEquals("key 'f:4' expected but got 'f:3'", expected.getMessage());
+                }
+            }
+        } finally {
+            fileSystem.delete(outputDir, true);
+        }
+    }
+
+    @Test
+    public void testCompressedFormat() throws Exception {
+        Product sourceProduct = createSyntheticProduct();
+        Path outputDir = new Path("target/testdata/StreamingProductCodecTest");
+        Path productPath = new Path(outputDir, "testCompressed.seq");
+        try {
+            Configuration writeConfiguration = new Configuration(configuration);
+            writeConfiguration.set(JobConfigNames.CALVALUS_OUTPUT_STREAMING_CODEC, "default");
+            writeConfiguration.setBoolean(JobConfigNames.CALVALUS_OUTPUT_STREAMING_SHUFFLE, true);
+            writeConfiguration.setInt(JobConfigNames.CALVALUS_OUTPUT_STREAMING_SLICE_HEIGHT, 8);
+            StreamingProductWriter.writeProductInSlices(writeConfiguration, ProgressMonitor.NULL, sourceProduct, productPath, 64);
+
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(fileSystem, productPath, configuration)) {
+                assertSame(BytesWritable.class, reader.getValueClass());
+                assertEquals("8", reader.getMetadata().get(new Text("slice.height")).toString());
+                assertEquals("2", reader.getMetadata().get(new Text(StreamingProductCodec.FORMAT_VERSION)).toString());
+            }
+
+            // tiles of 20 rows span up to 4 slices of 8 rows
+            Configuration readConfiguration = new Configuration(configuration);
+            readConfiguration.setInt(JobConfigNames.CALVALUS_INPUT_STREAMING_TILE_HEIGHT, 20);
+            testThatBandsAreEqual(sourceProduct, productPath, readConfiguration);
+            readConfiguration.setBoolean(JobConfigNames.CALVALUS_INPUT_STREAMING_RANDOM_ACCESS, true);
+            testThatBandsAreEqual(sourceProduct, productPath, readConfiguration);
+        } finally {
+            fileSystem.delete(outputDir, true);
+        }
+    }
+
+    @Test
+    public void testSliceHeightDiffersFromPreferredTileHeight() throws Exception {
+        Product sourceProduct = createSyntheticProduct();
+        Path outputDir = new Path("target/testdata/StreamingProductSliceHeightTest");
+        Path productPath = new Path(outputDir, "testSliceHeight.seq");
+        try {
+            // preferred tile height is 8, slices are cut with 16 rows
+            StreamingProductWriter.writeProductInSlices(configuration, ProgressMonitor.NULL, sourceProduct, productPath, 16);
+
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(fileSystem, productPath, configuration)) {
+                assertEquals("16", reader.getMetadata().get(new Text("slice.height")).toString());
+            }
+            Map<String, Long> index = new StreamingProductIndex(StreamingProductIndex.getIndexPath(productPath), configuration).readIndex();
+            assertTrue(index.containsKey("f:6"));
+            assertFalse(index.containsKey("f:7"));
+            testThatBandsAreEqual(sourceProduct, productPath, configuration);
+        } finally {
+            fileSystem.delete(outputDir, true);
+        }
+    }
+
+    private static Product createSyntheticProduct() {
+        Product product = new Product("name", "type", 120, 100);
+        product.setPreferredTileSize(120, 8);
+        float[] floats = new float[120 * 100];
+        short[] shorts = new short[120 * 100];
+        byte[] bytes = new byte[120 * 100];
+        for (int i = 0; i < floats.length; i++) {
+            floats[i] = i * 0.5f;
+            shorts[i] = (short) (i - 6000);
+            bytes[i] = (byte) i;
+        }
+        product.addBand("f", ProductData.TYPE_FLOAT32).setData(ProductData.createInstance(floats));
+        product.addBand("s", ProductData.TYPE_INT16).setData(ProductData.createInstance(shorts));
+        product.addBand("b", ProductData.TYPE_UINT8).setData(ProductData.createUnsignedInstance(bytes));
+        return product;
+    }
+
+    private void testThatBandsAreEqual(Product sourceProduct, Path productPath, Configuration readConfiguration) throws IOException {
+        Product targetProduct = CalvalusProductIO.readProduct(productPath, readConfiguration, StreamingProductPlugin.FORMAT_NAME);
+        try {
+            for (Band sourceBand : sourceProduct.getBands()) {
+                Band targetBand = targetProduct.getBand(sourceBand.getName());
+                Raster srcData = sourceBand.getSourceImage().getData();
+                // tiles are requested concurrently, in arbitrary order
+                IntStream.range(0, targetBand.getSourceImage().getNumYTiles()).parallel().forEach(tileY -> {
+                    Raster tile = targetBand.getSourceImage().getTile(0, tileY);
+                    for (int y = tile.getMinY(); y < tile.getMinY() + tile.getHeight(); y++) {
+                        for (int x = 0; x < tile.getWidth(); x++) {
+                            assertEquals(sourceBand.getName() + "[" + x + "," + y + "]",
+                                         srcData.getSampleDouble(x, y, 0), tile.getSampleDouble(x, y, 0), 1e-6);
+                        }
+                    }
+                });
+            }
+        } finally {
+            targetProduct.dispose();
+        }
+    }
+
     private void testThatIndicesAreTheSame(Path productPath) throws IOException {
         Path indexPath = StreamingProductIndex.getIndexPath(productPath);
         StreamingProductIndex streamingProductIndex = new StreamingProductIndex(indexPath, configuration);
@@ -15,15 +15,19 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 public class StreamingProductWriterTest {
 
     private static Map<String, float[]> result;
+    private static List<String> writeOrder = new ArrayList<>();
 
     @Before
     public void setUp() throws Exception {
@@ -110,6 +114,38 @@ public class StreamingProductWriterTest {
     }
 
 
+    @Test
+    public void testConcurrentSlices() throws Exception {
+        final int WIDTH = 10;
+        final int HEIGHT = 30;
+
+        Product product = new Product("productName", "productWithThreeBands", WIDTH, HEIGHT);
+        product.setPreferredTileSize(WIDTH, 4);
+        for (int b = 0; b < 3; b++) {
+            float[] data = new float[WIDTH * HEIGHT];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = b * 1000 + i;
+            }
+            product.addBand("band" + b, ProductData.TYPE_FLOAT32).setData(new ProductData.Float(data));
+        }
+
+        result = new HashMap<>();
+        writeOrder.clear();
+        StreamingProductWriter.writeProductInSlices(product, new NullWriter(), "NullFormat", 4, ProgressMonitor.NULL);
+        Map<String, float[]> sequentialResult = result;
+        List<String> sequentialOrder = new ArrayList<>(writeOrder);
+        assertEquals(3 * 8, sequentialOrder.size());
+
+        result = new HashMap<>();
+        writeOrder.clear();
+        StreamingProductWriter.writeProductInSlices(product, new NullWriter(), "NullFormat", 4, 3, 2, ProgressMonitor.NULL);
+        assertEquals(sequentialOrder, writeOrder);
+        for (String key : sequentialOrder) {
+            assertArrayEquals(key, sequentialResult.get(key), result.get(key), 1E-5F);
+        }
+        assertEquals(1000 + 28 * WIDTH, result.get("band1(28)")[0], 1E-5F);
+    }
+
     // helper stuff
     private static ProductWriterPlugIn getWriterPlugIn() {
         return new ProductWriterPlugIn() {
@@ -164,6 +200,7 @@ public class StreamingProductWriterTest {
                     @Override
                     public void writeBandRasterData(Band sourceBand, int sourceOffsetX, int sourceOffsetY, int sourceWidth, int sourceHeight, ProductData sourceBuffer, ProgressMonitor pm) throws IOException {
                         result.put(sourceBand.getName() + "(" + sourceOffsetY + ")", (float[]) sourceBuffer.getElems());
+                        writeOrder.add(sourceBand.getName() + "(" + sourceOffsetY + ")");
                     }
 
                     @Override
@@ -0,0 +1,140 @@
+package com.bc.calvalus.processing.fire.format.grid;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares the pixel access of {@link AbstractFireGridDataSource} by band and tile name with the access by
+ * {@link AbstractFireGridDataSource.BandStrip} in {@link FireGridDataSource#readPixels}, with and without prefetch.
+ * The access pattern is the one of {@link AbstractGridMapper} with the AVHRR data source: 80 x 80 grid cells
+ * of 5 x 5 source pixels per tile, tiles of 400 x 400 pixels in a 7200 pixels wide raster, three bands read
+ * per source pixel, strips of 1000 rows, and one data source per tile.
+ * Run manually, it is not a unit test. The number of tile rows can be given as argument, default 3.
+ */
+public class FireGridDataSourceBenchmark {
+
+    private static final int RASTER_WIDTH = 7200;
+    private static final int TILE_SIZE = 400;
+    private static final int TILES_PER_ROW = RASTER_WIDTH / TILE_SIZE;
+    private static final int CELL_SIZE = 5;
+    private static final int CELLS_PER_TILE = TILE_SIZE / CELL_SIZE;
+    private static final int STRIP_HEIGHT = 1000;
+    private static final String[] BAND_NAMES = {"porcentage", "confidence", "lc_class_01"};
+
+    public static void main(String[] args) throws IOException {
+        int numTileRows = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        Band[] bands = createBands(numTileRows * TILE_SIZE);
+        for (int run = 0; run < 3; run++) {
+            long t0 = System.nanoTime();
+            double sum = 0.0;
+            for (int tileIndex = 0; tileIndex < numTileRows * TILES_PER_ROW; tileIndex++) {
+                sum += readByName(new BenchmarkDataSource(bands, tileIndex, false), bands, tileIndex);
+            }
+            long t1 = System.nanoTime();
+            System.out.printf("by name              %10.3f ms  %f%n", (t1 - t0) * 1e-6, sum);
+
+            for (boolean prefetch : new boolean[]{false, true}) {
+                t0 = System.nanoTime();
+                sum = 0.0;
+                for (int tileIndex = 0; tileIndex < numTileRows * TILES_PER_ROW; tileIndex++) {
+                    BenchmarkDataSource dataSource = new BenchmarkDataSource(bands, tileIndex, prefetch);
+                    try {
+                        sum += readByStrip(dataSource);
+                    } finally {
+                        dataSource.close();
+                    }
+                }
+                t1 = System.nanoTime();
+                System.out.printf("by strip%s %10.3f ms  %f%n", prefetch ? ", prefetched" : "             ", (t1 - t0) * 1e-6, sum);
+            }
+        }
+    }
+
+    private static double readByName(BenchmarkDataSource dataSource, Band[] bands, int tileIndex) throws IOException {
+        double sum = 0.0;
+        for (int y = 0; y < CELLS_PER_TILE; y++) {
+            for (int x = 0; x < CELLS_PER_TILE; x++) {
+                for (int b = 0; b < bands.length; b++) {
+                    for (int sourceY = 0; sourceY < CELL_SIZE; sourceY++) {
+                        for (int sourceX = 0; sourceX < CELL_SIZE; sourceX++) {
+                            int pixelIndex = getPixelIndex(x, y, sourceX, sourceY, tileIndex);
+                            sum += dataSource.getFloatPixelValue(bands[b], BAND_NAMES[b], pixelIndex);
+                        }
+                    }
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static double readByStrip(BenchmarkDataSource dataSource) throws IOException {
+        double sum = 0.0;
+        for (int y = 0; y < CELLS_PER_TILE; y++) {
+            for (int x = 0; x < CELLS_PER_TILE; x++) {
+                SourceData data = dataSource.readPixels(x, y);
+                for (int i = 0; i < data.burnedPixels.length; i++) {
+                    sum += data.burnedPixels[i] + data.probabilityOfBurn[i] + data.areas[i];
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static int getPixelIndex(int targetX, int targetY, int sourceX, int sourceY, int tileIndex) {
+        return (tileIndex / TILES_PER_ROW) * RASTER_WIDTH * TILE_SIZE
+               + (tileIndex % TILES_PER_ROW) * TILE_SIZE
+               + (targetY * CELL_SIZE + sourceY) * RASTER_WIDTH
+               + targetX * CELL_SIZE + sourceX;
+    }
+
+    private static Band[] createBands(int rasterHeight) {
+        Product product = new Product("benchmark", "benchmark", RASTER_WIDTH, rasterHeight);
+        Random random = new Random(42);
+        Band[] bands = new Band[BAND_NAMES.length];
+        for (int b = 0; b < bands.length; b++) {
+            float[] values = new float[RASTER_WIDTH * rasterHeight];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextFloat();
+            }
+            bands[b] = product.addBand(BAND_NAMES[b], ProductData.TYPE_FLOAT32);
+            bands[b].setRasterData(ProductData.createInstance(values));
+        }
+        return bands;
+    }
+
+    private static class BenchmarkDataSource extends AbstractFireGridDataSource {
+
+        private final int tileIndex;
+        private final BandStrip[] strips;
+
+        // the bands have no product reader and can be read concurrently
+        BenchmarkDataSource(Band[] bands, int tileIndex, boolean prefetch) {
+            super(STRIP_HEIGHT, RASTER_WIDTH);
+            setPrefetch(prefetch);
+            this.tileIndex = tileIndex;
+            strips = new BandStrip[bands.length];
+            for (int b = 0; b < bands.length; b++) {
+                strips[b] = getBandStrip(bands[b], BAND_NAMES[b]);
+            }
+        }
+
+        @Override
+        public SourceData readPixels(int x, int y) throws IOException {
+            SourceData data = new SourceData(CELL_SIZE, CELL_SIZE);
+            for (int sourceY = 0; sourceY < CELL_SIZE; sourceY++) {
+                for (int sourceX = 0; sourceX < CELL_SIZE; sourceX++) {
+                    int pixelIndex = getPixelIndex(x, y, sourceX, sourceY, tileIndex);
+                    int targetPixelIndex = sourceY * CELL_SIZE + sourceX;
+                    data.burnedPixels[targetPixelIndex] = strips[0].getFloat(pixelIndex);
+                    data.probabilityOfBurn[targetPixelIndex] = strips[1].getFloat(pixelIndex);
+                    data.areas[targetPixelIndex] = strips[2].getFloat(pixelIndex);
+                }
+            }
+            return data;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.bc.calvalus.processing.geodb;
+
+import com.bc.calvalus.processing.JobConfigNames;
+import com.bc.calvalus.processing.UnixTestRunner;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(UnixTestRunner.class)
+public class GeodbInputFormatTest {
+    public static final Path INPUT_DIR = new Path("GeodbInputFormatTest.inputs");
+    private Configuration conf;
+    private FileSystem fs;
+    private List<String> paths;
+
+    @Before
+    public void setUp() throws Exception {
+        conf = new Configuration();
+        conf.setInt(JobConfigNames.CALVALUS_INPUT_LOOKUP_LISTING_MIN_PATHS, 4);
+        fs = FileSystem.getLocal(conf);
+        paths = new ArrayList<>();
+        // one directory resolved by listing, one by single lookups, and a missing file in between
+        for (int i = 0; i < 6; i++) {
+            paths.add(createFile("2018/04/24", "product-a" + i + ".zip"));
+        }
+        paths.add(new Path(INPUT_DIR, "2018/04/24/missing.zip").toString());
+        paths.add(createFile("2018/04/25", "product-b0.zip"));
+        paths.add(createFile("2018/04/24", "product-a6.zip"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fs.delete(INPUT_DIR, true);
+    }
+
+    @Test
+    public void testSequentialLookup() throws Exception {
+        conf.setInt(JobConfigNames.CALVALUS_INPUT_LOOKUP_THREADS, 1);
+        assertSplitsInOrder(GeodbInputFormat.createInputSplits(conf, paths, 0), 8);
+    }
+
+    @Test
+    public void testConcurrentLookup() throws Exception {
+        conf.setInt(JobConfigNames.CALVALUS_INPUT_LOOKUP_THREADS, 4);
+        assertSplitsInOrder(GeodbInputFormat.createInputSplits(conf, paths, 0), 8);
+    }
+
+    @Test
+    public void testConcurrentLookupWithoutListing() throws Exception {
+        conf.setInt(JobConfigNames.CALVALUS_INPUT_LOOKUP_THREADS, 4);
+        conf.setInt(JobConfigNames.CALVALUS_INPUT_LOOKUP_LISTING_MIN_PATHS, 8);
+        assertSplitsInOrder(GeodbInputFormat.createInputSplits(conf, paths, 0), 8);
+    }
+
+    @Test
+    public void testConcurrentLookupWithRequestSizeLimit() throws Exception {
+        conf.setInt(JobConfigNames.CALVALUS_INPUT_LOOKUP_THREADS, 4);
+        assertSplitsInOrder(GeodbInputFormat.createInputSplits(conf, paths, 7), 7);
+        assertSplitsInOrder(GeodbInputFormat.createInputSplits(conf, paths, 2), 2);
+        conf.setInt(JobConfigNames.CALVALUS_INPUT_LOOKUP_LISTING_MIN_PATHS, 8);
+        assertSplitsInOrder(GeodbInputFormat.createInputSplits(conf, paths, 7), 7);
+    }
+
+    private void assertSplitsInOrder(List<InputSplit> splits, int expectedSize) throws Exception {
+        List<String> expectedPaths = new ArrayList<>(paths);
+        expectedPaths.remove(6);
+        assertEquals(expectedSize, splits.size());
+        for (int i = 0; i < expectedSize; i++) {
+            FileSplit split = (FileSplit) splits.get(i);
+            assertEquals(expectedPaths.get(i), split.getPath().toString());
+            assertEquals(3, split.getLength());
+            assertTrue(split.getLocations().length > 0);
+        }
+    }
+
+    private String createFile(String dir, String name) throws Exception {
+        Path path = new Path(new Path(INPUT_DIR, dir), name);
+        try (FSDataOutputStream out = fs.create(path)) {
+            out.write(new byte[]{1, 2, 3});
+        }
+        return path.toString();
+    }
+}
@@ -0,0 +1,158 @@
+package com.bc.calvalus.processing.hadoop;
+
+import com.bc.calvalus.commons.DateRange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CatalogueSearchTest {
+
+    private static final String XPATH = "/a:feed/a:entry/a:link[@rel=\"enclosure\"]/@href";
+    private static final int PRODUCTS_PER_DAY = 5;
+
+    private HttpServer server;
+    private String searchUrlTemplate;
+    private volatile boolean withTotalResults;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/search", exchange -> {
+            Map<String, String> query = new HashMap<>();
+            for (String param : exchange.getRequestURI().getQuery().split("&")) {
+                query.put(param.substring(0, param.indexOf('=')), param.substring(param.indexOf('=') + 1));
+            }
+            byte[] response = createFeed(query.get("start"),
+                                         Integer.parseInt(query.get("offset")),
+                                         Integer.parseInt(query.get("count")),
+                                         withTotalResults).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+        searchUrlTemplate = "http://localhost:" + server.getAddress().getPort() + "/search?start=${start}&offset=${offset}&count=${count}";
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    @Test
+    public void testPipelinedSearch() throws Exception {
+        CatalogueSearch search = new CatalogueSearch(searchUrlTemplate, XPATH, null, null, null, null, 2, 3);
+        List<String> paths = search.search(new HashMap<>(), dateRanges(), 0);
+        assertEquals(3 * PRODUCTS_PER_DAY, paths.size());
+        assertEquals("s3a://eodata/2018-04-24/product-0.zip", paths.get(0));
+        assertEquals("s3a://eodata/2018-04-24/product-4.zip", paths.get(4));
+        assertEquals("s3a://eodata/2018-04-25/product-0.zip", paths.get(5));
+        assertEquals("s3a://eodata/2018-04-26/product-4.zip", paths.get(14));
+        // pages at offsets 0, 2 and 4 per day, no request beyond the incomplete last page
+        assertEquals(3 * 3, search.getNumQueries());
+    }
+
+    @Test
+    public void testNextPageIsRequestedOnlyIfTotalResultsTellsThereAreMore() throws Exception {
+        CatalogueSearch search = new CatalogueSearch(searchUrlTemplate, XPATH, null, null, null, null, PRODUCTS_PER_DAY, 3);
+        assertEquals(3 * PRODUCTS_PER_DAY, search.search(new HashMap<>(), dateRanges(), 0).size());
+        // without a count the complete page is followed by an empty one
+        assertEquals(3 * 2, search.getNumQueries());
+
+        withTotalResults = true;
+        search = new CatalogueSearch(searchUrlTemplate, XPATH, null, null, null, null, PRODUCTS_PER_DAY, 3);
+        assertEquals(3 * PRODUCTS_PER_DAY, search.search(new HashMap<>(), dateRanges(), 0).size());
+        assertEquals(3, search.getNumQueries());
+
+        search = new CatalogueSearch(searchUrlTemplate, XPATH, null, null, null, null, 2, 3);
+        List<String> paths = search.search(new HashMap<>(), dateRanges(), 0);
+        assertEquals(3 * PRODUCTS_PER_DAY, paths.size());
+        assertEquals("s3a://eodata/2018-04-26/product-4.zip", paths.get(14));
+        assertEquals(3 * 3, search.getNumQueries());
+    }
+
+    @Test
+    public void testPeekTotalResults() throws Exception {
+        String feed = createFeed("2018-04-24", 0, 2, true);
+        BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(feed.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(PRODUCTS_PER_DAY, CatalogueSearch.peekTotalResults(in));
+        // the stream is reset for parsing
+        assertEquals('<', in.read());
+
+        assertEquals(42, peekTotalResults("{\"type\":\"FeatureCollection\",\"properties\":{\"totalResults\": 42},\"features\":[]}"));
+        assertEquals(17, peekTotalResults("{\"@odata.context\":\"$metadata#Products\",\"@odata.count\":17,\"value\":[]}"));
+        assertEquals(-1, peekTotalResults(createFeed("2018-04-24", 0, 2, false)));
+    }
+
+    @Test
+    public void testPipelinedSearchWithRequestSizeLimit() throws Exception {
+        CatalogueSearch search = new CatalogueSearch(searchUrlTemplate, XPATH, null, null, null, null, 2, 3);
+        List<String> paths = search.search(new HashMap<>(), dateRanges(), 7);
+        assertEquals(7, paths.size());
+        assertEquals("s3a://eodata/2018-04-25/product-1.zip", paths.get(6));
+    }
+
+    @Test
+    public void testPipelinedSearchWithDomFallback() throws Exception {
+        CatalogueSearch search = new CatalogueSearch(searchUrlTemplate, "//a:entry/a:link[@rel=\"enclosure\"]/@href", null, null,
+                                                     null, null, 3, 2);
+        List<String> paths = search.search(new HashMap<>(), dateRanges(), 0);
+        assertEquals(3 * PRODUCTS_PER_DAY, paths.size());
+        assertEquals("s3a://eodata/2018-04-26/product-4.zip", paths.get(14));
+    }
+
+    @Test
+    public void testStreamingPath() throws Exception {
+        CatalogueSearch.StreamingPath path = CatalogueSearch.StreamingPath.parse(XPATH, PatternBasedInputFormat.ATOM_NAMESPACE_CONTEXT);
+        assertNotNull(path);
+        String feed = createFeed("2018-04-24", 1, 2, false);
+        assertEquals(Arrays.asList("s3a://eodata/2018-04-24/product-1.zip", "s3a://eodata/2018-04-24/product-2.zip"),
+                     path.evaluate(new ByteArrayInputStream(feed.getBytes(StandardCharsets.UTF_8))));
+
+        CatalogueSearch.StreamingPath titlePath = CatalogueSearch.StreamingPath.parse("/a:feed/a:entry/a:title/text()", PatternBasedInputFormat.ATOM_NAMESPACE_CONTEXT);
+        assertNotNull(titlePath);
+        assertEquals(Arrays.asList("product-1", "product-2"),
+                     titlePath.evaluate(new ByteArrayInputStream(feed.getBytes(StandardCharsets.UTF_8))));
+
+        assertNull(CatalogueSearch.StreamingPath.parse("//a:entry/a:link/@href", PatternBasedInputFormat.ATOM_NAMESPACE_CONTEXT));
+        assertNull(CatalogueSearch.StreamingPath.parse("concat('s3a:/', /a:feed/a:entry/a:id)", PatternBasedInputFormat.ATOM_NAMESPACE_CONTEXT));
+    }
+
+    private static List<DateRange> dateRanges() throws Exception {
+        return Arrays.asList(DateRange.parseDateRange("[2018-04-24:2018-04-24]"),
+                             DateRange.parseDateRange("[2018-04-25:2018-04-25]"),
+                             DateRange.parseDateRange("[2018-04-26:2018-04-26]"));
+    }
+
+    private static int peekTotalResults(String response) throws Exception {
+        return CatalogueSearch.peekTotalResults(new BufferedInputStream(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    private static String createFeed(String day, int offset, int count, boolean withTotalResults) {
+        StringBuilder feed = new StringBuilder("<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:os=\"http://a9.com/-/spec/opensearch/1.1/\">");
+        if (withTotalResults) {
+            feed.append("<os:totalResults>").append(PRODUCTS_PER_DAY).append("</os:totalResults>");
+        }
+        for (int i = offset; i < Math.min(offset + count, PRODUCTS_PER_DAY); i++) {
+            feed.append("<entry><title>product-").append(i).append("</title>")
+                    .append("<link rel=\"alternate\" href=\"https://catalogue/").append(i).append("\"/>")
+                    .append("<link rel=\"enclosure\" href=\"s3a://eodata/").append(day).append("/product-").append(i).append(".zip\"/>")
+                    .append("</entry>");
+        }
+        return feed.append("</feed>").toString();
+    }
+}
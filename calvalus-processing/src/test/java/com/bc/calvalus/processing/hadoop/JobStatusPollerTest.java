@@ -0,0 +1,153 @@
+package com.bc.calvalus.processing.hadoop;
+
+import com.bc.calvalus.commons.ProcessState;
+import com.bc.calvalus.commons.ProcessStatus;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobID;
+import org.apache.hadoop.mapred.JobStatus;
+import org.apache.hadoop.mapreduce.Cluster;
+import org.apache.hadoop.mapreduce.Job;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class JobStatusPollerTest {
+
+    private static final JobID JOB_1 = new JobID("201701011200", 1);
+    private static final JobID JOB_2 = new JobID("201701011200", 2);
+
+    private JobClient jobClient;
+    private Cluster cluster;
+
+    @Before
+    public void setUp() throws Exception {
+        jobClient = mock(JobClient.class);
+        cluster = mock(Cluster.class);
+        when(jobClient.getClusterHandle()).thenReturn(cluster);
+    }
+
+    @Test
+    public void testInitialPollConvertsAllJobsWithoutAskingForProgress() throws Exception {
+        JobStatusPoller poller = new JobStatusPoller(60000);
+        when(jobClient.getAllJobs()).thenReturn(new JobStatus[]{
+                new JobStatus(JOB_1, 0f, 0f, JobStatus.RUNNING),
+                new JobStatus(JOB_2, 1f, 1f, JobStatus.SUCCEEDED)});
+
+        poller.poll(jobClient);
+
+        assertEquals(ProcessState.RUNNING, poller.getJobStatus(JOB_1).getState());
+        assertEquals(ProcessState.COMPLETED, poller.getJobStatus(JOB_2).getState());
+        verify(cluster, never()).getJob(any(JobID.class));
+        assertEquals(1, poller.getLastPollRpcCount());
+    }
+
+    @Test
+    public void testNoPollWithoutJobsOfInterest() throws Exception {
+        JobStatusPoller poller = new JobStatusPoller(60000);
+        when(jobClient.getAllJobs()).thenReturn(new JobStatus[]{new JobStatus(JOB_1, 1f, 1f, JobStatus.SUCCEEDED)});
+
+        poller.poll(jobClient);
+        poller.poll(jobClient);
+        poller.poll(jobClient);
+
+        verify(jobClient, times(1)).getAllJobs();
+        assertEquals(0, poller.getLastPollRpcCount());
+        assertEquals(1, poller.getTotalRpcCount());
+        assertEquals(3, poller.getPollCount());
+    }
+
+    @Test
+    public void testNoPollWithoutJobsOfInterestAfterEmptyInitialPoll() throws Exception {
+        JobStatusPoller poller = new JobStatusPoller(60000);
+        when(jobClient.getAllJobs()).thenReturn(new JobStatus[0]);
+
+        poller.poll(jobClient);
+        poller.poll(jobClient);
+
+        verify(jobClient, times(1)).getAllJobs();
+        assertEquals(0, poller.getLastPollRpcCount());
+    }
+
+    @Test
+    public void testOnlyRunningJobsOfInterestAreAskedForProgress() throws Exception {
+        JobStatusPoller poller = new JobStatusPoller(60000);
+        when(jobClient.getAllJobs()).thenReturn(new JobStatus[0]);
+        poller.poll(jobClient);
+        assertEquals(ProcessStatus.UNKNOWN, poller.getJobStatus(JOB_1));
+
+        when(jobClient.getAllJobs()).thenReturn(new JobStatus[]{
+                new JobStatus(JOB_1, 0f, 0f, JobStatus.RUNNING),
+                new JobStatus(JOB_2, 0f, 0f, JobStatus.RUNNING)});
+        mockJob(JOB_1, 0.5f, 0f, 1);
+        poller.poll(jobClient);
+
+        ProcessStatus status = poller.getJobStatus(JOB_1);
+        assertEquals(ProcessState.RUNNING, status.getState());
+        assertEquals(0.45f, status.getProgress(), 1e-5f);
+        verify(cluster, times(1)).getJob(JOB_1);
+        verify(cluster, never()).getJob(JOB_2);
+        assertEquals(3, poller.getLastPollRpcCount());
+    }
+
+    @Test
+    public void testProgressIsDerivedFromBatchResponse() throws Exception {
+        JobStatusPoller poller = new JobStatusPoller(60000);
+        poller.getJobStatus(JOB_1);
+        mockJob(JOB_1, 0.2f, 0f, 0);
+        when(jobClient.getAllJobs()).thenReturn(new JobStatus[]{new JobStatus(JOB_1, 0f, 0f, JobStatus.RUNNING)});
+        poller.poll(jobClient);
+        assertEquals(0.2f, poller.getJobStatus(JOB_1).getProgress(), 1e-5f);
+
+        when(jobClient.getAllJobs()).thenReturn(new JobStatus[]{new JobStatus(JOB_1, 0.6f, 0f, JobStatus.RUNNING)});
+        poller.poll(jobClient);
+
+        assertEquals(0.6f, poller.getJobStatus(JOB_1).getProgress(), 1e-5f);
+        verify(cluster, times(1)).getJob(JOB_1);
+        assertEquals(1, poller.getLastPollRpcCount());
+    }
+
+    @Test
+    public void testMissingJobIsCancelledByBackend() throws Exception {
+        JobStatusPoller poller = new JobStatusPoller(60000);
+        poller.getJobStatus(JOB_1);
+        when(jobClient.getAllJobs()).thenReturn(new JobStatus[]{new JobStatus(JOB_1, 0f, 0f, JobStatus.PREP)});
+        poller.poll(jobClient);
+        assertEquals(ProcessState.SCHEDULED, poller.getJobStatus(JOB_1).getState());
+
+        when(jobClient.getAllJobs()).thenReturn(new JobStatus[]{new JobStatus(JOB_2, 0f, 0f, JobStatus.PREP)});
+        poller.poll(jobClient);
+
+        assertEquals(ProcessState.ERROR, poller.getJobStatus(JOB_1).getState());
+        assertEquals(ProcessStatus.UNKNOWN, poller.getJobStatus(JOB_2));
+    }
+
+    @Test
+    public void testDoneStatusIsEvictedAfterTtl() throws Exception {
+        JobStatusPoller poller = new JobStatusPoller(50);
+        poller.getJobStatus(JOB_1);
+        when(jobClient.getAllJobs()).thenReturn(new JobStatus[]{new JobStatus(JOB_1, 1f, 1f, JobStatus.SUCCEEDED)});
+        poller.poll(jobClient);
+        assertEquals(1, poller.getNumJobs());
+        assertEquals(ProcessState.COMPLETED, poller.getJobStatus(JOB_1).getState());
+
+        Thread.sleep(100);
+        poller.poll(jobClient);
+
+        assertEquals(0, poller.getNumJobs());
+        assertEquals(0, poller.getLastPollRpcCount());
+    }
+
+    private void mockJob(JobID jobId, float mapProgress, float reduceProgress, int numReduceTasks) throws Exception {
+        Job job = mock(Job.class);
+        when(job.getNumReduceTasks()).thenReturn(numReduceTasks);
+        when(job.getStatus()).thenReturn(new JobStatus(jobId, mapProgress, reduceProgress, JobStatus.RUNNING));
+        when(cluster.getJob(jobId)).thenReturn(job);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Measures the split planning time of {@link PatternBasedInputFormat#createSplits} for synthetic
+ * listings of 10k, 100k and 500k files, every tenth of them listed twice.
+ * Run manually, it is not a unit test.
+ */
+public class PatternBasedInputFormatBenchmark {
+
+    private static final int[] NUM_FILES = {10000, 100000, 500000};
+
+    public static void main(String[] args) throws IOException {
+        Configuration conf = new Configuration();
+        PatternBasedInputFormat inputFormat = new PatternBasedInputFormat();
+        for (int run = 0; run < 3; run++) {
+            for (int numFiles : NUM_FILES) {
+                List<LocatedFileStatus> listing = createListing(numFiles);
+                List<InputSplit> splits = new ArrayList<>(numFiles);
+                long t0 = System.nanoTime();
+                inputFormat.createSplits(null, remoteIterator(listing), splits, new HashSet<>(), conf, 0, false);
+                long t1 = System.nanoTime();
+                System.out.printf("%7d files %7d splits  planning %8.1f ms%n",
+                                  listing.size(), splits.size(), (t1 - t0) * 1e-6);
+            }
+        }
+    }
+
+    private static List<LocatedFileStatus> createListing(int numFiles) {
+        BlockLocation[] blocks = {new BlockLocation(new String[]{"name"}, new String[]{"host"}, 0, 99)};
+        List<LocatedFileStatus> listing = new ArrayList<>(numFiles + numFiles / 10);
+        for (int i = 0; i < numFiles; i++) {
+            Path path = new Path(String.format("hdfs://master00:9000/calvalus/eodata/MSI_L1C/v2/%d/S2A_MSIL1C_%08d.zip", 2015 + i % 5, i));
+            listing.add(new LocatedFileStatus(99, false, 1, 99, 0, 0, null, null, null, null, path, blocks));
+            if (i % 10 == 0) {
+                listing.add(new LocatedFileStatus(99, false, 1, 99, 0, 0, null, null, null, null, path, blocks));
+            }
+        }
+        return listing;
+    }
+
+    private static RemoteIterator<LocatedFileStatus> remoteIterator(List<LocatedFileStatus> listing) {
+        return new RemoteIterator<LocatedFileStatus>() {
+            int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < listing.size();
+            }
+
+            @Override
+            public LocatedFileStatus next() {
+                return listing.get(index++);
+            }
+        };
+    }
+}
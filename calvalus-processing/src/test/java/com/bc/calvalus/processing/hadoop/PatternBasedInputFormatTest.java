@@ -1,8 +1,24 @@
 package com.bc.calvalus.processing.hadoop;
 
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
 import static org.junit.Assert.*;
 
 /**
@@ -12,9 +28,55 @@ import static org.junit.Assert.*;
  */
 public class PatternBasedInputFormatTest {
 
+    private static final BlockLocation[] BLOCKS = {new BlockLocation(new String[]{"name"}, new String[]{"host"}, 0, 99)};
+    private static final BlockLocation[] NO_BLOCKS = {};
+
     @Test
     public void testSoblooQuery() {
         String searchUrl = "https://sobloo.eu/api/v1/services/search?f=identification.externalId:like:MSIL1C&f=timeStamp:range:%5B1530403200000%3C1530662399000%5D&gintersect=POLYGON%20%28%2810.734080652848661%2045.581416898369106,%2010.734080652848661%2045.53814805784238,%2010.658549646989286%2045.53814805784238,%2010.658549646989286%2045.581416898369106,%2010.734080652848661%2045.581416898369106%29%29&include=identification&from=0&size=20";
         new GetMethod(searchUrl);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCreateSplitsSkipsDuplicatesOfAllCalls() throws Exception {
+        PatternBasedInputFormat inputFormat = new PatternBasedInputFormat();
+        List<InputSplit> splits = new ArrayList<>();
+        Set<String> splitKeys = new HashSet<>();
+        Configuration conf = new Configuration();
+
+        // the first listing of b has no blocks and is skipped, its later listings are valid
+        inputFormat.createSplits(null, listing(located("/in/2017/a.zip", BLOCKS),
+                                               located("/in/2017/b.zip", NO_BLOCKS),
+                                               located("/in/2017/a.zip", BLOCKS)),
+                                 splits, splitKeys, conf, 0, false);
+        inputFormat.createSplits(null, listing(located("/in/2017/b.zip", BLOCKS),
+                                               located("/in/2017/a.zip", BLOCKS),
+                                               located("/in/2017/c.zip", BLOCKS),
+                                               located("/in/2017/b.zip", BLOCKS)),
+                                 splits, splitKeys, conf, 0, false);
+
+        assertEquals(3, splits.size());
+        assertEquals("a.zip", ((FileSplit) splits.get(0)).getPath().getName());
+        assertEquals("b.zip", ((FileSplit) splits.get(1)).getPath().getName());
+        assertEquals("c.zip", ((FileSplit) splits.get(2)).getPath().getName());
+    }
+
+    private static LocatedFileStatus located(String path, BlockLocation[] blocks) throws IOException {
+        return new LocatedFileStatus(new FileStatus(99, false, 1, 99, 0, new Path(path)), blocks);
+    }
+
+    private static RemoteIterator<LocatedFileStatus> listing(LocatedFileStatus... files) {
+        Iterator<LocatedFileStatus> iterator = Arrays.asList(files).iterator();
+        return new RemoteIterator<LocatedFileStatus>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public LocatedFileStatus next() {
+                return iterator.next();
+            }
+        };
+    }
+}
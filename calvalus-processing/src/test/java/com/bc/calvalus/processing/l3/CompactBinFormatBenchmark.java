@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Measures bytes per bin and records per second of the standard and the compact bin format.
+ * Run manually, it is not a unit test.
+ */
+public class CompactBinFormatBenchmark {
+
+    private static final int NUM_BINS = 1000000;
+    private static final int NUM_FEATURES = 12;
+
+    public static void main(String[] args) throws IOException {
+        for (int run = 0; run < 3; run++) {
+            measure("standard", null);
+            measure("compact", new CompactBinFormat(0L));
+            measure("compact half floats", new CompactBinFormat((1L << NUM_FEATURES) - 1));
+        }
+    }
+
+    private static void measure(String name, CompactBinFormat format) throws IOException {
+        Random random = new Random(42);
+        L3SpatialBin bin = new L3SpatialBin(0L, NUM_FEATURES, 0);
+        bin.setCompactBinFormat(format);
+        DataOutputBuffer output = new DataOutputBuffer(NUM_BINS * (NUM_FEATURES * 4 + 16));
+        long t0 = System.nanoTime();
+        for (int i = 0; i < NUM_BINS; i++) {
+            bin.setNumObs(1 + random.nextInt(20));
+            for (int k = 0; k < NUM_FEATURES; k++) {
+                bin.getFeatureValues()[k] = random.nextFloat();
+            }
+            bin.write(output);
+        }
+        long t1 = System.nanoTime();
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(output.getData(), output.getLength());
+        L3SpatialBin readBin = new L3SpatialBin();
+        for (int i = 0; i < NUM_BINS; i++) {
+            readBin.readFields(input);
+        }
+        long t2 = System.nanoTime();
+        System.out.printf("%-20s %6.2f bytes/bin  write %8.0f bins/s  read %8.0f bins/s%n",
+                          name,
+                          (double) output.getLength() / NUM_BINS,
+                          NUM_BINS / ((t1 - t0) * 1e-9),
+                          NUM_BINS / ((t2 - t1) * 1e-9));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompactBinFormatTest {
+
+    @Test
+    public void testCreate() {
+        assertEquals(0L, CompactBinFormat.create(new int[]{2, 3}, new int[0]).getHalfFloatMask(5));
+        assertEquals(0b11100L, CompactBinFormat.create(new int[]{2, 3}, new int[]{1}).getHalfFloatMask(5));
+        assertEquals(0b11111L, CompactBinFormat.create(new int[]{2, 3}, new int[]{0, 1}).getHalfFloatMask(5));
+        assertEquals(0b11L, CompactBinFormat.create(new int[]{2, 3}, new int[]{0}).getHalfFloatMask(5));
+    }
+
+    @Test
+    public void testHalfFloat() {
+        assertEquals(0.0f, CompactBinFormat.toFloat(CompactBinFormat.toHalfFloat(0.0f)), 0.0f);
+        assertEquals(1.0f, CompactBinFormat.toFloat(CompactBinFormat.toHalfFloat(1.0f)), 0.0f);
+        assertEquals(-2.5f, CompactBinFormat.toFloat(CompactBinFormat.toHalfFloat(-2.5f)), 0.0f);
+        assertEquals(65504.0f, CompactBinFormat.toFloat(CompactBinFormat.toHalfFloat(65504.0f)), 0.0f);
+        assertEquals(Float.POSITIVE_INFINITY, CompactBinFormat.toFloat(CompactBinFormat.toHalfFloat(1.0e6f)), 0.0f);
+        assertEquals(Float.NEGATIVE_INFINITY, CompactBinFormat.toFloat(CompactBinFormat.toHalfFloat(Float.NEGATIVE_INFINITY)), 0.0f);
+        assertTrue(Float.isNaN(CompactBinFormat.toFloat(CompactBinFormat.toHalfFloat(Float.NaN))));
+        // smallest subnormal half-precision float
+        assertEquals(0x1p-24f, CompactBinFormat.toFloat(CompactBinFormat.toHalfFloat(0x1p-24f)), 0.0f);
+        assertEquals(0.0f, CompactBinFormat.toFloat(CompactBinFormat.toHalfFloat(0x1p-26f)), 0.0f);
+        // relative precision of 11 bits
+        float value = 0.123456f;
+        assertEquals(value, CompactBinFormat.toFloat(CompactBinFormat.toHalfFloat(value)), value / 2048);
+    }
+
+    @Test
+    public void testSpatialBinRoundTrip() throws IOException {
+        L3SpatialBin bin = new L3SpatialBin(42L, 3, 0);
+        bin.setNumObs(300);
+        bin.setNumPasses(2);
+        bin.getFeatureValues()[0] = 0.25f;
+        bin.getFeatureValues()[1] = 0.123456f;
+        bin.getFeatureValues()[2] = Float.NaN;
+        bin.setCompactBinFormat(CompactBinFormat.create(new int[]{1, 2}, new int[]{1}));
+
+        byte[] bytes = toBytes(bin);
+        L3SpatialBin bin2 = new L3SpatialBin();
+        bin2.readFields(new DataInputStream(new ByteArrayInputStream(bytes)));
+
+        assertEquals(300, bin2.getNumObs());
+        assertEquals(2, bin2.getNumPasses());
+        assertEquals(3, bin2.getFeatureValues().length);
+        assertEquals(0.25f, bin2.getFeatureValues()[0], 0.0f);
+        assertEquals(0.123456f, bin2.getFeatureValues()[1], 1e-4f);
+        assertTrue(Float.isNaN(bin2.getFeatureValues()[2]));
+    }
+
+    @Test
+    public void testSpatialBinFormatsAreReadByTheSameInstance() throws IOException {
+        L3SpatialBin standardBin = new L3SpatialBin(42L, 2, 0);
+        standardBin.setNumObs(5);
+        standardBin.getFeatureValues()[0] = 1.0f;
+        standardBin.getFeatureValues()[1] = 2.0f;
+        L3SpatialBin compactBin = new L3SpatialBin(43L, 2, 0);
+        compactBin.setNumObs(7);
+        compactBin.getFeatureValues()[0] = 3.0f;
+        compactBin.getFeatureValues()[1] = 4.0f;
+        compactBin.setCompactBinFormat(new CompactBinFormat(0L));
+
+        byte[] standardBytes = toBytes(standardBin);
+        byte[] compactBytes = toBytes(compactBin);
+        assertTrue(compactBytes.length < standardBytes.length);
+
+        L3SpatialBin bin = new L3SpatialBin();
+        bin.readFields(new DataInputStream(new ByteArrayInputStream(compactBytes)));
+        assertEquals(7, bin.getNumObs());
+        assertEquals(4.0f, bin.getFeatureValues()[1], 0.0f);
+        bin.readFields(new DataInputStream(new ByteArrayInputStream(standardBytes)));
+        assertEquals(5, bin.getNumObs());
+        assertEquals(1, bin.getNumPasses());
+        assertEquals(2.0f, bin.getFeatureValues()[1], 0.0f);
+    }
+
+    @Test
+    public void testTemporalBinRoundTrip() throws IOException {
+        L3TemporalBin bin = new L3TemporalBin(42L, 3);
+        bin.setNumObs(2354);
+        bin.setNumPasses(54);
+        bin.getFeatureValues()[0] = 0.1f;
+        bin.getFeatureValues()[1] = 0.2f;
+        bin.getFeatureValues()[2] = 0.3f;
+        bin.setCompactBinFormat(CompactBinFormat.create(new int[]{3}, new int[]{0}));
+
+        byte[] compactBytes = toBytes(bin);
+        // marker, numObs, numPasses, numFeatures, mask, features
+        assertEquals(1 + 3 + 1 + 1 + 1 + 3 * 2, compactBytes.length);
+        bin.setCompactBinFormat(null);
+        byte[] standardBytes = toBytes(bin);
+
+        L3TemporalBin bin2 = new L3TemporalBin();
+        bin2.readFields(new DataInputStream(new ByteArrayInputStream(compactBytes)));
+        assertEquals(2354, bin2.getNumObs());
+        assertEquals(54, bin2.getNumPasses());
+        assertEquals(3, bin2.getFeatureValues().length);
+        assertEquals(0.2f, bin2.getFeatureValues()[1], 1e-4f);
+
+        L3TemporalBin bin3 = new L3TemporalBin();
+        bin3.readFields(new DataInputStream(new ByteArrayInputStream(standardBytes)));
+        assertEquals(2354, bin3.getNumObs());
+        assertEquals(54, bin3.getNumPasses());
+        assertEquals(0.2f, bin3.getFeatureValues()[1], 0.0f);
+    }
+
+    @Test
+    public void testVectorsAreReusedAcrossRecords() throws IOException {
+        L3SpatialBin bin = new L3SpatialBin();
+        for (float[] vector : new float[][]{{1.0f, 2.0f, 3.0f}, {4.0f}, {}, {5.0f, 6.0f, 7.0f, 8.0f}}) {
+            byte[] standardBytes = toStandardBytes(vector);
+            bin.readFields(new DataInputStream(new ByteArrayInputStream(standardBytes)));
+            assertArrayEquals(standardBytes, toBytes(bin));
+        }
+    }
+
+    private static byte[] toStandardBytes(float[] vector) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream dataOutput = new DataOutputStream(output);
+        dataOutput.writeInt(3);
+        dataOutput.writeInt(1);
+        dataOutput.writeFloat(0.5f);
+        dataOutput.writeInt(1);
+        dataOutput.writeInt(vector.length);
+        for (float value : vector) {
+            dataOutput.writeFloat(value);
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] toBytes(org.apache.hadoop.io.Writable bin) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        bin.write(new DataOutputStream(output));
+        return output.toByteArray();
+    }
+}
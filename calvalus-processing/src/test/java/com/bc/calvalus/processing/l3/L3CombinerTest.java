@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import com.bc.calvalus.processing.JobConfigNames;
+import org.apache.hadoop.conf.Configuration;
+import org.esa.snap.binning.BinManager;
+import org.esa.snap.binning.BinningContext;
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.binning.TemporalBinner;
+import org.esa.snap.binning.operator.BinningConfig;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class L3CombinerTest {
+
+    @Test
+    public void testIsApplicable() throws Exception {
+        assertTrue(L3Combiner.isApplicable(createBinningConfig("<aggregator><type>MIN_MAX</type><varName>chl</varName></aggregator>")));
+        assertFalse(L3Combiner.isApplicable(createBinningConfig("<aggregator><type>AVG</type><varName>chl</varName></aggregator>")));
+        assertFalse(L3Combiner.isApplicable(createBinningConfig("<aggregator><type>MIN_MAX</type><varName>chl</varName></aggregator>" +
+                                                                "<aggregator><type>AVG</type><varName>tsm</varName></aggregator>")));
+    }
+
+    @Test
+    public void testPassCountingIterable() {
+        L3SpatialBin bin1 = new L3SpatialBin(17L, 2, 0);
+        L3SpatialBin bin2 = new L3SpatialBin(17L, 2, 0);
+        bin2.setNumPasses(3);
+        L3Reducer.PassCountingIterable bins = new L3Reducer.PassCountingIterable(Arrays.asList(bin1, bin2));
+        int numBins = 0;
+        for (L3SpatialBin ignored : bins) {
+            numBins++;
+        }
+        assertEquals(2, numBins);
+        assertEquals(4, bins.getNumPasses());
+    }
+
+    @Test
+    public void testCombiningAndReducingGivesSameTemporalBinAsReducing() throws Exception {
+        Configuration conf = new Configuration();
+        conf.set(JobConfigNames.CALVALUS_L3_PARAMETERS,
+                 createBinningConfig("<aggregator><type>MIN_MAX</type><varName>chl</varName></aggregator>" +
+                                     "<aggregator><type>MIN_MAX</type><varName>tsm</varName></aggregator>").toXml());
+        BinningContext binningContext = HadoopBinManager.createBinningContext(conf, HadoopBinManager.getBinningConfig(conf), null, null);
+        BinManager binManager = binningContext.getBinManager();
+        TemporalBinner temporalBinner = new TemporalBinner(binningContext);
+        List<L3SpatialBin> spatialBins = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            L3SpatialBin spatialBin = (L3SpatialBin) binManager.createSpatialBin(17L);
+            spatialBin.setNumObs(i + 1);
+            float[] featureValues = spatialBin.getFeatureValues();
+            featureValues[0] = 0.5f * i;
+            featureValues[1] = 3.0f - i;
+            featureValues[2] = 10.0f + i;
+            featureValues[3] = 20.0f - 2 * i;
+            spatialBins.add(spatialBin);
+        }
+        TemporalBin reduced = L3Reducer.aggregateSpatialBins(temporalBinner, 17L, spatialBins);
+
+        // two map tasks combine their spatial bins before they are reduced
+        L3Combiner combiner = new L3Combiner();
+        combiner.init(conf);
+        List<L3SpatialBin> combinedBins = new ArrayList<>();
+        for (List<L3SpatialBin> mapOutput : Arrays.asList(spatialBins.subList(0, 4), spatialBins.subList(4, 6))) {
+            L3SpatialBin combinedBin = (L3SpatialBin) binManager.createSpatialBin(0L);
+            assertEquals(mapOutput.size(), combiner.combine(17L, mapOutput, combinedBin));
+            combinedBins.add(combinedBin);
+        }
+        TemporalBin combinedAndReduced = L3Reducer.aggregateSpatialBins(temporalBinner, 17L, combinedBins);
+
+        assertEquals(17L, combinedAndReduced.getIndex());
+        assertEquals(6, reduced.getNumPasses());
+        assertEquals(reduced.getNumPasses(), combinedAndReduced.getNumPasses());
+        assertEquals(1 + 2 + 3 + 4 + 5 + 6, reduced.getNumObs());
+        assertEquals(reduced.getNumObs(), combinedAndReduced.getNumObs());
+        assertArrayEquals(reduced.getFeatureValues(), combinedAndReduced.getFeatureValues(), 0.0f);
+    }
+
+    private static BinningConfig createBinningConfig(String aggregators) throws Exception {
+        return BinningConfig.fromXml("<parameters>" +
+                                     "<numRows>2160</numRows>" +
+                                     "<aggregators>" + aggregators + "</aggregators>" +
+                                     "</parameters>");
+    }
+}
@@ -143,9 +143,57 @@ public class L3PartitionerTest {
 
     }
 
+    @Test
+    public void test8Rows3PartitionsBalancedByBins() {
+        L3Partitioner l3Partitioner = createPartitioner(8, "", L3Partitioner.BALANCE_BINS);
+        int numPartitions = 3;
+
+        // rows 0-2 have 25 bins, rows 3-4 have 32 bins, rows 5-7 have 25 bins
+        assertEquals(0, l3Partitioner.getPartition(new LongWritable(0), null, numPartitions));
+        assertEquals(0, l3Partitioner.getPartition(new LongWritable(3 + 9 + 13 - 1), null, numPartitions));
+
+        assertEquals(1, l3Partitioner.getPartition(new LongWritable(3 + 9 + 13), null, numPartitions));
+        assertEquals(1, l3Partitioner.getPartition(new LongWritable(3 + 9 + 13 + 16 + 16 - 1), null, numPartitions));
+
+        assertEquals(2, l3Partitioner.getPartition(new LongWritable(3 + 9 + 13 + 16 + 16), null, numPartitions));
+        assertEquals(2, l3Partitioner.getPartition(new LongWritable(3 + 9 + 13 + 16 + 16 + 13 + 9 + 3 - 1), null, numPartitions));
+    }
+
+    @Test
+    public void testComputePartitionSkew() {
+        assertEquals(1.0, L3WorkflowItem.computePartitionSkew(new long[]{10, 10, 10, 10}), 1e-9);
+        assertEquals(2.0, L3WorkflowItem.computePartitionSkew(new long[]{20, 10, 10, 0}), 1e-9);
+        assertEquals(20, L3WorkflowItem.computeMaxBins(new long[]{20, 10, 10, 0}));
+        assertEquals(10.0, L3WorkflowItem.computeMeanBins(new long[]{20, 10, 10, 0}), 1e-9);
+    }
+
+    @Test
+    public void testComputePartitionSkewWithoutBins() {
+        assertEquals(1.0, L3WorkflowItem.computePartitionSkew(new long[]{0, 0, 0}), 1e-9);
+        assertEquals(0, L3WorkflowItem.computeMaxBins(new long[]{0, 0, 0}));
+        assertEquals(0.0, L3WorkflowItem.computeMeanBins(new long[]{0, 0, 0}), 1e-9);
+
+        assertEquals(1.0, L3WorkflowItem.computePartitionSkew(new long[0]), 1e-9);
+        assertEquals(0, L3WorkflowItem.computeMaxBins(new long[0]));
+        assertEquals(0.0, L3WorkflowItem.computeMeanBins(new long[0]), 1e-9);
+    }
+
+    @Test
+    public void testComputePartitionOfRow() {
+        long[] rowWeights = {100, 1, 1, 1, 1, 1, 1, 100};
+        assertArrayEquals(new int[]{0, 0, 0, 0, 1, 1, 1, 1}, L3Partitioner.computePartitionOfRow(rowWeights, 2));
+        assertArrayEquals(new int[]{0, 1, 1, 1, 1, 1, 1, 2}, L3Partitioner.computePartitionOfRow(rowWeights, 3));
+        assertArrayEquals(new int[]{0, 0, 1, 1, 2, 2, 3, 3}, L3Partitioner.computePartitionOfRow(new long[8], 4));
+    }
+
     private static L3Partitioner createPartitioner(int numRows, String wkt) {
+        return createPartitioner(numRows, wkt, L3Partitioner.BALANCE_ROWS);
+    }
+
+    private static L3Partitioner createPartitioner(int numRows, String wkt, String balance) {
         L3Partitioner l3Partitioner = new L3Partitioner();
         Configuration configuration = new Configuration();
+        configuration.set(JobConfigNames.CALVALUS_L3_PARTITIONER_BALANCE, balance);
 
         BinningConfig l3Config = new BinningConfig();
         l3Config.setNumRows(numRows);
@@ -18,6 +18,8 @@ package com.bc.calvalus.processing.l3;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -44,4 +46,21 @@ public class L3SpatialBinTest {
         assertEquals(metadata.length(), l3SpatialBin1.getMetadata().length());
         assertEquals(metadata, l3SpatialBin1.getMetadata());
     }
+
+    @Test
+    public void testCombinedBinExchange() throws IOException {
+        L3SpatialBin l3SpatialBin = new L3SpatialBin(42L, 2, 0);
+        l3SpatialBin.setNumObs(7);
+        l3SpatialBin.setNumPasses(3);
+        l3SpatialBin.getFeatureValues()[0] = 0.5f;
+        l3SpatialBin.getFeatureValues()[1] = 1.5f;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        l3SpatialBin.write(new DataOutputStream(output));
+        L3SpatialBin l3SpatialBin1 = (L3SpatialBin) L3SpatialBin.read(new DataInputStream(new ByteArrayInputStream(output.toByteArray())));
+
+        assertEquals(7, l3SpatialBin1.getNumObs());
+        assertEquals(3, l3SpatialBin1.getNumPasses());
+        assertEquals(0.5f, l3SpatialBin1.getFeatureValues()[0], 1e-6f);
+        assertEquals(1.5f, l3SpatialBin1.getFeatureValues()[1], 1e-6f);
+    }
 }
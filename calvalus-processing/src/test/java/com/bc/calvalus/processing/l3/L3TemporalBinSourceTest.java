@@ -0,0 +1,146 @@
+package com.bc.calvalus.processing.l3;
+
+
+import com.bc.calvalus.processing.JobConfigNames;
+import com.bc.calvalus.processing.UnixTestRunner;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.esa.snap.binning.TemporalBin;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(UnixTestRunner.class)
+public class L3TemporalBinSourceTest {
+    public static final Path PARTS_DIR = new Path("L3TemporalBinSourceTest.parts");
+    private Configuration conf;
+    private FileSystem fs;
+
+    @Before
+    public void setUp() throws Exception {
+        conf = new Configuration();
+        fs = FileSystem.getLocal(conf);
+        // part numbers deliberately do not follow the bin index ranges
+        writePart("part-r-00000", 200, 50);
+        writePart("part-r-00001", 0, 100);
+        writePart("part-r-00002", 100, 100);
+        writePart("part-r-00003", 300, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fs.delete(PARTS_DIR, true);
+    }
+
+    @Test
+    public void testSequentialParts() throws Exception {
+        assertBinsInOrder(readAll(0));
+    }
+
+    @Test
+    public void testPrefetchedParts() throws Exception {
+        conf.setInt(JobConfigNames.CALVALUS_L3_FORMAT_READ_AHEAD_BINS, 7);
+        assertBinsInOrder(readAll(2));
+    }
+
+    @Test(timeout = 10000)
+    public void testPartiallyConsumedPartsDoNotBlockTheReaders() throws Exception {
+        conf.setInt(JobConfigNames.CALVALUS_L3_FORMAT_READ_AHEAD_PARTS, 2);
+        conf.setInt(JobConfigNames.CALVALUS_L3_FORMAT_READ_AHEAD_BINS, 7);
+        L3TemporalBinSource source = new L3TemporalBinSource(PARTS_DIR, createContext());
+        int numParts = source.open();
+        for (int i = 0; i < numParts; i++) {
+            Iterator<? extends TemporalBin> part = source.getPart(i);
+            for (int k = 0; k < 3; k++) {
+                assertTrue(part.hasNext());
+                part.next();
+            }
+            source.partProcessed(i, part);
+        }
+        source.close();
+    }
+
+    @Test(timeout = 10000)
+    public void testFailureOfPrefetchedPartIsRethrown() throws Exception {
+        // cut off the last records of the part with bins 0 to 99
+        File partFile = new File(PARTS_DIR.toString(), "part-r-00001");
+        new File(PARTS_DIR.toString(), ".part-r-00001.crc").delete();
+        try (RandomAccessFile file = new RandomAccessFile(partFile, "rw")) {
+            file.setLength(file.length() - 100);
+        }
+        conf.setInt(JobConfigNames.CALVALUS_L3_FORMAT_READ_AHEAD_PARTS, 2);
+        L3TemporalBinSource source = new L3TemporalBinSource(PARTS_DIR, createContext());
+        source.open();
+        Iterator<? extends TemporalBin> part = source.getPart(0);
+        try {
+            while (part.hasNext()) {
+                part.next();
+            }
+            fail("failure of truncated part expected");
+        } catch (IllegalStateException expected) {
+            // ok
+        } finally {
+            source.close();
+        }
+    }
+
+    private static void assertBinsInOrder(List<Long> binIndexes) {
+        assertEquals(250, binIndexes.size());
+        for (int i = 0; i < binIndexes.size(); i++) {
+            assertEquals(i, binIndexes.get(i).longValue());
+        }
+    }
+
+    private List<Long> readAll(int readAheadParts) throws Exception {
+        conf.setInt(JobConfigNames.CALVALUS_L3_FORMAT_READ_AHEAD_PARTS, readAheadParts);
+        L3TemporalBinSource source = new L3TemporalBinSource(PARTS_DIR, createContext());
+        List<Long> binIndexes = new ArrayList<>();
+        int numParts = source.open();
+        assertEquals(3, numParts);
+        for (int i = 0; i < numParts; i++) {
+            Iterator<? extends TemporalBin> part = source.getPart(i);
+            while (part.hasNext()) {
+                TemporalBin bin = part.next();
+                assertEquals(bin.getIndex(), bin.getNumObs());
+                binIndexes.add(bin.getIndex());
+            }
+            source.partProcessed(i, part);
+        }
+        source.close();
+        return binIndexes;
+    }
+
+    private Mapper.Context createContext() {
+        Mapper.Context context = mock(Mapper.Context.class);
+        when(context.getConfiguration()).thenReturn(conf);
+        return context;
+    }
+
+    private void writePart(String name, int firstIndex, int numBins) throws Exception {
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, new Path(PARTS_DIR, name),
+                                                               LongWritable.class, L3TemporalBin.class);
+        try {
+            for (int i = firstIndex; i < firstIndex + numBins; i++) {
+                L3TemporalBin bin = new L3TemporalBin(i, 1);
+                bin.setNumObs(i);
+                writer.append(new LongWritable(i), bin);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
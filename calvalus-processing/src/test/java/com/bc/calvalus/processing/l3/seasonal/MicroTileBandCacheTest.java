@@ -0,0 +1,78 @@
+package com.bc.calvalus.processing.l3.seasonal;
+
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MicroTileBandCacheTest {
+
+    private static final Rectangle AREA = new Rectangle(2, 1, 3, 2);
+
+    @Test
+    public void testCachedProductIsDecodedOnce() {
+        final RenderedImage[] bandImage = {createImage(0), createImage(100)};
+        final MicroTileBandCache cache = new MicroTileBandCache(1000, 2, 6);
+
+        assertTrue(cache.cacheProduct(0, bandImage, AREA, 2, MicroTileBandCache.PASS_MAJORITY));
+        final short[] band1 = (short[]) cache.getBand(0, 1, bandImage[1], AREA, MicroTileBandCache.PASS_MAJORITY);
+        assertArrayEquals(new short[]{112, 113, 114, 122, 123, 124}, band1);
+        assertSame(band1, cache.getBand(0, 1, bandImage[1], AREA, MicroTileBandCache.PASS_AGGREGATION));
+
+        assertEquals(24, cache.bytesRead[MicroTileBandCache.PASS_MAJORITY]);
+        assertEquals(0, cache.bytesRead[MicroTileBandCache.PASS_AGGREGATION]);
+    }
+
+    @Test
+    public void testProductBeyondLimitIsDecodedPerPass() {
+        final RenderedImage[] bandImage = {createImage(0), createImage(100)};
+        final MicroTileBandCache cache = new MicroTileBandCache(30, 2, 6);
+
+        assertTrue(cache.cacheProduct(0, bandImage, AREA, 2, MicroTileBandCache.PASS_MAJORITY));
+        assertFalse(cache.cacheProduct(1, bandImage, AREA, 2, MicroTileBandCache.PASS_MAJORITY));
+        final short[] band0 = (short[]) cache.getBand(1, 0, bandImage[0], AREA, MicroTileBandCache.PASS_MAJORITY);
+        assertArrayEquals(new short[]{12, 13, 14, 22, 23, 24}, band0);
+        assertSame(band0, cache.getBand(1, 0, bandImage[0], AREA, MicroTileBandCache.PASS_AGGREGATION));
+
+        assertEquals(24 + 12, cache.bytesRead[MicroTileBandCache.PASS_MAJORITY]);
+        assertEquals(12, cache.bytesRead[MicroTileBandCache.PASS_AGGREGATION]);
+    }
+
+    @Test
+    public void testArraysAreReusedForNextMicroTile() {
+        final RenderedImage[] bandImage = {createImage(0), createImage(100)};
+        final MicroTileBandCache cache = new MicroTileBandCache(1000, 2, 6);
+        cache.cacheProduct(0, bandImage, AREA, 2, MicroTileBandCache.PASS_MAJORITY);
+        final Object band0 = cache.getBand(0, 0, bandImage[0], AREA, MicroTileBandCache.PASS_MAJORITY);
+        final Object band1 = cache.getBand(0, 1, bandImage[1], AREA, MicroTileBandCache.PASS_MAJORITY);
+
+        cache.clear();
+        final Rectangle nextArea = new Rectangle(0, 0, 3, 2);
+        cache.cacheProduct(0, bandImage, nextArea, 2, MicroTileBandCache.PASS_MAJORITY);
+
+        final Object nextBand0 = cache.getBand(0, 0, bandImage[0], nextArea, MicroTileBandCache.PASS_MAJORITY);
+        final Object nextBand1 = cache.getBand(0, 1, bandImage[1], nextArea, MicroTileBandCache.PASS_MAJORITY);
+        assertTrue(nextBand0 == band0 || nextBand0 == band1);
+        assertTrue(nextBand1 == band0 || nextBand1 == band1);
+        assertNotSame(nextBand0, nextBand1);
+        assertArrayEquals(new short[]{0, 1, 2, 10, 11, 12}, (short[]) nextBand0);
+    }
+
+    private static BufferedImage createImage(int offset) {
+        final BufferedImage image = new BufferedImage(8, 4, BufferedImage.TYPE_USHORT_GRAY);
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 8; x++) {
+                image.getRaster().setSample(x, y, 0, offset + 10 * y + x);
+            }
+        }
+        return image;
+    }
+}
@@ -1,14 +1,35 @@
 package com.bc.calvalus.processing.l3.seasonal;
 
 import com.bc.calvalus.commons.DateUtils;
+import com.bc.calvalus.processing.hadoop.ProgressSplitProgressMonitor;
+import com.bc.ceres.glevel.MultiLevelImage;
+import com.bc.ceres.glevel.support.DefaultMultiLevelImage;
+import com.bc.ceres.glevel.support.DefaultMultiLevelSource;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Mapper;
 import org.junit.Test;
+import org.mockito.Mockito;
 
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -19,6 +40,12 @@ import static org.junit.Assert.assertEquals;
 public class SeasonalCompositingMapperTest {
 
     private static final SimpleDateFormat DATE_FORMAT = DateUtils.createDateFormat("yyyy-MM-dd");
+    // status, five counts, three reflectances and the NDVI, as for MERIS with bands 3 and 11 at 7 and 8
+    private static final int NUM_SOURCE_BANDS = 10;
+    private static final int NUM_TARGET_BANDS = 7;
+    private static final int NUM_MICRO_TILES = 3;
+    private static final int MICRO_TILE_SIZE = 128;
+    private static final int[] STATES = {0, 1, 2, 3, 4, 5, 11, 12, 14, 15};
 
     @Test public void testNan() {
         SeasonalCompositingMapper m = new SeasonalCompositingMapper();
@@ -89,4 +116,88 @@ public class SeasonalCompositingMapperTest {
         assertEquals("targetBandIndex", 10, targetBandIndex[7]);
         assertEquals("sourceBandIndex", 20, sourceBandIndex[10]);
     }
+
+    @Test
+    public void testMicroTilesOnSeveralThreadsGiveSameOutput() throws Exception {
+        final List<MultiLevelImage[]> bandImages = new ArrayList<>();
+        for (int product = 0; product < 4; ++product) {
+            bandImages.add(createBandImages(new Random(product)));
+        }
+        // with one megabyte two products fit into the cache of one thread, none into the share of one of three threads
+        for (String mode : new String[]{"best pixels", "maximum NDVI", "averaging"}) {
+            final List<Integer> keys1 = new ArrayList<>();
+            final List<int[]> values1 = new ArrayList<>();
+            processMicroTiles(bandImages, mode, 1, keys1, values1);
+            final List<Integer> keys3 = new ArrayList<>();
+            final List<int[]> values3 = new ArrayList<>();
+            processMicroTiles(bandImages, mode, 3, keys3, values3);
+
+            // the micro tile in the centre has no valid pixel and is skipped
+            assertEquals(mode, (NUM_MICRO_TILES * NUM_MICRO_TILES - 1) * NUM_TARGET_BANDS, keys1.size());
+            assertEquals(mode, keys1, keys3);
+            for (int i = 0; i < values1.size(); ++i) {
+                assertArrayEquals(mode + " " + keys1.get(i), values1.get(i), values3.get(i));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void processMicroTiles(List<MultiLevelImage[]> bandImages, String mode, int numThreads,
+                                          List<Integer> keys, List<int[]> values) throws Exception {
+        final Configuration conf = new Configuration();
+        conf.setInt("calvalus.compositing.threads", numThreads);
+        conf.setLong("calvalus.compositing.cacheMegabytes", 1);
+        final Mapper.Context context = Mockito.mock(Mapper.Context.class);
+        Mockito.when(context.getConfiguration()).thenReturn(conf);
+        Mockito.when(context.getCounter(Mockito.anyString(), Mockito.anyString())).thenReturn(Mockito.mock(Counter.class));
+        // the tile data are re-used for the next micro tile, they are copied as if serialised
+        Mockito.doAnswer(invocation -> {
+            keys.add(((IntWritable) invocation.getArguments()[0]).get());
+            final float[] tileData = ((BandTileWritable) invocation.getArguments()[1]).getTileData();
+            final int[] bits = new int[tileData.length];
+            for (int i = 0; i < tileData.length; ++i) {
+                bits[i] = Float.floatToIntBits(tileData[i]);
+            }
+            values.add(bits);
+            return null;
+        }).when(context).write(Mockito.any(), Mockito.any());
+
+        final SeasonalCompositingMapper mapper = new SeasonalCompositingMapper();
+        mapper.srThreshold = Float.NaN;
+        mapper.pm = new ProgressSplitProgressMonitor(context);
+        mapper.processMicroTiles(context, bandImages, NUM_MICRO_TILES, MICRO_TILE_SIZE,
+                                 "best pixels".equals(mode), "maximum NDVI".equals(mode), false,
+                                 -1, 7, 8, NUM_SOURCE_BANDS - 1, NUM_SOURCE_BANDS, NUM_TARGET_BANDS,
+                                 new int[]{0, 1, 2, 3, 4, 5, 6}, NUM_TARGET_BANDS, 3, 4);
+    }
+
+    private static MultiLevelImage[] createBandImages(Random random) {
+        final int size = NUM_MICRO_TILES * MICRO_TILE_SIZE;
+        final MultiLevelImage[] bandImages = new MultiLevelImage[NUM_SOURCE_BANDS];
+        for (int b = 0; b < NUM_SOURCE_BANDS; ++b) {
+            final BufferedImage image;
+            if (b < 6) {
+                image = new BufferedImage(size, size, BufferedImage.TYPE_USHORT_GRAY);
+                for (int y = 0; y < size; ++y) {
+                    for (int x = 0; x < size; ++x) {
+                        final boolean centre = x / MICRO_TILE_SIZE == 1 && y / MICRO_TILE_SIZE == 1;
+                        final int value = b == 0 ? (centre ? 0 : STATES[random.nextInt(STATES.length)]) : random.nextInt(4);
+                        image.getRaster().setSample(x, y, 0, value);
+                    }
+                }
+            } else {
+                final float[] data = new float[size * size];
+                for (int i = 0; i < data.length; ++i) {
+                    data[i] = random.nextInt(20) == 0 ? Float.NaN : random.nextFloat();
+                }
+                final WritableRaster raster = Raster.createWritableRaster(
+                        new BandedSampleModel(DataBuffer.TYPE_FLOAT, size, size, 1), new DataBufferFloat(data, data.length), null);
+                image = new BufferedImage(new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false,
+                                                                  Transparency.OPAQUE, DataBuffer.TYPE_FLOAT),
+                                          raster, false, null);
+            }
+            bandImages[b] = new DefaultMultiLevelImage(new DefaultMultiLevelSource(image, 1));
+        }
+        return bandImages;
+    }
 }
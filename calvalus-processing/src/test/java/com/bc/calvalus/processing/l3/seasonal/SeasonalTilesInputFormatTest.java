@@ -13,6 +13,7 @@ import org.junit.Test;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 
@@ -48,7 +49,7 @@ public class SeasonalTilesInputFormatTest {
                 return new LocatedFileStatus(iterator.next(), blockLocations);
             }
         };
-        inputFormat.createSplits(null, remoteIter, splits, new Configuration(), 0, false);
+        inputFormat.createSplits(null, remoteIter, splits, new HashSet<>(), new Configuration(), 0, false);
 
         assertEquals(2, splits.size());
     }
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2012 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ma;
+
+import org.esa.snap.core.datamodel.PixelPos;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the time of {@link PixelPosProvider#computePixelArea} and {@link PixelPosProvider#computePixelBounds}
+ * for 100 to 100k match-ups scattered over a 5000 x 40000 pixel scene, macro pixel size 5.
+ * Run manually, it is not a unit test. The area union is only measured up to 10k match-ups unless
+ * any argument is given.
+ */
+public class PixelAreaBenchmark {
+
+    private static final int[] NUM_MATCH_UPS = {100, 1000, 10000, 100000};
+    private static final int MACRO_PIXEL_SIZE = 5;
+    private static final long MAX_AREA_MILLIS = 60000;
+
+    public static void main(String[] args) {
+        for (int run = 0; run < 3; run++) {
+            for (int numMatchUps : NUM_MATCH_UPS) {
+                List<PixelPosProvider.PixelPosRecord> records = createRecords(numMatchUps);
+
+                long t0 = System.nanoTime();
+                Rectangle bounds = PixelPosProvider.computePixelBounds(records, MACRO_PIXEL_SIZE);
+                long t1 = System.nanoTime();
+                System.out.printf("%6d match-ups  bounds %10.3f ms  %s%n", numMatchUps, (t1 - t0) * 1e-6, bounds);
+
+                if (numMatchUps <= 10000 || args.length > 0) {
+                    t0 = System.nanoTime();
+                    Rectangle areaBounds = PixelPosProvider.computePixelArea(records, MACRO_PIXEL_SIZE).getBounds();
+                    t1 = System.nanoTime();
+                    System.out.printf("%6d match-ups  area   %10.3f ms  %s%n", numMatchUps, (t1 - t0) * 1e-6, areaBounds);
+                    if ((t1 - t0) / 1000000 > MAX_AREA_MILLIS) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<PixelPosProvider.PixelPosRecord> createRecords(int numMatchUps) {
+        Random random = new Random(42);
+        Record record = RecordUtils.create(42.0);
+        List<PixelPosProvider.PixelPosRecord> records = new ArrayList<>(numMatchUps);
+        for (int i = 0; i < numMatchUps; i++) {
+            PixelPos pixelPos = new PixelPos(random.nextFloat() * 5000, random.nextFloat() * 40000);
+            records.add(new PixelPosProvider.PixelPosRecord(pixelPos, record, -1L));
+        }
+        return records;
+    }
+}
@@ -24,13 +24,16 @@ import org.esa.snap.core.datamodel.ProductData;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.junit.Test;
 
+import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Random;
 
 import static com.bc.calvalus.commons.DateUtils.ISO_FORMAT;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class PixelPosProviderTest {
 
@@ -108,6 +111,29 @@ public class PixelPosProviderTest {
         assertDateEquals("2017-04-10T19:00:00", pixelPosProvider.getMaxReferenceTime(record));
     }
     
+    @Test
+    public void testPixelBoundsSameAsPixelArea() throws Exception {
+        Record dummyRecord = RecordUtils.create(42.0);
+        List<PixelPosProvider.PixelPosRecord> records = new ArrayList<>();
+        assertTrue(PixelPosProvider.computePixelBounds(records, 5).isEmpty());
+
+        Random random = new Random(4711);
+        for (int i = 0; i < 200; i++) {
+            records.add(new PixelPosProvider.PixelPosRecord(new PixelPos(random.nextFloat() * 1000 - 10, random.nextFloat() * 2000), dummyRecord, -1L));
+            if (i > 3 && i % 49 != 0) {
+                continue;
+            }
+            for (int macroPixelSize : new int[]{0, 1, 3, 4, 9}) {
+                Rectangle expected = PixelPosProvider.computePixelArea(records, macroPixelSize).getBounds();
+                Rectangle actual = PixelPosProvider.computePixelBounds(records, macroPixelSize);
+                assertEquals(expected.isEmpty(), actual.isEmpty());
+                if (!expected.isEmpty()) {
+                    assertEquals(expected, actual);
+                }
+            }
+        }
+    }
+
     private static void assertDateEquals(String expected, long time) {
         assertEquals(expected, ISO_FORMAT.format(new Date(time)));
     }
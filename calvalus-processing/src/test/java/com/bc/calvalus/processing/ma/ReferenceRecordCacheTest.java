@@ -0,0 +1,131 @@
+package com.bc.calvalus.processing.ma;
+
+import com.bc.calvalus.commons.DateUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReferenceRecordCacheTest {
+
+    private static final DateFormat DATE_FORMAT = DateUtils.createDateFormat("dd.MM.yyyy");
+    private static final String CSV = ""
+                                      + "# Test CSV\n"
+                                      + "ID\tLAT\tLONG\tTIME\tSITE\tCHL\n"
+                                      + "16\t53.1\t13.6\t03.04.2003\tA\t0.5\n"
+                                      + "17\t53.3\t13.4\t08.04.2003\t\t0.9\n"
+                                      + "18\t-53.1\t-13.5\t11.04.2003\tSüd\t\n";
+
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheDir = Files.createTempDirectory("calvalus-ma-records").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File cacheFile = new File(cacheDir, "test.records");
+        ReferenceRecordCache.write(new CsvRecordSource(new StringReader(CSV), DATE_FORMAT), cacheDir, cacheFile);
+        assertTrue(cacheFile.isFile());
+        assertEquals(1, cacheDir.listFiles().length);
+
+        RecordSource expectedSource = new CsvRecordSource(new StringReader(CSV), DATE_FORMAT);
+        RecordSource cachedSource = ReferenceRecordCache.read(cacheFile);
+
+        Header expectedHeader = expectedSource.getHeader();
+        Header cachedHeader = cachedSource.getHeader();
+        assertEquals(expectedHeader.hasLocation(), cachedHeader.hasLocation());
+        assertEquals(expectedHeader.hasTime(), cachedHeader.hasTime());
+        assertArrayEquals(expectedHeader.getAttributeNames(), cachedHeader.getAttributeNames());
+        assertArrayEquals(expectedHeader.getAnnotationNames(), cachedHeader.getAnnotationNames());
+        assertEquals(expectedSource.getTimeAndLocationColumnDescription(), cachedSource.getTimeAndLocationColumnDescription());
+
+        List<Record> expectedRecords = toList(expectedSource.getRecords());
+        List<Record> cachedRecords = toList(cachedSource.getRecords());
+        assertEquals(3, cachedRecords.size());
+        for (int i = 0; i < expectedRecords.size(); i++) {
+            Record expected = expectedRecords.get(i);
+            Record cached = cachedRecords.get(i);
+            assertEquals(expected.getId(), cached.getId());
+            assertEquals(expected.getLocation().getLat(), cached.getLocation().getLat(), 0.0);
+            assertEquals(expected.getLocation().getLon(), cached.getLocation().getLon(), 0.0);
+            assertEquals(expected.getTime(), cached.getTime());
+            assertArrayEquals(expected.getAttributeValues(), cached.getAttributeValues());
+            assertArrayEquals(expected.getAnnotationValues(), cached.getAnnotationValues());
+        }
+        // the cached records can be iterated again
+        assertEquals(3, toList(cachedSource.getRecords()).size());
+    }
+
+    @Test
+    public void testRecordsWithoutLocationAndTime() throws Exception {
+        File cacheFile = new File(cacheDir, "test.records");
+        Record first = RecordUtils.create(42.0, "x", new Date(1000L), null);
+        Record second = RecordUtils.create(43.0, "y", null, 7);
+        ReferenceRecordCache.write(new DefaultRecordSource(new TestHeader("a", "b", "c", "d"), first, second), cacheDir, cacheFile);
+
+        List<Record> cachedRecords = toList(ReferenceRecordCache.read(cacheFile).getRecords());
+        assertEquals(2, cachedRecords.size());
+        assertNull(cachedRecords.get(0).getLocation());
+        assertNull(cachedRecords.get(0).getTime());
+        assertArrayEquals(new Object[]{42.0, "x", new Date(1000L), null}, cachedRecords.get(0).getAttributeValues());
+        assertArrayEquals(new Object[]{43.0, "y", null, 7}, cachedRecords.get(1).getAttributeValues());
+    }
+
+    @Test
+    public void testNodeCacheEvictsLeastRecentlyUsedFiles() throws Exception {
+        File a = writeCacheFile("a.records", 1000000000L);
+        File b = writeCacheFile("b.records", 2000000000L);
+        ReferenceRecordCache.NodeCache nodeCache = new ReferenceRecordCache.NodeCache(cacheDir, 2);
+        assertEquals(2, nodeCache.size());
+
+        nodeCache.get(a);
+        File c = writeCacheFile("c.records", 3000000000L);
+        nodeCache.put(c, ReferenceRecordCache.read(c));
+        assertEquals(2, nodeCache.size());
+        assertTrue(a.exists());
+        assertFalse(b.exists());
+        assertTrue(c.exists());
+
+        // files beyond the capacity are evicted when the cache directory is indexed
+        new ReferenceRecordCache.NodeCache(cacheDir, 1);
+        assertFalse(a.exists());
+        assertTrue(c.exists());
+    }
+
+    private File writeCacheFile(String name, long lastModified) throws Exception {
+        File cacheFile = new File(cacheDir, name);
+        ReferenceRecordCache.write(new CsvRecordSource(new StringReader(CSV), DATE_FORMAT), cacheDir, cacheFile);
+        assertTrue(cacheFile.setLastModified(lastModified));
+        return cacheFile;
+    }
+
+    private static List<Record> toList(Iterable<Record> records) {
+        List<Record> list = new ArrayList<>();
+        for (Record record : records) {
+            list.add(record);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,78 @@
+package com.bc.calvalus.processing.ma;
+
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.Product;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReferenceRecordIndexTest {
+
+    @Test
+    public void testCandidates() throws Exception {
+        Product product = createProduct(10.0, 50.0);
+        Record inside = RecordUtils.create(new GeoPos(45, 15), null);
+        Record nearEdge = RecordUtils.create(new GeoPos(39.5, 20.5), null);
+        Record farAway = RecordUtils.create(new GeoPos(-30, 100), null);
+        Record withoutLocation = RecordUtils.create(42.0);
+        Record alsoInside = RecordUtils.create(new GeoPos(41, 11), null);
+        ReferenceRecordIndex index = new ReferenceRecordIndex(Arrays.asList(inside, nearEdge, farAway, withoutLocation, alsoInside));
+
+        assertEquals(5, index.size());
+        assertEquals(Arrays.asList(inside, nearEdge, alsoInside), index.getCandidates(product));
+    }
+
+    @Test
+    public void testCandidatesAcrossAntiMeridian() throws Exception {
+        Product product = createProduct(175.0, 10.0);
+        Record east = RecordUtils.create(new GeoPos(5, 178), null);
+        Record west = RecordUtils.create(new GeoPos(5, -178), null);
+        Record farAway = RecordUtils.create(new GeoPos(5, 0), null);
+        ReferenceRecordIndex index = new ReferenceRecordIndex(Arrays.asList(east, farAway, west));
+
+        assertEquals(Arrays.asList(east, west), index.getCandidates(product));
+    }
+
+    @Test
+    public void testAllRecordsForPolarProduct() throws Exception {
+        Product product = new Product("name", "type", 360, 180);
+        product.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, 360, 180, -180.0, 90.0, 1, 1, 0.0, 0.0));
+        Record record = RecordUtils.create(new GeoPos(5, 0), null);
+        Record withoutLocation = RecordUtils.create(42.0);
+        ReferenceRecordIndex index = new ReferenceRecordIndex(Arrays.asList(record, withoutLocation));
+
+        assertNull(ReferenceRecordIndex.computeFootprint(product));
+        assertEquals(2, index.getCandidates(product).size());
+    }
+
+    @Test
+    public void testSamePixelPosRecordsAsWithoutIndex() throws Exception {
+        Product product = createProduct(10.0, 50.0);
+        List<Record> records = Arrays.asList(RecordUtils.create(new GeoPos(45.2, 15.3), null),
+                                             RecordUtils.create(new GeoPos(-30, 100), null),
+                                             RecordUtils.create(new GeoPos(49.9, 10.1), null),
+                                             RecordUtils.create(new GeoPos(40.3, 19.7), null),
+                                             RecordUtils.create(new GeoPos(45, 25), null));
+        PixelPosProvider pixelPosProvider = new PixelPosProvider(product, null, null, false);
+        List<PixelPosProvider.PixelPosRecord> expected = pixelPosProvider.computePixelPosRecords(records);
+        List<PixelPosProvider.PixelPosRecord> actual = pixelPosProvider.computePixelPosRecords(new ReferenceRecordIndex(records));
+
+        assertEquals(3, expected.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i).getRecord(), actual.get(i).getRecord());
+            assertEquals(expected.get(i).getPixelPos(), actual.get(i).getPixelPos());
+        }
+    }
+
+    private static Product createProduct(double westLon, double northLat) throws Exception {
+        Product product = new Product("name", "type", 10, 10);
+        product.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, 10, 10, westLon, northLat, 1, 1, 0.0, 0.0));
+        return product;
+    }
+}
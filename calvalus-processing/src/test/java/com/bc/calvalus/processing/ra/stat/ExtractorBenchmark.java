@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ra.stat;
+
+import com.bc.calvalus.processing.ra.RAConfig;
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the extraction time of the per-pixel point-in-polygon test with rasterized regions
+ * for 10 to 300 random, partly overlapping polygons on a 0.1 degree global grid.
+ * Run manually, it is not a unit test.
+ */
+public class ExtractorBenchmark {
+
+    private static final int[] NUM_REGIONS = {10, 100, 300};
+
+    public static void main(String[] args) throws Exception {
+        for (int run = 0; run < 2; run++) {
+            for (int numRegions : NUM_REGIONS) {
+                RAConfig config = new RAConfig();
+                config.setRegions(createRegions(numRegions));
+                for (boolean rasterizeRegions : new boolean[]{false, true}) {
+                    Product product = createProduct();
+                    long[] numObs = new long[1];
+                    long t0 = System.nanoTime();
+                    Extractor extractor = new Extractor(product, null, new String[]{"x"},
+                                                        config.createNamedRegionIterator(null), rasterizeRegions) {
+                        @Override
+                        public void extractedData(int regionIndex, String regionName, long time, int obs, float[][] samples) {
+                            numObs[0] += obs;
+                        }
+                    };
+                    extractor.extract(ProgressMonitor.NULL);
+                    long t1 = System.nanoTime();
+                    System.out.printf("%4d regions  rasterized %-5s %10.1f ms  numObs %d%n",
+                                      numRegions, rasterizeRegions, (t1 - t0) * 1e-6, numObs[0]);
+                    product.dispose();
+                }
+            }
+        }
+    }
+
+    private static Product createProduct() throws Exception {
+        Product product = new Product("t", "d", 3600, 1800);
+        product.setPreferredTileSize(512, 512);
+        product.addBand("x", "X");
+        product.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, 3600, 1800, -180.0, 90.0, 0.1, 0.1, 0.0, 0.0));
+        product.setStartTime(ProductData.UTC.parse("01-JAN-2011 10:20:30"));
+        product.setEndTime(ProductData.UTC.parse("01-JAN-2011 12:20:30"));
+        return product;
+    }
+
+    private static RAConfig.Region[] createRegions(int numRegions) {
+        Random random = new Random(42);
+        RAConfig.Region[] regions = new RAConfig.Region[numRegions];
+        for (int i = 0; i < numRegions; i++) {
+            double lon = -150 + 300 * random.nextDouble();
+            double lat = -60 + 120 * random.nextDouble();
+            double radius = 1 + 9 * random.nextDouble();
+            StringBuilder wkt = new StringBuilder("polygon((");
+            int numVertices = 12;
+            for (int v = 0; v <= numVertices; v++) {
+                double angle = 2 * Math.PI * (v % numVertices) / numVertices;
+                double r = radius * (v % 2 == 0 ? 1.0 : 0.6);
+                wkt.append(String.format(Locale.ENGLISH, "%s%.4f %.4f", v > 0 ? ", " : "",
+                                         lon + r * Math.cos(angle), lat + r * Math.sin(angle)));
+            }
+            regions[i] = new RAConfig.Region("r" + i, wkt.append("))").toString());
+        }
+        return regions;
+    }
+
+}
@@ -18,20 +18,25 @@ package com.bc.calvalus.processing.ra.stat;
 
 import com.bc.calvalus.processing.ra.RAConfig;
 import com.bc.calvalus.processing.ra.RARegions;
+import com.bc.calvalus.processing.utils.GeometryUtils;
 import com.bc.ceres.core.ProgressMonitor;
 import org.esa.snap.core.datamodel.CrsGeoCoding;
 import org.esa.snap.core.datamodel.GeoCoding;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.gpf.common.SubsetOp;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.junit.Test;
+import org.locationtech.jts.geom.Geometry;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 
 public class ExtractorTest {
 
@@ -76,6 +81,56 @@ public class ExtractorTest {
         testResultRecord(results.get(4), 1, 0);
     }
 
+    @Test
+    public void testExtractWithRasterizedRegions() throws Exception {
+        Product product = new Product("t", "d", 360, 180);
+        product.setPreferredTileSize(20, 10);
+        product.addBand("x", "X");
+        product.addBand("l", "LAT");
+        GeoCoding geoCoding = new CrsGeoCoding(DefaultGeographicCRS.WGS84, 360, 180, -180.0, 90.0, 1, 1, 0.0, 0.0);
+        product.setSceneGeoCoding(geoCoding);
+        product.setStartTime(ProductData.UTC.parse("01-JAN-2011 10:20:30"));
+        product.setEndTime(ProductData.UTC.parse("01-JAN-2011 12:20:30"));
+
+        RAConfig config = new RAConfig();
+        config.setBandConfigs(new RAConfig.BandConfig("x"), new RAConfig.BandConfig("l"));
+        config.setRegions(new RAConfig.Region("northsea", NORTH_SEA_WKT),
+                          new RAConfig.Region("hole", "polygon((-30.3 30.2, 10.1 30.2, 10.1 55.7, -30.3 55.7, -30.3 30.2), (-20.5 35.5, 0.5 35.5, -10.2 50.1, -20.5 35.5))"),
+                          new RAConfig.Region("multi", "multipolygon(((100.2 -10.3, 120.7 -10.3, 110.4 10.9, 100.2 -10.3)), ((130 0, 140 0, 140 10, 130 10, 130 0)))"));
+
+        List<Result> expected = extract(product, config, false);
+        List<Result> actual = extract(product, config, true);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).regionIndex, actual.get(i).regionIndex);
+            assertEquals(expected.get(i).numObs, actual.get(i).numObs);
+            assertEquals(expected.get(i).time, actual.get(i).time);
+            for (int b = 0; b < expected.get(i).samples.length; b++) {
+                assertArrayEquals(expected.get(i).samples[b], actual.get(i).samples[b], 0.0f);
+            }
+        }
+
+        Geometry northSea = GeometryUtils.createGeometry(NORTH_SEA_WKT);
+        RegionMask regionMask = RegionMask.create(northSea, SubsetOp.computePixelRegion(product, northSea, 1), geoCoding);
+        assertNotNull(regionMask);
+        assertEquals(RegionMask.INSIDE, regionMask.classify(170, 40));
+        assertEquals(RegionMask.OUTSIDE, regionMask.classify(210, 40));
+        assertEquals(RegionMask.BORDER, regionMask.classify(180, 45));
+    }
+
+    private static List<Result> extract(Product product, RAConfig config, boolean rasterizeRegions) throws Exception {
+        List<Result> results = new ArrayList<>();
+        RARegions.RegionIterator namedRegions = config.createNamedRegionIterator(null);
+        Extractor extractor = new Extractor(product, config.getGoodPixelExpression(), config.getBandNames(), namedRegions, rasterizeRegions) {
+            @Override
+            public void extractedData(int regionIndex, String regionName, long time, int numObs, float[][] samples) throws IOException, InterruptedException {
+                results.add(new Result(regionIndex, regionName, time, numObs, samples));
+            }
+        };
+        extractor.extract(ProgressMonitor.NULL);
+        return results;
+    }
+
     public void testResultRecord(Result result, int numObs, int numValid) {
         ProductData.UTC actualUTC;
         assertEquals(0, result.regionIndex);
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ra.stat;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares throughput and retained memory of the exact {@link Accumulator} and the {@link QuantileSketch}
+ * for 1M to 100M values, fed in tiles of 256 x 256 samples as by the extractor, including the computation
+ * of 5 percentiles. The accumulator is only measured up to 10M values unless any argument is given.
+ * Run manually, it is not a unit test.
+ */
+public class QuantileSketchBenchmark {
+
+    private static final int[] NUM_VALUES = {1000000, 10000000, 100000000};
+    private static final int[] PERCENTILES = {5, 25, 50, 75, 95};
+    private static final int TILE_SIZE = 256 * 256;
+
+    public static void main(String[] args) {
+        float[] tile = new float[TILE_SIZE];
+        Random random = new Random(42);
+        for (int i = 0; i < tile.length; i++) {
+            tile[i] = (float) Math.exp(random.nextGaussian());
+        }
+        for (int run = 0; run < 3; run++) {
+            for (int numValues : NUM_VALUES) {
+                int numTiles = numValues / TILE_SIZE;
+
+                long t0 = System.nanoTime();
+                QuantileSketch sketch = new QuantileSketch();
+                for (int i = 0; i < numTiles; i++) {
+                    sketch.accumulateNoNaN(tile);
+                }
+                double p50 = Double.NaN;
+                for (int percentile : PERCENTILES) {
+                    double value = sketch.getPercentile(percentile);
+                    if (percentile == 50) {
+                        p50 = value;
+                    }
+                }
+                long t1 = System.nanoTime();
+                print("sketch     ", numTiles, t1 - t0, sketch.getNumRetained(), p50);
+
+                if (numValues <= 10000000 || args.length > 0) {
+                    t0 = System.nanoTime();
+                    Accumulator accu = new Accumulator();
+                    for (int i = 0; i < numTiles; i++) {
+                        accu.accumulateNoNaN(tile);
+                    }
+                    float[] values = accu.getValues();
+                    Arrays.sort(values);
+                    for (int percentile : PERCENTILES) {
+                        double value = Statistics.computePercentile(percentile, values);
+                        if (percentile == 50) {
+                            p50 = value;
+                        }
+                    }
+                    t1 = System.nanoTime();
+                    print("accumulator", numTiles, t1 - t0, values.length, p50);
+                }
+            }
+        }
+    }
+
+    private static void print(String name, int numTiles, long nanos, long numRetained, double p50) {
+        long numValues = (long) numTiles * TILE_SIZE;
+        System.out.printf("%s %10d values %10.1f ms %6.1f ns/value  retained %10d floats (%8d KB)  p50 %.4f%n",
+                          name, numValues, nanos * 1e-6, (double) nanos / numValues, numRetained, numRetained * 4 / 1024, p50);
+    }
+}
@@ -0,0 +1,133 @@
+package com.bc.calvalus.processing.ra.stat;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QuantileSketchTest {
+
+    private static final int[] PERCENTILES = {5, 25, 50, 75, 95};
+
+    @Test
+    public void testEmpty() throws Exception {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.accumulateNoNaN(Float.NaN, Float.NaN);
+        assertEquals(0, sketch.getCount());
+        assertTrue(Double.isNaN(sketch.getPercentile(50)));
+    }
+
+    @Test
+    public void testExactForFewValues() throws Exception {
+        float[] values = createValues(150, 1);
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.accumulateNoNaN(values);
+        float[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (int p : PERCENTILES) {
+            assertEquals(Statistics.computePercentile(p, sorted), sketch.getPercentile(p), 0.0);
+        }
+    }
+
+    @Test
+    public void testRankErrorAndMemory() throws Exception {
+        int n = 1000000;
+        float[] values = createValues(n, 2);
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < n; i += 1000) {
+            sketch.accumulateNoNaN(Arrays.copyOfRange(values, i, i + 1000));
+        }
+        assertEquals(n, sketch.getCount());
+        assertTrue(sketch.getNumRetained() < 4 * QuantileSketch.DEFAULT_K);
+        assertRankError(values, sketch, 0.017);
+    }
+
+    @Test
+    public void testMemoryIsBounded() throws Exception {
+        Random random = new Random(4);
+        float[] values = new float[1000];
+        QuantileSketch sketch = new QuantileSketch();
+        int maxNumAllocated = 0;
+        for (int n = 0; n < 10000000; n += values.length) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (float) random.nextGaussian();
+            }
+            sketch.accumulateNoNaN(values);
+            assertTrue(sketch.getNumRetained() < 4 * QuantileSketch.DEFAULT_K);
+            maxNumAllocated = Math.max(maxNumAllocated, sketch.getNumAllocated());
+        }
+        for (int i = 0; i < 20; i++) {
+            QuantileSketch part = new QuantileSketch();
+            part.accumulateNoNaN(createValues(100000, i));
+            sketch.merge(part);
+            maxNumAllocated = Math.max(maxNumAllocated, sketch.getNumAllocated());
+        }
+        assertTrue("allocated " + maxNumAllocated, maxNumAllocated < 7 * QuantileSketch.DEFAULT_K);
+    }
+
+    @Test
+    public void testMergeAndSerialization() throws Exception {
+        int n = 200000;
+        float[] values = createValues(n, 3);
+        QuantileSketch merged = new QuantileSketch();
+        for (int i = 0; i < n; i += 20000) {
+            QuantileSketch part = new QuantileSketch();
+            part.accumulateNoNaN(Arrays.copyOfRange(values, i, i + 20000));
+            merged.merge(transfer(part));
+        }
+        assertEquals(n, merged.getCount());
+        assertTrue(merged.getNumRetained() < 4 * QuantileSketch.DEFAULT_K);
+        assertRankError(values, merged, 0.017);
+    }
+
+    private static QuantileSketch transfer(QuantileSketch sketch) throws Exception {
+        DataOutputBuffer out = new DataOutputBuffer();
+        sketch.write(out);
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        QuantileSketch copy = QuantileSketch.read(in);
+        assertEquals(sketch.getCount(), copy.getCount());
+        assertEquals(sketch.getPercentile(50), copy.getPercentile(50), 0.0);
+        return copy;
+    }
+
+    private static void assertRankError(float[] values, QuantileSketch sketch, double maxRankError) {
+        float[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (int p : PERCENTILES) {
+            double estimate = sketch.getPercentile(p);
+            int lowerRank = lowerBound(sorted, estimate);
+            int upperRank = lowerBound(sorted, Math.nextUp(estimate));
+            double rank = p / 100.0 * sorted.length;
+            double rankError = rank < lowerRank ? lowerRank - rank : rank > upperRank ? rank - upperRank : 0.0;
+            assertTrue("p" + p + " rank error " + rankError / sorted.length, rankError / sorted.length < maxRankError);
+        }
+    }
+
+    private static int lowerBound(float[] sorted, double value) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static float[] createValues(int n, long seed) {
+        Random random = new Random(seed);
+        float[] values = new float[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = (float) Math.exp(random.nextGaussian());
+        }
+        return values;
+    }
+}
@@ -1,6 +1,9 @@
 package com.bc.calvalus.processing.ra.stat;
 
 import com.bc.calvalus.processing.ra.RAConfig;
+import com.bc.calvalus.processing.ra.RAValue;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -13,6 +16,7 @@ import java.util.Map;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class RegionAnalysisTest {
@@ -515,6 +519,72 @@ public class RegionAnalysisTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void test_summaries_sameAsSamples() throws Exception {
+        RADateRanges dateRanges = RADateRanges.create("2010-01-01:2010-01-10,2010-01-11:2010-01-20");
+        rac3.setPercentiles();
+        long t1 = dateFormat.parse("2010-01-05 10:00:00").getTime();
+        long t2 = dateFormat.parse("2010-01-15 10:00:00").getTime();
+        // two tiles per region and product
+        float[][][] r1t1 = {{{1.5f, 2, Float.NaN}, {4, 5, 6}, {3, 11, 0}}, {{12.25f}, {-1}, {2}}};
+        float[][][] r1t2 = {{{0.5f, 9}, {7, 8}, {9.5f, 10}}, {{}, {}, {}}};
+        float[][][] r2t2 = {{{3}, {3}, {3}}, {{4, 6}, {Float.NaN, 7}, {8, 0.25f}}};
+
+        InMemWriterFactory samplesWriter = new InMemWriterFactory();
+        RegionAnalysis ra = new RegionAnalysis(dateRanges, rac3, false, samplesWriter);
+        ra.startRegion(0, "r1");
+        for (float[][] tile : r1t1) {
+            ra.addData(t1, 4, tile, "p1");
+        }
+        for (float[][] tile : r1t2) {
+            ra.addData(t2, 4, tile, "p2");
+        }
+        ra.endRegion();
+        ra.startRegion(1, "r2");
+        for (float[][] tile : r2t2) {
+            ra.addData(t2, 4, tile, "p2");
+        }
+        ra.endRegion();
+        ra.close();
+
+        InMemWriterFactory summariesWriter = new InMemWriterFactory();
+        ra = new RegionAnalysis(dateRanges, rac3, false, summariesWriter);
+        ra.startRegion(0, "r1");
+        ra.addSummaries(t1, 8, transfer(summarize(r1t1)), "p1");
+        ra.addSummaries(t2, 8, transfer(summarize(r1t2)), "p2");
+        ra.endRegion();
+        ra.startRegion(1, "r2");
+        ra.addSummaries(t2, 8, transfer(summarize(r2t2)), "p2");
+        ra.endRegion();
+        ra.close();
+
+        assertEquals(samplesWriter.writerMap.keySet(), summariesWriter.writerMap.keySet());
+        for (String fileName : samplesWriter.writerMap.keySet()) {
+            assertEquals(fileName, samplesWriter.writerMap.get(fileName).toString(), summariesWriter.writerMap.get(fileName).toString());
+        }
+    }
+
+    private StatisticsSummary[] summarize(float[][][] tiles) {
+        StatisticsSummary[] summaries = StatisticsSummary.create(rac3);
+        for (float[][] tile : tiles) {
+            for (int bandId = 0; bandId < summaries.length; bandId++) {
+                summaries[bandId].process(tile[bandId]);
+            }
+        }
+        return summaries;
+    }
+
+    private static StatisticsSummary[] transfer(StatisticsSummary[] summaries) throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        new RAValue(8, summaries, 0L, "p").write(out);
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        RAValue value = new RAValue();
+        value.readFields(in);
+        assertNull(value.getSamples());
+        return value.getSummaries();
+    }
+
     private static class InMemWriterFactory implements WriterFactory {
 
         Map<String, Writer> writerMap;
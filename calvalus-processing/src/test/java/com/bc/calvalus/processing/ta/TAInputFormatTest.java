@@ -0,0 +1,89 @@
+package com.bc.calvalus.processing.ta;
+
+import com.bc.calvalus.processing.JobConfigNames;
+import com.bc.calvalus.processing.l3.HadoopBinManager;
+import com.bc.calvalus.processing.l3.L3TemporalBin;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.esa.snap.binning.PlanetaryGrid;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TAInputFormatTest {
+
+    private Configuration conf;
+    private FileSystem fs;
+    private Path partsDir;
+    private PlanetaryGrid planetaryGrid;
+
+    @Before
+    public void setUp() throws Exception {
+        conf = new Configuration();
+        conf.set(JobConfigNames.CALVALUS_L3_PARAMETERS, "<parameters><numRows>2160</numRows>" +
+                                                        "<aggregators><aggregator><type>AVG</type><varName>chl</varName></aggregator></aggregators>" +
+                                                        "</parameters>");
+        conf.set(JobConfigNames.CALVALUS_TA_PARAMETERS, TAConfig.fromXml("<parameters><regions><region><name>aoi</name>" +
+                                                                         "<geometry>polygon((0 0,0 1,1 1,1 0,0 0))</geometry>" +
+                                                                         "</region></regions></parameters>").toXml());
+        fs = FileSystem.getLocal(conf);
+        partsDir = new Path(Files.createTempDirectory("calvalus-ta").toUri());
+        planetaryGrid = HadoopBinManager.getBinningConfig(conf).createPlanetaryGrid();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fs.delete(partsDir, true);
+    }
+
+    @Test
+    public void testSplitsOfPartFilesOutsideOfRegionsAreDropped() throws Exception {
+        long insideBin = planetaryGrid.getBinIndex(0.5, 0.5);
+        writePart("part-r-00000", 0L, 100);
+        writePart("part-r-00001", insideBin - 50, 100);
+        writePart("part-r-00002", insideBin + 100000, 100);
+        writePart("part-r-00003", 0L, 0);
+
+        Job job = Job.getInstance(conf);
+        FileInputFormat.addInputPath(job, partsDir);
+        List<InputSplit> splits = new TAInputFormat().getSplits(job);
+
+        assertEquals(1, splits.size());
+        assertEquals("part-r-00001", ((FileSplit) splits.get(0)).getPath().getName());
+    }
+
+    @Test
+    public void testReadBinRange() throws Exception {
+        writePart("part-r-00000", 1000L, 20000);
+        writePart("part-r-00001", 0L, 0);
+
+        assertArrayEquals(new long[]{1000L, 20999L}, TAInputFormat.readBinRange(new Path(partsDir, "part-r-00000"), conf));
+        assertNull(TAInputFormat.readBinRange(new Path(partsDir, "part-r-00001"), conf));
+    }
+
+    private void writePart(String name, long firstIndex, int numBins) throws Exception {
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, new Path(partsDir, name),
+                                                               LongWritable.class, L3TemporalBin.class);
+        try {
+            for (long i = firstIndex; i < firstIndex + numBins; i++) {
+                L3TemporalBin bin = new L3TemporalBin(i, 3);
+                bin.setNumObs(1);
+                writer.append(new LongWritable(i), bin);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
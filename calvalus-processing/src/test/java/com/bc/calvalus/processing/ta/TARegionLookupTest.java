@@ -0,0 +1,83 @@
+package com.bc.calvalus.processing.ta;
+
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.support.PlateCarreeGrid;
+import org.esa.snap.binning.support.SEAGrid;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.io.WKTReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TARegionLookupTest {
+
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    @Test
+    public void testRegionsOfSeaGridBinsAreThoseContainingTheCentre() throws Exception {
+        assertSameRegionsAsContains(new SEAGrid(180), createRegions());
+    }
+
+    @Test
+    public void testRegionsOfPlateCarreeGridBinsAreThoseContainingTheCentre() throws Exception {
+        assertSameRegionsAsContains(new PlateCarreeGrid(180), createRegions());
+    }
+
+    @Test
+    public void testIntersects() throws Exception {
+        PlanetaryGrid grid = new SEAGrid(180);
+        TARegionLookup lookup = new TARegionLookup(grid, new TAConfig.RegionConfiguration[]{
+                new TAConfig.RegionConfiguration("box", new WKTReader().read("POLYGON((10 40, 20 40, 20 50, 10 50, 10 40))"))
+        });
+        long insideBin = grid.getBinIndex(45.5, 15.5);
+        assertTrue(lookup.intersects(insideBin, insideBin));
+        assertTrue(lookup.intersects(0, grid.getNumBins() - 1));
+        assertFalse(lookup.intersects(grid.getBinIndex(45.5, 25.5), grid.getBinIndex(44.5, 5.5)));
+        assertFalse(lookup.intersects(grid.getFirstBinIndex(60), grid.getNumBins() - 1));
+        assertFalse(lookup.intersects(0, grid.getFirstBinIndex(39) - 1));
+    }
+
+    private static TAConfig.RegionConfiguration[] createRegions() throws Exception {
+        WKTReader reader = new WKTReader();
+        return new TAConfig.RegionConfiguration[]{
+                new TAConfig.RegionConfiguration("triangle", reader.read("POLYGON((-30 -20, 40 10, -10 60, -30 -20))")),
+                new TAConfig.RegionConfiguration("ring", reader.read("POLYGON((0 0, 30 0, 30 30, 0 30, 0 0), (10 10, 20 10, 20 20, 10 20, 10 10))")),
+                new TAConfig.RegionConfiguration("islands", reader.read("MULTIPOLYGON(((100 -80, 170 -80, 170 -60, 100 -60, 100 -80)), ((-170 70, -120 85, -100 75, -170 70)))"))
+        };
+    }
+
+    private static void assertSameRegionsAsContains(PlanetaryGrid grid, TAConfig.RegionConfiguration[] regions) {
+        TARegionLookup lookup = new TARegionLookup(grid, regions);
+        int[] regionIds = new int[regions.length];
+        int numHits = 0;
+        for (long binIndex = 0; binIndex < grid.getNumBins(); binIndex++) {
+            double[] centerLatLon = grid.getCenterLatLon(binIndex);
+            Point point = FACTORY.createPoint(new Coordinate(centerLatLon[1], centerLatLon[0]));
+            int expectedCount = 0;
+            int[] expectedIds = new int[regions.length];
+            boolean onBoundary = false;
+            for (int regionId = 0; regionId < regions.length; regionId++) {
+                Geometry geometry = regions[regionId].getGeometry();
+                onBoundary |= geometry.getBoundary().distance(point) < 1e-9;
+                if (geometry.contains(point)) {
+                    expectedIds[expectedCount++] = regionId;
+                }
+            }
+            if (onBoundary) {
+                continue;
+            }
+            int count = lookup.getRegions(binIndex, regionIds);
+            assertEquals("bin " + binIndex, expectedCount, count);
+            for (int i = 0; i < count; i++) {
+                assertEquals("bin " + binIndex, expectedIds[i], regionIds[i]);
+            }
+            numHits += count;
+        }
+        assertTrue(numHits > 100);
+    }
+}
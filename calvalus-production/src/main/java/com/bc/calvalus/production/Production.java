@@ -28,6 +28,7 @@ public class Production {
     private final String[] intermediateDataPath;
     private final String stagingPath;
     private volatile ProcessStatus stagingStatus; // must be volatile, because staging is performed in separate threads
+    private volatile boolean statusChanged;
 
     public Production(String id,
                       String name,
@@ -70,6 +71,10 @@ public class Production {
         this.workflow = workflow;
         this.productionRequest = productionRequest;
         this.stagingStatus = ProcessStatus.UNKNOWN;
+        this.statusChanged = true;
+        if (workflow != null) {
+            workflow.addWorkflowStatusListener(event -> statusChanged = true);
+        }
     }
 
     public static String createId(String productionType) {
@@ -128,9 +133,24 @@ public class Production {
     }
 
     public void setStagingStatus(ProcessStatus stagingStatus) {
+        if (!stagingStatus.equals(this.stagingStatus)) {
+            statusChanged = true;
+        }
         this.stagingStatus = stagingStatus;
     }
 
+    /**
+     * @return {@code true} if the processing or staging status, or the start or stop time, has changed
+     * since the flag has been cleared, e.g. by a production store after persisting the production.
+     */
+    public boolean isStatusChanged() {
+        return statusChanged;
+    }
+
+    public void setStatusChanged(boolean statusChanged) {
+        this.statusChanged = statusChanged;
+    }
+
     private static long nextUniqueLong() {
         return ++uniqueLong;
     }
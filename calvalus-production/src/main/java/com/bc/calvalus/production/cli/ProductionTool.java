@@ -861,8 +861,13 @@ public class ProductionTool {
                 .create());  // (sub) commands don't have short options
         options.addOption(OptionBuilder
                 .withLongOpt("verify")
-                .withDescription("Verify existence and size to avoid double copying, defaults to false")
+                .withDescription("Verify existence and size to avoid double copying and resume partial copies, defaults to false")
                 .create());
+        options.addOption(OptionBuilder
+                .withLongOpt("parallel")
+                .hasArg()
+                .withDescription("Number of files uploaded in parallel, defaults to 1")
+                .create());  // (sub) commands don't have short options
         options.addOption(OptionBuilder
                 .withLongOpt("test-auth")
                 .withDescription("Test authentication by SAML token. Print SAML token on success.")
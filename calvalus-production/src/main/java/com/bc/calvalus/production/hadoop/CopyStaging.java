@@ -23,18 +23,31 @@ import com.bc.calvalus.processing.ProcessingService;
 import com.bc.calvalus.production.Production;
 import com.bc.calvalus.production.ProductionStaging;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.mapred.JobClient;
 import org.esa.snap.core.util.io.FileUtils;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
 /**
  * The staging job for match-up analysis (MA) results.
@@ -45,6 +58,11 @@ class CopyStaging extends ProductionStaging {
 
     private static final Logger LOG = CalvalusLogger.getLogger();
     private static final long GIGABYTE = 1024L * 1024L * 1024L;
+    private static final String STAGING_THREADS = "calvalus.staging.threads";
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    // the blocks queued for the archive, by uncompressed size
+    private static final int MAX_QUEUED_BLOCKS = 64;
+    private static final long MAX_QUEUED_BYTES = (long) MAX_QUEUED_BLOCKS * BLOCK_SIZE;
 
     private final Configuration hadoopConfiguration;
     private final FileSystem fileSystem;
@@ -74,9 +92,26 @@ class CopyStaging extends ProductionStaging {
 
         // Simply copy entire content of remoteOutputDir
         FileStatus[] fileStatuses = fileSystem.globStatus(new Path(remoteOutputDir, "*.*"));
+        int numThreads = hadoopConfiguration.getInt(STAGING_THREADS, 1);
+        if (numThreads > 1 && fileStatuses != null && fileStatuses.length > 0) {
+            copyAndZipInParallel(production, fileStatuses, numThreads);
+        } else {
+            copyAndZip(production, fileStatuses);
+        }
+        if (isCancelled()) {
+            return;
+        }
+
+        production.setStagingStatus(new ProcessStatus(ProcessState.COMPLETED, 1.0F, ""));
+    }
+
+    private void copyAndZip(Production production, FileStatus[] fileStatuses) throws IOException {
         long totalFilesSize = 0L;
         if (fileStatuses != null) {
             for (int i = 0; i < fileStatuses.length; i++) {
+                if (isCancelled()) {
+                    return;
+                }
                 FileStatus fileStatus = fileStatuses[i];
                 Path path = fileStatus.getPath();
                 LOG.info("copying: " + path);
@@ -88,10 +123,7 @@ class CopyStaging extends ProductionStaging {
                         FileUtil.copy(fileSystem, path, dst, false, hadoopConfiguration);
                         copySuccess = true;
                     } catch (IOException ioe) {
-                        String msg = String.format("Attempt(%d) Problem while staging: %s: %s", attemptNo, path, ioe.getMessage());
-                        LogRecord logRecord = new LogRecord(Level.FINE, msg);
-                        logRecord.setThrown(ioe);
-                        LOG.log(logRecord);
+                        logAttemptFailure(attemptNo, path, ioe);
                         if (dst.exists()) {
                             dst.delete();
                         }
@@ -103,12 +135,165 @@ class CopyStaging extends ProductionStaging {
                 production.setStagingStatus(new ProcessStatus(ProcessState.RUNNING, (i + 1.0F) / fileStatuses.length, path.getName()));
             }
         }
-        if (totalFilesSize < 2L * GIGABYTE) {
+        if (totalFilesSize < 2L * GIGABYTE && !isCancelled()) {
             String zipFilename = getSafeFilename(production.getName() + ".zip");
             zip(stagingDir, new File(stagingDir, zipFilename));
         }
+    }
 
-        production.setStagingStatus(new ProcessStatus(ProcessState.COMPLETED, 1.0F, ""));
+    /**
+     * Copies the files with several threads and writes the zip archive while the data streams in.
+     * <p>
+     * The files are read in blocks. Each block is written to the local file and, if the archive is built,
+     * deflated independently by a second pool of threads, so that large entries are deflated in parallel, too.
+     * This thread appends the deflated blocks to the archive, entry after entry in the order of the files.
+     * The blocks of later files are queued up to a limit, the copies of these files wait if it is reached.
+     * A failed read is retried from the position where it failed.
+     */
+    private void copyAndZipInParallel(Production production, FileStatus[] fileStatuses, int numThreads) throws Exception {
+        long totalFilesSize = 0L;
+        for (FileStatus fileStatus : fileStatuses) {
+            totalFilesSize += fileStatus.getLen();
+        }
+        boolean withZip = totalFilesSize < 2L * GIGABYTE && fileStatuses.length < DeflatedZipWriter.MAX_ENTRIES;
+        File zipFile = new File(stagingDir, getSafeFilename(production.getName() + ".zip"));
+        ZipFeed zipFeed = withZip ? new ZipFeed(fileStatuses.length) : null;
+        ExecutorService copyExecutor = Executors.newFixedThreadPool(numThreads);
+        ExecutorService deflateExecutor = withZip ? Executors.newFixedThreadPool(numThreads) : null;
+        boolean success = false;
+        try {
+            List<Future<?>> copies = new ArrayList<>(fileStatuses.length);
+            for (int i = 0; i < fileStatuses.length; i++) {
+                final int index = i;
+                copies.add(copyExecutor.submit(() -> {
+                    copyFile(fileStatuses[index], index, zipFeed, deflateExecutor);
+                    return null;
+                }));
+            }
+            DeflatedZipWriter zipWriter = withZip ? new DeflatedZipWriter(zipFile) : null;
+            try {
+                for (int i = 0; i < fileStatuses.length; i++) {
+                    Path path = fileStatuses[i].getPath();
+                    if (zipWriter != null) {
+                        zipWriter.putNextEntry(path.getName(), fileStatuses[i].getModificationTime());
+                        ZipFeed.Block block;
+                        while ((block = zipFeed.take(i)) != null) {
+                            if (isCancelled()) {
+                                return;
+                            }
+                            zipWriter.writeDeflated(getResult(block.deflated));
+                        }
+                    }
+                    getResult(copies.get(i));
+                    if (isCancelled()) {
+                        return;
+                    }
+                    if (zipWriter != null) {
+                        zipWriter.closeEntry(zipFeed.getCrc(i), zipFeed.getSize(i));
+                    }
+                    production.setStagingStatus(new ProcessStatus(ProcessState.RUNNING, (i + 1.0F) / fileStatuses.length, path.getName()));
+                }
+            } finally {
+                if (zipWriter != null) {
+                    zipWriter.close();
+                }
+            }
+            success = true;
+        } finally {
+            if (zipFeed != null) {
+                zipFeed.abort();
+            }
+            copyExecutor.shutdownNow();
+            if (deflateExecutor != null) {
+                deflateExecutor.shutdownNow();
+            }
+            if (!success && zipFile.exists()) {
+                zipFile.delete();
+            }
+        }
+    }
+
+    private void copyFile(FileStatus fileStatus, int index, ZipFeed zipFeed, ExecutorService deflateExecutor) throws IOException, InterruptedException {
+        Path path = fileStatus.getPath();
+        long length = fileStatus.getLen();
+        File dst = new File(stagingDir, path.getName());
+        LOG.info("copying: " + path);
+        CRC32 crc = new CRC32();
+        long position = 0L;
+        boolean copySuccess = false;
+        FSDataInputStream in = null;
+        try (OutputStream out = new FileOutputStream(dst)) {
+            boolean last;
+            do {
+                if (isCancelled()) {
+                    return;
+                }
+                final byte[] block = new byte[(int) Math.min(BLOCK_SIZE, length - position)];
+                in = readBlock(path, in, position, block);
+                out.write(block);
+                position += block.length;
+                last = position >= length;
+                if (zipFeed != null) {
+                    crc.update(block);
+                    final boolean lastBlock = last;
+                    zipFeed.put(index, deflateExecutor.submit(() -> DeflatedZipWriter.deflate(block, block.length, lastBlock)), block.length);
+                }
+            } while (!last);
+            copySuccess = true;
+        } finally {
+            IOUtils.closeStream(in);
+            if (zipFeed != null) {
+                zipFeed.complete(index, crc.getValue(), position);
+            }
+            if (!copySuccess) {
+                dst.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads a block, and if this fails re-opens the file and reads it again from the position, at most three times.
+     *
+     * @param in the stream positioned at the block, or null to open the file
+     * @return the stream to continue with
+     */
+    private FSDataInputStream readBlock(Path path, FSDataInputStream in, long position, byte[] block) throws IOException {
+        for (int attemptNo = 0; ; attemptNo++) {
+            try {
+                if (in == null) {
+                    in = fileSystem.open(path);
+                    in.seek(position);
+                }
+                IOUtils.readFully(in, block, 0, block.length);
+                return in;
+            } catch (IOException ioe) {
+                logAttemptFailure(attemptNo, path, ioe);
+                IOUtils.closeStream(in);
+                in = null;
+                if (attemptNo == 2) {
+                    throw ioe;
+                }
+            }
+        }
+    }
+
+    private static void logAttemptFailure(int attemptNo, Path path, IOException ioe) {
+        String msg = String.format("Attempt(%d) Problem while staging: %s: %s", attemptNo, path, ioe.getMessage());
+        LogRecord logRecord = new LogRecord(Level.FINE, msg);
+        logRecord.setThrown(ioe);
+        LOG.log(logRecord);
+    }
+
+    private static <T> T getResult(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw new IOException(cause);
+        }
     }
 
     @Override
@@ -117,4 +302,96 @@ class CopyStaging extends ProductionStaging {
         FileUtils.deleteTree(stagingDir);
         getProduction().setStagingStatus(new ProcessStatus(ProcessState.CANCELLED));
     }
+
+    /**
+     * The deflated blocks of the files, taken entry after entry. The copy of the current entry only waits for its
+     * own blocks to be taken, the copies of later files wait for the queued blocks of all files to be taken,
+     * so the current entry always makes progress.
+     */
+    private static final class ZipFeed {
+
+        private final List<Deque<Block>> queues;
+        private final boolean[] complete;
+        private final long[] crcs;
+        private final long[] sizes;
+        private int current;
+        private long queuedBytes;
+        private boolean aborted;
+
+        private ZipFeed(int numFiles) {
+            queues = new ArrayList<>(numFiles);
+            for (int i = 0; i < numFiles; i++) {
+                queues.add(new ArrayDeque<>());
+            }
+            complete = new boolean[numFiles];
+            crcs = new long[numFiles];
+            sizes = new long[numFiles];
+        }
+
+        private synchronized void put(int index, Future<byte[]> deflated, int length) throws InterruptedException {
+            Deque<Block> queue = queues.get(index);
+            while (!aborted && (index == current
+                                ? queue.size() >= MAX_QUEUED_BLOCKS
+                                : queuedBytes + length > MAX_QUEUED_BYTES)) {
+                wait();
+            }
+            if (aborted) {
+                throw new InterruptedException("staging aborted");
+            }
+            queue.add(new Block(deflated, length));
+            queuedBytes += length;
+            notifyAll();
+        }
+
+        private synchronized void complete(int index, long crc, long size) {
+            complete[index] = true;
+            crcs[index] = crc;
+            sizes[index] = size;
+            notifyAll();
+        }
+
+        /**
+         * @return the next block of the file, or null if the copy of the file is complete or has failed
+         */
+        private synchronized Block take(int index) throws InterruptedException {
+            if (current != index) {
+                current = index;
+                notifyAll();
+            }
+            Deque<Block> queue = queues.get(index);
+            while (queue.isEmpty() && !complete[index] && !aborted) {
+                wait();
+            }
+            Block block = queue.poll();
+            if (block != null) {
+                queuedBytes -= block.length;
+                notifyAll();
+            }
+            return block;
+        }
+
+        private synchronized long getCrc(int index) {
+            return crcs[index];
+        }
+
+        private synchronized long getSize(int index) {
+            return sizes[index];
+        }
+
+        private synchronized void abort() {
+            aborted = true;
+            notifyAll();
+        }
+
+        private static final class Block {
+
+            private final Future<byte[]> deflated;
+            private final int length;
+
+            private Block(Future<byte[]> deflated, int length) {
+                this.deflated = deflated;
+                this.length = length;
+            }
+        }
+    }
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.production.hadoop;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip archive whose entries are deflated elsewhere, e.g. block by block in parallel.
+ * <p>
+ * A block is deflated independently by {@link #deflate}. All but the last block of an entry end with a sync flush,
+ * so the concatenated blocks are one valid deflate stream. The local header of an entry is written before its data,
+ * the CRC and the sizes follow in a data descriptor, as with {@link java.util.zip.ZipOutputStream}.
+ * Zip64 is not supported, the archive must have less than {@link #MAX_ENTRIES} entries and less than 4 GB.
+ */
+class DeflatedZipWriter implements Closeable {
+
+    static final int MAX_ENTRIES = 0xffff;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int VERSION = 20;
+    // data descriptor, UTF-8 names
+    private static final int FLAGS = 0x0808;
+    private static final int DEFLATED = 8;
+    private static final long MAX_SIZE = 0xffffffffL;
+
+    private final OutputStream out;
+    private final List<Entry> entries;
+    private long offset;
+    private Entry entry;
+
+    DeflatedZipWriter(File zipFile) throws IOException {
+        this.out = new BufferedOutputStream(new FileOutputStream(zipFile), 256 * 1024);
+        this.entries = new ArrayList<>();
+    }
+
+    void putNextEntry(String name, long modificationTime) throws IOException {
+        if (entries.size() == MAX_ENTRIES) {
+            throw new IOException("too many zip entries");
+        }
+        entry = new Entry(name.getBytes(StandardCharsets.UTF_8), javaToDosTime(modificationTime), offset);
+        writeInt(LOCAL_HEADER_SIGNATURE);
+        writeShort(VERSION);
+        writeShort(FLAGS);
+        writeShort(DEFLATED);
+        writeInt(entry.dosTime);
+        writeInt(0);
+        writeInt(0);
+        writeInt(0);
+        writeShort(entry.name.length);
+        writeShort(0);
+        write(entry.name, 0, entry.name.length);
+    }
+
+    void writeDeflated(byte[] deflated) throws IOException {
+        write(deflated, 0, deflated.length);
+        entry.compressedSize += deflated.length;
+    }
+
+    /**
+     * @param crc  the CRC-32 of the uncompressed data
+     * @param size the size of the uncompressed data
+     */
+    void closeEntry(long crc, long size) throws IOException {
+        if (size > MAX_SIZE || entry.compressedSize > MAX_SIZE) {
+            throw new IOException("zip entry too large");
+        }
+        entry.crc = crc;
+        entry.size = size;
+        writeInt(DATA_DESCRIPTOR_SIGNATURE);
+        writeInt((int) crc);
+        writeInt((int) entry.compressedSize);
+        writeInt((int) size);
+        entries.add(entry);
+        entry = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            long centralOffset = offset;
+            for (Entry e : entries) {
+                writeInt(CENTRAL_HEADER_SIGNATURE);
+                writeShort(VERSION);
+                writeShort(VERSION);
+                writeShort(FLAGS);
+                writeShort(DEFLATED);
+                writeInt(e.dosTime);
+                writeInt((int) e.crc);
+                writeInt((int) e.compressedSize);
+                writeInt((int) e.size);
+                writeShort(e.name.length);
+                writeShort(0);
+                writeShort(0);
+                writeShort(0);
+                writeShort(0);
+                writeInt(0);
+                writeInt((int) e.offset);
+                write(e.name, 0, e.name.length);
+            }
+            long centralSize = offset - centralOffset;
+            if (offset > MAX_SIZE) {
+                throw new IOException("zip archive too large");
+            }
+            writeInt(END_SIGNATURE);
+            writeShort(0);
+            writeShort(0);
+            writeShort(entries.size());
+            writeShort(entries.size());
+            writeInt((int) centralSize);
+            writeInt((int) centralOffset);
+            writeShort(0);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Deflates one block of an entry.
+     *
+     * @param last whether this is the last block of the entry, an empty entry has one empty last block
+     */
+    static byte[] deflate(byte[] data, int length, boolean last) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            deflater.setInput(data, 0, length);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    deflated.write(buffer, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    deflated.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return deflated.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void write(byte[] bytes, int off, int len) throws IOException {
+        out.write(bytes, off, len);
+        offset += len;
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+        offset += 2;
+    }
+
+    private void writeInt(int v) throws IOException {
+        writeShort(v & 0xffff);
+        writeShort((v >>> 16) & 0xffff);
+    }
+
+    private static int javaToDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25
+               | (calendar.get(Calendar.MONTH) + 1) << 21
+               | calendar.get(Calendar.DAY_OF_MONTH) << 16
+               | calendar.get(Calendar.HOUR_OF_DAY) << 11
+               | calendar.get(Calendar.MINUTE) << 5
+               | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private static final class Entry {
+
+        private final byte[] name;
+        private final int dosTime;
+        private final long offset;
+        private long compressedSize;
+        private long crc;
+        private long size;
+
+        private Entry(byte[] name, int dosTime, long offset) {
+            this.name = name;
+            this.dosTime = dosTime;
+            this.offset = offset;
+        }
+    }
+}
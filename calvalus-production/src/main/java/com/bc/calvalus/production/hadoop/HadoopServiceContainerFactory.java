@@ -52,6 +52,10 @@ public class HadoopServiceContainerFactory implements ServiceContainerFactory {
             System.setProperty("calvalus.accesscontrol.external",
                                serviceConfiguration.get("calvalus.accesscontrol.external"));
         }
+        if (serviceConfiguration.containsKey("calvalus.accesscontrol.helper")) {
+            System.setProperty("calvalus.accesscontrol.helper",
+                               serviceConfiguration.get("calvalus.accesscontrol.helper"));
+        }
 
         Configuration hadoopConfiguration = createHadoopConfiguration(serviceConfiguration);
         JobConf jobConf = new JobConf(hadoopConfiguration);
@@ -17,6 +17,7 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -37,11 +38,18 @@ import java.util.logging.Level;
  * with status information retrieved from the database. With other words, the only source of status
  * information is the processing system. Thus this service assumes, that no 2nd store exists, that
  * updates the database with production status information.
+ * <p/>
+ * Only productions whose status has changed since they have been persisted are written, in one batch.
+ * Each write sets the {@code last_modified} column to the database time, so that {@link #update()} only
+ * loads the productions that have been modified since the last update.
  *
  * @author Norman
  */
 public class SqlProductionStore implements ProductionStore {
 
+    // the overlap of incremental updates, for rows written in transactions that began before the last update
+    private static final long UPDATE_OVERLAP = 60 * 1000L;
+
     private final ProcessingService processingService;
     private final Connection connection;
 
@@ -52,6 +60,7 @@ public class SqlProductionStore implements ProductionStore {
     private PreparedStatement deleteProductionsStmt;
     private PreparedStatement insertProductionStmt;
     private PreparedStatement updateProductionStmt;
+    private Timestamp lastModified;
 
     /**
      * Creates a new production store.
@@ -86,6 +95,7 @@ public class SqlProductionStore implements ProductionStore {
             if (init) {
                 store.init();
             } else {
+                store.upgrade();
                 store.update();
             }
             return store;
@@ -140,9 +150,12 @@ public class SqlProductionStore implements ProductionStore {
                     // cachedProduction.setSubmitTime(...)
                     // cachedProduction.setStartTime(...)
                     // cachedProduction.setStopTime(...)
+                    boolean statusChanged = cachedProduction.isStatusChanged();
                     cachedProduction.setProcessingStatus(production.getProcessingStatus());
                     cachedProduction.setStagingStatus(production.getStagingStatus());
+                    cachedProduction.setStatusChanged(statusChanged);
                 } else {
+                    production.setStatusChanged(false);
                     cachedProductions.put(production.getId(), production);
                 }
             }
@@ -153,21 +166,43 @@ public class SqlProductionStore implements ProductionStore {
 
     @Override
     public synchronized void persist() throws ProductionException {
+        List<Production> writtenProductions = new ArrayList<Production>();
+        boolean autoCommit = true;
         try {
-            for (String productionId : removedProductionIds) {
-                deleteProduction(productionId);
+            // the batches are written in one transaction, also if the connection auto-commits otherwise
+            autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            if (!removedProductionIds.isEmpty()) {
+                for (String productionId : removedProductionIds) {
+                    deleteProduction(productionId);
+                }
+                deleteProductionsStmt.executeBatch();
             }
 
-            for (String productionId : addedProductionIds) {
-                insertProduction(cachedProductions.get(productionId));
+            if (!addedProductionIds.isEmpty()) {
+                for (String productionId : addedProductionIds) {
+                    Production production = cachedProductions.get(productionId);
+                    // cleared before the values are read, so that concurrent changes are not lost
+                    production.setStatusChanged(false);
+                    writtenProductions.add(production);
+                    insertProduction(production);
+                }
+                insertProductionStmt.executeBatch();
             }
 
-            for (String productionId : cachedProductions.keySet()) {
-                if (!addedProductionIds.contains(productionId) &&
-                    !removedProductionIds.contains(productionId)) {
-                    updateProductionStatus(cachedProductions.get(productionId));
+            boolean updated = false;
+            for (Production production : cachedProductions.values()) {
+                if (production.isStatusChanged() && !addedProductionIds.contains(production.getId())) {
+                    production.setStatusChanged(false);
+                    writtenProductions.add(production);
+                    updateProductionStatus(production);
+                    updated = true;
                 }
             }
+            if (updated) {
+                updateProductionStmt.executeBatch();
+            }
 
             connection.commit();
 
@@ -175,7 +210,18 @@ public class SqlProductionStore implements ProductionStore {
             removedProductionIds.clear();
 
         } catch (SQLException e) {
+            for (Production production : writtenProductions) {
+                production.setStatusChanged(true);
+            }
+            clearBatches();
+            rollback();
             throw new ProductionException("Failed to persist production store: " + e.getMessage(), e);
+        } finally {
+            try {
+                connection.setAutoCommit(autoCommit);
+            } catch (SQLException e) {
+                CalvalusLogger.getLogger().log(Level.WARNING, "Failed to restore auto-commit: " + e.getMessage(), e);
+            }
         }
     }
 
@@ -195,14 +241,28 @@ public class SqlProductionStore implements ProductionStore {
     }
 
     private List<Production> selectProductions() throws SQLException {
-        PreparedStatement selectProductions = connection.prepareStatement("SELECT * FROM production");
-        ResultSet resultSet = selectProductions.executeQuery();
-        ArrayList<Production> productions = new ArrayList<Production>(100 + cachedProductions.size());
-        while (resultSet.next()) {
-            Production production = getNextProduction(resultSet);
-            productions.add(production);
+        PreparedStatement selectProductions;
+        if (lastModified == null) {
+            selectProductions = connection.prepareStatement("SELECT * FROM production");
+        } else {
+            selectProductions = connection.prepareStatement("SELECT * FROM production WHERE last_modified >= ?");
+            selectProductions.setTimestamp(1, new Timestamp(lastModified.getTime() - UPDATE_OVERLAP));
+        }
+        try {
+            ResultSet resultSet = selectProductions.executeQuery();
+            ArrayList<Production> productions = new ArrayList<Production>(100);
+            while (resultSet.next()) {
+                Production production = getNextProduction(resultSet);
+                productions.add(production);
+                Timestamp modified = resultSet.getTimestamp("last_modified");
+                if (modified != null && (lastModified == null || modified.after(lastModified))) {
+                    lastModified = modified;
+                }
+            }
+            return productions;
+        } finally {
+            selectProductions.close();
         }
-        return productions;
     }
 
     private Production getNextProduction(ResultSet resultSet) throws SQLException {
@@ -292,7 +352,8 @@ public class SqlProductionStore implements ProductionStore {
                                                                "staging_message, " +
                                                                "staging_path, " +
                                                                "auto_staging, " +
-                                                               "request_xml" +
+                                                               "request_xml, " +
+                                                               "last_modified" +
                                                                ") " +
                                                                " VALUES " +
                                                                "(" +
@@ -300,7 +361,7 @@ public class SqlProductionStore implements ProductionStore {
                                                                "?, ?, ?, ?, " +
                                                                "?, ?, ?, ?, " +
                                                                "?, ?, ?, ?, " +
-                                                               "?, ?" +
+                                                               "?, ?, CURRENT_TIMESTAMP" +
                                                                ")");
         }
         insertProductionStmt.clearParameters();
@@ -322,7 +383,7 @@ public class SqlProductionStore implements ProductionStore {
         insertProductionStmt.setString(16, production.getStagingPath());
         insertProductionStmt.setBoolean(17, production.isAutoStaging());
         insertProductionStmt.setString(18, production.getProductionRequest().toXml());
-        insertProductionStmt.executeUpdate();
+        insertProductionStmt.addBatch();
     }
 
     private void updateProductionStatus(Production production) throws SQLException {
@@ -335,7 +396,8 @@ public class SqlProductionStore implements ProductionStore {
                                                                "processing_message=?, " +
                                                                "staging_state=?, " +
                                                                "staging_progress=?, " +
-                                                               "staging_message=? " +
+                                                               "staging_message=?, " +
+                                                               "last_modified=CURRENT_TIMESTAMP " +
                                                                " WHERE production_id=?");
         }
         updateProductionStmt.clearParameters();
@@ -348,7 +410,7 @@ public class SqlProductionStore implements ProductionStore {
         updateProductionStmt.setFloat(7, production.getStagingStatus().getProgress());
         updateProductionStmt.setString(8, production.getStagingStatus().getMessage());
         updateProductionStmt.setString(9, production.getId());
-        updateProductionStmt.executeUpdate();
+        updateProductionStmt.addBatch();
     }
 
     private void deleteProduction(String productionId) throws SQLException {
@@ -357,7 +419,27 @@ public class SqlProductionStore implements ProductionStore {
         }
         deleteProductionsStmt.clearParameters();
         deleteProductionsStmt.setString(1, productionId);
-        deleteProductionsStmt.executeUpdate();
+        deleteProductionsStmt.addBatch();
+    }
+
+    private void clearBatches() {
+        for (PreparedStatement statement : new PreparedStatement[]{deleteProductionsStmt, insertProductionStmt, updateProductionStmt}) {
+            if (statement != null) {
+                try {
+                    statement.clearBatch();
+                } catch (SQLException e) {
+                    CalvalusLogger.getLogger().log(Level.WARNING, "Failed to clear batch: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            CalvalusLogger.getLogger().log(Level.WARNING, "Failed to roll back: " + e.getMessage(), e);
+        }
     }
 
     private void init() throws SQLException, IOException {
@@ -372,6 +454,31 @@ public class SqlProductionStore implements ProductionStore {
         }
     }
 
+    /**
+     * Adds the {@code last_modified} column to databases created before it has been introduced,
+     * and sets it for rows that do not have it yet, so that they are not loaded by every {@link #update()}.
+     */
+    private void upgrade() throws SQLException {
+        boolean hasLastModified;
+        ResultSet columns = connection.getMetaData().getColumns(null, null, "PRODUCTION", "LAST_MODIFIED");
+        try {
+            hasLastModified = columns.next();
+        } finally {
+            columns.close();
+        }
+        Statement statement = connection.createStatement();
+        try {
+            if (!hasLastModified) {
+                statement.executeUpdate("ALTER TABLE production ADD COLUMN last_modified DATETIME");
+                statement.executeUpdate("CREATE INDEX production_last_modified ON production (last_modified)");
+            }
+            statement.executeUpdate("UPDATE production SET last_modified=CURRENT_TIMESTAMP WHERE last_modified IS NULL");
+            connection.commit();
+        } finally {
+            statement.close();
+        }
+    }
+
     private static Object[] parseJobIds(ProcessingService processingService, String jobIdList) {
         String[] jobIdsStrings = jobIdList.split(",");
         Object[] jobIds = new Object[jobIdsStrings.length];
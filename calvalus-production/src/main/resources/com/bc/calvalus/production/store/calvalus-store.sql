@@ -26,7 +26,10 @@ CREATE TABLE production
     staging_message     VARCHAR NOT NULL,
     staging_path        VARCHAR NOT NULL,
     auto_staging        BOOLEAN NOT NULL,
-    request_xml         VARCHAR
+    request_xml         VARCHAR,
+    last_modified       DATETIME
 );
 
+CREATE INDEX production_last_modified ON production (last_modified);
+
 
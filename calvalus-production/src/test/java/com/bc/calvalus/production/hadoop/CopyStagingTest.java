@@ -0,0 +1,237 @@
+package com.bc.calvalus.production.hadoop;
+
+import com.bc.calvalus.commons.ProcessState;
+import com.bc.calvalus.commons.ProcessStatus;
+import com.bc.calvalus.production.Production;
+import com.bc.calvalus.production.ProductionRequest;
+import com.bc.calvalus.production.TestWorkflowItem;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class CopyStagingTest {
+
+    private static final int MB = 1024 * 1024;
+    private static final String[] NAMES = {"a.nc", "b.txt", "c.csv"};
+
+    private File testDir;
+    private File stagingDir;
+    private File zipFile;
+    private Configuration configuration;
+    private Production production;
+    private byte[][] contents;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("calvalus-staging").toFile();
+        File outputDir = new File(testDir, "output");
+        assertTrue(outputDir.mkdirs());
+        // a file of several blocks, an empty one and a small one
+        contents = new byte[][]{createContent(3 * MB + 5), new byte[0], createContent(1000)};
+        for (int i = 0; i < NAMES.length; i++) {
+            Files.write(new File(outputDir, NAMES[i]).toPath(), contents[i]);
+        }
+        configuration = new Configuration();
+        configuration.setInt("calvalus.staging.threads", 3);
+        production = new Production("pid", "Test Production", outputDir.getPath(), "staged", false,
+                                    new ProductionRequest("test", "user"),
+                                    new TestWorkflowItem<>("job", new ProcessStatus(ProcessState.COMPLETED), null, null, null));
+        stagingDir = new File(new File(testDir, "staging"), "staged");
+        zipFile = new File(stagingDir, "Test_Production.zip");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteTree(testDir);
+    }
+
+    @Test
+    public void testParallelStaging() throws Exception {
+        FlakyFileSystem fileSystem = new FlakyFileSystem(configuration, (name, position, numOpens) -> {
+        });
+        new CopyStaging(production, configuration, fileSystem, new File(testDir, "staging")).performStaging();
+
+        assertEquals(ProcessState.COMPLETED, production.getStagingStatus().getState());
+        assertStagedFiles();
+        assertEquals(1, fileSystem.getNumOpens("a.nc"));
+    }
+
+    @Test
+    public void testFailedReadIsRetried() throws Exception {
+        FlakyFileSystem fileSystem = new FlakyFileSystem(configuration, (name, position, numOpens) -> {
+            if (name.equals("a.nc") && numOpens == 1 && position >= MB + MB / 2) {
+                throw new IOException("simulated read failure");
+            }
+        });
+        new CopyStaging(production, configuration, fileSystem, new File(testDir, "staging")).performStaging();
+
+        assertEquals(ProcessState.COMPLETED, production.getStagingStatus().getState());
+        assertStagedFiles();
+        assertEquals(2, fileSystem.getNumOpens("a.nc"));
+    }
+
+    @Test
+    public void testCancellationLeavesNoPartialZip() throws Exception {
+        CopyStaging[] staging = new CopyStaging[1];
+        FlakyFileSystem fileSystem = new FlakyFileSystem(configuration, (name, position, numOpens) -> {
+            if (name.equals("a.nc") && position >= 2 * MB && !staging[0].isCancelled()) {
+                // cancel while the archive is written
+                for (int i = 0; i < 100 && !zipFile.exists(); i++) {
+                    sleep(100);
+                }
+                staging[0].cancel();
+            }
+        });
+        staging[0] = new CopyStaging(production, configuration, fileSystem, new File(testDir, "staging"));
+        staging[0].performStaging();
+
+        assertEquals(ProcessState.CANCELLED, production.getStagingStatus().getState());
+        assertFalse(zipFile.exists());
+        assertFalse(new File(stagingDir, "a.nc").exists());
+    }
+
+    private void assertStagedFiles() throws IOException {
+        for (int i = 0; i < NAMES.length; i++) {
+            assertArrayEquals(NAMES[i], contents[i], Files.readAllBytes(new File(stagingDir, NAMES[i]).toPath()));
+        }
+        try (ZipFile archive = new ZipFile(zipFile)) {
+            Enumeration<? extends ZipEntry> entries = archive.entries();
+            for (int i = 0; i < NAMES.length; i++) {
+                ZipEntry entry = entries.nextElement();
+                assertEquals(NAMES[i], entry.getName());
+                assertEquals(contents[i].length, entry.getSize());
+                try (InputStream in = archive.getInputStream(entry)) {
+                    assertArrayEquals(NAMES[i], contents[i], readAll(in));
+                }
+            }
+            assertFalse(entries.hasMoreElements());
+        }
+    }
+
+    private static byte[] createContent(int length) {
+        Random random = new Random(length);
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return content;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    private interface ReadHook {
+
+        /**
+         * Called before each read of at most 64 KB.
+         *
+         * @param numOpens the number of times the file has been opened, including this stream
+         */
+        void beforeRead(String name, long position, int numOpens) throws IOException;
+    }
+
+    /**
+     * The local file system with a hook before each read.
+     */
+    private static class FlakyFileSystem extends FilterFileSystem {
+
+        private final ReadHook hook;
+        private final Map<String, Integer> numOpens = new ConcurrentHashMap<>();
+
+        FlakyFileSystem(Configuration configuration, ReadHook hook) throws IOException {
+            super(FileSystem.getLocal(configuration));
+            setConf(configuration);
+            this.hook = hook;
+        }
+
+        int getNumOpens(String name) {
+            return numOpens.getOrDefault(name, 0);
+        }
+
+        @Override
+        public FSDataInputStream open(Path path, int bufferSize) throws IOException {
+            String name = path.getName();
+            int opens = numOpens.merge(name, 1, Integer::sum);
+            FSDataInputStream in = super.open(path, bufferSize);
+            return new FSDataInputStream(new FSInputStream() {
+
+                @Override
+                public int read() throws IOException {
+                    hook.beforeRead(name, in.getPos(), opens);
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    hook.beforeRead(name, in.getPos(), opens);
+                    return in.read(b, off, Math.min(len, 64 * 1024));
+                }
+
+                @Override
+                public void seek(long pos) throws IOException {
+                    in.seek(pos);
+                }
+
+                @Override
+                public long getPos() throws IOException {
+                    return in.getPos();
+                }
+
+                @Override
+                public boolean seekToNewSource(long targetPos) {
+                    return false;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    in.close();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.bc.calvalus.production.hadoop;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+public class DeflatedZipWriterTest {
+
+    private static final String[] NAMES = {"product.nc", "empty.txt", "\u00dcbersicht-\u65e5\u672c.csv"};
+
+    private File testDir;
+    private File zipFile;
+    private byte[][] contents;
+    private long modificationTime;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("calvalus-zip").toFile();
+        zipFile = new File(testDir, "test.zip");
+        contents = new byte[][]{createContent(1000 * 1000 + 17), new byte[0], createContent(300)};
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2017, Calendar.MAY, 4, 13, 22, 46);
+        modificationTime = calendar.getTimeInMillis();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        zipFile.delete();
+        testDir.delete();
+    }
+
+    @Test
+    public void testArchiveIsReadByZipFile() throws Exception {
+        writeArchive(64 * 1024);
+
+        try (ZipFile archive = new ZipFile(zipFile)) {
+            assertEquals(NAMES.length, archive.size());
+            Enumeration<? extends ZipEntry> entries = archive.entries();
+            for (int i = 0; i < NAMES.length; i++) {
+                ZipEntry entry = entries.nextElement();
+                assertEquals(NAMES[i], entry.getName());
+                assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+                assertEquals(contents[i].length, entry.getSize());
+                assertEquals(crcOf(contents[i]), entry.getCrc());
+                assertEquals(modificationTime, entry.getTime());
+                try (InputStream in = archive.getInputStream(entry)) {
+                    assertArrayEquals(NAMES[i], contents[i], readAll(in));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testArchiveIsReadByZipInputStream() throws Exception {
+        writeArchive(100 * 1000);
+
+        // reads the local headers and data descriptors, verifies the CRCs and sizes at the end of each entry
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(zipFile))) {
+            for (int i = 0; i < NAMES.length; i++) {
+                ZipEntry entry = in.getNextEntry();
+                assertNotNull(entry);
+                assertEquals(NAMES[i], entry.getName());
+                assertArrayEquals(NAMES[i], contents[i], readAll(in));
+                assertEquals(contents[i].length, entry.getSize());
+                assertEquals(crcOf(contents[i]), entry.getCrc());
+            }
+            assertNull(in.getNextEntry());
+        }
+    }
+
+    @Test
+    public void testBlocksEndWithSyncFlush() throws Exception {
+        byte[] block = DeflatedZipWriter.deflate(contents[0], 1000, false);
+        // an empty stored block 00 00 ff ff marks the sync flush
+        assertArrayEquals(new byte[]{0, 0, (byte) 0xff, (byte) 0xff}, Arrays.copyOfRange(block, block.length - 4, block.length));
+        assertTrue(DeflatedZipWriter.deflate(new byte[0], 0, true).length > 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTooManyEntries() throws Exception {
+        try (DeflatedZipWriter writer = new DeflatedZipWriter(zipFile)) {
+            byte[] empty = DeflatedZipWriter.deflate(new byte[0], 0, true);
+            for (int i = 0; i <= DeflatedZipWriter.MAX_ENTRIES; i++) {
+                writer.putNextEntry("entry-" + i, modificationTime);
+                writer.writeDeflated(empty);
+                writer.closeEntry(0L, 0L);
+            }
+        }
+    }
+
+    private void writeArchive(int blockSize) throws IOException {
+        try (DeflatedZipWriter writer = new DeflatedZipWriter(zipFile)) {
+            for (int i = 0; i < NAMES.length; i++) {
+                writer.putNextEntry(NAMES[i], modificationTime);
+                byte[] data = contents[i];
+                int position = 0;
+                do {
+                    int length = Math.min(blockSize, data.length - position);
+                    byte[] block = Arrays.copyOfRange(data, position, position + length);
+                    position += length;
+                    writer.writeDeflated(DeflatedZipWriter.deflate(block, length, position == data.length));
+                } while (position < data.length);
+                writer.closeEntry(crcOf(data), data.length);
+            }
+        }
+    }
+
+    private static byte[] createContent(int length) {
+        // compressible, but not trivially
+        Random random = new Random(length);
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return content;
+    }
+
+    private static long crcOf(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -8,6 +8,11 @@ import com.bc.calvalus.production.ProductionRequest;
 import com.bc.calvalus.production.TestProcessingService;
 import org.junit.Test;
 
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Date;
 
 import static org.junit.Assert.*;
@@ -173,6 +178,114 @@ public class SqlProductionStoreTest {
         assertNull(production1.getWorkflow().getStopTime());
     }
 
+    @Test
+    public void testThatOnlyChangedProductionsArePersisted() throws Exception {
+        SqlProductionStore store = openStore(true);
+        Production production1 = createProduction1();
+        Production production2 = createProduction2();
+        store.addProduction(production1);
+        store.addProduction(production2);
+        store.persist();
+        assertFalse(production1.isStatusChanged());
+        assertFalse(production2.isStatusChanged());
+
+        // modify the row of production 2 behind the back of the store
+        executeUpdate("UPDATE production SET processing_message='Modified' WHERE production_id='pid2'");
+
+        production1.getWorkflow().setStatus(new ProcessStatus(ProcessState.RUNNING, 0.2F, "Started"));
+        assertTrue(production1.isStatusChanged());
+        assertFalse(production2.isStatusChanged());
+        store.persist();
+        assertFalse(production1.isStatusChanged());
+        store.close();
+
+        assertEquals("Started", selectProcessingMessage("pid1"));
+        assertEquals("Modified", selectProcessingMessage("pid2"));
+    }
+
+    @Test
+    public void testThatUpdateOnlyLoadsModifiedProductions() throws Exception {
+        SqlProductionStore store1 = openStore(true);
+        Production production1 = createProduction1();
+        store1.addProduction(production1);
+        store1.addProduction(createProduction2());
+        store1.persist();
+
+        SqlProductionStore store2 = openStore(false);
+        assertEquals(2, store2.getProductions().length);
+
+        // a row with an old modification time is not loaded again
+        executeUpdate("UPDATE production SET processing_message='Modified', " +
+                      "last_modified=TIMESTAMP '2000-01-01 00:00:00' WHERE production_id='pid2'");
+        production1.getWorkflow().setStatus(new ProcessStatus(ProcessState.RUNNING, 0.2F, "Started"));
+        store1.persist();
+
+        store2.update();
+        assertEquals(new ProcessStatus(ProcessState.RUNNING, 0.2F, "Started"),
+                     store2.getProduction("pid1").getProcessingStatus());
+        assertEquals(new ProcessStatus(ProcessState.RUNNING, 0.4F, "In progress"),
+                     store2.getProduction("pid2").getProcessingStatus());
+        assertFalse(store2.getProduction("pid1").isStatusChanged());
+    }
+
+    @Test
+    public void testThatUpgradeSetsMissingModificationTimes() throws Exception {
+        SqlProductionStore store = openStore(true);
+        store.addProduction(createProduction1());
+        store.persist();
+        store.close();
+        executeUpdate("UPDATE production SET last_modified=NULL");
+
+        openStore(false).close();
+
+        try (Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:calvalus-test", "SA", "");
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM production WHERE last_modified IS NULL")) {
+            assertTrue(resultSet.next());
+            assertEquals(0, resultSet.getInt(1));
+        }
+    }
+
+    @Test
+    public void testThatFailedPersistIsRolledBack() throws Exception {
+        SqlProductionStore store1 = openStore(true);
+        store1.addProduction(createProduction1());
+        store1.addProduction(createProduction3());
+        store1.persist();
+
+        // the removal of pid3 succeeds, the insertion of pid1 a second time fails
+        SqlProductionStore store2 = openStore(false);
+        store2.removeProduction("pid3");
+        store2.addProduction(createProduction1());
+        try {
+            store2.persist();
+            fail("ProductionException expected");
+        } catch (ProductionException expected) {
+            // ok
+        }
+        store2.close();
+
+        assertEquals("Processed", selectProcessingMessage("pid3"));
+    }
+
+    private static void executeUpdate(String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:calvalus-test", "SA", "");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate(sql);
+            connection.commit();
+        }
+    }
+
+    private static String selectProcessingMessage(String productionId) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:calvalus-test", "SA", "");
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT processing_message FROM production " +
+                                                          "WHERE production_id='" + productionId + "'")) {
+            assertTrue(resultSet.next());
+            return resultSet.getString(1);
+        }
+    }
+
     private SqlProductionStore openStore(boolean init) throws ProductionException {
         return SqlProductionStore.create(new TestProcessingService(),
                                          "org.hsqldb.jdbcDriver",